@@ -2,8 +2,6 @@ package com.logicaldoc.cmis;
 
 import java.io.IOException;
 import java.math.BigInteger;
-import java.sql.Date;
-import java.sql.Timestamp;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.HashMap;
@@ -43,11 +41,9 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import com.logicaldoc.core.PersistenceException;
-import com.logicaldoc.core.document.DocumentEvent;
-import com.logicaldoc.core.document.DocumentHistoryDAO;
 import com.logicaldoc.core.folder.Folder;
 import com.logicaldoc.core.folder.FolderDAO;
-import com.logicaldoc.core.folder.FolderEvent;
+import com.logicaldoc.core.history.ChangeDAO;
 import com.logicaldoc.core.security.Session;
 import com.logicaldoc.core.security.SessionManager;
 import com.logicaldoc.util.Context;
@@ -72,7 +68,7 @@ public class LDCmisService extends AbstractCmisService {
 
 	private String sid = null;
 
-	private DocumentHistoryDAO historyDao = null;
+	private ChangeDAO changeDao = null;
 
 	/* To avoid refetching it several times per session. */
 	protected String cachedChangeLogToken;
@@ -88,7 +84,7 @@ public class LDCmisService extends AbstractCmisService {
 		this.sid = sid;
 
 		try {
-			historyDao = Context.get(DocumentHistoryDAO.class);
+			changeDao = Context.get(ChangeDAO.class);
 
 			FolderDAO fdao = Context.get(FolderDAO.class);
 			Session session = SessionManager.get().get(sid);
@@ -153,12 +149,12 @@ public class LDCmisService extends AbstractCmisService {
 	}
 
 	/**
-	 * Return the most recent events regarding a document
+	 * Return the identifier of the most recent change in the journal
 	 * 
-	 * @param repositoryId
-	 * @return The getTime() of the latest date
+	 * @param repositoryId identifier of the repository
+	 * @return The identifier of the latest change
 	 * 
-	 * @throws PersistenceException error in the datbae
+	 * @throws PersistenceException error in the database
 	 */
 	protected String getLatestChangeLogToken(String repositoryId) throws PersistenceException {
 		log.debug("** getLatestChangeLogToken: {}", repositoryId);
@@ -169,61 +165,7 @@ public class LDCmisService extends AbstractCmisService {
 		}
 
 		LDRepository repo = repositories.get(repositoryId);
-
-		String tenantIdStr = Long.toString(repo.getRoot().getTenantId());
-
-		StringBuilder query = new StringBuilder(
-				"SELECT MAX(ld_date) FROM ld_history WHERE ld_deleted=0 AND ld_tenantid=");
-		query.append(tenantIdStr);
-		query.append(" AND ld_event IN ('");
-		query.append(DocumentEvent.STORED);
-		query.append("','");
-		query.append(DocumentEvent.CHECKEDIN);
-		query.append("','");
-		query.append(DocumentEvent.MOVED);
-		query.append("','");
-		query.append(DocumentEvent.RENAMED);
-		query.append("','");
-		query.append(DocumentEvent.DELETED);
-		query.append("')");
-
-		Timestamp latestDate = historyDao.queryForObject(query.toString(), Timestamp.class);
-
-		StringBuilder query2 = new StringBuilder(
-				"SELECT MAX(ld_date) FROM ld_folder_history WHERE ld_deleted=0 AND ld_tenantid=");
-		query2.append(tenantIdStr);
-		query2.append(" AND ld_event IN ('");
-		query2.append(FolderEvent.CREATED);
-		query2.append("','");
-		query2.append(FolderEvent.RENAMED);
-		query2.append("','");
-		query2.append(FolderEvent.MOVED);
-		query2.append("','");
-		query2.append(FolderEvent.DELETED);
-		query2.append("')");
-
-		Timestamp latestFolderDate = historyDao.queryForObject(query2.toString(), Timestamp.class);
-
-		if (latestDate == null && latestFolderDate == null) {
-			return "0";
-		} else {
-			log.debug("latestDate.getTime(): {}", latestDate != null ? latestDate.getTime() : "");
-			log.debug("latestFolderDate.getTime(): {}", latestFolderDate != null ? latestFolderDate.getTime() : "");
-			Timestamp myDate = getLatestTimestamp(latestDate, latestFolderDate);
-
-			log.debug("myDate.getTime(): {}", myDate.getTime());
-			return Long.toString(myDate.getTime());
-		}
-	}
-
-	private Timestamp getLatestTimestamp(Timestamp date1, Timestamp date2) {
-		if (date1 != null && date2 == null)
-			return date1;
-		if (date1 == null && date2 != null)
-			return date2;
-		if (date1 != null && date1.after(date2))
-			return date1;
-		return date2;
+		return Long.toString(changeDao.getLatestId(repo.getRoot().getTenantId(), null));
 	}
 
 	@Override
@@ -418,7 +360,8 @@ public class LDCmisService extends AbstractCmisService {
 			Boolean includeAllowableActions, IncludeRelationships includeRelationships, String renditionFilter,
 			BigInteger maxItems, BigInteger skipCount, ExtensionsData extension) {
 		validateSession();
-		return getRepository().query(statement, maxItems != null ? maxItems.intValue() : 40);
+		return getRepository().query(statement, maxItems != null ? maxItems.intValue() : 40,
+				skipCount == null || skipCount.intValue() < 0 ? 0 : skipCount.intValue());
 	}
 
 	@Override
@@ -520,8 +463,7 @@ public class LDCmisService extends AbstractCmisService {
 	public ObjectList getContentChanges(String repositoryId, Holder<String> changeLogToken, Boolean includeProperties,
 			String filter, Boolean includePolicyIds, Boolean includeAcl, BigInteger maxItems,
 			ExtensionsData extension) {
-		log.debug("getContentChanges {} | {} | {}", changeLogToken.getValue(), filter,
-				new Date(Long.parseLong(changeLogToken.getValue())));
+		log.debug("getContentChanges {} | {}", changeLogToken != null ? changeLogToken.getValue() : null, filter);
 
 		validateSession();
 
@@ -116,7 +116,6 @@ import org.slf4j.LoggerFactory;
 
 import com.logicaldoc.core.PersistenceException;
 import com.logicaldoc.core.PersistentObject;
-import com.logicaldoc.core.PersistentObjectDAO;
 import com.logicaldoc.core.document.AbstractDocument;
 import com.logicaldoc.core.document.Document;
 import com.logicaldoc.core.document.DocumentDAO;
@@ -130,7 +129,8 @@ import com.logicaldoc.core.folder.Folder;
 import com.logicaldoc.core.folder.FolderDAO;
 import com.logicaldoc.core.folder.FolderEvent;
 import com.logicaldoc.core.folder.FolderHistory;
-import com.logicaldoc.core.folder.FolderHistoryDAO;
+import com.logicaldoc.core.history.Change;
+import com.logicaldoc.core.history.ChangeDAO;
 import com.logicaldoc.core.i18n.Language;
 import com.logicaldoc.core.i18n.LanguageManager;
 import com.logicaldoc.core.metadata.Attribute;
@@ -143,7 +143,6 @@ import com.logicaldoc.core.searchengine.SearchException;
 import com.logicaldoc.core.security.Permission;
 import com.logicaldoc.core.security.Session;
 import com.logicaldoc.core.security.SessionManager;
-import com.logicaldoc.core.security.authorization.PermissionException;
 import com.logicaldoc.core.security.user.Group;
 import com.logicaldoc.core.security.user.User;
 import com.logicaldoc.core.security.user.UserDAO;
@@ -185,6 +184,12 @@ public class LDRepository {
 
 	private static final int BUFFER_SIZE = 4 * 1024;
 
+	/**
+	 * Change log tokens greater than this are timestamps issued by older
+	 * versions
+	 */
+	private static final long LEGACY_TOKEN_MIN = 100000000000L;
+
 	private static final Logger log = LoggerFactory.getLogger(LDRepository.class);
 
 	/** Repository id */
@@ -209,7 +214,7 @@ public class LDRepository {
 
 	private DocumentHistoryDAO historyDao;
 
-	private FolderHistoryDAO folderHistoryDao;
+	private ChangeDAO changeDao;
 
 	private TemplateDAO templateDao;
 
@@ -237,7 +242,7 @@ public class LDRepository {
 		templateDao = Context.get(TemplateDAO.class);
 		versionDao = Context.get(VersionDAO.class);
 		historyDao = Context.get(DocumentHistoryDAO.class);
-		folderHistoryDao = Context.get(FolderHistoryDAO.class);
+		changeDao = Context.get(ChangeDAO.class);
 
 		ContextProperties config = Context.get().getProperties();
 
@@ -1299,12 +1304,10 @@ public class LDRepository {
 		User user = userDao.findByUsername(context.getUsername());
 		long userId = user.getId();
 
-		// Filter the visible folders only
-		List<Folder> visibleChildFolders = folderDao.findChildren(folder.getId(), userId).stream()
-				.filter(f -> f.getHidden() == 0).toList();
-
-		// Skip the first skipCount elements
-		List<Folder> childFolders = visibleChildFolders.stream().skip(skipCount).toList();
+		// Read just the page of readable folders, plus one to know if there
+		// are more items
+		Integer fetch = maxItems < Integer.MAX_VALUE ? maxItems + 1 : null;
+		List<Folder> childFolders = folderDao.findChildren(folder.getId(), userId, skipCount, fetch);
 
 		// iterate through child folders
 		for (Folder child : childFolders) {
@@ -1318,11 +1321,24 @@ public class LDRepository {
 					filterCollection, context);
 		}
 
-		// Adjust the skipCount to consider those already skipped folders
-		skipCount = visibleChildFolders.size() < skipCount ? visibleChildFolders.size() : 0;
+		if (result.getHasMoreItems() || result.getObjects().size() >= maxItems) {
+			// The page is full of folders, there are more items if the
+			// folder also contains documents
+			if (!result.getHasMoreItems())
+				result.setHasMoreItems(!documentDao.findByFolder(folder.getId(), 0, 1).isEmpty());
+			result.setNumItems(BigInteger.valueOf(result.getObjects().size()));
+			return result;
+		}
+
+		// The documents come after the folders, so skip the folders already
+		// skipped
+		int documentsSkip = 0;
+		if (childFolders.isEmpty() && skipCount > 0)
+			documentsSkip = (int) Math.max(0L, skipCount - folderDao.countChildren(folder.getId(), userId));
 
-		List<Document> childDocuments = documentDao.findByFolder(folder.getId(), null).stream().skip(skipCount)
-				.toList();
+		int remaining = maxItems - result.getObjects().size();
+		List<Document> childDocuments = documentDao.findByFolder(folder.getId(), documentsSkip,
+				remaining < Integer.MAX_VALUE ? remaining + 1 : null);
 
 		// iterate through child documents
 		for (Document child : childDocuments) {
@@ -1454,6 +1470,19 @@ public class LDRepository {
 	}
 
 	public ObjectList query(String statement, int maxItems) {
+		return query(statement, maxItems, 0);
+	}
+
+	/**
+	 * CMIS query
+	 * 
+	 * @param statement the query statement
+	 * @param maxItems maximum number of items
+	 * @param skipCount number of results to skip
+	 * 
+	 * @return the page of results
+	 */
+	public ObjectList query(String statement, int maxItems, int skipCount) {
 
 		// As expression we will use the WHERE clause as is
 		final String where = "where";
@@ -1486,10 +1515,11 @@ public class LDRepository {
 
 		// Performs Full-text search
 		if (!fileNameSearch) {
-			hasMoreItems = doFulltextSearch(statement, whereClause, parentFolderID, list, filter, maxItems);
+			hasMoreItems = doFulltextSearch(statement, whereClause, parentFolderID, list, filter, maxItems,
+					skipCount);
 		} else {
 			try {
-				doFilenameSearch(statement, list, filter, maxItems);
+				hasMoreItems = doFilenameSearch(statement, list, filter, maxItems, skipCount);
 			} catch (PersistenceException e) {
 				log.error(e.getMessage(), e);
 			}
@@ -1503,8 +1533,8 @@ public class LDRepository {
 		return objList;
 	}
 
-	private void doFilenameSearch(String statement, List<ObjectData> list, Set<String> filter, int maxItems)
-			throws PersistenceException {
+	private boolean doFilenameSearch(String statement, List<ObjectData> list, Set<String> filter, int maxItems,
+			int skipCount) throws PersistenceException {
 		// Performs file name search
 		User user = getSessionUser();
 
@@ -1512,31 +1542,32 @@ public class LDRepository {
 		String filename = expr;
 		log.debug("filename: {}", filename);
 
+		// The permissions are checked by the query, read one more document
+		// to know if there are more items
 		DocumentDAO docDao = Context.get(DocumentDAO.class);
-		List<Document> docs = docDao.findByFileNameAndParentFolderId(null, filename, null, getSessionUser().getId(),
-				maxItems);
+		List<Document> docs = docDao.findByFileName(filename, user.getId(), skipCount,
+				maxItems < Integer.MAX_VALUE ? maxItems + 1 : null);
 
-		for (int i = 0; i < docs.size(); i++) {
-			// Check permissions on the documents found
-			try {
-				checkReadEnable(user, docs.get(i).getFolder().getId());
-				checkPublished(user, docs.get(i));
-			} catch (Exception e) {
-				continue;
-			}
+		for (int i = 0; i < docs.size() && i < maxItems; i++) {
 			docDao.initialize(docs.get(i));
 
 			// filtro i risultati (lasciando solo le colonne richieste)
 			ObjectData result = compileObjectType(null, docs.get(i), filter, false, false, null);
 			list.add(result);
 		}
+
+		return docs.size() > maxItems;
 	}
 
 	private boolean doFulltextSearch(String statement, String whereExpression, Long parentFolderID,
-			List<ObjectData> results, Set<String> filter, int maxItems) {
+			List<ObjectData> results, Set<String> filter, int maxItems, int skipCount) {
 		boolean hasMoreItems;
 		FulltextSearchOptions opt = buildFulltextSearchOptions(statement, parentFolderID, maxItems);
 
+		// The search engine cannot skip hits, so ask for the skipped ones too
+		if (skipCount > 0)
+			opt.setMaxHits(skipCount + maxItems);
+
 		// Now detect if the search must be applied to specific fields
 		final String ldocPrefix = "ldoc:";
 		if (whereExpression.contains("cmis:") || whereExpression.contains(ldocPrefix)) {
@@ -1566,6 +1597,10 @@ public class LDRepository {
 		}
 		log.debug("hits.size(): {}", hits.size());
 
+		// Skip the hits before the requested page
+		if (skipCount > 0)
+			hits = hits.stream().skip(skipCount).toList();
+
 		// Iterate through the list of results
 		for (Hit hit : hits) {
 			try {
@@ -1576,7 +1611,7 @@ public class LDRepository {
 				log.error("CMIS Exception populating data structure", t);
 			}
 		}
-		hasMoreItems = search.getEstimatedHitsNumber() > maxItems;
+		hasMoreItems = search.getEstimatedHitsNumber() > skipCount + maxItems;
 		return hasMoreItems;
 	}
 
@@ -1636,20 +1671,6 @@ public class LDRepository {
 
 	// --- helper methods ---
 
-	private void checkPublished(User user, Document doc) throws PermissionException {
-		if (!user.isMemberOf(Group.GROUP_ADMIN) && !user.isMemberOf("publisher") && !doc.isPublishing())
-			throw new PermissionException("Document not published");
-	}
-
-	private void checkReadEnable(User user, long folderId) throws PermissionException, PersistenceException {
-		FolderDAO dao = Context.get(FolderDAO.class);
-		if (!dao.isReadAllowed(folderId, user.getId())) {
-			String message = "User " + user.getUsername() + " doesn't have read permission on folder " + folderId;
-			log.error(message);
-			throw new PermissionException(message);
-		}
-	}
-
 	/**
 	 * Removes a folder and its content
 	 * 
@@ -2885,6 +2906,17 @@ public class LDRepository {
 		this.templateDao = templateDao;
 	}
 
+	/**
+	 * CMIS getContentChanges, reads the change journal starting after the
+	 * given token
+	 * 
+	 * @param changeLogToken holder of the token, that is the commit sequence of
+	 *        the last change already read, it gets updated with the last change
+	 *        returned
+	 * @param max maximum number of changes
+	 * 
+	 * @return the list of changes
+	 */
 	public ObjectList getContentChanges(Holder<String> changeLogToken, int max) throws CmisPermissionDeniedException {
 
 		log.debug("getContentChanges {}", changeLogToken);
@@ -2892,180 +2924,78 @@ public class LDRepository {
 		if (changeLogToken == null)
 			throw new CmisInvalidArgumentException("Missing change log token holder");
 
-		long minDate;
-
+		long tenantId = getRoot().getTenantId();
+		long afterId;
 		try {
-			minDate = Long.parseLong(changeLogToken.getValue());
+			afterId = changeLogToken.getValue() != null ? Long.parseLong(changeLogToken.getValue()) : 0L;
+
+			// Tokens issued by older versions contain a timestamp
+			if (afterId > LEGACY_TOKEN_MIN)
+				afterId = changeDao.getLatestId(tenantId, new Date(afterId - 1));
 		} catch (NumberFormatException e) {
 			throw new CmisInvalidArgumentException("Invalid change log token");
+		} catch (PersistenceException e) {
+			throw new CmisRuntimeException(e.getMessage(), e);
 		}
 
-		ObjectListImpl ol = new ObjectListImpl();
-
-		List<ObjectData> odsDocs = getDocumentLastChanges(minDate, max);
-		List<ObjectData> odsFolders = getFolderLastChanges(minDate, max);
-
-		// put together the 2 lists
-		List<ObjectData> complex = new ArrayList<>();
-		complex.addAll(odsDocs);
-		complex.addAll(odsFolders);
-
-		// sort the content of list complex by date
-		Collections.sort(complex, (o1, o2) -> o1.getChangeEventInfo().getChangeTime().getTime()
-				.compareTo(o2.getChangeEventInfo().getChangeTime().getTime()));
+		List<Change> changes;
+		try {
+			changes = changeDao.findChanges(tenantId, afterId, max + 1);
+		} catch (PersistenceException e) {
+			throw new CmisRuntimeException(e.getMessage(), e);
+		}
 
-		boolean hasMoreItems = complex.size() > max;
+		boolean hasMoreItems = changes.size() > max;
 		if (hasMoreItems)
-			complex = complex.subList(0, max);
+			changes = changes.subList(0, max);
 
-		ol.setObjects(complex);
+		List<ObjectData> ods = new ArrayList<>(changes.size());
+		for (Change change : changes)
+			ods.add(toObjectData(change));
 
-		Date date = null;
-		if (!complex.isEmpty()) {
-			ol.setNumItems(BigInteger.valueOf(-1));
-			ol.setHasMoreItems(Boolean.valueOf(hasMoreItems));
-			date = complex.get(complex.size() - 1).getChangeEventInfo().getChangeTime().getTime();
-		} else {
-			ol.setHasMoreItems(Boolean.valueOf(false));
-			ol.setNumItems(BigInteger.ZERO);
-		}
+		ObjectListImpl ol = new ObjectListImpl();
+		ol.setObjects(ods);
+		ol.setHasMoreItems(Boolean.valueOf(hasMoreItems));
+		ol.setNumItems(ods.isEmpty() ? BigInteger.ZERO : BigInteger.valueOf(-1));
 
-		String latestChangeLogToken = date == null ? null : String.valueOf(date.getTime());
+		// The token stays the same if there are no new changes
+		String latestChangeLogToken = changes.isEmpty() ? String.valueOf(afterId)
+				: String.valueOf(changes.get(changes.size() - 1).getCommitSeq());
 		log.debug("latestChangeLogToken {}", latestChangeLogToken);
 		changeLogToken.setValue(latestChangeLogToken);
 
 		return ol;
 	}
 
-	public List<ObjectData> getDocumentLastChanges(long minDate, int max) {
-		StringBuilder query = new StringBuilder(" " + PersistentObjectDAO.ENTITY + ".tenantId = :tenantId and "
-				+ PersistentObjectDAO.ENTITY + ".date >= :minDate ");
-		query.append(" and " + PersistentObjectDAO.ENTITY + ".event in ('");
-		query.append(DocumentEvent.STORED);
-		query.append("','");
-		query.append(DocumentEvent.CHECKEDIN);
-		query.append("','");
-		query.append(DocumentEvent.MOVED);
-		query.append("','");
-		query.append(DocumentEvent.RENAMED);
-		query.append("','");
-		query.append(DocumentEvent.DELETED);
-		query.append("')");
+	private ObjectData toObjectData(Change change) {
+		ObjectDataImpl od = new ObjectDataImpl();
+		ChangeEventInfoDataImpl cei = new ChangeEventInfoDataImpl();
 
-		List<DocumentHistory> entries = new ArrayList<>();
-
-		try {
-			Map<String, Object> params = new HashMap<>();
-			params.put("tenantId", getRoot().getTenantId());
-			params.put("minDate", new Date(minDate));
-
-			entries = historyDao.findByWhere(query.toString(), params,
-					"order by " + PersistentObjectDAO.ENTITY + ".date", max);
-		} catch (PersistenceException e) {
-			log.error(e.getMessage(), e);
-		}
-
-		List<ObjectData> ods = new ArrayList<>(entries.size());
-		Date date = null;
-		for (DocumentHistory logEntry : entries) {
-			ObjectDataImpl od = new ObjectDataImpl();
-			ChangeEventInfoDataImpl cei = new ChangeEventInfoDataImpl();
-
-			// change type
-			String eventId = logEntry.getEvent();
-			ChangeType changeType;
-			if (DocumentEvent.STORED.toString().equals(eventId)) {
-				changeType = ChangeType.CREATED;
-			} else if (DocumentEvent.CHECKEDIN.toString().equals(eventId)
-					|| DocumentEvent.RENAMED.toString().equals(eventId)
-					|| DocumentEvent.MOVED.toString().equals(eventId)) {
-				changeType = ChangeType.UPDATED;
-			} else if (DocumentEvent.DELETED.toString().equals(eventId)) {
-				changeType = ChangeType.DELETED;
-			} else {
-				continue;
-			}
-			cei.setChangeType(changeType);
-
-			// change time
-			GregorianCalendar changeTime = (GregorianCalendar) Calendar.getInstance();
-			date = logEntry.getDate();
-			changeTime.setTime(date);
-			cei.setChangeTime(changeTime);
-			od.setChangeEventInfo(cei);
-
-			// properties: id, doc type
-			PropertiesImpl properties = new PropertiesImpl();
-			properties.addProperty(new PropertyIdImpl(PropertyIds.OBJECT_ID, ID_PREFIX_DOC + logEntry.getDocId()));
-			properties.addProperty(new PropertyIdImpl(PropertyIds.OBJECT_TYPE_ID, BaseTypeId.CMIS_DOCUMENT.value()));
-			od.setProperties(properties);
-			ods.add(od);
-		}
-		return ods;
-	}
-
-	public List<ObjectData> getFolderLastChanges(long minDate, int max) {
-
-		StringBuilder query = new StringBuilder(" " + PersistentObjectDAO.ENTITY + ".tenantId = :tenantId and "
-				+ PersistentObjectDAO.ENTITY + ".date >= :minDate ");
-		query.append(" and " + PersistentObjectDAO.ENTITY + ".event in ('");
-		query.append(FolderEvent.CREATED);
-		query.append("','");
-		query.append(FolderEvent.RENAMED);
-		query.append("','");
-		query.append(FolderEvent.MOVED);
-		query.append("','");
-		query.append(FolderEvent.DELETED);
-		query.append("')");
-
-		List<FolderHistory> entries = new ArrayList<>();
-
-		try {
-			Map<String, Object> params = new HashMap<>();
-			params.put("tenantId", getRoot().getTenantId());
-			params.put("minDate", new Date(minDate));
-
-			entries = folderHistoryDao.findByWhere(query.toString(), params,
-					"order by " + PersistentObjectDAO.ENTITY + ".date", max);
-		} catch (PersistenceException e) {
-			log.error(e.getMessage(), e);
-		}
-
-		List<ObjectData> ods = new ArrayList<>(entries.size());
-		Date date = null;
-		for (FolderHistory logEntry : entries) {
-			ObjectDataImpl od = new ObjectDataImpl();
-			ChangeEventInfoDataImpl cei = new ChangeEventInfoDataImpl();
-
-			// change type
-			String eventId = logEntry.getEvent();
-			ChangeType changeType;
-			if (FolderEvent.CREATED.toString().equals(eventId)) {
-				changeType = ChangeType.CREATED;
-			} else if (FolderEvent.RENAMED.toString().equals(eventId) || FolderEvent.MOVED.toString().equals(eventId)) {
-				changeType = ChangeType.UPDATED;
-			} else if (FolderEvent.DELETED.toString().equals(eventId)) {
-				changeType = ChangeType.DELETED;
-			} else {
-				continue;
-			}
-			cei.setChangeType(changeType);
-
-			// change time
-			GregorianCalendar changeTime = (GregorianCalendar) Calendar.getInstance();
-			date = logEntry.getDate();
-			changeTime.setTime(date);
-			cei.setChangeTime(changeTime);
-			od.setChangeEventInfo(cei);
-
-			// properties: id, doc type
-			PropertiesImpl properties = new PropertiesImpl();
-			properties.addProperty(new PropertyIdImpl(PropertyIds.OBJECT_ID, ID_PREFIX_FLD + logEntry.getFolderId()));
+		// change type
+		if (change.getChangeType() == Change.CHANGE_CREATED)
+			cei.setChangeType(ChangeType.CREATED);
+		else if (change.getChangeType() == Change.CHANGE_DELETED)
+			cei.setChangeType(ChangeType.DELETED);
+		else
+			cei.setChangeType(ChangeType.UPDATED);
+
+		// change time
+		GregorianCalendar changeTime = (GregorianCalendar) Calendar.getInstance();
+		changeTime.setTime(change.getDate());
+		cei.setChangeTime(changeTime);
+		od.setChangeEventInfo(cei);
+
+		// properties: id, object type
+		PropertiesImpl properties = new PropertiesImpl();
+		if (change.getObjectType() == Change.TYPE_FOLDER) {
+			properties.addProperty(new PropertyIdImpl(PropertyIds.OBJECT_ID, ID_PREFIX_FLD + change.getObjectId()));
 			properties.addProperty(new PropertyIdImpl(PropertyIds.OBJECT_TYPE_ID, BaseTypeId.CMIS_FOLDER.value()));
-			od.setProperties(properties);
-			ods.add(od);
+		} else {
+			properties.addProperty(new PropertyIdImpl(PropertyIds.OBJECT_ID, ID_PREFIX_DOC + change.getObjectId()));
+			properties.addProperty(new PropertyIdImpl(PropertyIds.OBJECT_TYPE_ID, BaseTypeId.CMIS_DOCUMENT.value()));
 		}
-		return ods;
+		od.setProperties(properties);
+		return od;
 	}
 
 	public Folder getRoot() {
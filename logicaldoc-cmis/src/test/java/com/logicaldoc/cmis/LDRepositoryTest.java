@@ -1,6 +1,7 @@
 package com.logicaldoc.cmis;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertNotNull;
 import static org.junit.Assert.assertNull;
 import static org.junit.Assert.assertTrue;
@@ -439,10 +440,11 @@ public class LDRepositoryTest extends AbstractCmisTestCase {
 		folderHistory.setFolder(folder);
 		folderHistoryDao.store(folderHistory);
 
-		Holder<String> holder = new Holder<String>("123");
+		Holder<String> holder = new Holder<String>("0");
 
 		ObjectList ol = testSubject.getContentChanges(holder, 10);
 		List<ObjectData> results = ol.getObjects();
+		assertEquals(4, results.size());
 		for (Iterator<ObjectData> iterator = results.iterator(); iterator.hasNext();) {
 			ObjectData objectData = (ObjectData) iterator.next();
 
@@ -452,6 +454,19 @@ public class LDRepositoryTest extends AbstractCmisTestCase {
 			assertTrue(cmisDocID.equals("doc.1") || cmisDocID.equals("fld.5"));
 		}
 
+		// Continue from the returned token
+		holder = new Holder<String>("0");
+		ol = testSubject.getContentChanges(holder, 3);
+		assertEquals(3, ol.getObjects().size());
+		assertTrue(ol.hasMoreItems());
+		ol = testSubject.getContentChanges(holder, 3);
+		assertEquals(1, ol.getObjects().size());
+		assertFalse(ol.hasMoreItems());
+
+		String token = holder.getValue();
+		ol = testSubject.getContentChanges(holder, 3);
+		assertTrue(ol.getObjects().isEmpty());
+		assertEquals(token, holder.getValue());
 	}
 
 	@Test
@@ -485,6 +500,24 @@ public class LDRepositoryTest extends AbstractCmisTestCase {
 
 	}
 
+	@Test
+	public void testGetChildrenFullPage() throws PersistenceException {
+		// The user author can read just the folders 4 and 6 inside the root
+		MockCallContext context = new MockCallContext(null, session.getSid());
+		context.setUsername("author");
+
+		ObjectInFolderList oifl = testSubject.getChildren(context, "fld.5", null, false, false, 2, 0, null);
+		assertEquals(2, oifl.getObjects().size());
+		assertTrue(oifl.getObjects().stream().allMatch(oi -> oi.getObject().getId().startsWith("fld.")));
+		assertTrue(oifl.getHasMoreItems());
+
+		// The documents are reachable in the next page
+		oifl = testSubject.getChildren(context, "fld.5", null, false, false, 2, 2, null);
+		assertEquals(2, oifl.getObjects().size());
+		assertTrue(oifl.getObjects().stream().allMatch(oi -> oi.getObject().getId().startsWith("doc.")));
+		assertTrue(oifl.getHasMoreItems());
+	}
+
 	@Test
 	public void testGetAllowableActions() {
 		AllowableActions aA = testSubject.getAllowableActions(new MockCallContext(null, session.getSid()), "doc.1");
@@ -2,6 +2,7 @@ package com.logicaldoc.core;
 
 import java.io.File;
 import java.io.IOException;
+import java.util.List;
 import java.util.UUID;
 
 import org.apache.commons.io.FilenameUtils;
@@ -12,6 +13,7 @@ import org.slf4j.LoggerFactory;
 import com.logicaldoc.core.dashlet.DashletContent;
 import com.logicaldoc.core.util.IconSelector;
 import com.logicaldoc.util.config.ContextProperties;
+import com.logicaldoc.util.dbinit.DBInit;
 import com.logicaldoc.util.plugin.LogicalDOCPlugin;
 import com.logicaldoc.util.plugin.PluginException;
 
@@ -25,6 +27,12 @@ public class CorePlugin extends LogicalDOCPlugin {
 
 	protected static Logger log = LoggerFactory.getLogger(CorePlugin.class);
 
+	/**
+	 * Name of the plugin's data entry recording the version of the database
+	 * schema
+	 */
+	private static final String SCHEMA_VERSION = "schema.version";
+
 	@Override
 	protected void onStart() throws PluginException {
 		try {
@@ -45,6 +53,51 @@ public class CorePlugin extends LogicalDOCPlugin {
 		if (icons != null)
 			for (File icon : icons)
 				IconSelector.getAvailableIcons().add(FilenameUtils.getBaseName(icon.getName().toLowerCase()));
+
+		updateSchema();
+	}
+
+	/**
+	 * Brings an existing database to the version of this plugin executing the
+	 * script <code>sql/update/logicaldoc-core-&lt;version&gt;.sql</code>(or its
+	 * variant for the DBMS in use). The version is recorded in the plugin's data
+	 * so the script runs just once, a new installation is already up to date.
+	 */
+	private void updateSchema() {
+		String version = getDescriptor().getVersion().toString();
+		if (version.equals(getProperty(SCHEMA_VERSION)))
+			return;
+
+		String script = "sql/update/" + getDescriptor().getId() + "-" + version + ".sql";
+		ClassLoader cl = getClass().getClassLoader();
+		if (cl.getResource(script) == null) {
+			getData().setProperty(SCHEMA_VERSION, version);
+			return;
+		}
+
+		try {
+			ContextProperties config = new ContextProperties();
+			String dbms = config.getProperty("jdbc.dbms", "").toLowerCase();
+			if (cl.getResource(script + "." + dbms) != null)
+				script = script + "." + dbms;
+
+			DBInit dbInit = new DBInit(List.of(script));
+			dbInit.setDbms(dbms);
+			dbInit.setDriver(config.getProperty("jdbc.driver"));
+			dbInit.setUrl(config.getProperty("jdbc.url"));
+			dbInit.setUsername(config.getProperty("jdbc.username"));
+			dbInit.setPassword(config.getProperty("jdbc.password"));
+			if (!dbInit.testConnection()) {
+				log.warn("Cannot connect to the database, {} will be applied at the next startup", script);
+				return;
+			}
+
+			log.info("Updating the database schema to version {}", version);
+			dbInit.execute();
+			getData().setProperty(SCHEMA_VERSION, version);
+		} catch (IOException e) {
+			log.error(e.getMessage(), e);
+		}
 	}
 
 	@Override
@@ -72,6 +125,10 @@ public class CorePlugin extends LogicalDOCPlugin {
 			log.error(e.getMessage(), e);
 		}
 
+		// The database gets created with the current schema
+		if (getDescriptor() != null)
+			getData().setProperty(SCHEMA_VERSION, getDescriptor().getVersion().toString());
+
 		setRestartRequired();
 	}
 }
\ No newline at end of file
@@ -26,6 +26,9 @@ import org.hibernate.query.Query;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.jdbc.core.RowMapper;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.TransactionDefinition;
+import org.springframework.transaction.support.TransactionTemplate;
 
 import com.logicaldoc.core.metadata.Attribute;
 import com.logicaldoc.core.metadata.ExtensibleObject;
@@ -149,6 +152,39 @@ public abstract class HibernatePersistentObjectDAO<T extends PersistentObject> i
 		}
 	}
 
+	@Override
+	public List<T> findByWhere(String where, Map<String, Object> parameters, String order, int first, Integer max)
+			throws PersistenceException {
+		try {
+			String sorting = StringUtils.isNotEmpty(order) && !order.toLowerCase().contains(ORDER_BY)
+					? ORDER_BY + " " + order
+					: order;
+			String query = "from " + entityClass.getCanonicalName() + DEFAULT_WHERE_PREAMBLE
+					+ (StringUtils.isNotEmpty(where) ? AND + where + ") " : " ")
+					+ (StringUtils.isNotEmpty(sorting) ? sorting : " ");
+			logQuery(query);
+			Query<T> queryObject = prepareQuery(query, parameters, entityClass, max);
+			if (first > 0)
+				queryObject.setFirstResult(first);
+			return queryObject.list();
+		} catch (Exception e) {
+			throw new PersistenceException(e);
+		}
+	}
+
+	@Override
+	public long countByWhere(String where, Map<String, Object> parameters) throws PersistenceException {
+		try {
+			String query = "select count(" + ENTITY + ".id) from " + entityClass.getCanonicalName()
+					+ DEFAULT_WHERE_PREAMBLE + (StringUtils.isNotEmpty(where) ? AND + where + ") " : " ");
+			logQuery(query);
+			Long count = prepareQuery(query, parameters, Long.class, null).uniqueResult();
+			return count != null ? count : 0L;
+		} catch (Exception e) {
+			throw new PersistenceException(e);
+		}
+	}
+
 	@Override
 	public List<T> findByObjectQuery(String query, Map<String, Object> parameters, Integer max)
 			throws PersistenceException {
@@ -174,6 +210,20 @@ public abstract class HibernatePersistentObjectDAO<T extends PersistentObject> i
 		}
 	}
 
+	@Override
+	public List<Object[]> findByQuery(String query, Map<String, Object> parameters, int first, Integer max)
+			throws PersistenceException {
+		try {
+			logQuery(query);
+			Query<Object[]> queryObject = prepareQuery(query, parameters, max);
+			if (first > 0)
+				queryObject.setFirstResult(first);
+			return queryObject.list();
+		} catch (Exception e) {
+			throw new PersistenceException(e);
+		}
+	}
+
 	@Override
 	public <R> List<R> findByQuery(String query, Map<String, Object> parameters, Class<R> requiredType, Integer max)
 			throws PersistenceException {
@@ -642,6 +692,52 @@ public abstract class HibernatePersistentObjectDAO<T extends PersistentObject> i
 		return cleanOldRecords(ttl, tableName, "ld_date");
 	}
 
+	/**
+	 * Executes some work in a new transaction that gets committed when the
+	 * work ends, independently from the transaction of the caller
+	 * 
+	 * @param work the work to execute
+	 * 
+	 * @throws PersistenceException error at database level, the new
+	 *         transaction gets rolled back
+	 */
+	protected void executeInNewTransaction(TransactionalWork work) throws PersistenceException {
+		TransactionTemplate template = new TransactionTemplate(Context.get(PlatformTransactionManager.class));
+		template.setPropagationBehavior(TransactionDefinition.PROPAGATION_REQUIRES_NEW);
+		try {
+			template.execute(status -> {
+				try {
+					work.execute();
+					return null;
+				} catch (PersistenceException e) {
+					throw new TransactionalWorkException(e);
+				}
+			});
+		} catch (TransactionalWorkException e) {
+			throw (PersistenceException) e.getCause();
+		}
+	}
+
+	/**
+	 * A unit of work executed in its own transaction
+	 */
+	@FunctionalInterface
+	protected interface TransactionalWork {
+		void execute() throws PersistenceException;
+	}
+
+	/**
+	 * Carries a {@link PersistenceException} out of a transaction template
+	 */
+	private static class TransactionalWorkException extends RuntimeException {
+
+		private static final long serialVersionUID = 1L;
+
+		private TransactionalWorkException(PersistenceException cause) {
+			super(cause);
+		}
+	}
+
 	@Override
 	public Map<String, String> getDatabaseMetadata() {
 		Map<String, String> map = new HashMap<>();
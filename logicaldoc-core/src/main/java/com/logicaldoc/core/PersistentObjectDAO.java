@@ -126,6 +126,38 @@ public interface PersistentObjectDAO<T extends PersistentObject> {
 	public List<T> findByWhere(String where, Map<String, Object> parameters, String order, Integer max)
 			throws PersistenceException;
 
+	/**
+	 * Finds a page of the entities matching the given expression. Use
+	 * {@value #ENTITY} alias to reference attributes in the where expression.
+	 * The order should be stable, so the same entity does not appear in two
+	 * pages.
+	 * 
+	 * @param where The where clause expression
+	 * @param parameters Parameters used in the where expression
+	 * @param order The order clause expression
+	 * @param first Index of the first result to return, starting from 0
+	 * @param max Maximum results number (optional)
+	 * 
+	 * @return The list of marching entities
+	 * 
+	 * @throws PersistenceException raised in case of errors in the database
+	 */
+	public List<T> findByWhere(String where, Map<String, Object> parameters, String order, int first, Integer max)
+			throws PersistenceException;
+
+	/**
+	 * Counts the entities matching the given expression. Use {@value #ENTITY}
+	 * alias to reference attributes in the where expression.
+	 * 
+	 * @param where The where clause expression
+	 * @param parameters Parameters used in the where expression
+	 * 
+	 * @return The number of matching entities
+	 * 
+	 * @throws PersistenceException raised in case of errors in the database
+	 */
+	public long countByWhere(String where, Map<String, Object> parameters) throws PersistenceException;
+
 	/**
 	 * Finds all entities by the given object query.
 	 * 
@@ -153,6 +185,22 @@ public interface PersistentObjectDAO<T extends PersistentObject> {
 	 */
 	public List<Object[]> findByQuery(String query, Map<String, Object> parameters, Integer max) throws PersistenceException;
 
+	/**
+	 * Find everything you want from the DB using the ORM query language,
+	 * returning just a page of the results
+	 * 
+	 * @param query The query to execute
+	 * @param parameters The map of the parameters
+	 * @param first Index of the first result to return, starting from 0
+	 * @param max Maximum results number (optional)
+	 * 
+	 * @return Query result
+	 * 
+	 * @throws PersistenceException raised in case of errors in the database
+	 */
+	public List<Object[]> findByQuery(String query, Map<String, Object> parameters, int first, Integer max)
+			throws PersistenceException;
+
 	/**
 	 * Find everything you want from the DB using the ORM query language
 	 * 
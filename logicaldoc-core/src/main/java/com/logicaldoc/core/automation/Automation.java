@@ -3,11 +3,14 @@ package com.logicaldoc.core.automation;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.Reader;
+import java.io.StringReader;
 import java.io.StringWriter;
 import java.io.Writer;
 import java.nio.file.Paths;
+import java.util.Collections;
 import java.util.Date;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.Locale;
 import java.util.Map;
 import java.util.Properties;
@@ -19,8 +22,9 @@ import java.util.stream.Collectors;
 
 import org.apache.commons.io.IOUtils;
 import org.apache.commons.lang.StringUtils;
+import org.apache.velocity.Template;
 import org.apache.velocity.VelocityContext;
-import org.apache.velocity.app.Velocity;
+import org.apache.velocity.runtime.RuntimeServices;
 import org.apache.velocity.runtime.RuntimeSingleton;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -35,7 +39,11 @@ import com.logicaldoc.util.Context;
 import com.logicaldoc.util.config.ContextProperties;
 
 /**
- * Represents the automation scripting engine
+ * Represents the automation scripting engine. The scripts are parsed and
+ * validated just once and kept in a cache of <code>automation.cache</code>
+ * templates, while the tools marked with {@link AutomationDictionary} are
+ * instantiated only at the first execution and shared by all the
+ * dictionaries.
  * 
  * @author Marco Meschieri - LogicalDOC
  */
@@ -65,6 +73,29 @@ public class Automation {
 
 	private static Logger log = LoggerFactory.getLogger(Automation.class);
 
+	private static final Pattern RUNTIME_PATTERN = Pattern.compile("\\.\\s*(getRuntime|runtime)", Pattern.DOTALL);
+
+	private static volatile boolean initialized = false;
+
+	/**
+	 * The parsed scripts, key is the script's text
+	 */
+	private static final Map<String, Template> templates = Collections
+			.synchronizedMap(new LinkedHashMap<>(64, 0.75f, true) {
+
+				private static final long serialVersionUID = 1L;
+
+				@Override
+				protected boolean removeEldestEntry(Map.Entry<String, Template> eldest) {
+					return size() > getCacheSize();
+				}
+			});
+
+	/**
+	 * The entries shared by all the dictionaries, it is immutable
+	 */
+	private static volatile Map<String, Object> baseDictionary;
+
 	private String logTag = "AutomationEngine";
 
 	private Locale automationLocale = Locale.ENGLISH;
@@ -77,9 +108,16 @@ public class Automation {
 	 */
 	private static final Map<String, Object> systemDictionary = new ConcurrentHashMap<>();
 
-	public static synchronized void initialize() {
-		if (RuntimeSingleton.isInitialized())
+	public static void initialize() {
+		if (!initialized)
+			doInitialize();
+	}
+
+	private static synchronized void doInitialize() {
+		if (RuntimeSingleton.isInitialized()) {
+			initialized = true;
 			return;
+		}
 
 		Properties settings = null;
 		try (InputStream is = Automation.class.getResourceAsStream("/automation.properties")) {
@@ -100,11 +138,16 @@ public class Automation {
 				RuntimeSingleton.init();
 				log.info("Automation initialized with default settings");
 			}
+			initialized = true;
 		} catch (Exception e) {
 			log.error("Unable to initialize the automation engine", e);
 		}
 	}
 
+	private static int getCacheSize() {
+		return Context.get() != null ? Context.get().getProperties().getInt("automation.cache", 500) : 500;
+	}
+
 	public Automation() {
 		super();
 	}
@@ -142,46 +185,16 @@ public class Automation {
 	 * 
 	 * @return The complete dictionary to use
 	 */
-	@SuppressWarnings({ "rawtypes", "unchecked" })
 	private Map<String, Object> prepareDictionary(Map<String, Object> clientDictionary) {
 		if (clientDictionary == null)
 			clientDictionary = new ConcurrentHashMap<>();
-		HashMap<String, Object> dictionary = new HashMap<>();
-
-		/*
-		 * Scan the classpath to add all the @AutomationDictionary classes
-		 */
-		ClassPathScanningCandidateComponentProvider scanner = new ClassPathScanningCandidateComponentProvider(false);
-		scanner.addIncludeFilter(new AnnotationTypeFilter(AutomationDictionary.class));
-		for (BeanDefinition bd : scanner.findCandidateComponents("com.logicaldoc")) {
-			String beanClassName = bd.getBeanClassName();
-
-			try {
-				Class beanClass = Class.forName(beanClassName);
-
-				String key = beanClass.getSimpleName();
-				AutomationDictionary annotation = (AutomationDictionary) beanClass
-						.getAnnotation(AutomationDictionary.class);
-				if (annotation != null && StringUtils.isNotEmpty(annotation.key()))
-					key = annotation.key();
-
-				Object instance = beanClass.getDeclaredConstructor().newInstance();
-				dictionary.put(key, instance);
-			} catch (Exception e) {
-				log.error(e.getMessage(), e);
-			}
-		}
 
-		/*
-		 * Add some standard entries
-		 */
+		// Start from the tools and the constant entries
+		HashMap<String, Object> dictionary = new HashMap<>(getBaseDictionary());
 
 		// The product name
 		dictionary.put(PRODUCT, SystemInfo.get(tenantId).getProduct());
 
-		// This is needed to handle new lines
-		dictionary.put("nl", "\n");
-
 		// The tenant ID
 		if (!dictionary.containsKey(TENANT_ID))
 			dictionary.put(TENANT_ID, this.tenantId);
@@ -205,9 +218,6 @@ public class Automation {
 
 		putServerUrl(clientDictionary);
 
-		// Put the system dictionary
-		dictionary.put(SYSTEM_DICTIONARY, systemDictionary);
-
 		/*
 		 * Merge the client dictionary
 		 */
@@ -232,6 +242,61 @@ public class Automation {
 		return dictionary;
 	}
 
+	/**
+	 * Gets the entries shared by all the dictionaries. At the first invocation
+	 * the classpath is scanned to instantiate all the @AutomationDictionary
+	 * classes.
+	 * 
+	 * @return the immutable base dictionary
+	 */
+	@SuppressWarnings({ "rawtypes", "unchecked" })
+	private static Map<String, Object> getBaseDictionary() {
+		Map<String, Object> base = baseDictionary;
+		if (base != null)
+			return base;
+
+		synchronized (Automation.class) {
+			if (baseDictionary != null)
+				return baseDictionary;
+
+			HashMap<String, Object> dictionary = new HashMap<>();
+
+			/*
+			 * Scan the classpath to add all the @AutomationDictionary classes
+			 */
+			ClassPathScanningCandidateComponentProvider scanner = new ClassPathScanningCandidateComponentProvider(
+					false);
+			scanner.addIncludeFilter(new AnnotationTypeFilter(AutomationDictionary.class));
+			for (BeanDefinition bd : scanner.findCandidateComponents("com.logicaldoc")) {
+				String beanClassName = bd.getBeanClassName();
+
+				try {
+					Class beanClass = Class.forName(beanClassName);
+
+					String key = beanClass.getSimpleName();
+					AutomationDictionary annotation = (AutomationDictionary) beanClass
+							.getAnnotation(AutomationDictionary.class);
+					if (annotation != null && StringUtils.isNotEmpty(annotation.key()))
+						key = annotation.key();
+
+					Object instance = beanClass.getDeclaredConstructor().newInstance();
+					dictionary.put(key, instance);
+				} catch (Exception e) {
+					log.error(e.getMessage(), e);
+				}
+			}
+
+			// This is needed to handle new lines
+			dictionary.put("nl", "\n");
+
+			// Put the system dictionary
+			dictionary.put(SYSTEM_DICTIONARY, systemDictionary);
+
+			baseDictionary = Collections.unmodifiableMap(dictionary);
+			return baseDictionary;
+		}
+	}
+
 	private void mergeDictionary(HashMap<String, Object> dictionary, Map<String, Object> clientDictionary) {
 		if (clientDictionary != null && !clientDictionary.isEmpty()) {
 			for (Map.Entry<String, Object> entry : clientDictionary.entrySet()) {
@@ -253,13 +318,46 @@ public class Automation {
 	}
 
 	private VelocityContext prepareContext(Map<String, Object> extendedDictionary) {
-		initialize();
 		VelocityContext context = new VelocityContext();
 		if (extendedDictionary != null)
 			context = new VelocityContext(extendedDictionary);
 		return context;
 	}
 
+	/**
+	 * Gets the parsed script from the cache, the script gets validated and
+	 * parsed only if not already cached
+	 * 
+	 * @param expression the script
+	 * 
+	 * @return the template ready to be merged
+	 * 
+	 * @throws ForbiddenCodeException the script contains forbidden code
+	 * @throws AutomationException the script cannot be parsed
+	 */
+	private Template getTemplate(String expression) throws AutomationException {
+		Template template = templates.get(expression);
+		if (template != null)
+			return template;
+
+		forbidRuntimeUsage(expression);
+
+		initialize();
+		try {
+			RuntimeServices runtime = RuntimeSingleton.getRuntimeServices();
+			template = new Template();
+			template.setName(StringUtils.isNotEmpty(logTag) ? logTag : "ScriptEngine");
+			template.setRuntimeServices(runtime);
+			template.setData(runtime.parse(new StringReader(expression), template));
+			template.initDocument();
+		} catch (Exception e) {
+			throw new AutomationException(expression, e);
+		}
+
+		templates.put(expression, template);
+		return template;
+	}
+
 	/**
 	 * Evaluate a given expression. The given dictionary will be integrated by
 	 * {@link Automation#prepareDictionary(Map)}:
@@ -300,8 +398,7 @@ public class Automation {
 		if (expression.contains("java.lang.Runtime")) {
 			throw new ForbiddenCodeException(expression);
 		} else {
-			Pattern runtimePattern = Pattern.compile("\\.\\s*(getRuntime|runtime)", Pattern.DOTALL);
-			Matcher m = runtimePattern.matcher(expression);
+			Matcher m = RUNTIME_PATTERN.matcher(expression);
 			if (m.find()) {
 				String snippet = expression.substring(Math.max(0, m.start() - 50),
 						Math.min(expression.length() - 1, m.end() + 50));
@@ -313,11 +410,11 @@ public class Automation {
 
 	private void evaluate(String expression, Map<String, Object> clientDictionary, Writer writer)
 			throws AutomationException {
-		forbidRuntimeUsage(expression);
+		Template template = getTemplate(expression);
 
 		try {
 			VelocityContext context = prepareContext(prepareDictionary(clientDictionary));
-			Velocity.evaluate(context, writer, StringUtils.isNotEmpty(logTag) ? logTag : "ScriptEngine", expression);
+			template.merge(context, writer);
 		} catch (Exception e) {
 			throw new AutomationException(expression, e);
 		}
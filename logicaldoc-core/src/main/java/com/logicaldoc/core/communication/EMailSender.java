@@ -57,7 +57,6 @@ import com.logicaldoc.core.metadata.TemplateDAO;
 import com.logicaldoc.core.security.Tenant;
 import com.logicaldoc.core.security.TenantDAO;
 import com.logicaldoc.core.security.user.UserDAO;
-import com.logicaldoc.core.threading.ThreadPools;
 import com.logicaldoc.util.Context;
 import com.logicaldoc.util.config.ContextProperties;
 import com.logicaldoc.util.http.UrlUtil;
@@ -79,8 +78,6 @@ public class EMailSender {
 
 	private static final String UTF_8 = "UTF-8";
 
-	private static final String THREAD_POOL = "Email";
-
 	private static Logger log = LoggerFactory.getLogger(EMailSender.class);
 
 	public static final int SECURITY_NONE = 0;
@@ -138,6 +135,11 @@ public class EMailSender {
 
 	private Long folderId;
 
+	/**
+	 * Name of the tenant whose settings have been loaded
+	 */
+	private String tenant;
+
 	public EMailSender(long tenant) {
 		TenantDAO tenantDao = Context.get(TenantDAO.class);
 		try {
@@ -164,6 +166,7 @@ public class EMailSender {
 		try {
 			ContextProperties config = Context.get().getProperties();
 
+			this.tenant = tenant;
 			protocol = config.getProperty(tenant + ".smtp.protocol");
 			host = config.getProperty(tenant + ".smtp.host");
 			port = config.getInt(tenant + ".smtp.port");
@@ -226,7 +229,17 @@ public class EMailSender {
 	}
 
 	/**
-	 * Same as send(EMail, String, Map) but executes in another thread
+	 * Name of the tenant whose settings have been loaded
+	 * 
+	 * @return the tenant name, null if the settings were given by hand
+	 */
+	public String getTenant() {
+		return tenant;
+	}
+
+	/**
+	 * Same as send(EMail, String, Map) but the email is put in the
+	 * {@link MailQueue}. The template is applied immediately.
 	 * 
 	 * @param email the email to send
 	 * @param templateName the template to use to render the body of the message
@@ -234,14 +247,12 @@ public class EMailSender {
 	 * @param dictionary map of variable to pass to the automation
 	 */
 	public void sendAsync(EMail email, String templateName, Map<String, Object> dictionary) {
-		ThreadPools tPools = Context.get(ThreadPools.class);
-		tPools.execute(() -> {
-			try {
-				send(email, templateName, dictionary);
-			} catch (Exception e) {
-				log.error(e.getMessage(), e);
-			}
-		}, THREAD_POOL);
+		try {
+			if (applyTemplate(email, templateName, dictionary))
+				sendAsync(email);
+		} catch (Exception e) {
+			log.error(e.getMessage(), e);
+		}
 	}
 
 	/**
@@ -262,6 +273,17 @@ public class EMailSender {
 			return;
 		}
 
+		if (applyTemplate(email, templateName, dictionary))
+			send(email);
+	}
+
+	/**
+	 * Fills the subject and the body of the email using a template
+	 * 
+	 * @return true if the template was found
+	 */
+	private boolean applyTemplate(EMail email, String templateName, Map<String, Object> dictionary)
+			throws AutomationException {
 		MessageTemplateDAO templateDao = Context.get(MessageTemplateDAO.class);
 		MessageTemplate template = null;
 		try {
@@ -274,30 +296,23 @@ public class EMailSender {
 		}
 		if (template == null) {
 			log.warn("Template {} was not found", templateName);
-			return;
+			return false;
 		}
 
 		dictionary.put(Automation.LOCALE, email.getLocale());
 		email.setSubject(template.getFormattedSubject(dictionary));
 		email.setMessageText(template.getFormattedBody(dictionary));
-
-		send(email);
+		return true;
 	}
 
 	/**
-	 * Same as send(EMail) but executes in another thread
+	 * Same as send(EMail) but the email is put in the {@link MailQueue} and
+	 * delivered in background
 	 * 
 	 * @param email the email to send
 	 */
 	public void sendAsync(EMail email) {
-		ThreadPools tPools = Context.get(ThreadPools.class);
-		tPools.execute(() -> {
-			try {
-				send(email);
-			} catch (Exception e) {
-				log.error(e.getMessage(), e);
-			}
-		}, THREAD_POOL);
+		MailQueue.get().enqueue(this, email);
 	}
 
 	/**
@@ -361,11 +376,13 @@ public class EMailSender {
 		message.setHeader("Date", formatter.format(now));
 
 		if (!Context.get().getProperties().getBoolean("smtp.nosend", false)) {
-			try (Transport transport = buildTransport(session);) {
-				transport.sendMessage(message, message.getAllRecipients());
-			} catch (IOException e) {
-				throw new MessagingException(e.getMessage(), e);
-			}
+			TransportPool.get().send(getConnectionKey(), () -> {
+				try {
+					return buildTransport(session);
+				} catch (IOException e) {
+					throw new MessagingException(e.getMessage(), e);
+				}
+			}, message);
 
 			log.info("Sent email with subject '{}' to recipients {}", email.getSubject(),
 					email.getAllRecipientsEmails());
@@ -533,6 +550,16 @@ public class EMailSender {
 		return sess;
 	}
 
+	/**
+	 * Identifies the server configuration, the connections are pooled by this
+	 * key
+	 */
+	private String getConnectionKey() {
+		return String.join("|", protocol, host, Integer.toString(port), StringUtils.defaultString(username),
+				Integer.toString(StringUtils.defaultString(password).hashCode()), Boolean.toString(authEncrypted),
+				Integer.toString(connectionSecurity), StringUtils.defaultString(clientId));
+	}
+
 	private Transport buildTransport(Session session) throws MessagingException, IOException {
 		Transport transport = null;
 		if (authEncrypted)
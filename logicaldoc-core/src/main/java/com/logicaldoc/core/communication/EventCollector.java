@@ -95,6 +95,27 @@ public class EventCollector {
 		if (!rememberHistory(history))
 			return;
 
+		detachDocument(history);
+
+		Runnable notifier = () -> {
+			log.debug("Notify history {}", history);
+			for (EventListener listener : listeners) {
+				listener.newEvent(history);
+			}
+			log.debug("Finished notification of history {}", history);
+		};
+
+		ThreadPools pools = Context.get(ThreadPools.class);
+		pools.execute(notifier, "EventCollector");
+	}
+
+	/**
+	 * Makes sure the document referenced by the history can be used outside
+	 * the current Hibernate session
+	 * 
+	 * @param history the history to process
+	 */
+	public void detachDocument(History history) {
 		if (history.getDocId() != null && history.getDocument() == null) {
 			DocumentDAO docDao = com.logicaldoc.util.Context.get(DocumentDAO.class);
 			try {
@@ -113,17 +134,6 @@ public class EventCollector {
 			clone.setStatus(history.getDocument().getStatus());
 			history.setDocument(clone);
 		}
-
-		Runnable notifier = () -> {
-			log.debug("Notify history {}", history);
-			for (EventListener listener : listeners) {
-				listener.newEvent(history);
-			}
-			log.debug("Finished notification of history {}", history);
-		};
-
-		ThreadPools pools = Context.get(ThreadPools.class);
-		pools.execute(notifier, "EventCollector");
 	}
 
 	public static boolean isEnabled() {
@@ -0,0 +1,273 @@
+package com.logicaldoc.core.communication;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputFilter;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.DelayQueue;
+import java.util.concurrent.Delayed;
+import java.util.concurrent.TimeUnit;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import javax.annotation.Resource;
+import javax.mail.MessagingException;
+import javax.mail.SendFailedException;
+
+import org.apache.commons.lang.ArrayUtils;
+import org.apache.commons.lang.StringUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.stereotype.Component;
+
+import com.logicaldoc.core.threading.NamedThreadFactory;
+import com.logicaldoc.util.Context;
+import com.logicaldoc.util.config.ContextProperties;
+import com.logicaldoc.util.io.FileUtil;
+
+/**
+ * The queue of the outgoing emails. The emails are delivered by
+ * <code>smtp.queue.threads</code> background threads that share the pooled
+ * SMTP connections of the {@link TransportPool}. A failed delivery is retried
+ * up to <code>smtp.queue.retries</code> times, waiting
+ * <code>smtp.queue.backoff</code> seconds the first time and doubling the wait
+ * at each attempt. Refused recipients are retried only if the server answered
+ * with a temporary(4xx) code, and an email is never sent again if the
+ * connection failed while the server may have already accepted it.<br>
+ * <br>
+ * When the <code>smtp.spool</code> folder is configured, each queued email is
+ * also saved in a file there, so the emails not yet delivered are sent again
+ * at the next startup.
+ *
+ * @author Marco Meschieri - LogicalDOC
+ * @since 9.1.1
+ */
+@Component("mailQueue")
+public class MailQueue {
+
+	private static final Logger log = LoggerFactory.getLogger(MailQueue.class);
+
+	private static final String SPOOL_EXT = ".mail";
+
+	/**
+	 * The classes that can be read from the spool
+	 */
+	private static final ObjectInputFilter SPOOL_FILTER = ObjectInputFilter.Config.createFilter(
+			"com.logicaldoc.core.communication.*;com.logicaldoc.core.folder.*;com.logicaldoc.core.metadata.*;"
+					+ "com.logicaldoc.core.security.*;com.logicaldoc.core.*;java.lang.*;java.util.*;"
+					+ "java.sql.Timestamp;[B;!*");
+
+	@Resource(name = "ContextProperties")
+	protected ContextProperties config;
+
+	private final DelayQueue<Entry> queue = new DelayQueue<>();
+
+	private final List<Thread> workers = new ArrayList<>();
+
+	private volatile boolean closing = false;
+
+	public static MailQueue get() {
+		return Context.get(MailQueue.class);
+	}
+
+	/**
+	 * Puts in the queue the emails left in the spool by the previous execution
+	 */
+	@PostConstruct
+	public void init() {
+		File spool = getSpool();
+		if (spool == null || !spool.isDirectory())
+			return;
+
+		File[] files = spool.listFiles((dir, name) -> name.endsWith(SPOOL_EXT));
+		if (files == null || files.length == 0)
+			return;
+
+		for (File file : files) {
+			try (ObjectInputStream in = new ObjectInputStream(new FileInputStream(file))) {
+				in.setObjectInputFilter(SPOOL_FILTER);
+				Entry entry = (Entry) in.readObject();
+				entry.file = file;
+				queue.add(entry);
+			} catch (IOException | ClassNotFoundException | ClassCastException e) {
+				log.error("Unable to read the spooled email {}", file, e);
+				FileUtil.delete(file);
+			}
+		}
+		log.info("Found {} spooled emails to send", queue.size());
+		start();
+	}
+
+	/**
+	 * Puts an email in the queue
+	 *
+	 * @param sender the sender to use
+	 * @param email the email to send
+	 */
+	public void enqueue(EMailSender sender, EMail email) {
+		Entry entry = new Entry(sender, email);
+		spool(entry);
+		queue.add(entry);
+		start();
+	}
+
+	/**
+	 * Number of emails waiting to be sent
+	 *
+	 * @return size of the queue
+	 */
+	public int getPending() {
+		return queue.size();
+	}
+
+	private void spool(Entry entry) {
+		File spool = getSpool();
+		if (spool == null)
+			return;
+
+		// Senders configured by hand cannot be rebuilt after a restart
+		if (entry.tenant == null && entry.sender != Context.get(EMailSender.class))
+			return;
+
+		File file = new File(spool, entry.id + SPOOL_EXT);
+		try {
+			if (!spool.exists())
+				spool.mkdirs();
+			try (ObjectOutputStream out = new ObjectOutputStream(new FileOutputStream(file))) {
+				out.writeObject(entry);
+			}
+			entry.file = file;
+		} catch (IOException e) {
+			log.warn("Unable to spool the email {}: {}", entry.email.getSubject(), e.getMessage());
+			FileUtil.delete(file);
+		}
+	}
+
+	private File getSpool() {
+		String path = config != null ? config.getProperty("smtp.spool") : null;
+		return StringUtils.isNotEmpty(path) ? new File(path) : null;
+	}
+
+	private synchronized void start() {
+		if (closing || !workers.isEmpty())
+			return;
+
+		NamedThreadFactory factory = new NamedThreadFactory("MailQueue");
+		int threads = Math.max(1, config.getInt("smtp.queue.threads", 2));
+		for (int i = 0; i < threads; i++) {
+			Thread worker = factory.newThread(this::run);
+			worker.setDaemon(true);
+			worker.start();
+			workers.add(worker);
+		}
+	}
+
+	private void run() {
+		while (!closing) {
+			Entry entry;
+			try {
+				entry = queue.take();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				return;
+			}
+
+			try {
+				entry.getSender().send(entry.email);
+				FileUtil.delete(entry.file);
+			} catch (TransportPool.DeliveryUncertainException e) {
+				log.error("Email {} may have been delivered, it will not be sent again: {}",
+						entry.email.getSubject(), e.getMessage());
+				FileUtil.delete(entry.file);
+			} catch (SendFailedException e) {
+				// Sending again is useful only if the refusal was temporary and
+				// no recipient already got the email
+				if (TransportPool.isTransient(e) && ArrayUtils.isEmpty(e.getValidSentAddresses())) {
+					retry(entry, e);
+				} else {
+					log.error("Email {} refused: {}", entry.email.getSubject(), e.getMessage());
+					FileUtil.delete(entry.file);
+				}
+			} catch (MessagingException | RuntimeException e) {
+				retry(entry, e);
+			}
+		}
+	}
+
+	private void retry(Entry entry, Exception error) {
+		entry.attempts++;
+		if (entry.attempts > config.getInt("smtp.queue.retries", 5)) {
+			log.error("Email {} not sent after {} attempts", entry.email.getSubject(), entry.attempts, error);
+			FileUtil.delete(entry.file);
+			return;
+		}
+
+		long wait = config.getInt("smtp.queue.backoff", 30) * 1000L * (1L << Math.min(entry.attempts - 1, 16));
+		log.warn("Email {} not sent, retrying in {} seconds: {}", entry.email.getSubject(), wait / 1000,
+				error.getMessage());
+		entry.due = System.currentTimeMillis() + wait;
+		queue.add(entry);
+	}
+
+	/**
+	 * Stops the delivery, the emails not yet sent remain in the spool
+	 */
+	@PreDestroy
+	public synchronized void destroy() {
+		closing = true;
+		for (Thread worker : workers)
+			worker.interrupt();
+		workers.clear();
+		TransportPool.get().close();
+		if (!queue.isEmpty())
+			log.info("{} emails not yet sent", queue.size());
+	}
+
+	private static class Entry implements Delayed, Serializable {
+
+		private static final long serialVersionUID = 1L;
+
+		private final String id = UUID.randomUUID().toString();
+
+		private final String tenant;
+
+		private final EMail email;
+
+		private int attempts = 0;
+
+		private long due = System.currentTimeMillis();
+
+		private transient EMailSender sender;
+
+		private transient File file;
+
+		private Entry(EMailSender sender, EMail email) {
+			this.sender = sender;
+			this.tenant = sender.getTenant();
+			this.email = email;
+		}
+
+		private EMailSender getSender() {
+			if (sender == null)
+				sender = tenant != null ? new EMailSender(tenant) : Context.get(EMailSender.class);
+			return sender;
+		}
+
+		@Override
+		public long getDelay(TimeUnit unit) {
+			return unit.convert(due - System.currentTimeMillis(), TimeUnit.MILLISECONDS);
+		}
+
+		@Override
+		public int compareTo(Delayed other) {
+			return Long.compare(due, ((Entry) other).due);
+		}
+	}
+}
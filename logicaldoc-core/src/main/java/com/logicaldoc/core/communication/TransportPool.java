@@ -0,0 +1,290 @@
+package com.logicaldoc.core.communication;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+import javax.mail.Message;
+import javax.mail.MessagingException;
+import javax.mail.SendFailedException;
+import javax.mail.Transport;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.logicaldoc.util.Context;
+import com.sun.mail.smtp.SMTPAddressFailedException;
+import com.sun.mail.smtp.SMTPSendFailedException;
+import com.sun.mail.smtp.SMTPTransport;
+
+/**
+ * Keeps the SMTP connections open to reuse them for sending more messages.
+ * The connections are grouped by server configuration and at most
+ * <code>smtp.pool.size</code> connections are opened toward the same
+ * configuration. An idle connection is closed after
+ * <code>smtp.pool.idle</code> seconds and a connection is renewed after
+ * sending <code>smtp.pool.maxmessages</code> messages, to stay below the
+ * limits of the relays.<br>
+ * <br>
+ * A message is sent again with a new connection only if the pooled one failed
+ * before transmitting the data of the message. If the connection fails after
+ * that, the server may have already accepted the message so a
+ * {@link DeliveryUncertainException} is raised.
+ *
+ * @author Marco Meschieri - LogicalDOC
+ * @since 9.1.1
+ */
+public class TransportPool {
+
+	private static final Logger log = LoggerFactory.getLogger(TransportPool.class);
+
+	private static final TransportPool instance = new TransportPool();
+
+	private final Map<String, Connections> pools = new ConcurrentHashMap<>();
+
+	/**
+	 * Opens a new connection
+	 */
+	@FunctionalInterface
+	public interface Connector {
+		Transport connect() throws MessagingException;
+	}
+
+	private TransportPool() {
+	}
+
+	public static TransportPool get() {
+		return instance;
+	}
+
+	/**
+	 * Raised when the connection failed while transmitting the message, so it
+	 * is not known if the server accepted it
+	 *
+	 * @author Marco Meschieri - LogicalDOC
+	 * @since 9.1.1
+	 */
+	public static class DeliveryUncertainException extends MessagingException {
+
+		private static final long serialVersionUID = 1L;
+
+		public DeliveryUncertainException(MessagingException cause) {
+			super(cause.getMessage(), cause);
+		}
+	}
+
+	/**
+	 * Sends a message using a pooled connection, if the connection was reused
+	 * and fails before transmitting the message, the message is sent again
+	 * with a new connection
+	 *
+	 * @param key identifier of the server configuration
+	 * @param connector opens a new connection to the server
+	 * @param message the message to send
+	 *
+	 * @throws MessagingException the message cannot be sent
+	 * @throws DeliveryUncertainException the connection failed after the
+	 *         message was transmitted
+	 */
+	public void send(String key, Connector connector, Message message) throws MessagingException {
+		Connections connections = pools.computeIfAbsent(key, k -> new Connections(getInt("smtp.pool.size", 4)));
+		connections.acquire();
+		try {
+			PooledTransport pooled = connections.poll();
+			if (pooled != null) {
+				try {
+					pooled.send(message);
+					connections.offer(pooled);
+					return;
+				} catch (SendFailedException e) {
+					release(connections, pooled, e);
+					throw e;
+				} catch (DeliveryUncertainException e) {
+					pooled.close();
+					throw e;
+				} catch (MessagingException e) {
+					log.debug("Pooled connection failed, retrying with a new one: {}", e.getMessage());
+					pooled.close();
+				}
+			}
+
+			pooled = new PooledTransport(connector.connect());
+			try {
+				pooled.send(message);
+			} catch (SendFailedException e) {
+				release(connections, pooled, e);
+				throw e;
+			} catch (MessagingException e) {
+				pooled.close();
+				throw e;
+			}
+			connections.offer(pooled);
+		} finally {
+			connections.release();
+		}
+	}
+
+	/**
+	 * Puts back a connection after the server refused a message, unless the
+	 * server is closing the connection(421)
+	 */
+	private static void release(Connections connections, PooledTransport pooled, SendFailedException error) {
+		if (getReturnCode(error) == 421)
+			pooled.close();
+		else
+			connections.offer(pooled);
+	}
+
+	/**
+	 * Checks if the server refused a message with a temporary error(4xx), for
+	 * the whole message or for at least one recipient, as it happens with
+	 * greylisting or rate limits
+	 *
+	 * @param error the error raised when sending
+	 *
+	 * @return true if sending again later may succeed
+	 */
+	public static boolean isTransient(MessagingException error) {
+		Exception ex = error;
+		while (ex != null) {
+			int code = getReturnCode(ex);
+			if (code >= 400 && code < 500)
+				return true;
+			ex = ex instanceof MessagingException me ? me.getNextException() : null;
+		}
+		return false;
+	}
+
+	private static int getReturnCode(Exception error) {
+		if (error instanceof SMTPAddressFailedException afe)
+			return afe.getReturnCode();
+		else if (error instanceof SMTPSendFailedException sfe)
+			return sfe.getReturnCode();
+		return -1;
+	}
+
+	/**
+	 * Closes all the idle connections
+	 */
+	public void close() {
+		for (Connections connections : pools.values())
+			connections.clear();
+		pools.clear();
+	}
+
+	private static int getInt(String key, int defaultValue) {
+		return Context.get() != null ? Context.get().getProperties().getInt(key, defaultValue) : defaultValue;
+	}
+
+	private static class Connections {
+
+		private final Semaphore permits;
+
+		private final Deque<PooledTransport> idle = new ArrayDeque<>();
+
+		private Connections(int size) {
+			permits = new Semaphore(Math.max(1, size), true);
+		}
+
+		private void acquire() throws MessagingException {
+			try {
+				if (!permits.tryAcquire(getInt("smtp.pool.wait", 60), TimeUnit.SECONDS))
+					throw new MessagingException("Timeout waiting for a free SMTP connection");
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				throw new MessagingException("Interrupted waiting for a free SMTP connection", e);
+			}
+		}
+
+		private void release() {
+			permits.release();
+		}
+
+		/**
+		 * Takes the most recently used connection still valid
+		 */
+		private PooledTransport poll() {
+			long maxIdle = getInt("smtp.pool.idle", 60) * 1000L;
+			int maxMessages = getInt("smtp.pool.maxmessages", 100);
+			while (true) {
+				PooledTransport pooled;
+				synchronized (idle) {
+					pooled = idle.pollFirst();
+				}
+				if (pooled == null)
+					return null;
+
+				if (System.currentTimeMillis() - pooled.lastUsed > maxIdle || pooled.sent >= maxMessages
+						|| !pooled.transport.isConnected())
+					pooled.close();
+				else
+					return pooled;
+			}
+		}
+
+		private void offer(PooledTransport pooled) {
+			synchronized (idle) {
+				idle.addFirst(pooled);
+			}
+		}
+
+		private void clear() {
+			synchronized (idle) {
+				for (PooledTransport pooled : idle)
+					pooled.close();
+				idle.clear();
+			}
+		}
+	}
+
+	private static class PooledTransport {
+
+		private final Transport transport;
+
+		private int sent = 0;
+
+		private long lastUsed = System.currentTimeMillis();
+
+		private PooledTransport(Transport transport) {
+			this.transport = transport;
+		}
+
+		private void send(Message message) throws MessagingException {
+			try {
+				transport.sendMessage(message, message.getAllRecipients());
+			} catch (SendFailedException e) {
+				throw e;
+			} catch (MessagingException e) {
+				if (!isBeforeData())
+					throw new DeliveryUncertainException(e);
+				throw e;
+			}
+			sent++;
+			lastUsed = System.currentTimeMillis();
+		}
+
+		/**
+		 * Checks if the last reply of the server was a completion, meaning
+		 * that the failure happened before the server accepted to receive the
+		 * data of the message
+		 */
+		private boolean isBeforeData() {
+			if (transport instanceof SMTPTransport smtp) {
+				int code = smtp.getLastReturnCode();
+				return code >= 200 && code < 300;
+			}
+			return false;
+		}
+
+		private void close() {
+			try {
+				transport.close();
+			} catch (MessagingException e) {
+				log.debug(e.getMessage());
+			}
+		}
+	}
+}
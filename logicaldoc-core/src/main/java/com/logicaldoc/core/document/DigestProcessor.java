@@ -1,7 +1,21 @@
 package com.logicaldoc.core.document;
 
+import java.io.BufferedInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.security.DigestInputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
 import java.util.List;
 import java.util.Locale;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
 
 import javax.annotation.Resource;
 
@@ -9,14 +23,24 @@ import org.slf4j.LoggerFactory;
 import org.springframework.stereotype.Component;
 
 import com.logicaldoc.core.PersistenceException;
-import com.logicaldoc.core.PersistentObjectDAO;
+import com.logicaldoc.core.store.Store;
 import com.logicaldoc.core.task.Task;
 import com.logicaldoc.core.task.TaskException;
+import com.logicaldoc.core.threading.ThreadPoolNotAvailableException;
+import com.logicaldoc.core.threading.ThreadPools;
 import com.logicaldoc.i18n.I18N;
+import com.logicaldoc.util.io.FileUtil;
 
 /**
- * This task takes care of calculating the documents digest
- * 
+ * This task takes care of calculating the documents digest. The files are
+ * read in the thread pool named <b>DigestProcessor</b>, at most
+ * <code>digest.threads</code> files at a time, and the digests are saved in
+ * batches of <code>digest.flush</code> documents.<br>
+ * <br>
+ * Since the digests of the new files are computed while they are written in
+ * the store(see <code>digest.onwrite</code>), this task normally processes
+ * just the documents stored by older versions.
+ *
  * @author Marco Meschieri - LogicalDOC
  * @since 6.4
  */
@@ -24,19 +48,27 @@ import com.logicaldoc.i18n.I18N;
 public class DigestProcessor extends Task {
 	public static final String NAME = "DigestProcessor";
 
+	private static final int BUFFER_SIZE = 65536;
+
 	@Resource(name = "DocumentDAO")
 	protected DocumentDAO documentDao;
 
-	private long processed = 0;
+	@Resource(name = "Store")
+	protected Store store;
+
+	private final AtomicLong processed = new AtomicLong();
+
+	private final AtomicLong errors = new AtomicLong();
+
+	private final AtomicLong bytes = new AtomicLong();
 
-	private long errors = 0;
+	private long elapsed = 0;
 
 	public DigestProcessor() {
 		super(NAME);
 		log = LoggerFactory.getLogger(DigestProcessor.class);
 	}
 
-
 	@Override
 	public boolean isIndeterminate() {
 		return false;
@@ -50,8 +82,11 @@ public class DigestProcessor extends Task {
 	@Override
 	protected void runTask() throws TaskException {
 		log.info("Start processing of digests");
-		errors = 0;
-		processed = 0;
+		errors.set(0);
+		processed.set(0);
+		bytes.set(0);
+		elapsed = 0;
+		long start = System.currentTimeMillis();
 		try {
 			// First of all find documents to be processed
 			size = documentDao.queryForLong(
@@ -69,47 +104,151 @@ public class DigestProcessor extends Task {
 
 			log.info("Found a total of {} documents to process", size);
 
-			List<Long> ids = documentDao.findIdsByWhere(PersistentObjectDAO.ENTITY + ".docRef is null and "
-					+ PersistentObjectDAO.ENTITY + ".digest is null and deleted = 0", null, max);
-			for (Long id : ids) {
-				processDocument(id);
-				if (interruptRequested)
-					return;
-			}
-		} catch (PersistenceException e) {
+			List<Document> docs = documentDao.query(
+					"select ld_id, ld_fileversion from ld_document where ld_deleted = 0 and ld_docref is null and ld_digest is null",
+					(rs, row) -> {
+						Document doc = new Document();
+						doc.setId(rs.getLong(1));
+						doc.setFileVersion(rs.getString(2));
+						return doc;
+					}, max);
+			processDocuments(docs);
+		} catch (PersistenceException | ThreadPoolNotAvailableException e) {
 			throw new TaskException(e.getMessage(), e);
 		} finally {
+			elapsed = System.currentTimeMillis() - start;
 			log.info("Digest processing finished");
-			log.info("Processed documents: {}", processed);
-			log.info("Errors: {}", errors);
+			log.info("Processed documents: {}", processed.get());
+			log.info("Errors: {}", errors.get());
+			log.info("Throughput: {}", getThroughput());
 		}
 	}
 
-	private void processDocument(Long id) {
+	private void processDocuments(List<Document> docs) throws ThreadPoolNotAvailableException {
+		int threads = Math.max(1, config.getInt("digest.threads", 4));
+		int flush = Math.max(1, config.getInt("digest.flush", 100));
+
+		// The digests computed and not yet saved
+		BlockingQueue<Document> computed = new LinkedBlockingQueue<>();
+
+		// Do not read too many files at a time, nor ahead of the database
+		// updates
+		Semaphore inFlight = new Semaphore(threads);
+
+		ExecutorService pool = ThreadPools.get().getPool(NAME);
 		try {
-			log.debug("Processing document {}", id);
+			for (Document doc : docs) {
+				if (interruptRequested)
+					break;
+
+				inFlight.acquire();
+				try {
+					pool.execute(() -> {
+						try {
+							if (!interruptRequested) {
+								computeDigest(doc);
+								computed.add(doc);
+							}
+						} finally {
+							inFlight.release();
+							next();
+						}
+					});
+				} catch (RejectedExecutionException e) {
+					// The pool is shutting down, stop here and save what is in
+					// progress
+					inFlight.release();
+					log.warn("Pool {} rejected the digest computation: {}", NAME, e.getMessage());
+					break;
+				}
+
+				if (computed.size() >= flush)
+					save(computed, flush);
+			}
 
-			Document doc = documentDao.findById(id);
-			documentDao.updateDigest(doc);
+			// Wait for the last files being read
+			while (!inFlight.tryAcquire(threads, 1, TimeUnit.SECONDS))
+				save(computed, flush);
+			inFlight.release(threads);
+		} catch (InterruptedException e) {
+			interruptRequested = true;
+			Thread.currentThread().interrupt();
+		} finally {
+			save(computed, Integer.MAX_VALUE);
+		}
+	}
+
+	private void computeDigest(Document doc) {
+		try {
+			log.debug("Processing document {}", doc.getId());
+
+			String resource = store.getResourceName(doc.getId(), doc.getFileVersion(), null);
+			if (!store.exists(doc.getId(), resource))
+				throw new IOException("Missing resource " + resource + " of document " + doc.getId());
+
+			MessageDigest sha = MessageDigest.getInstance("SHA-1");
+			byte[] buffer = new byte[BUFFER_SIZE];
+			try (InputStream in = new DigestInputStream(
+					new BufferedInputStream(store.getStream(doc.getId(), resource), BUFFER_SIZE), sha)) {
+				int read;
+				while ((read = in.read(buffer)) != -1)
+					bytes.addAndGet(read);
+			}
+			doc.setDigest(FileUtil.toHex(sha.digest()));
 
-			log.debug("Processed document {}", id);
-			processed++;
-		} catch (Exception e) {
+			log.debug("Processed document {}", doc.getId());
+		} catch (IOException | NoSuchAlgorithmException e) {
 			log.error(e.getMessage(), e);
-			errors++;
-		} finally {
-			next();
+			errors.incrementAndGet();
 		}
 	}
 
+	/**
+	 * Saves the computed digests in batches
+	 *
+	 * @param computed the documents with a computed digest
+	 * @param flush size of the batches
+	 */
+	private void save(BlockingQueue<Document> computed, int flush) {
+		List<Document> batch = new ArrayList<>();
+		while (computed.drainTo(batch, flush) > 0) {
+			batch.removeIf(d -> d.getDigest() == null);
+			try {
+				documentDao.updateDigests(batch);
+				processed.addAndGet(batch.size());
+			} catch (PersistenceException e) {
+				log.error(e.getMessage(), e);
+				errors.addAndGet(batch.size());
+			}
+			batch.clear();
+
+			if (flush == Integer.MAX_VALUE || computed.size() < flush)
+				break;
+		}
+	}
+
+	/**
+	 * Describes the throughput of the last execution
+	 *
+	 * @return documents and megabytes per second
+	 */
+	public String getThroughput() {
+		double seconds = Math.max(elapsed, 1L) / 1000D;
+		return String.format(Locale.ENGLISH, "%.1f docs/s, %.1f MB/s", processed.get() / seconds,
+				bytes.get() / 1048576D / seconds);
+	}
+
 	@Override
 	protected String prepareReport(Locale locale) {
 		StringBuilder sb = new StringBuilder();
 		sb.append(I18N.message("processeddocs", locale) + ": ");
-		sb.append(processed);
+		sb.append(processed.get());
 		sb.append("\n");
 		sb.append(I18N.message("errors", locale) + ": ");
-		sb.append(errors);
+		sb.append(errors.get());
+		sb.append("\n");
+		sb.append(I18N.message("throughput", locale) + ": ");
+		sb.append(getThroughput());
 		return sb.toString();
 	}
-}
\ No newline at end of file
+}
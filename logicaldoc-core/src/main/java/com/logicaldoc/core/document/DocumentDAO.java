@@ -77,6 +77,20 @@ public interface DocumentDAO extends PersistentObjectDAO<Document> {
 	 */
 	public List<Document> findByFolder(long folderId, Integer max) throws PersistenceException;
 
+	/**
+	 * Finds a page of the documents direct children of the given folder,
+	 * sorted by identifier.
+	 * 
+	 * @param folderId Folder identifier
+	 * @param first Index of the first document to return, starting from 0
+	 * @param max Optional, defines the maximum records number
+	 * 
+	 * @return Collection of the documents in the page
+	 * 
+	 * @throws PersistenceException error at data layer
+	 */
+	public List<Document> findByFolder(long folderId, int first, Integer max) throws PersistenceException;
+
 	/**
 	 * Finds all document of0 the specified status and locked by the specified
 	 * user
@@ -227,6 +241,24 @@ public interface DocumentDAO extends PersistentObjectDAO<Document> {
 	public List<Document> findByFileNameAndParentFolderId(Long folderId, String fileName, Long excludeId, Long tenantId,
 			Integer max) throws PersistenceException;
 
+	/**
+	 * Finds a page of the documents whose file name contains the given text,
+	 * sorted by file name. Only the documents readable by the user are
+	 * returned, and only the published ones if the user is not an
+	 * administrator or a publisher.
+	 * 
+	 * @param fileName name of the file or a part of it
+	 * @param userId identifier of the user
+	 * @param first Index of the first document to return, starting from 0
+	 * @param max Optional maximum number of returned elements
+	 * 
+	 * @return The list of documents in the page
+	 * 
+	 * @throws PersistenceException error at data layer
+	 */
+	public List<Document> findByFileName(String fileName, long userId, int first, Integer max)
+			throws PersistenceException;
+
 	/**
 	 * Finds a document by it's full path
 	 * 
@@ -383,6 +415,20 @@ public interface DocumentDAO extends PersistentObjectDAO<Document> {
 	 */
 	public void store(Document doc, DocumentHistory transaction) throws PersistenceException;
 
+	/**
+	 * Persists a batch of new documents of the same folder in a single
+	 * transaction. The checks on the folder's quota and on the file names
+	 * are done once for the whole batch and the records are written with
+	 * JDBC batch statements. A history entry is saved for each document.
+	 * 
+	 * @param docs the new documents, all in the same folder
+	 * @param transaction entry to log the event, it is copied for each
+	 *        document
+	 * 
+	 * @throws PersistenceException error at data layer
+	 */
+	public void storeBulk(List<Document> docs, DocumentHistory transaction) throws PersistenceException;
+
 	/**
 	 * This method deletes the document object and insert a new document history
 	 * entry.
@@ -480,6 +526,17 @@ public interface DocumentDAO extends PersistentObjectDAO<Document> {
 	 */
 	public void updateDigest(Document doc) throws PersistenceException;
 
+	/**
+	 * Saves the digests of a set of documents and of their current file
+	 * versions using JDBC batches. Only the identifier, file version and
+	 * digest of each document are used.
+	 * 
+	 * @param docs the documents with the digests to save
+	 * 
+	 * @throws PersistenceException error at data layer
+	 */
+	public void updateDigests(Collection<Document> docs) throws PersistenceException;
+
 	/**
 	 * Cleans all references to expired transactions. If no lock is found for a
 	 * document referencing a given transaction, the transactionId will be set
@@ -533,6 +590,46 @@ public interface DocumentDAO extends PersistentObjectDAO<Document> {
 	 */
 	public void updateCountUniqueTags() throws PersistenceException;
 
+	/**
+	 * Adjusts the counters of some unique tags. The missing tags are created
+	 * and those no more used by any document or folder are removed. This is
+	 * used to keep the ld_uniquetag table updated while the tags are added or
+	 * removed, without the need to recount all of them. Inside a transaction
+	 * the deltas are collected and applied only after the commit, each tag in
+	 * its own short transaction.
+	 * 
+	 * @param tenantId identifier of the tenant
+	 * @param deltas the variation of the counter of each tag, a zero variation
+	 *        just makes sure that the tag is recorded if used and removed if
+	 *        not
+	 * 
+	 * @throws PersistenceException error at data layer
+	 */
+	public void updateUniqueTags(long tenantId, Map<String, Long> deltas) throws PersistenceException;
+
+	/**
+	 * Counts the tags of the documents inside some folders
+	 * 
+	 * @param folderIds identifiers of the folders
+	 * @param deleted the deletion code of the documents to consider
+	 * 
+	 * @return map tag - number of documents
+	 * 
+	 * @throws PersistenceException error at data layer
+	 */
+	public Map<String, Long> countTagsInFolders(Collection<Long> folderIds, int deleted) throws PersistenceException;
+
+	/**
+	 * Counts the tags of some not deleted documents
+	 * 
+	 * @param docIds identifiers of the documents
+	 * 
+	 * @return map tag - number of documents
+	 * 
+	 * @throws PersistenceException error at data layer
+	 */
+	public Map<String, Long> countTagsOfDocuments(Collection<Long> docIds) throws PersistenceException;
+
 	/**
 	 * Gets the tag cloud for the given tenant
 	 * 
@@ -159,6 +159,23 @@ public interface DocumentManager {
 	public Document create(InputStream content, Document docVO, DocumentHistory transaction)
 			throws PersistenceException;
 
+	/**
+	 * Creates a batch of new documents in the same folder. The records are
+	 * written in a single transaction using JDBC batches, while the files are
+	 * saved in the store in parallel. A document whose file cannot be stored
+	 * is deleted and it is not returned.
+	 * 
+	 * @param files The documents' files, one for each value object
+	 * @param docVOs The value objects containing the documents' metadata
+	 * @param transaction The transaction metadata (remember to set the user and
+	 *        the comment), it is copied for each document
+	 * @return The newly created documents
+	 * 
+	 * @throws PersistenceException raised if the documents cannot be created
+	 */
+	public List<Document> createBulk(List<File> files, List<Document> docVOs, DocumentHistory transaction)
+			throws PersistenceException;
+
 	/**
 	 * Re-indexes an existing document in the full-text index.
 	 * 
@@ -20,6 +20,12 @@ import java.util.List;
 import java.util.Locale;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.function.IntConsumer;
 import java.util.stream.Collectors;
 
 import javax.annotation.Resource;
@@ -33,6 +39,7 @@ import org.springframework.stereotype.Component;
 
 import com.logicaldoc.core.PersistenceException;
 import com.logicaldoc.core.conversion.FormatConverterManager;
+import com.logicaldoc.core.document.thumbnail.ThumbnailManager;
 import com.logicaldoc.core.folder.Folder;
 import com.logicaldoc.core.folder.FolderDAO;
 import com.logicaldoc.core.folder.FolderEvent;
@@ -57,6 +64,7 @@ import com.logicaldoc.core.security.user.Group;
 import com.logicaldoc.core.security.user.User;
 import com.logicaldoc.core.security.user.UserDAO;
 import com.logicaldoc.core.store.Store;
+import com.logicaldoc.core.threading.ThreadPoolNotAvailableException;
 import com.logicaldoc.core.threading.ThreadPools;
 import com.logicaldoc.core.ticket.Ticket;
 import com.logicaldoc.core.ticket.TicketDAO;
@@ -163,7 +171,7 @@ public class DocumentManagerImpl implements DocumentManager {
 				store.delete(document.getId(), resource);
 
 			// Store the new file
-			store.store(newFile, document.getId(), newFilerResourceName);
+			String digest = storeFile(document.getId(), newFilerResourceName, newFile);
 
 			long fileSize = newFile.length();
 
@@ -173,6 +181,7 @@ public class DocumentManagerImpl implements DocumentManager {
 				if (version.getFileVersion().equals(fileVersion)) {
 					versionDAO.initialize(version);
 					version.setFileSize(fileSize);
+					version.setDigest(digest);
 					storeVersionAsync(version);
 				}
 			}
@@ -180,6 +189,8 @@ public class DocumentManagerImpl implements DocumentManager {
 			// Update the document's gridRecord
 			documentDAO.initialize(document);
 			document.setFileSize(fileSize);
+			if (fileVersion.equals(document.getFileVersion()))
+				document.setDigest(digest);
 			if (document.getIndexed() != AbstractDocument.INDEX_SKIP)
 				document.setIndexed(AbstractDocument.INDEX_TO_INDEX);
 			document.setOcrd(0);
@@ -299,7 +310,7 @@ public class DocumentManagerImpl implements DocumentManager {
 
 			// store the document in the repository (on the file system)
 			try {
-				storeFile(document, file);
+				document.setDigest(storeFile(document, file));
 			} catch (IOException ioe) {
 				document.copyAttributes(oldDocument);
 				document.setOcrd(oldDocument.getOcrd());
@@ -318,7 +329,7 @@ public class DocumentManagerImpl implements DocumentManager {
 			}
 
 			version.setFileSize(document.getFileSize());
-			version.setDigest(null);
+			version.setDigest(document.getDigest());
 			storeVersionAsync(version);
 
 			log.debug("Stored version {}", version.getVersion());
@@ -402,9 +413,27 @@ public class DocumentManagerImpl implements DocumentManager {
 		log.debug("locked document {}", docId);
 	}
 
-	private void storeFile(Document doc, File file) throws IOException {
-		String resource = store.getResourceName(doc, null, null);
-		store.store(file, doc.getId(), resource);
+	/**
+	 * Stores the file of a document, if <code>digest.onwrite</code> is enabled
+	 * the digest is computed while writing and put in the document
+	 * 
+	 * @param doc the document
+	 * @param file the file to store
+	 * 
+	 * @return the digest of the file, null if not computed
+	 * 
+	 * @throws IOException the file cannot be stored
+	 */
+	private String storeFile(Document doc, File file) throws IOException {
+		return storeFile(doc.getId(), store.getResourceName(doc, null, null), file);
+	}
+
+	private String storeFile(long docId, String resource, File file) throws IOException {
+		if (config.getBoolean("digest.onwrite", true))
+			return store.storeAndDigest(file, docId, resource);
+
+		store.store(file, docId, resource);
+		return null;
 	}
 
 	/**
@@ -431,6 +460,22 @@ public class DocumentManagerImpl implements DocumentManager {
 
 	@Override
 	public String parseDocument(Document doc, String fileVersion) throws ParsingException {
+		return parseDocument(doc, fileVersion, 0);
+	}
+
+	/**
+	 * Extracts the text of a document
+	 * 
+	 * @param doc the document to parse
+	 * @param fileVersion the file version, optional
+	 * @param maxLength maximum number of characters to extract, zero or
+	 *        negative means no limit
+	 * 
+	 * @return the extracted text
+	 * 
+	 * @throws ParsingException error in the parsing
+	 */
+	private String parseDocument(Document doc, String fileVersion, int maxLength) throws ParsingException {
 		String content = null;
 
 		// Check if the document is an alias
@@ -457,9 +502,11 @@ public class DocumentManagerImpl implements DocumentManager {
 			log.debug("Using parser {} to parse document {}", parser.getClass().getName(), doc.getId());
 
 			TenantDAO tDao = Context.get(TenantDAO.class);
-			try {
-				content = parser.parse(store.getStream(doc.getId(), resource), new ParseParameters(doc,
-						doc.getFileName(), fileVersion, null, locale, tDao.findById(doc.getTenantId()).getName()));
+			try (InputStream stream = store.getStream(doc.getId(), resource)) {
+				ParseParameters parameters = new ParseParameters(doc, doc.getFileName(), fileVersion, null, locale,
+						tDao.findById(doc.getTenantId()).getName());
+				parameters.setMaxLength(maxLength);
+				content = parser.parse(stream, parameters);
 			} catch (Exception e) {
 				log.error("Cannot parse document {}", doc);
 				log.error(e.getMessage(), e);
@@ -515,7 +562,7 @@ public class DocumentManagerImpl implements DocumentManager {
 				// Extracts the content from the file. This may take very long
 				// time.
 				Date beforeParsing = new Date();
-				cont = parseDocument(doc, null);
+				cont = parseDocument(doc, null, config.getInt("index.maxtext", 0));
 				parsingTime = TimeDiff.getTimeDifference(beforeParsing, new Date(), TimeField.MILLISECOND);
 			}
 
@@ -853,13 +900,20 @@ public class DocumentManagerImpl implements DocumentManager {
 
 			/* store the document into filesystem */
 			try {
-				storeFile(docVO, file);
+				docVO.setDigest(storeFile(docVO, file));
 			} catch (Exception e) {
 				documentDAO.delete(docVO.getId());
 				throw new PersistenceException(String.format("Unable to store the file of document %d", docVO.getId()),
 						e);
 			}
 
+			if (docVO.getDigest() != null) {
+				Map<String, Object> params = new HashMap<>();
+				params.put("digest", docVO.getDigest());
+				params.put("id", docVO.getId());
+				documentDAO.jdbcUpdate("update ld_document set ld_digest = :digest where ld_id = :id", params);
+			}
+
 			// The document record has been written, now store the initial
 			// version (default 1.0)
 			Version version = Version.create(docVO, userDAO.findById(transaction.getUserId()), transaction.getComment(),
@@ -872,6 +926,155 @@ public class DocumentManagerImpl implements DocumentManager {
 
 	}
 
+	@Override
+	public List<Document> createBulk(List<File> files, List<Document> docVOs, DocumentHistory transaction)
+			throws PersistenceException {
+		if (transaction == null)
+			throw new IllegalArgumentException(TRANSACTION_CANNOT_BE_NULL);
+
+		if (files == null || docVOs == null || files.size() != docVOs.size())
+			throw new IllegalArgumentException("Each document must be provided with its file");
+
+		Map<Long, Template> templates = new HashMap<>();
+		for (int i = 0; i < docVOs.size(); i++) {
+			File file = files.get(i);
+			Document docVO = docVOs.get(i);
+			if (docVO == null)
+				throw new IllegalArgumentException(NO_VALUE_OBJECT_HAS_BEEN_PROVIDED);
+			if (!(file != null && file.length() > 0))
+				throw new IllegalArgumentException("Cannot create 0 bytes document");
+
+			setAtributesForCreation(file, docVO, transaction);
+
+			if (docVO.getTemplate() == null && docVO.getTemplateId() != null) {
+				if (!templates.containsKey(docVO.getTemplateId()))
+					templates.put(docVO.getTemplateId(), templateDAO.findById(docVO.getTemplateId()));
+				docVO.setTemplate(templates.get(docVO.getTemplateId()));
+			}
+		}
+
+		if (docVOs.isEmpty())
+			return new ArrayList<>();
+
+		// Counting the pages requires the parsing of the files
+		forEachInParallel(docVOs.size(), i -> countPages(files.get(i), docVOs.get(i)));
+		if (Thread.currentThread().isInterrupted())
+			throw new PersistenceException("Interrupted while counting the pages of the documents");
+
+		/*
+		 * Create the records under the same lock of create(), the unique file
+		 * names and the maximum number of documents per folder are checked
+		 * against the documents already stored
+		 */
+		transaction.setEvent(DocumentEvent.STORED.toString());
+		synchronized (this) {
+			documentDAO.storeBulk(docVOs, transaction);
+		}
+
+		/* store the documents into filesystem */
+		Set<Integer> failures = ConcurrentHashMap.newKeySet();
+		failures.addAll(forEachInParallel(docVOs.size(), i -> {
+			try {
+				docVOs.get(i).setDigest(storeFile(docVOs.get(i), files.get(i)));
+			} catch (Exception e) {
+				log.error("Unable to store the file of document {}", docVOs.get(i).getId(), e);
+				failures.add(i);
+			}
+		}));
+
+		List<Document> created = new ArrayList<>();
+		List<Document> failed = new ArrayList<>();
+		for (int i = 0; i < docVOs.size(); i++) {
+			if (failures.contains(i))
+				failed.add(docVOs.get(i));
+			else
+				created.add(docVOs.get(i));
+		}
+
+		if (!failed.isEmpty()) {
+			DocumentHistory deleteTransaction = new DocumentHistory(transaction);
+			deleteTransaction.setComment("The file could not be stored");
+			documentDAO.deleteAll(failed, deleteTransaction);
+		}
+
+		// The document records have been written, now store the initial
+		// versions (default 1.0)
+		User user = userDAO.findById(transaction.getUserId());
+		versionDAO.storeBulk(created.stream().map(doc -> Version.create(doc, user, transaction.getComment(),
+				DocumentEvent.STORED.toString(), true)).toList());
+
+		documentDAO.updateDigests(created.stream().filter(doc -> doc.getDigest() != null).toList());
+
+		// Prepare the previews in background, the users' requests go first
+		if (config.getBoolean("thumbnail.prerender", false)) {
+			ThumbnailManager thumbnailManager = Context.get(ThumbnailManager.class);
+			for (Document doc : created)
+				thumbnailManager.prerender(doc, null);
+		}
+
+		return created;
+	}
+
+	/**
+	 * Executes a task for each index from 0 to size-1 using the threads of the
+	 * <code>BulkIngestion</code> pool, waiting for the completion of all of
+	 * them.
+	 * 
+	 * @param size number of executions
+	 * @param task the task to execute
+	 * 
+	 * @return the indexes whose task did not complete, because it failed or
+	 *         because the current thread was interrupted
+	 */
+	private Set<Integer> forEachInParallel(int size, IntConsumer task) {
+		Set<Integer> completed = ConcurrentHashMap.newKeySet();
+
+		ExecutorService pool = null;
+		try {
+			pool = ThreadPools.get().getPool("BulkIngestion");
+		} catch (ThreadPoolNotAvailableException | RuntimeException e) {
+			log.debug("Pool BulkIngestion not available, executing in the current thread");
+		}
+
+		if (pool == null || size < 2) {
+			for (int i = 0; i < size && !Thread.currentThread().isInterrupted(); i++) {
+				task.accept(i);
+				completed.add(i);
+			}
+		} else {
+			List<Callable<Void>> tasks = new ArrayList<>();
+			for (int i = 0; i < size; i++) {
+				final int index = i;
+				tasks.add(() -> {
+					task.accept(index);
+					completed.add(index);
+					return null;
+				});
+			}
+
+			try {
+				for (Future<Void> future : pool.invokeAll(tasks)) {
+					try {
+						future.get();
+					} catch (ExecutionException e) {
+						log.error(e.getMessage(), e.getCause());
+					}
+				}
+			} catch (InterruptedException e) {
+				log.warn("Interrupted while processing a batch of {} documents", size);
+				Thread.currentThread().interrupt();
+			}
+		}
+
+		// Take a snapshot, a task still running after an interruption counts
+		// as not completed
+		Set<Integer> unfinished = new HashSet<>();
+		for (int i = 0; i < size; i++)
+			if (!completed.contains(i))
+				unfinished.add(i);
+		return unfinished;
+	}
+
 	/**
 	 * Saves a version in another thread waiting for the referenced document to
 	 * be available into the database.
@@ -1766,6 +1969,16 @@ public class DocumentManagerImpl implements DocumentManager {
 		count = documentDAO.jdbcUpdate("delete from ld_document where ld_docref = " + docId);
 		log.info("Destroyed {} aliases of document {}", count, documentTag);
 
+		// The tags of a document not in the trash are still counted
+		long tenantId = documentDAO
+				.queryForLong("select ld_tenantid from ld_document where ld_deleted = 0 and ld_id = " + docId);
+		if (tenantId != 0L) {
+			Map<String, Long> tagDeltas = new HashMap<>();
+			for (String tag : documentDAO.findTags(docId))
+				tagDeltas.merge(tag, -1L, Long::sum);
+			documentDAO.updateUniqueTags(tenantId, tagDeltas);
+		}
+
 		count = documentDAO.jdbcUpdate("delete from ld_tag where ld_docid = " + docId);
 		log.info("Destroyed {} tags of document {}", count, documentTag);
 
@@ -3,6 +3,7 @@ package com.logicaldoc.core.document;
 import java.io.IOException;
 import java.io.InputStream;
 import java.security.NoSuchAlgorithmException;
+import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.time.Instant;
@@ -30,6 +31,8 @@ import org.apache.commons.lang.StringUtils;
 import org.slf4j.LoggerFactory;
 import org.springframework.jdbc.core.BeanPropertyRowMapper;
 import org.springframework.jdbc.core.RowMapper;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
 
 import com.logicaldoc.core.HibernatePersistentObjectDAO;
 import com.logicaldoc.core.PersistenceException;
@@ -70,6 +73,10 @@ public class HibernateDocumentDAO extends HibernatePersistentObjectDAO<Document>
 
 	private static final String STATUS = ".status=";
 
+	private static final String DOC_ID = "docId";
+
+	private static final String TENANT_ID = "tenantId";
+
 	@Resource(name = "DocumentHistoryDAO")
 	private DocumentHistoryDAO documentHistoryDAO;
 
@@ -268,46 +275,18 @@ public class HibernateDocumentDAO extends HibernatePersistentObjectDAO<Document>
 				transaction.setTenant(tenant.getName());
 			}
 
-			truncatePublishingDates(doc);
-
-			setIndexed(doc, tenant);
-
-			setTags(doc);
-
-			AccessControlUtil.removeForbiddenPermissionsForGuests(doc);
-
-			setType(doc);
-
-			// Remove the sections
-			doc.getAttributes().values().removeIf(Attribute::isSection);
-
-			// Count those attributes that reference other documents
-			doc.setDocAttrs((int) doc.getAttributes().values().stream().filter(
-					a -> a.getType() == Attribute.TYPE_DOCUMENT && a.getIntValue() != null && a.getIntValue() != 0L)
-					.count());
-
 			/*
 			 * Avoid documents inside folder alias
 			 */
 			setFolder(doc);
 
-			if (doc.getDocRef() == null) {
-				/*
-				 * In case of a regular document, check for attributes defaults
-				 * specified at folder's level
-				 */
-				copyFolderMetadata(doc);
-			}
-
-			if (!RunLevel.current().aspectEnabled("customId")) {
-				doc.setCustomId(UUID.randomUUID().toString());
-				log.debug("Aspect customId is disabled so force the the Custom ID to a random UUID");
-			}
+			prepareForStore(doc, tenant);
 
 			/*
 			 * Check maximum number of documents per folder
 			 */
-			checkMaxDocsPerFolder(doc);
+			if (doc.getId() == 0L)
+				checkMaxDocsPerFolder(doc.getFolder(), 1);
 
 			log.debug("Invoke listeners before store");
 			Map<String, Object> dictionary = new HashMap<>();
@@ -320,10 +299,14 @@ public class HibernateDocumentDAO extends HibernatePersistentObjectDAO<Document>
 			// Use unique filename in the same folder
 			setUniqueFilename(doc);
 
+			Map<String, Long> tagDeltas = getTagDeltas(doc);
+
 			// Save the document
 			saveOrUpdate(doc);
 			flush();
 
+			updateUniqueTags(doc.getTenantId(), tagDeltas);
+
 			if (doc.getDeleted() == 0 && doc.getId() != 0L)
 				refresh(doc);
 
@@ -352,12 +335,152 @@ public class HibernateDocumentDAO extends HibernatePersistentObjectDAO<Document>
 		}
 	}
 
-	private void checkMaxDocsPerFolder(Document document) throws PersistenceException {
+	@Override
+	public void storeBulk(List<Document> docs, DocumentHistory transaction) throws PersistenceException {
+		if (docs.isEmpty() || !checkStoringAspect())
+			return;
+
+		long folderId = docs.get(0).getFolder() != null ? docs.get(0).getFolder().getId() : 0L;
+		long tenantId = docs.get(0).getTenantId();
+		if (docs.stream().anyMatch(d -> d.getId() != 0L || d.getFolder() == null || d.getFolder().getId() != folderId
+				|| d.getTenantId() != tenantId || d.getDocRef() != null))
+			throw new IllegalArgumentException("Only new documents of the same folder can be stored in bulk");
+
+		try {
+			Tenant tenant = tenantDAO.findById(tenantId);
+			if (transaction != null) {
+				transaction.setTenantId(tenantId);
+				transaction.setTenant(tenant.getName());
+			}
+
+			/*
+			 * Avoid documents inside folder alias
+			 */
+			setFolder(docs.get(0));
+			Folder folder = docs.get(0).getFolder();
+
+			/*
+			 * Check maximum number of documents per folder
+			 */
+			checkMaxDocsPerFolder(folder, docs.size());
+
+			List<Map<String, Object>> dictionaries = new ArrayList<>();
+			for (Document doc : docs) {
+				doc.setFolder(folder);
+				prepareForStore(doc, tenant);
+
+				Map<String, Object> dictionary = new HashMap<>();
+				for (DocumentListener listener : listenerManager.getListeners())
+					listener.beforeStore(doc, transaction, dictionary);
+				dictionaries.add(dictionary);
+
+				if (StringUtils.isEmpty(doc.getCustomId()))
+					doc.setCustomId(UUID.randomUUID().toString());
+			}
+
+			// Use unique filenames in the same folder
+			setUniqueFilenames(folder, docs);
+
+			// Hibernate sends the inserts in JDBC batches at the flush
+			Map<String, Long> tagDeltas = new HashMap<>();
+			for (Document doc : docs) {
+				getTagDeltas(doc).forEach((tag, delta) -> tagDeltas.merge(tag, delta, Long::sum));
+				saveOrUpdate(doc);
+			}
+			flush();
+
+			updateUniqueTags(tenantId, tagDeltas);
+
+			String path = folderDAO.computePathExtended(folder.getId());
+			for (int i = 0; i < docs.size(); i++) {
+				Document doc = docs.get(i);
+				doc.setModified(false);
+
+				for (DocumentListener listener : listenerManager.getListeners())
+					listener.afterStore(doc, transaction, dictionaries.get(i));
+
+				// Perhaps some listeners may have modified the document
+				if (doc.isModified())
+					saveOrUpdate(doc);
+
+				if (transaction != null)
+					saveDocumentHistory(doc, new DocumentHistory(transaction), path, dictionaries.get(i));
+			}
+			flush();
+		} catch (Exception e) {
+			handleStoreError(transaction, e);
+		}
+	}
+
+	/**
+	 * Compares the tags currently saved for the document with the ones being
+	 * stored, to know how the counters of the unique tags must change. The
+	 * tags of a deleted document are not counted.
+	 * 
+	 * @param doc the document being stored
+	 * 
+	 * @return map tag - variation of the counter
+	 */
+	private Map<String, Long> getTagDeltas(Document doc) throws PersistenceException {
+		Map<String, Long> deltas = new HashMap<>();
+		if (doc.getId() != 0L) {
+			Map<String, Object> params = Map.of(DOC_ID, doc.getId());
+			if (queryForInt("select ld_deleted from ld_document where ld_id = :docId", params) == 0)
+				for (String tag : queryForList("select ld_tag from ld_tag where ld_docid = :docId", params,
+						String.class, null))
+					deltas.merge(tag, -1L, Long::sum);
+		}
+
+		if (doc.getDeleted() == 0 && doc.getTags() != null)
+			for (Tag tag : doc.getTags())
+				deltas.merge(tag.getTag(), 1L, Long::sum);
+
+		deltas.values().removeIf(delta -> delta == 0L);
+		return deltas;
+	}
+
+	/**
+	 * Normalizes the document's data before saving it
+	 */
+	private void prepareForStore(Document doc, Tenant tenant) {
+		truncatePublishingDates(doc);
+
+		setIndexed(doc, tenant);
+
+		setTags(doc);
+
+		AccessControlUtil.removeForbiddenPermissionsForGuests(doc);
+
+		setType(doc);
+
+		// Remove the sections
+		doc.getAttributes().values().removeIf(Attribute::isSection);
+
+		// Count those attributes that reference other documents
+		doc.setDocAttrs((int) doc.getAttributes().values().stream().filter(
+				a -> a.getType() == Attribute.TYPE_DOCUMENT && a.getIntValue() != null && a.getIntValue() != 0L)
+				.count());
+
+		if (doc.getDocRef() == null) {
+			/*
+			 * In case of a regular document, check for attributes defaults
+			 * specified at folder's level
+			 */
+			copyFolderMetadata(doc);
+		}
+
+		if (!RunLevel.current().aspectEnabled("customId")) {
+			doc.setCustomId(UUID.randomUUID().toString());
+			log.debug("Aspect customId is disabled so force the the Custom ID to a random UUID");
+		}
+	}
+
+	private void checkMaxDocsPerFolder(Folder folder, int newDocs) throws PersistenceException {
 		long maxDocsPerFolder = config.getLong("maxdocsperfolder", -1L);
-		if (document.getId() == 0L && maxDocsPerFolder > 0) {
-			long count = folderDAO.countDocs(document.getFolder().getId());
-			if (count >= maxDocsPerFolder)
-				throw new TooManyDocumentsException(document.getFolder(), maxDocsPerFolder);
+		if (maxDocsPerFolder > 0) {
+			long count = folderDAO.countDocs(folder.getId());
+			if (count + newDocs > maxDocsPerFolder)
+				throw new TooManyDocumentsException(folder, maxDocsPerFolder);
 		}
 	}
 
@@ -513,38 +636,72 @@ public class HibernateDocumentDAO extends HibernatePersistentObjectDAO<Document>
 		if (!RunLevel.current().aspectEnabled("uniquenessFilename"))
 			return;
 
-		String baseName = doc.getFileName();
-		String ext = "";
-		if (doc.getFileName().indexOf(".") != -1) {
-			baseName = FileUtil.getBaseName(doc.getFileName());
-			ext = "." + FileUtil.getExtension(doc.getFileName());
-		}
-
 		/*
-		 * These sets will contain the found collisions in the given folder
+		 * This set will contain the found collisions in the given folder
 		 */
-		final Set<String> fileNames = new HashSet<>();
+		Set<String> fileNames = findFileNames(doc.getFolder().getId(), Set.of(getBaseName(doc.getFileName())),
+				doc.getId());
+		setUniqueFilename(doc, fileNames);
+	}
+
+	/**
+	 * Avoid file name duplications in the same folder for a batch of new
+	 * documents, the possible collisions are searched with a single query
+	 * 
+	 * @throws PersistenceException Error in the data layer
+	 */
+	private void setUniqueFilenames(Folder folder, List<Document> docs) throws PersistenceException {
+		if (!RunLevel.current().aspectEnabled("uniquenessFilename"))
+			return;
+
+		Set<String> fileNames = findFileNames(folder.getId(),
+				docs.stream().map(d -> getBaseName(d.getFileName())).collect(Collectors.toSet()), 0L);
+		for (Document doc : docs) {
+			setUniqueFilename(doc, fileNames);
+
+			// The next documents of the batch must not collide with this one
+			fileNames.add(doc.getFileName().toLowerCase());
+		}
+	}
+
+	private static void setUniqueFilename(Document doc, Set<String> fileNames) {
+		String baseName = getBaseName(doc.getFileName());
+		String ext = doc.getFileName().indexOf(".") != -1 ? "." + FileUtil.getExtension(doc.getFileName()) : "";
+
+		int counter = 1;
+		while (fileNames.contains(doc.getFileName().toLowerCase()))
+			doc.setFileName(baseName + "(" + (counter++) + ")" + ext);
+	}
 
+	private static String getBaseName(String fileName) {
+		return fileName.indexOf(".") != -1 ? FileUtil.getBaseName(fileName) : fileName;
+	}
+
+	/**
+	 * Lists the lower case names of the files in a folder that start with one
+	 * of the given base names
+	 */
+	private Set<String> findFileNames(long folderId, Set<String> baseNames, long excludeDocId)
+			throws PersistenceException {
 		StringBuilder query = new StringBuilder(
 				"select ld_filename from ld_document where ld_deleted=0 and ld_folderid=");
-		query.append(Long.toString(doc.getFolder().getId()));
-		query.append(" and ld_filename like '");
-		query.append(SqlUtil.doubleQuotes(baseName));
-		query.append("%' and not ld_id=");
-		query.append(Long.toString(doc.getId()));
-
-		// Execute the query to populate the sets
+		query.append(Long.toString(folderId));
+		query.append(" and (");
+		query.append(baseNames.stream().map(baseName -> "ld_filename like '" + SqlUtil.doubleQuotes(baseName) + "%'")
+				.collect(Collectors.joining(" or ")));
+		query.append(") and not ld_id=");
+		query.append(Long.toString(excludeDocId));
+
+		// Execute the query to populate the set
+		final Set<String> fileNames = new HashSet<>();
 		queryForResultSet(query.toString(), null, null, rs -> {
 			while (rs.next()) {
 				String file = rs.getString(1);
-				if (file != null && !fileNames.contains(file))
+				if (file != null)
 					fileNames.add(file.toLowerCase());
 			}
 		});
-
-		int counter = 1;
-		while (fileNames.contains(doc.getFileName().toLowerCase()))
-			doc.setFileName(baseName + "(" + (counter++) + ")" + ext);
+		return fileNames;
 	}
 
 	@Override
@@ -573,6 +730,41 @@ public class HibernateDocumentDAO extends HibernatePersistentObjectDAO<Document>
 		}
 	}
 
+	@Override
+	public void updateDigests(Collection<Document> docs) throws PersistenceException {
+		if (docs.isEmpty())
+			return;
+
+		try {
+			getCurrentSession().doWork(connection -> {
+				try (PreparedStatement docStmt = connection
+						.prepareStatement("update ld_document set ld_digest=? where ld_id=?");
+						PreparedStatement verStmt = connection.prepareStatement(
+								"update ld_version set ld_digest=? where ld_documentid=? and ld_fileversion=?")) {
+					for (Document doc : docs) {
+						docStmt.setString(1, doc.getDigest());
+						docStmt.setLong(2, doc.getId());
+						docStmt.addBatch();
+
+						verStmt.setString(1, doc.getDigest());
+						verStmt.setLong(2, doc.getId());
+						verStmt.setString(3, doc.getFileVersion());
+						verStmt.addBatch();
+					}
+					docStmt.executeBatch();
+					verStmt.executeBatch();
+				}
+			});
+
+			// The cached instances are no more valid
+			for (Document doc : docs)
+				getSessionFactory().getCache().evictEntityData(Document.class, doc.getId());
+			getSessionFactory().getCache().evictEntityData(Version.class);
+		} catch (Exception e) {
+			throw new PersistenceException(e.getMessage(), e);
+		}
+	}
+
 	public List<Document> findLastModifiedByUserId(long userId, int maxElements) throws PersistenceException {
 		List<Document> coll = new ArrayList<>();
 
@@ -762,6 +954,13 @@ public class HibernateDocumentDAO extends HibernatePersistentObjectDAO<Document>
 		return findByWhere(ENTITY + ".folder.id = :folderId ", params, null, max);
 	}
 
+	@Override
+	public List<Document> findByFolder(long folderId, int first, Integer max) throws PersistenceException {
+		Map<String, Object> params = new HashMap<>();
+		params.put("folderId", Long.valueOf(folderId));
+		return findByWhere(ENTITY + ".folder.id = :folderId ", params, "order by " + ENTITY + ".id", first, max);
+	}
+
 	@Override
 	public List<Document> findArchivedByFolder(long folderId) throws PersistenceException {
 		return findByWhere(ENTITY + ".folder.id = " + folderId + AND + ENTITY + STATUS + AbstractDocument.DOC_ARCHIVED,
@@ -809,6 +1008,35 @@ public class HibernateDocumentDAO extends HibernatePersistentObjectDAO<Document>
 		return findByWhere(query, null, max);
 	}
 
+	@Override
+	public List<Document> findByFileName(String fileName, long userId, int first, Integer max)
+			throws PersistenceException {
+		User user = userDAO.findById(userId);
+		if (user == null)
+			return new ArrayList<>();
+
+		Map<String, Object> params = new HashMap<>();
+		params.put("fileName", "%" + fileName.toLowerCase() + "%");
+		params.put("tenantId", user.getTenantId());
+
+		StringBuilder where = new StringBuilder("lower(" + ENTITY + ".fileName) like :fileName and " + ENTITY
+				+ ".tenantId = :tenantId and not " + ENTITY + STATUS + AbstractDocument.DOC_ARCHIVED);
+
+		String readable = folderDAO.getReadableFoldersQuery(userId);
+		if (readable != null)
+			where.append(AND + ENTITY + ".folder.id in (" + readable + ")");
+
+		if (!user.isMemberOf(Group.GROUP_ADMIN) && !user.isMemberOf("publisher")) {
+			params.put("now", new Date());
+			where.append(AND + ENTITY + ".published = 1 and (" + ENTITY + ".startPublishing is null or " + ENTITY
+					+ ".startPublishing <= :now) and (" + ENTITY + ".stopPublishing is null or " + ENTITY
+					+ ".stopPublishing > :now)");
+		}
+
+		return findByWhere(where.toString(), params, "order by " + ENTITY + ".fileName, " + ENTITY + ".id", first,
+				max);
+	}
+
 	@Override
 	public void initialize(Document doc) {
 		if (doc == null)
@@ -883,12 +1111,24 @@ public class HibernateDocumentDAO extends HibernatePersistentObjectDAO<Document>
 
 	@Override
 	public void restore(long docId, long folderId, final DocumentHistory transaction) throws PersistenceException {
+		// The tags of the deleted document must be counted again
+		Map<String, Long> tagDeltas = new HashMap<>();
+		Map<String, Object> params = Map.of(DOC_ID, docId);
+		long tenantId = queryForLong("select ld_tenantid from ld_document where ld_deleted != 0 and ld_id = :docId",
+				params);
+		if (tenantId != 0L)
+			for (String tag : queryForList("select ld_tag from ld_tag where ld_docid = :docId", params, String.class,
+					null))
+				tagDeltas.merge(tag, 1L, Long::sum);
+
 		bulkUpdate("set ld_deleted=0, ld_folderid=" + folderId + ", ld_lastmodified=CURRENT_TIMESTAMP where ld_id="
 				+ docId, (Map<String, Object>) null);
 
 		versionDAO.bulkUpdate("set ld_deleted=0, ld_folderid=" + folderId
 				+ ", ld_lastmodified=CURRENT_TIMESTAMP where ld_documentid=" + docId, (Map<String, Object>) null);
 
+		updateUniqueTags(tenantId, tagDeltas);
+
 		Document doc = findById(docId);
 		if (doc != null && transaction != null) {
 			transaction.setDocId(docId);
@@ -949,6 +1189,13 @@ public class HibernateDocumentDAO extends HibernatePersistentObjectDAO<Document>
 			throws PersistenceException {
 		if (doc == null || transaction == null || !RunLevel.current().aspectEnabled("saveHistory"))
 			return;
+		saveDocumentHistory(doc, transaction, folderDAO.computePathExtended(doc.getFolder().getId()), dictionary);
+	}
+
+	private void saveDocumentHistory(Document doc, DocumentHistory transaction, String path,
+			Map<String, Object> dictionary) throws PersistenceException {
+		if (doc == null || transaction == null || !RunLevel.current().aspectEnabled("saveHistory"))
+			return;
 
 		try {
 			transaction.setTenantId(doc.getTenantId());
@@ -960,7 +1207,7 @@ public class HibernateDocumentDAO extends HibernatePersistentObjectDAO<Document>
 			transaction.setFileSize(doc.getFileSize());
 			transaction.setNotified(0);
 			transaction.setDocument(doc);
-			transaction.setPath(folderDAO.computePathExtended(doc.getFolder().getId()));
+			transaction.setPath(path);
 
 			documentHistoryDAO.store(transaction);
 
@@ -1046,8 +1293,18 @@ public class HibernateDocumentDAO extends HibernatePersistentObjectDAO<Document>
 		if (dbms.contains("mssql"))
 			concat = "CAST(ld_id AS varchar) + '.' + ld_customid";
 
+		// The tags of the orphaned documents are not counted anymore
+		Map<Long, Map<String, Long>> tagCounts = countTags(
+				"D.ld_deleted = 0 and D.ld_folderid in (select ld_id from ld_folder where ld_deleted > 0)");
+
 		jdbcUpdate("update ld_document set ld_deleted=1,ld_customid=" + concat + ", ld_deleteuserid=" + deleteUserId
 				+ " where ld_deleted=0 and ld_folderid in (select ld_id from ld_folder where ld_deleted  > 0)");
+
+		for (Entry<Long, Map<String, Long>> entry : tagCounts.entrySet()) {
+			Map<String, Long> tagDeltas = new HashMap<>();
+			entry.getValue().forEach((tag, count) -> tagDeltas.put(tag, -count));
+			updateUniqueTags(entry.getKey(), tagDeltas);
+		}
 	}
 
 	@Override
@@ -1190,6 +1447,135 @@ public class HibernateDocumentDAO extends HibernatePersistentObjectDAO<Document>
 		}
 	}
 
+	@Override
+	public void updateUniqueTags(long tenantId, Map<String, Long> deltas) throws PersistenceException {
+		if (deltas.isEmpty())
+			return;
+
+		if (!TransactionSynchronizationManager.isSynchronizationActive()) {
+			applyUniqueTags(tenantId, deltas);
+			return;
+		}
+
+		/*
+		 * The counters are adjusted after the commit so the rows of
+		 * ld_uniquetag are not kept locked for the whole transaction
+		 */
+		@SuppressWarnings("unchecked")
+		Map<Long, Map<String, Long>> pending = (Map<Long, Map<String, Long>>) TransactionSynchronizationManager
+				.getResource(this);
+		if (pending == null) {
+			Map<Long, Map<String, Long>> tenantDeltas = new HashMap<>();
+			TransactionSynchronizationManager.bindResource(this, tenantDeltas);
+			TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+				@Override
+				public void afterCompletion(int status) {
+					TransactionSynchronizationManager.unbindResourceIfPossible(HibernateDocumentDAO.this);
+					if (status == STATUS_COMMITTED)
+						tenantDeltas.forEach((tenant, tagDeltas) -> applyUniqueTags(tenant, tagDeltas));
+				}
+			});
+			pending = tenantDeltas;
+		}
+
+		Map<String, Long> tagDeltas = pending.computeIfAbsent(tenantId, k -> new HashMap<>());
+		deltas.forEach((tag, delta) -> tagDeltas.merge(tag, delta, Long::sum));
+	}
+
+	/**
+	 * Adjusts the counters of the unique tags, each tag in its own short
+	 * transaction
+	 */
+	private void applyUniqueTags(long tenantId, Map<String, Long> deltas) {
+		for (Entry<String, Long> entry : deltas.entrySet()) {
+			if (entry.getKey() == null)
+				continue;
+
+			try {
+				applyUniqueTag(tenantId, entry.getKey(), entry.getValue());
+			} catch (PersistenceException e) {
+				// Probably the tag was concurrently inserted, so now the update
+				// will find it
+				log.debug("Retrying the update of the unique tag {}: {}", entry.getKey(), e.getMessage());
+				try {
+					applyUniqueTag(tenantId, entry.getKey(), entry.getValue());
+				} catch (PersistenceException e1) {
+					log.warn("Unable to update the unique tag {}: {}", entry.getKey(), e1.getMessage());
+				}
+			}
+		}
+	}
+
+	private void applyUniqueTag(long tenantId, String tag, long delta) throws PersistenceException {
+		Map<String, Object> params = new HashMap<>();
+		params.put("tag", tag);
+		params.put(TENANT_ID, tenantId);
+		params.put("delta", delta);
+
+		executeInNewTransaction(() -> {
+			int count = jdbcUpdate(
+					"update ld_uniquetag set ld_count = ld_count + :delta where ld_tag = :tag and ld_tenantid = :tenantId",
+					params);
+			if (count == 0 && delta >= 0L)
+				jdbcUpdate("insert into ld_uniquetag(ld_tag, ld_tenantid, ld_count) values (:tag, :tenantId, :delta)",
+						params);
+
+			// Remove the tag if not used anymore by documents and folders
+			if (delta <= 0L)
+				jdbcUpdate(
+						"delete from ld_uniquetag where ld_tag = :tag and ld_tenantid = :tenantId and ld_count <= 0 "
+								+ " and not exists (select B.ld_tag from ld_foldertag B, ld_folder F where B.ld_tag = :tag "
+								+ " and B.ld_tenantid = :tenantId and B.ld_folderid = F.ld_id and F.ld_deleted = 0)",
+						params);
+		});
+	}
+
+	@Override
+	public Map<String, Long> countTagsInFolders(Collection<Long> folderIds, int deleted) throws PersistenceException {
+		Map<String, Long> counts = new HashMap<>();
+		if (folderIds.isEmpty())
+			return counts;
+
+		String folderIdsStr = folderIds.stream().map(id -> Long.toString(id)).collect(Collectors.joining(","));
+		for (Map<String, Long> tenantCounts : countTags(
+				"D.ld_deleted = " + deleted + " and D.ld_folderid in (" + folderIdsStr + ")").values())
+			tenantCounts.forEach((tag, count) -> counts.merge(tag, count, Long::sum));
+		return counts;
+	}
+
+	@Override
+	public Map<String, Long> countTagsOfDocuments(Collection<Long> docIds) throws PersistenceException {
+		Map<String, Long> counts = new HashMap<>();
+		List<Long> ids = new ArrayList<>(docIds);
+		for (int i = 0; i < ids.size(); i += 1000) {
+			String docIdsStr = ids.subList(i, Math.min(i + 1000, ids.size())).stream()
+					.map(id -> Long.toString(id)).collect(Collectors.joining(","));
+			for (Map<String, Long> tenantCounts : countTags(
+					"D.ld_deleted = 0 and D.ld_id in (" + docIdsStr + ")").values())
+				tenantCounts.forEach((tag, count) -> counts.merge(tag, count, Long::sum));
+		}
+		return counts;
+	}
+
+	/**
+	 * Counts the tags of the documents that satisfy a condition
+	 * 
+	 * @param condition SQL condition on the documents, aliased as D
+	 * 
+	 * @return map tenant id - (map tag - number of documents)
+	 */
+	private Map<Long, Map<String, Long>> countTags(String condition) throws PersistenceException {
+		Map<Long, Map<String, Long>> counts = new HashMap<>();
+		queryForResultSet("select T.ld_tenantid, T.ld_tag, count(T.ld_tag) from ld_tag T, ld_document D "
+				+ " where T.ld_docid = D.ld_id and " + condition + " group by T.ld_tenantid, T.ld_tag", null, null,
+				rs -> {
+					while (rs.next())
+						counts.computeIfAbsent(rs.getLong(1), k -> new HashMap<>()).put(rs.getString(2),
+								rs.getLong(3));
+				});
+		return counts;
+	}
+
 	@Override
 	public List<TagCloud> getTagCloud(long tenantId, int maxTags) throws PersistenceException {
 		GenericDAO gendao = Context.get(GenericDAO.class);
@@ -10,6 +10,7 @@ import org.apache.commons.lang.StringUtils;
 import org.slf4j.LoggerFactory;
 
 import com.logicaldoc.core.PersistenceException;
+import com.logicaldoc.core.history.Change;
 import com.logicaldoc.core.history.HibernateHistoryDAO;
 import com.logicaldoc.util.sql.SqlUtil;
 
@@ -32,6 +33,30 @@ public class HibernateDocumentHistoryDAO extends HibernateHistoryDAO<DocumentHis
 		super.log = LoggerFactory.getLogger(HibernateDocumentHistoryDAO.class);
 	}
 
+	@Override
+	protected Change toChange(DocumentHistory history) {
+		DocumentEvent event = DocumentEvent.fromString(history.getEvent());
+		if (event == null || history.getDocId() == null)
+			return null;
+
+		int changeType;
+		switch (event) {
+		case STORED:
+			changeType = Change.CHANGE_CREATED;
+			break;
+		case CHECKEDIN, RENAMED, MOVED:
+			changeType = Change.CHANGE_UPDATED;
+			break;
+		case DELETED:
+			changeType = Change.CHANGE_DELETED;
+			break;
+		default:
+			return null;
+		}
+		return new Change(history.getTenantId(), history.getDocId(), Change.TYPE_DOCUMENT, changeType,
+				history.getEvent());
+	}
+
 	@Override
 	public List<DocumentHistory> findByDocId(long docId) throws PersistenceException {
 		return findByDocIdAndEvent(docId, null);
@@ -2,6 +2,7 @@ package com.logicaldoc.core.document;
 
 import java.io.IOException;
 import java.io.InputStream;
+import java.util.Collection;
 import java.util.Collections;
 import java.util.Date;
 import java.util.HashSet;
@@ -124,6 +125,13 @@ public class HibernateVersionDAO extends HibernatePersistentObjectDAO<Version> i
 		}
 	}
 
+	@Override
+	public void storeBulk(Collection<Version> versions) throws PersistenceException {
+		for (Version version : versions)
+			super.store(version);
+		flush();
+	}
+
 	private void cleanUnusedFiles(Version version, Set<String> filesToBeRetained) {
 		List<String> resources = store.listResources(version.getDocId(), null);
 		for (String resource : resources) {
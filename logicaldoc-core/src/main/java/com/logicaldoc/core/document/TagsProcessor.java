@@ -11,7 +11,12 @@ import com.logicaldoc.core.task.TaskException;
 
 /**
  * This task generate all data needed by the tag cloud panel and the tags
- * drop-down lists.
+ * drop-down lists.<br>
+ * <br>
+ * The counters of the unique tags are updated while the tags are saved, so
+ * this task just verifies and repairs them recounting all the tags. It is
+ * executed when launched by hand, the scheduler runs it only if
+ * <code>tags.repair.scheduled</code> is true.
  * 
  * @author Marco Meschieri - LogicalDOC
  * @since 4.0
@@ -24,12 +29,21 @@ public class TagsProcessor extends Task {
 	@Resource(name = "DocumentDAO")
 	private DocumentDAO documentDao;
 
-
 	public TagsProcessor() {
 		super(NAME);
 		log = LoggerFactory.getLogger(TagsProcessor.class);
 	}
 
+	/**
+	 * Invoked by the scheduler, the full recount is needed only when requested
+	 */
+	public void runScheduled() {
+		if (config.getBoolean("tags.repair.scheduled", false))
+			run();
+		else
+			log.debug("The unique tags are counted incrementally, skipping the scheduled repair");
+	}
+
 	@Override
 	public boolean isIndeterminate() {
 		return false;
@@ -1,5 +1,6 @@
 package com.logicaldoc.core.document;
 
+import java.util.Collection;
 import java.util.List;
 
 import com.logicaldoc.core.PersistenceException;
@@ -53,4 +54,15 @@ public interface VersionDAO extends PersistentObjectDAO<Version> {
 	 * @param version The version to be processed
 	 */
 	public void updateDigest(Version version);
+
+	/**
+	 * Persists the first versions of a batch of new documents in a single
+	 * transaction. Since they are the only versions of their documents, there
+	 * are no old versions to delete.
+	 * 
+	 * @param versions the versions to store
+	 * 
+	 * @throws PersistenceException Error in the database
+	 */
+	public void storeBulk(Collection<Version> versions) throws PersistenceException;
 }
\ No newline at end of file
@@ -31,7 +31,7 @@ public class EpubThumbnailBuilder extends ImageThumbnailBuilder {
 	protected static Logger log = LoggerFactory.getLogger(EpubThumbnailBuilder.class);
 
 	@Override
-	public synchronized void buildThumbnail(String sid, Document document, String fileVersion, File src, File dest,
+	public void buildThumbnail(String sid, Document document, String fileVersion, File src, File dest,
 			int size, int compression) throws IOException {
 
 		File tmp = null;
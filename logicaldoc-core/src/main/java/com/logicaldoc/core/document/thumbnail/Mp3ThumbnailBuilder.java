@@ -23,7 +23,7 @@ public class Mp3ThumbnailBuilder extends AbstractThumbnailBuilder {
 	protected static Logger log = LoggerFactory.getLogger(Mp3ThumbnailBuilder.class);
 
 	@Override
-	public synchronized void buildThumbnail(String sid, Document document, String fileVersion, File src, File dest,
+	public void buildThumbnail(String sid, Document document, String fileVersion, File src, File dest,
 			int size, int quality) throws IOException {
 		try {
 			Mp3File mp3file = new Mp3File(src);
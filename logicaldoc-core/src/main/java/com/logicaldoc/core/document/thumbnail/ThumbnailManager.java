@@ -2,11 +2,26 @@ package com.logicaldoc.core.document.thumbnail;
 
 import java.io.File;
 import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.ArrayList;
 import java.util.Collection;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.PriorityBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
 
 import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
 import javax.annotation.Resource;
 
 import org.java.plugin.registry.Extension;
@@ -15,8 +30,8 @@ import org.slf4j.LoggerFactory;
 import org.springframework.stereotype.Component;
 
 import com.logicaldoc.core.document.Document;
-import com.logicaldoc.core.security.TenantDAO;
 import com.logicaldoc.core.store.Store;
+import com.logicaldoc.core.threading.NamedThreadFactory;
 import com.logicaldoc.core.util.DocUtil;
 import com.logicaldoc.util.Context;
 import com.logicaldoc.util.MimeType;
@@ -25,7 +40,13 @@ import com.logicaldoc.util.io.FileUtil;
 import com.logicaldoc.util.plugin.PluginRegistry;
 
 /**
- * Manager class used to handle document thumbnails
+ * Manager class used to handle document thumbnails.<br>
+ * <br>
+ * The images are rendered by a pool of <code>thumbnail.render.threads</code>
+ * workers. Concurrent requests for the same image of the same file version
+ * share a single rendering, the interactive requests are served before the
+ * background pre-rendering, and the thumb, tile and mobile images are all
+ * resized from one rasterization of the document.
  * 
  * @author Marco Meschieri - LogicalDOC
  * @since 4.5
@@ -45,12 +66,28 @@ public class ThumbnailManager {
 
 	protected static Logger log = LoggerFactory.getLogger(ThumbnailManager.class);
 
+	private static final String THUMBNAIL = "thumbnail";
+
+	private static final Pattern CUSTOM_THUMB = Pattern.compile(THUMB + "([1-9]\\d*)\\.png");
+
+	/**
+	 * The images rendered all together from the same rasterization
+	 */
+	private static final List<String> STANDARD_SUFFIXES = List.of(SUFFIX_THUMB, SUFFIX_TILE, SUFFIX_MOBILE);
+
 	@Resource(name = "Store")
 	private Store store;
 
 	// Key is the extension, value is the associated builder
 	private Map<String, ThumbnailBuilder> builders = new HashMap<>();
 
+	// Key is docId/fileVersion/suffix, value is the job rendering that image
+	private final Map<String, RenderJob> renderings = new HashMap<>();
+
+	private final AtomicLong jobSequence = new AtomicLong();
+
+	private ThreadPoolExecutor renderers;
+
 	/**
 	 * Creates the thumbnail for the specified document and file version. The
 	 * thumbnail is an image rendering of the first page only.
@@ -62,7 +99,7 @@ public class ThumbnailManager {
 	 * @throws IOException in case an error happens during image creation
 	 */
 	public void createTumbnail(Document document, String fileVersion, String sid) throws IOException {
-		createImage(document, fileVersion, "thumbnail", SUFFIX_THUMB, sid);
+		createImage(document, fileVersion, THUMBNAIL, SUFFIX_THUMB, sid);
 	}
 
 	/**
@@ -124,51 +161,151 @@ public class ThumbnailManager {
 		createImage(document, fileVersion, "mobile", SUFFIX_MOBILE, sid);
 	}
 
-	protected void createImage(Document document, String fileVersion, int size, Integer quality, String suffix,
-			String sid) throws IOException {
-		TenantDAO tDao = Context.get(TenantDAO.class);
+	/**
+	 * Creates the image with the given suffix for the specified document and
+	 * file version, the suffix can be thumb.png, tile.png, mobile.png or
+	 * thumbXXX.png where XXX is the size(see {@link #isSupported(String)}). The
+	 * other standard images not yet available are produced in the same pass.
+	 * 
+	 * @param document The document to be treated
+	 * @param fileVersion The file version(optional)
+	 * @param suffix The suffix of the image
+	 * @param sid The session identifier(optional)
+	 * 
+	 * @throws IOException in case an error happens during image creation
+	 */
+	public void createImage(Document document, String fileVersion, String suffix, String sid) throws IOException {
+		String tenantName = DocUtil.getTenantName(document);
+		Map<String, ImageSpec> images = new LinkedHashMap<>();
+		images.put(suffix, getImageSpec(suffix, tenantName));
+		addMissingStandardImages(document, fileVersion, images, tenantName);
+		waitFor(schedule(document, fileVersion, images, sid, true), document);
+	}
 
-		ThumbnailBuilder builder = getBuilder(document);
-		if (builder == null) {
-			log.warn("No builder found for document {}", document.getId());
-			return;
+	/**
+	 * Schedules in background the rendering of the standard images(thumb, tile
+	 * and mobile) not yet available for the specified document and file
+	 * version. The interactive requests always have precedence over this
+	 * rendering. When more than <code>thumbnail.prerender.queue</code>
+	 * renderings are already waiting, the document is skipped and its images
+	 * will be rendered when requested.
+	 * 
+	 * @param document The document to be treated
+	 * @param fileVersion The file version(optional)
+	 * 
+	 * @return the future that completes when the images have been rendered or
+	 *         the rendering has been skipped
+	 */
+	public Future<Void> prerender(Document document, String fileVersion) {
+		int maxQueue = Context.get().getProperties().getInt("thumbnail.prerender.queue", 1000);
+		if (getRenderers().getQueue().size() >= maxQueue) {
+			log.debug("Too many renderings waiting, skip the prerendering of document {}", document.getId());
+			return CompletableFuture.completedFuture(null);
 		}
 
-		// Prepare I/O files
-		File src = null;
-		File dest = FileUtil.createTempFile("dest", suffix);
-
-		try {
-			src = writeToTempFile(document, fileVersion);
+		Map<String, ImageSpec> images = new LinkedHashMap<>();
+		addMissingStandardImages(document, fileVersion, images, DocUtil.getTenantName(document));
+		if (images.isEmpty())
+			return CompletableFuture.completedFuture(null);
+		return schedule(document, fileVersion, images, null, false);
+	}
 
-			builder.buildThumbnail(sid, document, fileVersion, src, dest, size,
-					quality != null ? quality : getQuality("thumbnail", tDao.getTenantName(document.getTenantId())));
+	protected void createImage(Document document, String fileVersion, int size, Integer quality, String suffix,
+			String sid) throws IOException {
+		if (getCustomSize(suffix) != size)
+			throw new IllegalArgumentException("Unsupported image " + suffix);
 
-			// Put the resource
-			String resource = store.getResourceName(document, getSuitableFileVersion(document, fileVersion), suffix);
-			store.store(dest, document.getId(), resource);
-		} catch (Exception e) {
-			log.warn("Error rendering image for document: {} - {}", document.getId(), document.getFileName(), e);
-		} finally {
-			// Delete temporary resources
-			FileUtil.delete(src);
-			FileUtil.delete(dest);
-		}
+		String tenantName = DocUtil.getTenantName(document);
+		Map<String, ImageSpec> images = new LinkedHashMap<>();
+		images.put(suffix, new ImageSpec(size, quality != null ? quality : getQuality(THUMBNAIL, tenantName)));
+		waitFor(schedule(document, fileVersion, images, sid, true), document);
 	}
 
 	protected void createImage(Document document, String fileVersion, String type, String suffix, String sid)
 			throws IOException {
 		String tenantName = DocUtil.getTenantName(document);
+		Map<String, ImageSpec> images = new LinkedHashMap<>();
+		images.put(suffix, new ImageSpec(getSize(type, tenantName), getQuality(type, tenantName)));
+		if (STANDARD_SUFFIXES.contains(suffix))
+			addMissingStandardImages(document, fileVersion, images, tenantName);
+		waitFor(schedule(document, fileVersion, images, sid, true), document);
+	}
+
+	private ImageSpec getImageSpec(String suffix, String tenantName) {
+		int size = getCustomSize(suffix);
+		if (size > 0)
+			return new ImageSpec(size, getQuality(THUMBNAIL, tenantName));
+
+		if (!STANDARD_SUFFIXES.contains(suffix))
+			throw new IllegalArgumentException("Unsupported image " + suffix);
+		String type = getType(suffix);
+		return new ImageSpec(getSize(type, tenantName), getQuality(type, tenantName));
+	}
 
-		int size = 150;
+	/**
+	 * Checks if an image can be rendered: the suffix must be thumb.png,
+	 * tile.png, mobile.png or thumbXXX.png where XXX is a size not bigger than
+	 * <code>thumbnail.custom.maxsize</code>
+	 * 
+	 * @param suffix the suffix of the image
+	 * 
+	 * @return true if the image can be rendered
+	 */
+	public static boolean isSupported(String suffix) {
+		return suffix != null && (STANDARD_SUFFIXES.contains(suffix) || getCustomSize(suffix) > 0);
+	}
+
+	/**
+	 * Extracts the size of a custom thumbnail(thumbXXX.png)
+	 * 
+	 * @return the size or 0 if the suffix is not a custom thumbnail or its size
+	 *         exceeds <code>thumbnail.custom.maxsize</code>
+	 */
+	private static int getCustomSize(String suffix) {
+		Matcher matcher = CUSTOM_THUMB.matcher(suffix);
+		if (!matcher.matches())
+			return 0;
+
+		int maxSize = Context.get().getProperties().getInt("thumbnail.custom.maxsize", 1000);
+		try {
+			int size = Integer.parseInt(matcher.group(1));
+			return size <= maxSize ? size : 0;
+		} catch (NumberFormatException e) {
+			return 0;
+		}
+	}
+
+	private static String getType(String suffix) {
+		if (SUFFIX_TILE.equals(suffix))
+			return "tile";
+		else if (SUFFIX_MOBILE.equals(suffix))
+			return "mobile";
+		else
+			return THUMBNAIL;
+	}
+
+	/**
+	 * Adds the standard images that are not yet stored
+	 */
+	private void addMissingStandardImages(Document document, String fileVersion, Map<String, ImageSpec> images,
+			String tenantName) {
+		String fver = getSuitableFileVersion(document, fileVersion);
+		for (String suffix : STANDARD_SUFFIXES)
+			if (!images.containsKey(suffix)
+					&& store.size(document.getId(), store.getResourceName(document, fver, suffix)) <= 0L) {
+				String type = getType(suffix);
+				images.put(suffix, new ImageSpec(getSize(type, tenantName), getQuality(type, tenantName)));
+			}
+	}
+
+	private int getSize(String type, String tenantName) {
 		try {
 			ContextProperties conf = Context.get().getProperties();
-			size = Integer.parseInt(conf.getProperty(tenantName + ".gui." + type + ".size"));
+			return Integer.parseInt(conf.getProperty(tenantName + ".gui." + type + ".size"));
 		} catch (Exception t) {
 			log.error(t.getMessage());
+			return 150;
 		}
-
-		createImage(document, fileVersion, size, getQuality(type, tenantName), suffix, sid);
 	}
 
 	private int getQuality(String type, String tenantName) {
@@ -186,6 +323,136 @@ public class ThumbnailManager {
 		}
 	}
 
+	/**
+	 * Schedules the rendering of the given images, the images already being
+	 * rendered are not scheduled again but their rendering is waited for
+	 */
+	private CompletableFuture<Void> schedule(Document document, String fileVersion, Map<String, ImageSpec> images,
+			String sid, boolean interactive) {
+		String fver = getSuitableFileVersion(document, fileVersion);
+		List<CompletableFuture<Void>> futures = new ArrayList<>();
+		RenderJob job = null;
+
+		synchronized (renderings) {
+			for (Map.Entry<String, ImageSpec> image : images.entrySet()) {
+				String key = document.getId() + "/" + fver + "/" + image.getKey();
+				RenderJob rendering = renderings.get(key);
+				if (rendering != null) {
+					if (!futures.contains(rendering.future))
+						futures.add(rendering.future);
+					if (interactive)
+						promote(rendering);
+				} else {
+					if (job == null)
+						job = new RenderJob(document, fileVersion, sid, interactive);
+					job.images.put(image.getKey(), image.getValue());
+					renderings.put(key, job);
+				}
+			}
+
+			if (job != null) {
+				futures.add(job.future);
+				getRenderers().execute(job);
+			}
+		}
+
+		return CompletableFuture.allOf(futures.toArray(new CompletableFuture[0]));
+	}
+
+	/**
+	 * Moves a background rendering still waiting in the queue ahead of the
+	 * other background renderings
+	 */
+	private void promote(RenderJob job) {
+		if (!job.interactive && getRenderers().remove(job)) {
+			job.interactive = true;
+			getRenderers().execute(job);
+		}
+	}
+
+	private void waitFor(Future<Void> future, Document document) throws IOException {
+		int timeout = Context.get().getProperties().getInt("thumbnail.render.timeout", 60);
+		try {
+			future.get(timeout, TimeUnit.SECONDS);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException(
+					"Interrupted rendering image for document: " + document.getId() + " - " + document.getFileName());
+		} catch (ExecutionException e) {
+			throw new IOException(
+					"Error rendering image for document: " + document.getId() + " - " + document.getFileName(),
+					e.getCause());
+		} catch (TimeoutException e) {
+			throw new IOException(
+					"Timeout rendering image for document: " + document.getId() + " - " + document.getFileName(), e);
+		}
+	}
+
+	private synchronized ThreadPoolExecutor getRenderers() {
+		if (renderers == null) {
+			int threads = Math.max(1, Context.get().getProperties().getInt("thumbnail.render.threads", 4));
+			renderers = new ThreadPoolExecutor(threads, threads, 60, TimeUnit.SECONDS,
+					new PriorityBlockingQueue<>(), new NamedThreadFactory("ThumbnailRenderer"));
+			renderers.allowCoreThreadTimeOut(true);
+		}
+		return renderers;
+	}
+
+	/**
+	 * Rasterizes the document once at the biggest requested size and then
+	 * resizes the raster for each image
+	 */
+	private void render(RenderJob job) throws IOException {
+		Document document = job.document;
+		ThumbnailBuilder builder = getBuilder(document);
+		if (builder == null) {
+			log.warn("No builder found for document {}", document.getId());
+			return;
+		}
+
+		int maxSize = job.images.values().stream().mapToInt(i -> i.size).max().orElse(150);
+		String fver = getSuitableFileVersion(document, job.fileVersion);
+
+		File src = null;
+		File raster = FileUtil.createTempFile("raster", ".png");
+		try {
+			src = writeToTempFile(document, job.fileVersion);
+			builder.buildThumbnail(job.sid, document, job.fileVersion, src, raster, maxSize, 100);
+
+			ImageThumbnailBuilder resizer = new ImageThumbnailBuilder();
+			for (Map.Entry<String, ImageSpec> image : job.images.entrySet()) {
+				File dest = FileUtil.createTempFile("dest", image.getKey());
+				try {
+					resizer.buildThumbnail(job.sid, document, job.fileVersion, raster, dest, image.getValue().size,
+							image.getValue().quality);
+
+					// Put the resource
+					store.store(dest, document.getId(), store.getResourceName(document, fver, image.getKey()));
+				} finally {
+					FileUtil.delete(dest);
+				}
+			}
+		} finally {
+			// Delete temporary resources
+			FileUtil.delete(src);
+			FileUtil.delete(raster);
+		}
+	}
+
+	private void completed(RenderJob job) {
+		String fver = getSuitableFileVersion(job.document, job.fileVersion);
+		synchronized (renderings) {
+			for (String suffix : job.images.keySet())
+				renderings.remove(job.document.getId() + "/" + fver + "/" + suffix, job);
+		}
+	}
+
+	@PreDestroy
+	public synchronized void destroy() {
+		if (renderers != null)
+			renderers.shutdownNow();
+	}
+
 	/**
 	 * Loads the proper builder for the passed file name
 	 * 
@@ -301,4 +568,66 @@ public class ThumbnailManager {
 	public void setStore(Store store) {
 		this.store = store;
 	}
-}
\ No newline at end of file
+
+	/**
+	 * Size and quality of an image to render
+	 */
+	private static class ImageSpec {
+
+		private final int size;
+
+		private final int quality;
+
+		private ImageSpec(int size, int quality) {
+			this.size = size;
+			this.quality = quality;
+		}
+	}
+
+	/**
+	 * A rendering of some images of a document, the interactive renderings
+	 * are executed first and then the others in order of submission
+	 */
+	private class RenderJob implements Runnable, Comparable<RenderJob> {
+
+		private final Document document;
+
+		private final String fileVersion;
+
+		private final String sid;
+
+		private final long sequence = jobSequence.incrementAndGet();
+
+		private final Map<String, ImageSpec> images = new LinkedHashMap<>();
+
+		private final CompletableFuture<Void> future = new CompletableFuture<>();
+
+		private volatile boolean interactive;
+
+		private RenderJob(Document document, String fileVersion, String sid, boolean interactive) {
+			this.document = document;
+			this.fileVersion = fileVersion;
+			this.sid = sid;
+			this.interactive = interactive;
+		}
+
+		@Override
+		public void run() {
+			try {
+				render(this);
+				future.complete(null);
+			} catch (Exception e) {
+				future.completeExceptionally(e);
+			} finally {
+				completed(this);
+			}
+		}
+
+		@Override
+		public int compareTo(RenderJob other) {
+			if (interactive != other.interactive)
+				return interactive ? -1 : 1;
+			return Long.compare(sequence, other.sequence);
+		}
+	}
+}
@@ -224,6 +224,47 @@ public interface FolderDAO extends PersistentObjectDAO<Folder> {
 	 */
 	public List<Folder> findChildren(long parentId, long userId) throws PersistenceException;
 
+	/**
+	 * Finds a page of the direct children of a folder readable by the given
+	 * user, sorted by name. The hidden folders are excluded.
+	 * 
+	 * @param parentId Folder ID of the folder which children are wanted
+	 * @param userId Identifier of the user that must have read access
+	 * @param first Index of the first child to return, starting from 0
+	 * @param max Optional, maximum number of children
+	 * 
+	 * @return List of found folders
+	 * 
+	 * @throws PersistenceException error at data layer
+	 */
+	public List<Folder> findChildren(long parentId, long userId, int first, Integer max) throws PersistenceException;
+
+	/**
+	 * Counts the direct children of a folder readable by the given user. The
+	 * hidden folders are excluded.
+	 * 
+	 * @param parentId Folder ID of the folder which children are wanted
+	 * @param userId Identifier of the user that must have read access
+	 * 
+	 * @return number of children
+	 * 
+	 * @throws PersistenceException error at data layer
+	 */
+	public long countChildren(long parentId, long userId) throws PersistenceException;
+
+	/**
+	 * Composes an object query that selects the identifiers of all the folders
+	 * readable by the given user, to be used as subquery in the conditions
+	 * like <code>_entity.folder.id in (...)</code>
+	 * 
+	 * @param userId Identifier of the user
+	 * 
+	 * @return the query, null if the user can read all the folders
+	 * 
+	 * @throws PersistenceException error at data layer
+	 */
+	public String getReadableFoldersQuery(long userId) throws PersistenceException;
+
 	/**
 	 * This method is looking up for writing rights for a folder and an user.
 	 * 
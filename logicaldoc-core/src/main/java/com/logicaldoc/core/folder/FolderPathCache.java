@@ -0,0 +1,304 @@
+package com.logicaldoc.core.folder;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+/**
+ * An in-memory index of the folders paths, keyed by folder identifier. For
+ * each cached folder it holds both the path of identifiers(like
+ * <code>/4/1200/1300</code>) and the human readable path(like
+ * <code>/Default/Invoices/2024</code>), so they can be resolved without
+ * walking the tree in the database.<br>
+ * <br>
+ * If a folder is cached, all its parents are cached as well. When a folder is
+ * renamed, moved, deleted or restored the whole sub-tree gets invalidated, the
+ * invalidation is repeated after the transaction completes so paths read
+ * concurrently before the commit, or never committed, do not survive in the
+ * cache. The sub-trees are found through an index of the children of each
+ * cached folder, so no scan of the whole cache is ever needed. When the
+ * maximum size is reached some leaf entries are evicted to make room for the
+ * new ones.<br>
+ * <br>
+ * The cache is local to the node, so it must be disabled in a cluster.
+ *
+ * @author Marco Meschieri - LogicalDOC
+ * @since 9.1.1
+ */
+public class FolderPathCache {
+
+	private final Map<Long, Entry> entries = new ConcurrentHashMap<>();
+
+	/**
+	 * The cached children of each folder, parentId - children ids
+	 */
+	private final Map<Long, Set<Long>> children = new ConcurrentHashMap<>();
+
+	/**
+	 * Identifiers of the root folders, tenantId - rootId
+	 */
+	private final Map<Long, Long> roots = new ConcurrentHashMap<>();
+
+	private final int maxSize;
+
+	/**
+	 * Incremented at each invalidation, used to avoid caching paths computed
+	 * while an invalidation was in progress
+	 */
+	private final AtomicLong generation = new AtomicLong();
+
+	private final AtomicLong hits = new AtomicLong();
+
+	private final AtomicLong misses = new AtomicLong();
+
+	private final AtomicLong invalidations = new AtomicLong();
+
+	/**
+	 * Constructor
+	 *
+	 * @param maxSize maximum number of folders to cache, zero disables the
+	 *        cache
+	 */
+	public FolderPathCache(int maxSize) {
+		this.maxSize = maxSize;
+	}
+
+	public boolean isEnabled() {
+		return maxSize > 0;
+	}
+
+	/**
+	 * Gets the cached entry of a folder
+	 *
+	 * @param folderId identifier of the folder
+	 *
+	 * @return the entry or null if the folder is not cached
+	 */
+	public Entry get(long folderId) {
+		if (!isEnabled())
+			return null;
+
+		Entry entry = entries.get(folderId);
+		if (entry != null)
+			hits.incrementAndGet();
+		else
+			misses.incrementAndGet();
+		return entry;
+	}
+
+	/**
+	 * Gets the cached entry of a folder without affecting the statistics
+	 *
+	 * @param folderId identifier of the folder
+	 *
+	 * @return the entry or null if the folder is not cached
+	 */
+	public Entry peek(long folderId) {
+		return entries.get(folderId);
+	}
+
+	/**
+	 * Gets the current generation, to be taken before starting to compute a
+	 * new entry
+	 *
+	 * @return the current generation
+	 */
+	public long getGeneration() {
+		return generation.get();
+	}
+
+	/**
+	 * Caches an entry only if no invalidation happened since the given
+	 * generation
+	 *
+	 * @param entry the entry to cache
+	 * @param expectedGeneration the generation taken before computing the
+	 *        entry
+	 */
+	public synchronized void put(Entry entry, long expectedGeneration) {
+		if (!isEnabled() || generation.get() != expectedGeneration)
+			return;
+
+		if (entries.size() >= maxSize)
+			evict(Math.max(1, maxSize / 100));
+		entries.put(entry.getFolderId(), entry);
+		if (entry.getParentId() != entry.getFolderId())
+			children.computeIfAbsent(entry.getParentId(), id -> ConcurrentHashMap.newKeySet())
+					.add(entry.getFolderId());
+	}
+
+	/**
+	 * Evicts some leaf entries, so the parents of a cached folder remain
+	 * cached
+	 */
+	private void evict(int count) {
+		int evicted = 0;
+		Iterator<Entry> iterator = entries.values().iterator();
+		while (evicted < count && iterator.hasNext()) {
+			Entry entry = iterator.next();
+			Set<Long> entryChildren = children.get(entry.getFolderId());
+			if (entryChildren == null || entryChildren.isEmpty()) {
+				remove(entry.getFolderId());
+				evicted++;
+			}
+		}
+	}
+
+	public Long getRootId(long tenantId) {
+		return roots.get(tenantId);
+	}
+
+	public void putRootId(long tenantId, long rootId) {
+		roots.put(tenantId, rootId);
+	}
+
+	/**
+	 * Invalidates a folder and all its sub-tree
+	 *
+	 * @param folderId identifier of the folder
+	 */
+	public void invalidate(long folderId) {
+		if (!isEnabled())
+			return;
+
+		invalidations.incrementAndGet();
+		generation.incrementAndGet();
+		removeTree(folderId);
+
+		if (TransactionSynchronizationManager.isSynchronizationActive())
+			TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+				@Override
+				public void afterCompletion(int status) {
+					generation.incrementAndGet();
+					removeTree(folderId);
+				}
+			});
+	}
+
+	/**
+	 * Removes a folder and walks the index of the children to remove all its
+	 * sub-tree
+	 */
+	private synchronized void removeTree(long folderId) {
+		Deque<Long> stack = new ArrayDeque<>();
+		stack.push(folderId);
+		while (!stack.isEmpty()) {
+			long id = stack.pop();
+			remove(id);
+			Set<Long> removedChildren = children.remove(id);
+			if (removedChildren != null)
+				for (Long childId : removedChildren)
+					if (childId != id)
+						stack.push(childId);
+		}
+	}
+
+	/**
+	 * Removes a single entry, detaching it from the children of its parent
+	 */
+	private void remove(long folderId) {
+		Entry entry = entries.remove(folderId);
+		if (entry == null)
+			return;
+
+		Set<Long> siblings = children.get(entry.getParentId());
+		if (siblings != null) {
+			siblings.remove(folderId);
+			if (siblings.isEmpty())
+				children.remove(entry.getParentId(), siblings);
+		}
+	}
+
+	/**
+	 * Removes all the entries
+	 */
+	public synchronized void clear() {
+		generation.incrementAndGet();
+		entries.clear();
+		children.clear();
+	}
+
+	public int getSize() {
+		return entries.size();
+	}
+
+	public long getHits() {
+		return hits.get();
+	}
+
+	public long getMisses() {
+		return misses.get();
+	}
+
+	public long getInvalidations() {
+		return invalidations.get();
+	}
+
+	@Override
+	public String toString() {
+		long total = hits.get() + misses.get();
+		return "size: " + entries.size() + ", hits: " + hits.get() + ", misses: " + misses.get() + ", hit ratio: "
+				+ (total > 0 ? (hits.get() * 100 / total) : 0) + "%, invalidations: " + invalidations.get();
+	}
+
+	/**
+	 * The paths of a single folder
+	 *
+	 * @author Marco Meschieri - LogicalDOC
+	 * @since 9.1.1
+	 */
+	public static class Entry {
+
+		private final long folderId;
+
+		private final long tenantId;
+
+		private final long parentId;
+
+		private final String name;
+
+		private final String path;
+
+		private final String pathExtended;
+
+		public Entry(long folderId, long tenantId, long parentId, String name, String path, String pathExtended) {
+			this.folderId = folderId;
+			this.tenantId = tenantId;
+			this.parentId = parentId;
+			this.name = name;
+			this.path = path;
+			this.pathExtended = pathExtended;
+		}
+
+		public long getFolderId() {
+			return folderId;
+		}
+
+		public long getTenantId() {
+			return tenantId;
+		}
+
+		public long getParentId() {
+			return parentId;
+		}
+
+		public String getName() {
+			return name;
+		}
+
+		public String getPath() {
+			return path;
+		}
+
+		public String getPathExtended() {
+			return pathExtended;
+		}
+	}
+}
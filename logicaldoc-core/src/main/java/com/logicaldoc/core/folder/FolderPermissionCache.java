@@ -0,0 +1,289 @@
+package com.logicaldoc.core.folder;
+
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import com.logicaldoc.core.security.Permission;
+import com.logicaldoc.util.Context;
+import com.logicaldoc.util.config.ContextProperties;
+
+/**
+ * Caches what is needed to evaluate the permissions of the users on folders:
+ * <ul>
+ * <li>the access control list of each folder that is a security reference, as
+ * a bitmask of permissions for each group</li>
+ * <li>the folder whose policies must be used for a given folder(the
+ * security reference)</li>
+ * <li>the groups of each user</li>
+ * </ul>
+ * The groups and the ACLs are kept as sorted arrays so that the effective
+ * permissions of a user can be computed without allocating objects.<br>
+ * <br>
+ * When something changes inside a transaction, the invalidation is repeated
+ * after the transaction completes, so values read concurrently before the
+ * commit do not survive in the cache.<br>
+ * <br>
+ * Each map holds at most <b>folder.permcache.size</b> elements, when full some
+ * of them are evicted. The cache is local to the node, so it is disabled in a
+ * cluster.
+ *
+ * @author Marco Meschieri - LogicalDOC
+ * @since 9.1.1
+ */
+@Component("folderPermissionCache")
+public class FolderPermissionCache {
+
+	/**
+	 * Bitmask with all the permissions
+	 */
+	public static final int ALL = (1 << Permission.values().length) - 1;
+
+	private final Map<Long, FolderAcl> acls = new ConcurrentHashMap<>();
+
+	private final Map<Long, Long> securityRefs = new ConcurrentHashMap<>();
+
+	private final Map<Long, UserGroups> users = new ConcurrentHashMap<>();
+
+	/**
+	 * Incremented at each invalidation, used to avoid caching values loaded
+	 * while an invalidation was in progress
+	 */
+	private final AtomicLong generation = new AtomicLong();
+
+	private final AtomicLong hits = new AtomicLong();
+
+	private final AtomicLong misses = new AtomicLong();
+
+	public static FolderPermissionCache get() {
+		return Context.get(FolderPermissionCache.class);
+	}
+
+	public long getGeneration() {
+		return generation.get();
+	}
+
+	public FolderAcl getAcl(long folderId) {
+		return count(acls.get(folderId));
+	}
+
+	public void putAcl(long folderId, FolderAcl acl, long expectedGeneration) {
+		put(acls, folderId, acl, expectedGeneration);
+	}
+
+	/**
+	 * Gets the folder whose policies must be used for the given folder
+	 *
+	 * @param folderId identifier of the folder
+	 *
+	 * @return the identifier of the folder that holds the policies, null if
+	 *         not cached
+	 */
+	public Long getSecurityRef(long folderId) {
+		return count(securityRefs.get(folderId));
+	}
+
+	public void putSecurityRef(long folderId, long securityRef, long expectedGeneration) {
+		put(securityRefs, folderId, securityRef, expectedGeneration);
+	}
+
+	public UserGroups getUserGroups(long userId) {
+		return count(users.get(userId));
+	}
+
+	public void putUserGroups(long userId, UserGroups groups, long expectedGeneration) {
+		put(users, userId, groups, expectedGeneration);
+	}
+
+	private <T> void put(Map<Long, T> map, long key, T value, long expectedGeneration) {
+		int maxSize = getMaxSize();
+		if (maxSize <= 0 || generation.get() != expectedGeneration)
+			return;
+
+		if (map.size() >= maxSize) {
+			Iterator<Long> iterator = map.keySet().iterator();
+			for (int i = 0; i < Math.max(1, maxSize / 100) && iterator.hasNext(); i++) {
+				iterator.next();
+				iterator.remove();
+			}
+		}
+		map.put(key, value);
+	}
+
+	/**
+	 * Gets the maximum number of elements of each map, zero if the cache is
+	 * disabled
+	 *
+	 * @return the maximum size
+	 */
+	private int getMaxSize() {
+		ContextProperties config = Context.get().getProperties();
+		if (config.getBoolean("cluster.enabled", false))
+			return 0;
+		return config.getInt("folder.permcache.size", 100000);
+	}
+
+	private <T> T count(T value) {
+		if (value != null)
+			hits.incrementAndGet();
+		else
+			misses.incrementAndGet();
+		return value;
+	}
+
+	/**
+	 * Invalidates the ACL and the security reference of a folder
+	 *
+	 * @param folderId identifier of the folder
+	 */
+	public void invalidateFolder(long folderId) {
+		invalidate(() -> {
+			acls.remove(folderId);
+			securityRefs.remove(folderId);
+		});
+	}
+
+	/**
+	 * Invalidates all the security references, to be used when the references
+	 * are updated in bulk
+	 */
+	public void invalidateSecurityRefs() {
+		invalidate(securityRefs::clear);
+	}
+
+	/**
+	 * Invalidates the groups of a user
+	 *
+	 * @param userId identifier of the user
+	 */
+	public void invalidateUser(long userId) {
+		invalidate(() -> users.remove(userId));
+	}
+
+	/**
+	 * Invalidates everything
+	 */
+	public void clear() {
+		invalidate(() -> {
+			acls.clear();
+			securityRefs.clear();
+			users.clear();
+		});
+	}
+
+	private void invalidate(Runnable invalidation) {
+		generation.incrementAndGet();
+		invalidation.run();
+
+		if (TransactionSynchronizationManager.isSynchronizationActive())
+			TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+				@Override
+				public void afterCompletion(int status) {
+					generation.incrementAndGet();
+					invalidation.run();
+				}
+			});
+	}
+
+	public long getHits() {
+		return hits.get();
+	}
+
+	public long getMisses() {
+		return misses.get();
+	}
+
+	@Override
+	public String toString() {
+		return "acls: " + acls.size() + ", securityRefs: " + securityRefs.size() + ", users: " + users.size()
+				+ ", hits: " + hits.get() + ", misses: " + misses.get();
+	}
+
+	/**
+	 * The access control list of a folder, for each group the bitmask of the
+	 * granted permissions
+	 *
+	 * @author Marco Meschieri - LogicalDOC
+	 * @since 9.1.1
+	 */
+	public static class FolderAcl {
+
+		private final long[] groupIds;
+
+		private final int[] masks;
+
+		/**
+		 * Constructor
+		 *
+		 * @param groupIds identifiers of the groups, sorted ascending
+		 * @param masks the permissions of each group
+		 */
+		public FolderAcl(long[] groupIds, int[] masks) {
+			this.groupIds = groupIds;
+			this.masks = masks;
+		}
+
+		/**
+		 * Computes the permissions granted to a set of groups by merging the two
+		 * sorted arrays
+		 *
+		 * @param userGroupIds identifiers of the groups, sorted ascending
+		 *
+		 * @return the bitmask of the granted permissions
+		 */
+		public int getPermissions(long[] userGroupIds) {
+			int mask = 0;
+			int i = 0;
+			int j = 0;
+			while (i < groupIds.length && j < userGroupIds.length) {
+				if (groupIds[i] == userGroupIds[j]) {
+					mask |= masks[i];
+					i++;
+					j++;
+				} else if (groupIds[i] < userGroupIds[j]) {
+					i++;
+				} else {
+					j++;
+				}
+			}
+			return mask;
+		}
+	}
+
+	/**
+	 * The groups a user belongs to
+	 *
+	 * @author Marco Meschieri - LogicalDOC
+	 * @since 9.1.1
+	 */
+	public static class UserGroups {
+
+		private final boolean admin;
+
+		private final long[] groupIds;
+
+		/**
+		 * Constructor
+		 *
+		 * @param admin if the user is member of the admin group
+		 * @param groupIds identifiers of the groups, sorted ascending
+		 */
+		public UserGroups(boolean admin, long[] groupIds) {
+			this.admin = admin;
+			this.groupIds = groupIds;
+		}
+
+		public boolean isAdmin() {
+			return admin;
+		}
+
+		public long[] getGroupIds() {
+			return groupIds;
+		}
+	}
+}
@@ -0,0 +1,160 @@
+package com.logicaldoc.core.folder;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.function.UnaryOperator;
+import java.util.stream.Collectors;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.logicaldoc.core.PersistenceException;
+
+/**
+ * Resolves the folders inside a tree. The tree is walked level by level
+ * following the <code>ld_parentid</code> column, each level is loaded with
+ * queries on chunks of at most {@value #CHUNK_SIZE} parents, so just the
+ * current level and the result are kept in memory and the path of the folders
+ * is never trusted. Sums over a tree walk the same way, so the sizes and
+ * counts always refer to the same folders that are listed.
+ *
+ * @author Marco Meschieri - LogicalDOC
+ * @since 9.1.1
+ */
+class FolderTreeTraversal {
+
+	private static final Logger log = LoggerFactory.getLogger(FolderTreeTraversal.class);
+
+	/**
+	 * Maximum number of identifiers inside an <code>in</code> clause, the
+	 * limit of Oracle
+	 */
+	private static final int CHUNK_SIZE = 1000;
+
+	private final HibernateFolderDAO dao;
+
+	FolderTreeTraversal(HibernateFolderDAO dao) {
+		this.dao = dao;
+	}
+
+	/**
+	 * Finds the identifiers of the folders in a tree
+	 *
+	 * @param rootId identifier of the root of the tree
+	 * @param includeDeleted if the deleted folders must be included
+	 * @param connected if true a folder is included only if all it's parents
+	 *        up to the root are included too, otherwise the descendants of
+	 *        deleted folders are included as well
+	 *
+	 * @return the identifiers of the folders, the root is always included
+	 *
+	 * @throws PersistenceException Error in the data layer
+	 */
+	Set<Long> findIds(long rootId, boolean includeDeleted, boolean connected) throws PersistenceException {
+		Root root = getRoot(rootId);
+		if (root == null) {
+			Set<Long> ids = new HashSet<>();
+			ids.add(rootId);
+			return ids;
+		}
+		return findIds(root, includeDeleted, connected);
+	}
+
+	private Set<Long> findIds(Root root, boolean includeDeleted, boolean connected) throws PersistenceException {
+		Set<Long> ids = new HashSet<>();
+		ids.add(root.id);
+
+		// The children of deleted folders are not needed in a connected walk
+		String deletedCondition = connected && !includeDeleted ? " and ld_deleted=0" : "";
+
+		Set<Long> visited = new HashSet<>();
+		visited.add(root.id);
+		List<Long> level = List.of(root.id);
+		while (!level.isEmpty()) {
+			List<Long> nextLevel = new ArrayList<>();
+			for (int i = 0; i < level.size(); i += CHUNK_SIZE) {
+				String chunk = level.subList(i, Math.min(i + CHUNK_SIZE, level.size())).stream()
+						.map(id -> Long.toString(id)).collect(Collectors.joining(","));
+				dao.queryForResultSet("select ld_id, ld_deleted from ld_folder where ld_id<>ld_parentid"
+						+ deletedCondition + " and ld_parentid in (" + chunk + ")", null, null, rows -> {
+							while (rows.next()) {
+								long id = rows.getLong(1);
+								if (!visited.add(id))
+									continue;
+
+								boolean accepted = includeDeleted || rows.getInt(2) == 0;
+								if (accepted)
+									ids.add(id);
+								if (accepted || !connected)
+									nextLevel.add(id);
+							}
+						});
+			}
+			level = nextLevel;
+		}
+
+		log.debug("Found {} folders in tree {}", ids.size(), root.id);
+		return ids;
+	}
+
+	/**
+	 * Sums the results of a query over all the not deleted folders in a tree.
+	 * The query is given a condition on the columns of <code>ld_folder</code>
+	 * that selects the folders of the tree: for the root of a tenant it is
+	 * just the tenant, otherwise the identifiers found walking the tree.
+	 *
+	 * @param rootId identifier of the root of the tree
+	 * @param query builds the query to execute given the condition
+	 *
+	 * @return the sum of the results
+	 *
+	 * @throws PersistenceException Error in the data layer
+	 */
+	long sum(long rootId, UnaryOperator<String> query) throws PersistenceException {
+		Root root = getRoot(rootId);
+		if (root == null)
+			return 0L;
+
+		if (root.isTenantRoot())
+			return dao.queryForLong(query.apply("ld_tenantid=" + root.tenantId));
+
+		long sum = 0L;
+		List<Long> ids = new ArrayList<>(findIds(root, false, false));
+		for (int i = 0; i < ids.size(); i += CHUNK_SIZE) {
+			String chunk = ids.subList(i, Math.min(i + CHUNK_SIZE, ids.size())).stream().map(id -> Long.toString(id))
+					.collect(Collectors.joining(","));
+			sum += dao.queryForLong(query.apply("ld_id in (" + chunk + ")"));
+		}
+		return sum;
+	}
+
+	private Root getRoot(long rootId) throws PersistenceException {
+		List<Root> roots = dao.query("select ld_id, ld_tenantid, ld_parentid from ld_folder where ld_id=" + rootId,
+				(rs, rowNum) -> new Root(rs.getLong(1), rs.getLong(2), rs.getLong(3)), null);
+		return roots.isEmpty() ? null : roots.get(0);
+	}
+
+	/**
+	 * The root of a tree, as stored in the database
+	 */
+	private static class Root {
+
+		private final long id;
+
+		private final long tenantId;
+
+		private final long parentId;
+
+		private Root(long id, long tenantId, long parentId) {
+			this.id = id;
+			this.tenantId = tenantId;
+			this.parentId = parentId;
+		}
+
+		private boolean isTenantRoot() {
+			return id == parentId;
+		}
+	}
+}
@@ -5,6 +5,7 @@ import java.io.InputStream;
 import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.Date;
@@ -13,7 +14,6 @@ import java.util.HashSet;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
-import java.util.Map.Entry;
 import java.util.Set;
 import java.util.StringTokenizer;
 import java.util.stream.Collectors;
@@ -53,6 +53,7 @@ import com.logicaldoc.core.security.user.UserGroup;
 import com.logicaldoc.core.store.Store;
 import com.logicaldoc.util.Context;
 import com.logicaldoc.util.StringUtil;
+import com.logicaldoc.util.config.ContextProperties;
 import com.logicaldoc.util.html.HTMLSanitizer;
 import com.logicaldoc.util.sql.SqlUtil;
 
@@ -108,6 +109,13 @@ public class HibernateFolderDAO extends HibernatePersistentObjectDAO<Folder> imp
 	@Resource(name = "folderListenerManager")
 	protected FolderListenerManager listenerManager;
 
+	@Resource(name = "folderPermissionCache")
+	protected FolderPermissionCache permissionCache;
+
+	private FolderPathCache pathCache;
+
+	private final FolderTreeTraversal treeTraversal = new FolderTreeTraversal(this);
+
 	public HibernateFolderDAO() {
 		super(Folder.class);
 		super.log = LoggerFactory.getLogger(HibernateFolderDAO.class);
@@ -167,7 +175,11 @@ public class HibernateFolderDAO extends HibernatePersistentObjectDAO<Folder> imp
 			for (FolderListener listener : listenerManager.getListeners())
 				listener.beforeStore(folder, transaction, dictionary);
 
+			// Invalidated now and again after the commit
+			invalidatePathIfChanged(folder);
+			Map<String, Long> tagDeltas = getTagDeltas(folder);
 			saveOrUpdate(folder);
+			permissionCache.invalidateFolder(folder.getId());
 			if (StringUtils.isEmpty(folder.getPath())) {
 				folder.setPath(computePath(folder.getId()));
 				saveOrUpdate(folder);
@@ -175,6 +187,9 @@ public class HibernateFolderDAO extends HibernatePersistentObjectDAO<Folder> imp
 
 			flush();
 
+			if (!tagDeltas.isEmpty())
+				Context.get(DocumentDAO.class).updateUniqueTags(folder.getTenantId(), tagDeltas);
+
 			if (folder.getDeleted() == 0 && folder.getId() != 0L)
 				refresh(folder);
 
@@ -188,6 +203,30 @@ public class HibernateFolderDAO extends HibernatePersistentObjectDAO<Folder> imp
 		}
 	}
 
+	/**
+	 * Detects the tags added to or removed from the folder. The tags of the
+	 * folders are not counted, so the variations are all zero and just cause
+	 * the unique tags to be created or cleaned.
+	 * 
+	 * @param folder the folder being stored
+	 * 
+	 * @return map tag - variation of the counter
+	 */
+	private Map<String, Long> getTagDeltas(Folder folder) throws PersistenceException {
+		Set<String> oldTags = new HashSet<>();
+		if (folder.getId() != 0L && queryForInt("select ld_deleted from ld_folder where ld_id=" + folder.getId()) == 0)
+			oldTags.addAll(findTags(folder.getId()));
+
+		Set<String> newTags = new HashSet<>();
+		if (folder.getDeleted() == 0 && folder.getTags() != null)
+			newTags.addAll(folder.getTags().stream().map(Tag::getTag).collect(Collectors.toSet()));
+
+		Map<String, Long> deltas = new HashMap<>();
+		oldTags.stream().filter(tag -> !newTags.contains(tag)).forEach(tag -> deltas.put(tag, 0L));
+		newTags.stream().filter(tag -> !oldTags.contains(tag)).forEach(tag -> deltas.put(tag, 0L));
+		return deltas;
+	}
+
 	private void workspaceChecks(Folder folder) throws PersistenceException {
 		if (folder.getId() != 0L && folder.getType() == Folder.TYPE_WORKSPACE) {
 			Folder root = findRoot(folder.getTenantId());
@@ -217,6 +256,7 @@ public class HibernateFolderDAO extends HibernatePersistentObjectDAO<Folder> imp
 				else
 					alias.setSecurityRef(folder.getId());
 				saveOrUpdate(alias);
+				permissionCache.invalidateFolder(alias.getId());
 			}
 		}
 	}
@@ -423,6 +463,52 @@ public class HibernateFolderDAO extends HibernatePersistentObjectDAO<Folder> imp
 		return coll;
 	}
 
+	@Override
+	public List<Folder> findChildren(long parentId, long userId, int first, Integer max) throws PersistenceException {
+		Map<String, Object> params = new HashMap<>();
+		String where = getVisibleChildrenWhere(parentId, userId, params);
+		return findByWhere(where, params, "order by " + ENTITY + ".name, " + ENTITY + ".id", first, max);
+	}
+
+	@Override
+	public long countChildren(long parentId, long userId) throws PersistenceException {
+		Map<String, Object> params = new HashMap<>();
+		return countByWhere(getVisibleChildrenWhere(parentId, userId, params), params);
+	}
+
+	private String getVisibleChildrenWhere(long parentId, long userId, Map<String, Object> params)
+			throws PersistenceException {
+		Folder parent = findFolder(parentId);
+		params.put(PARENT_ID, parent.getId());
+
+		StringBuilder where = new StringBuilder(ENTITY + ".parentId = :parentId and " + ENTITY + ".id != :parentId and "
+				+ ENTITY + ".hidden = 0");
+		String readable = getReadableFoldersQuery(userId);
+		if (readable != null)
+			where.append(AND + ENTITY + ".id in (" + readable + ")");
+		return where.toString();
+	}
+
+	@Override
+	public String getReadableFoldersQuery(long userId) throws PersistenceException {
+		User user = getExistingtUser(userId);
+		if (user.isMemberOf(Group.GROUP_ADMIN))
+			return null;
+
+		Set<Group> groups = user.getGroups();
+		if (groups.isEmpty())
+			return "select F.id from Folder F where 1=0";
+
+		String groupIds = groups.stream().map(ug -> Long.toString(ug.getId())).collect(Collectors.joining(","));
+		String aclQuery = "select distinct(A.id) from Folder A left join A.accessControlList as _group"
+				+ WHERE_GROUP_GROUPID_IN + groupIds + ") and _group.read=1";
+
+		// A folder is readable if its own policies or the referenced ones
+		// grant the read permission
+		return "select F.id from Folder F where F.deleted=0 and (F.id in (" + aclQuery + ") or F.securityRef in ("
+				+ aclQuery + "))";
+	}
+
 	@Override
 	public List<Folder> findByParentId(long parentId) {
 		List<Folder> coll = new ArrayList<>();
@@ -483,27 +569,7 @@ public class HibernateFolderDAO extends HibernatePersistentObjectDAO<Folder> imp
 
 	@Override
 	public boolean isReadAllowed(long folderId, long userId) throws PersistenceException {
-		User user = getExistingtUser(userId);
-		if (user.isMemberOf(Group.GROUP_ADMIN))
-			return true;
-
-		long id = folderId;
-		Folder folder = findById(folderId);
-		if (folder == null)
-			return false;
-		if (folder.getSecurityRef() != null)
-			id = folder.getSecurityRef().longValue();
-
-		Set<Group> userGroups = user.getGroups();
-		if (userGroups.isEmpty())
-			return false;
-
-		StringBuilder query = new StringBuilder(
-				"select distinct(ld_folderid) from ld_folder_acl where ld_read=1 and ld_groupid in (");
-		query.append(userGroups.stream().map(g -> Long.toString(g.getId())).collect(Collectors.joining(",")));
-		query.append(") and ld_folderid=" + id);
-
-		return queryForLong(query.toString()) > 0;
+		return Permission.READ.isIn(getAllowedPermissionsMask(folderId, userId));
 	}
 
 	@Override
@@ -645,65 +711,117 @@ public class HibernateFolderDAO extends HibernatePersistentObjectDAO<Folder> imp
 
 	@Override
 	public String computePath(long folderId) throws PersistenceException {
+		FolderPathCache.Entry entry = getPathCache().get(folderId);
+		if (entry != null)
+			return entry.getPath();
 		return computePath(findById(folderId));
 	}
 
 	@Override
 	public String computePath(Folder folder) throws PersistenceException {
-		if (folder == null)
-			return null;
-
-		Folder root = findRoot(folder.getTenantId());
-		if (root == null)
-			return null;
-
-		long rootId = root.getId();
-
-		String path = !folder.equals(root) ? Long.toString(folder.getId()) : SLASH;
-		while (folder != null && folder.getId() != folder.getParentId() && folder.getId() != rootId) {
-			folder = findById(folder.getParentId());
-			if (folder != null) {
-				StringBuilder sb = new StringBuilder(folder.getId() != rootId ? Long.toString(folder.getId()) : "");
-				sb.append(SLASH);
-				sb.append(path);
-				path = sb.toString();
-			}
-		}
-
-		if (!path.startsWith(SLASH))
-			path = SLASH + path;
-		return path;
+		FolderPathCache.Entry entry = getPathEntry(folder);
+		return entry != null ? entry.getPath() : null;
 	}
 
 	@Override
 	public String computePathExtended(long folderId) throws PersistenceException {
+		FolderPathCache.Entry entry = getPathCache().get(folderId);
+		if (entry != null)
+			return entry.getPathExtended();
 		return computePathExtended(findById(folderId));
 	}
 
 	@Override
 	public String computePathExtended(Folder folder) throws PersistenceException {
+		FolderPathCache.Entry entry = getPathEntry(folder);
+		return entry != null ? entry.getPathExtended() : null;
+	}
+
+	/**
+	 * Retrieves the paths of a folder from the cache, computing them if
+	 * needed. The parents are resolved recursively so they get cached as well.
+	 * 
+	 * @param folder the folder to inspect
+	 * 
+	 * @return the paths of the folder
+	 * 
+	 * @throws PersistenceException Error in the data layer
+	 */
+	private FolderPathCache.Entry getPathEntry(Folder folder) throws PersistenceException {
 		if (folder == null)
 			return null;
 
-		Folder root = findRoot(folder.getTenantId());
-		if (root == null)
-			return null;
+		FolderPathCache cache = getPathCache();
+		FolderPathCache.Entry entry = cache.get(folder.getId());
+		if (entry != null)
+			return entry;
 
-		long rootId = root.getId();
+		long generation = cache.getGeneration();
 
-		String path = folder.getId() != rootId ? folder.getName() : "";
-		while (folder != null && folder.getId() != folder.getParentId() && folder.getId() != rootId) {
-			folder = findById(folder.getParentId());
-			if (folder != null) {
-				StringBuilder sb = new StringBuilder(folder.getId() != rootId ? folder.getName() : "");
-				sb.append(SLASH);
-				sb.append(path);
-				path = sb.toString();
-			}
+		Long rootId = cache.getRootId(folder.getTenantId());
+		if (rootId == null) {
+			Folder root = findRoot(folder.getTenantId());
+			if (root == null)
+				return null;
+			rootId = root.getId();
+			cache.putRootId(folder.getTenantId(), rootId);
+		}
+
+		Folder parent = null;
+		if (folder.getId() != rootId && folder.getId() != folder.getParentId())
+			parent = findById(folder.getParentId());
+
+		if (folder.getId() == rootId) {
+			entry = new FolderPathCache.Entry(folder.getId(), folder.getTenantId(), folder.getParentId(),
+					folder.getName(), SLASH, SLASH);
+		} else if (parent == null) {
+			entry = new FolderPathCache.Entry(folder.getId(), folder.getTenantId(), folder.getParentId(),
+					folder.getName(), SLASH + folder.getId(), SLASH + folder.getName());
+		} else {
+			FolderPathCache.Entry parentEntry = getPathEntry(parent);
+			if (parentEntry == null)
+				return null;
+
+			boolean parentIsRoot = parent.getId() == rootId;
+			entry = new FolderPathCache.Entry(folder.getId(), folder.getTenantId(), folder.getParentId(),
+					folder.getName(), (parentIsRoot ? "" : parentEntry.getPath()) + SLASH + folder.getId(),
+					(parentIsRoot ? "" : parentEntry.getPathExtended()) + SLASH + folder.getName());
+		}
+
+		cache.put(entry, generation);
+		return entry;
+	}
+
+	/**
+	 * Gets the cache of the folders paths, its size is specified by the
+	 * setting <b>folder.pathcache.size</b>. The cache is disabled in a cluster
+	 * because the other nodes would not be notified of the changes.
+	 * 
+	 * @return the cache of paths
+	 */
+	public synchronized FolderPathCache getPathCache() {
+		if (pathCache == null) {
+			ContextProperties config = Context.get().getProperties();
+			pathCache = new FolderPathCache(
+					config.getBoolean("cluster.enabled", false) ? 0 : config.getInt("folder.pathcache.size", 100000));
 		}
-		if (!path.startsWith(SLASH))
-			path = SLASH + path;
-		return path;
+		return pathCache;
+	}
+
+	/**
+	 * Invalidates the cached paths of the given folder in case it was renamed
+	 * or moved
+	 * 
+	 * @param folder the folder being saved
+	 */
+	private void invalidatePathIfChanged(Folder folder) {
+		if (folder.getId() == 0L)
+			return;
+
+		FolderPathCache cache = getPathCache();
+		FolderPathCache.Entry entry = cache.peek(folder.getId());
+		if (entry != null && (entry.getParentId() != folder.getParentId() || !entry.getName().equals(folder.getName())))
+			cache.invalidate(folder.getId());
 	}
 
 	/**
@@ -838,8 +956,7 @@ public class HibernateFolderDAO extends HibernatePersistentObjectDAO<Folder> imp
 
 	@Override
 	public boolean isPermissionAllowed(Permission permission, long folderId, long userId) throws PersistenceException {
-		Set<Permission> permissions = getAllowedPermissions(folderId, userId);
-		return permissions.contains(permission);
+		return permission.isIn(getAllowedPermissionsMask(folderId, userId));
 	}
 
 	@Override
@@ -847,6 +964,8 @@ public class HibernateFolderDAO extends HibernatePersistentObjectDAO<Folder> imp
 		// The parent folder
 		Folder parent = findFolder(parentId);
 
+		String pathOld = queryForString("select ld_path from ld_folder where ld_id=" + folderId);
+
 		int count = jdbcUpdate("update ld_folder set ld_deleted=0, ld_parentid=" + parent.getId()
 				+ ", ld_lastmodified=CURRENT_TIMESTAMP where not ld_type=" + Folder.TYPE_WORKSPACE + " and ld_id="
 				+ folderId);
@@ -859,8 +978,21 @@ public class HibernateFolderDAO extends HibernatePersistentObjectDAO<Folder> imp
 			jdbcUpdate("update ld_folder set ld_deleted=0, ld_parentid=" + root.getId()
 					+ ", ld_lastmodified=CURRENT_TIMESTAMP where ld_type=" + Folder.TYPE_WORKSPACE + " and ld_id="
 					+ folderId);
+			parent = root;
 		}
 
+		// The restored tree may have a new parent so its path must be updated
+		String parentPath = computePath(parent);
+		String pathNew = (SLASH.equals(parentPath) ? "" : parentPath) + SLASH + folderId;
+		jdbcUpdate("update ld_folder set ld_path='" + pathNew + "' where ld_id=" + folderId);
+		if (pathOld != null && !pathOld.equals(pathNew))
+			jdbcUpdate("update ld_folder set ld_path=REPLACE(ld_path,'" + SqlUtil.doubleQuotes(pathOld) + "/','"
+					+ pathNew + "/') where ld_path is not null and ld_path like '" + SqlUtil.doubleQuotes(pathOld)
+					+ "/%'");
+
+		getPathCache().invalidate(folderId);
+		permissionCache.invalidateSecurityRefs();
+
 		Folder fld = findFolder(folderId);
 		if (fld != null && transaction != null) {
 			transaction.setEvent(FolderEvent.RESTORED.toString());
@@ -871,89 +1003,119 @@ public class HibernateFolderDAO extends HibernatePersistentObjectDAO<Folder> imp
 		Set<Long> treeIds = findFolderIdInTree(folderId, true);
 		if (!treeIds.isEmpty()) {
 			String idsStr = treeIds.toString().replace('[', '(').replace(']', ')');
+
+			// The restored tags must be counted again
+			DocumentDAO docDao = Context.get(DocumentDAO.class);
+			Map<String, Long> tagDeltas = docDao.countTagsInFolders(treeIds, 1);
+			for (String tag : queryForList("select distinct(ld_tag) from ld_foldertag where ld_folderid in " + idsStr,
+					String.class))
+				tagDeltas.putIfAbsent(tag, 0L);
+
 			jdbcUpdate(
 					"update ld_folder set ld_deleted=0, ld_lastmodified=CURRENT_TIMESTAMP where ld_deleted=1 and ld_id in "
 							+ idsStr);
 			jdbcUpdate(
 					"update ld_document set ld_deleted=0, ld_lastmodified=CURRENT_TIMESTAMP where ld_deleted=1 and ld_folderid in "
 							+ idsStr);
+
+			if (fld != null)
+				docDao.updateUniqueTags(fld.getTenantId(), tagDeltas);
 		}
 	}
 
 	@Override
 	public Set<Permission> getAllowedPermissions(long folderId, long userId) throws PersistenceException {
-		final Set<Permission> permissions = new HashSet<>();
-		User user = getExistingtUser(userId);
+		return Permission.fromMask(getAllowedPermissionsMask(folderId, userId));
+	}
+
+	/**
+	 * Computes the permissions of a user on a folder, as bitmask of
+	 * {@link Permission#mask()}. All the needed informations are taken from the
+	 * {@link FolderPermissionCache} and loaded from the database in case of
+	 * miss.
+	 * 
+	 * @param folderId identifier of the folder
+	 * @param userId identifier of the user
+	 * 
+	 * @return the bitmask of the permissions, 0 if the folder does not exist
+	 * 
+	 * @throws PersistenceException Error in the data layer
+	 */
+	private int getAllowedPermissionsMask(long folderId, long userId) throws PersistenceException {
+		FolderPermissionCache.UserGroups userGroups = getUserGroups(userId);
 
 		// If the user is an administrator bypass all controls
-		if (user.isMemberOf(Group.GROUP_ADMIN))
-			return Permission.all();
+		if (userGroups.isAdmin())
+			return FolderPermissionCache.ALL;
 
-		Set<Group> userGroups = user.getGroups();
-		if (userGroups.isEmpty())
-			return permissions;
+		if (userGroups.getGroupIds().length == 0)
+			return 0;
 
 		// If the folder defines a security ref, use another folder to find
 		// the policies
-		long id = folderId;
-		Folder folder = findById(folderId);
-		if (folder.getSecurityRef() != null) {
-			id = folder.getSecurityRef().longValue();
-			log.debug("Use the security reference {}", id);
-		}
-
-		StringBuilder query = new StringBuilder("""
-                 select ld_read as LDREAD, ld_write as LDWRITE, ld_add as LDADD, ld_security as LDSECURITY, ld_immutable as LDIMMUTABLE, 
-                 ld_delete as LDDELETE, ld_rename as LDRENAME, ld_import as LDIMPORT, ld_export as LDEXPORT, ld_sign as LDSIGN, 
-                 ld_archive as LDARCHIVE, ld_workflow as LDWORKFLOW, ld_download as LDDOWNLOAD, ld_calendar as LDCALENDAR, 
-                 ld_subscription as LDSUBSCRIPTION, ld_print as LDPRINT, ld_password as LDPASSWORD, ld_move as LDMOVE, ld_email as LDEMAIL, 
-                 ld_automation LDAUTOMATION, ld_store LDSTORE, ld_readingreq LDREADINGREQ, ld_preview LDPREVIEW, ld_customid LDCUSTOMID
-""");
-		query.append(" from ld_folder_acl ");
-		query.append(WHERE);
-		query.append(" ld_folderid=" + id);
-		query.append(" and ld_groupid in (select ld_groupid from ld_usergroup where ld_userid=");
-		query.append(Long.toString(userId));
-		query.append(")");
+		Long id = getSecurityRef(folderId);
+		if (id == null)
+			return 0;
 
-		Map<String, Permission> permissionColumn = new HashMap<>();
-		permissionColumn.put("LDADD", Permission.ADD);
-		permissionColumn.put("LDEXPORT", Permission.EXPORT);
-		permissionColumn.put("LDIMPORT", Permission.IMPORT);
-		permissionColumn.put("LDDELETE", Permission.DELETE);
-		permissionColumn.put("LDIMMUTABLE", Permission.IMMUTABLE);
-		permissionColumn.put("LDSECURITY", Permission.SECURITY);
-		permissionColumn.put("LDRENAME", Permission.RENAME);
-		permissionColumn.put("LDWRITE", Permission.WRITE);
-		permissionColumn.put("LDREAD", Permission.READ);
-		permissionColumn.put("LDSIGN", Permission.SIGN);
-		permissionColumn.put("LDARCHIVE", Permission.ARCHIVE);
-		permissionColumn.put("LDWORKFLOW", Permission.WORKFLOW);
-		permissionColumn.put("LDDOWNLOAD", Permission.DOWNLOAD);
-		permissionColumn.put("LDCALENDAR", Permission.CALENDAR);
-		permissionColumn.put("LDSUBSCRIPTION", Permission.SUBSCRIPTION);
-		permissionColumn.put("LDPRINT", Permission.PRINT);
-		permissionColumn.put("LDPASSWORD", Permission.PASSWORD);
-		permissionColumn.put("LDMOVE", Permission.MOVE);
-		permissionColumn.put("LDEMAIL", Permission.EMAIL);
-		permissionColumn.put("LDAUTOMATION", Permission.AUTOMATION);
-		permissionColumn.put("LDSTORE", Permission.STORE);
-		permissionColumn.put("LDREADINGREQ", Permission.READINGREQ);
-		permissionColumn.put("LDPREVIEW", Permission.PREVIEW);
-		permissionColumn.put("LDCUSTOMID", Permission.CUSTOMID);
-
-		queryForResultSet(query.toString(), null, null, rows -> {
-			while (rows.next()) {
-				for (Entry<String, Permission> entry : permissionColumn.entrySet()) {
-					String column = entry.getKey();
-					Permission permission = entry.getValue();
-					if (rows.getInt(column) == 1)
-						permissions.add(permission);
-				}
-			}
-		});
+		return getAcl(id).getPermissions(userGroups.getGroupIds());
+	}
+
+	private FolderPermissionCache.UserGroups getUserGroups(long userId) throws PersistenceException {
+		FolderPermissionCache.UserGroups userGroups = permissionCache.getUserGroups(userId);
+		if (userGroups == null) {
+			long generation = permissionCache.getGeneration();
+			User user = getExistingtUser(userId);
+			long[] groupIds = user.getGroups().stream().mapToLong(Group::getId).sorted().toArray();
+			userGroups = new FolderPermissionCache.UserGroups(user.isMemberOf(Group.GROUP_ADMIN), groupIds);
+			permissionCache.putUserGroups(userId, userGroups, generation);
+		}
+		return userGroups;
+	}
+
+	private Long getSecurityRef(long folderId) throws PersistenceException {
+		Long securityRef = permissionCache.getSecurityRef(folderId);
+		if (securityRef == null) {
+			long generation = permissionCache.getGeneration();
+			Folder folder = findById(folderId);
+			if (folder == null)
+				return null;
 
-		return permissions;
+			securityRef = folder.getSecurityRef() != null ? folder.getSecurityRef() : folderId;
+			if (folder.getSecurityRef() != null)
+				log.debug("Use the security reference {}", securityRef);
+			permissionCache.putSecurityRef(folderId, securityRef, generation);
+		}
+		return securityRef;
+	}
+
+	private FolderPermissionCache.FolderAcl getAcl(long folderId) throws PersistenceException {
+		FolderPermissionCache.FolderAcl acl = permissionCache.getAcl(folderId);
+		if (acl != null)
+			return acl;
+
+		long generation = permissionCache.getGeneration();
+
+		Permission[] permissions = Permission.values();
+		String columns = Arrays.stream(permissions).map(p -> "ld_" + p.getName()).collect(Collectors.joining(","));
+
+		List<Long> groupIds = new ArrayList<>();
+		List<Integer> masks = new ArrayList<>();
+		queryForResultSet("select ld_groupid, " + columns + " from ld_folder_acl where ld_folderid=" + folderId
+				+ " order by ld_groupid", null, null, rows -> {
+					while (rows.next()) {
+						int mask = 0;
+						for (int i = 0; i < permissions.length; i++)
+							if (rows.getInt(i + 2) == 1)
+								mask |= permissions[i].mask();
+						groupIds.add(rows.getLong(1));
+						masks.add(mask);
+					}
+				});
+
+		acl = new FolderPermissionCache.FolderAcl(groupIds.stream().mapToLong(Long::longValue).toArray(),
+				masks.stream().mapToInt(Integer::intValue).toArray());
+		permissionCache.putAcl(folderId, acl, generation);
+		return acl;
 	}
 
 	@Override
@@ -1166,6 +1328,7 @@ public class HibernateFolderDAO extends HibernatePersistentObjectDAO<Folder> imp
 	public void delete(long folderId, int code) throws PersistenceException {
 		checkIfCanDelete(folderId);
 		super.delete(folderId, code);
+		getPathCache().invalidate(folderId);
 	}
 
 	@Override
@@ -1185,6 +1348,7 @@ public class HibernateFolderDAO extends HibernatePersistentObjectDAO<Folder> imp
 		Folder folder = findById(folderId);
 		prepareHistory(folder, delCode, transaction);
 		store(folder, transaction);
+		getPathCache().invalidate(folderId);
 
 		/**
 		 * Delete the aliases pointing to this deleted folder
@@ -1204,6 +1368,7 @@ public class HibernateFolderDAO extends HibernatePersistentObjectDAO<Folder> imp
 		 * Clear the security refs pointing to this deleted folder
 		 */
 		long updatedRows = jdbcUpdate("update ld_folder set ld_securityref=null where ld_securityref=" + folderId);
+		permissionCache.invalidateSecurityRefs();
 		log.debug("Cleared {} secuerity refs pointing to the deleted folder {}", updatedRows, folderId);
 	}
 
@@ -1274,6 +1439,8 @@ public class HibernateFolderDAO extends HibernatePersistentObjectDAO<Folder> imp
 			getSessionFactory().getCache().evictEntityData(Folder.class);
 			getSessionFactory().getCache().evictCollectionData(Folder.class.getCanonicalName() + ".accessControlList");
 		}
+
+		permissionCache.clear();
 	}
 
 	@Override
@@ -1691,6 +1858,8 @@ public class HibernateFolderDAO extends HibernatePersistentObjectDAO<Folder> imp
 		 */
 		jdbcUpdate("update ld_folder set ld_path=REPLACE(ld_path,'" + pathOld + "/','" + pathNew
 				+ "/') where ld_path is not null and ld_path like '" + pathOld + "/%'");
+
+		getPathCache().invalidate(source.getId());
 	}
 
 	@Override
@@ -1747,6 +1916,16 @@ public class HibernateFolderDAO extends HibernatePersistentObjectDAO<Folder> imp
 			return notDeletableFolders;
 		}
 
+		/*
+		 * The tags in the tree will not be counted anymore
+		 */
+		DocumentDAO docDao = Context.get(DocumentDAO.class);
+		Map<String, Long> tagDeltas = new HashMap<>();
+		docDao.countTagsInFolders(treeIds, 0).forEach((tag, count) -> tagDeltas.put(tag, -count));
+		for (String tag : queryForList("select distinct(ld_tag) from ld_foldertag where ld_folderid in " + treeIdsString,
+				String.class))
+			tagDeltas.putIfAbsent(tag, 0L);
+
 		/*
 		 * Mark as deleted all the folders
 		 */
@@ -1778,9 +1957,14 @@ public class HibernateFolderDAO extends HibernatePersistentObjectDAO<Folder> imp
 		jdbcUpdate("update ld_document set ld_deleteuser=:user where  ld_folderid in " + treeIdsString,
 				Map.of("user", transaction.getUser().getFullName()));
 
+		docDao.updateUniqueTags(folder.getTenantId(), tagDeltas);
+
 		if (getSessionFactory().getCache() != null)
 			getSessionFactory().getCache().evictEntityData(Folder.class);
 
+		getPathCache().invalidate(folder.getId());
+		permissionCache.invalidateSecurityRefs();
+
 		log.warn("Deleted {} folders in tree {} - {}", records, folder.getName(), folder.getId());
 
 		return notDeletableFolders;
@@ -1792,42 +1976,10 @@ public class HibernateFolderDAO extends HibernatePersistentObjectDAO<Folder> imp
 
 		Set<Long> ids = new HashSet<>();
 		ids.add(rootId);
-
-		List<Long> lastIds = new ArrayList<>();
-		lastIds.add(rootId);
-		while (!lastIds.isEmpty()) {
-			String idsExpression = "";
-			if (isOracle()) {
-				/*
-				 * In Oracle The limit of 1000 elements applies to sets of
-				 * single items: (x) IN ((1), (2), (3), ...). There is no limit
-				 * if the sets contain two or more items: (x, 0) IN ((1,0),
-				 * (2,0), (3,0), ...):
-				 */
-				String str = ids.stream().map(id -> ("(" + id + ",0)")).collect(Collectors.joining(","));
-				idsExpression = " ( (ld_id,0) not in ( ";
-				idsExpression += str;
-				idsExpression += ") and (ld_parentid,0) in (";
-				idsExpression += str;
-				idsExpression += ") ) ";
-			} else {
-				String str = ids.toString().replace('[', '(').replace(']', ')');
-				idsExpression = "(  ld_id not in " + str + " and ld_parentid in " + str + " ) ";
-			}
-			lastIds.clear();
-
-			String query = "select ld_id from ld_folder where " + (includeDeleted ? "" : " ld_deleted=0 and ")
-					+ idsExpression;
-
-			log.debug("Executing query{}", query);
-
-			try {
-				lastIds = queryForList(query, Long.class);
-				if (!lastIds.isEmpty())
-					ids.addAll(lastIds);
-			} catch (PersistenceException e) {
-				log.error(e.getMessage(), e);
-			}
+		try {
+			ids = treeTraversal.findIds(rootId, includeDeleted, true);
+		} catch (PersistenceException e) {
+			log.error(e.getMessage(), e);
 		}
 
 		if (log.isDebugEnabled())
@@ -1837,8 +1989,6 @@ public class HibernateFolderDAO extends HibernatePersistentObjectDAO<Folder> imp
 
 	@Override
 	public Set<Long> findFolderIdInPath(long rootId, boolean includeDeleted) throws PersistenceException {
-		Set<Long> ids = new HashSet<>();
-
 		Folder rootFolder = null;
 		try {
 			rootFolder = findById(rootId);
@@ -1848,18 +1998,10 @@ public class HibernateFolderDAO extends HibernatePersistentObjectDAO<Folder> imp
 
 		if (rootFolder == null) {
 			log.warn("No root folder {}", rootId);
-			return ids;
+			return new HashSet<>();
 		}
 
-		String query = "select ld_id from ld_folder where ld_tenantid=" + rootFolder.getTenantId()
-				+ (includeDeleted ? "" : " and ld_deleted=0 ");
-		query += " and ld_path like '" + SqlUtil.doubleQuotes(rootFolder.getPath()) + "/%'";
-		ids = new HashSet<>(queryForList(query, Long.class));
-
-		if (!ids.contains(rootId))
-			ids.add(rootId);
-
-		return ids;
+		return treeTraversal.findIds(rootId, includeDeleted, false);
 	}
 
 	@Override
@@ -1996,20 +2138,18 @@ public class HibernateFolderDAO extends HibernatePersistentObjectDAO<Folder> imp
 
 		// Now all the folders that are referencing this one must be updated
 		bulkUpdate("set securityRef=" + securityRef + " where securityRef=" + folderId, null);
+		permissionCache.invalidateSecurityRefs();
 	}
 
 	@Override
 	public long countDocsInTree(long rootId) {
 		try {
 			Folder root = findFolder(rootId);
-			String rootPath = root.getPath();
-			if (SLASH.equals(rootPath))
-				rootPath = "";
-
-			String query = "SELECT COUNT(*) from ld_document D, ld_folder F WHERE D.ld_folderid=F.ld_id and F.ld_deleted=0 and D.ld_deleted=0 and D.ld_tenantid = "
-					+ root.getTenantId() + " and (D.ld_folderid=" + rootId + " or F.ld_path like '"
-					+ SqlUtil.doubleQuotes(rootPath) + "/%')";
-			return queryForLong(query);
+			return treeTraversal.sum(root.getId(),
+					treeCondition -> "select count(*) from ld_document where ld_deleted=0 and ld_tenantid="
+							+ root.getTenantId()
+							+ " and ld_folderid in (select ld_id from ld_folder where ld_deleted=0 and "
+							+ treeCondition + ")");
 		} catch (PersistenceException e) {
 			log.error(e.getMessage(), e);
 			return 0;
@@ -2032,23 +2172,18 @@ public class HibernateFolderDAO extends HibernatePersistentObjectDAO<Folder> imp
 	public long computeTreeSize(long rootId) {
 		try {
 			Folder root = findFolder(rootId);
-			String rootPath = root.getPath();
-			if (SLASH.equals(rootPath))
-				rootPath = "";
 
-			long sizeDocs = queryForLong(
-					"select sum(ld_filesize) from ld_document WHERE ld_deleted=0 and ld_tenantid = "
+			long sizeDocs = treeTraversal.sum(root.getId(),
+					treeCondition -> "select sum(ld_filesize) from ld_document WHERE ld_deleted=0 and ld_tenantid = "
 							+ root.getTenantId()
-							+ " and ld_folderid in (SELECT ld_id FROM ld_folder WHERE ld_deleted=0 and (ld_path LIKE'"
-							+ SqlUtil.doubleQuotes(rootPath) + "/%' or ld_id=" + rootId + ")) and ld_tenantid="
-							+ root.getTenantId());
-
-			long sizeVersions = queryForLong(
-					"select sum(V.ld_filesize) as total from ld_version V where V.ld_version = V.ld_fileversion "
-							+ " and V.ld_tenantid = " + root.getTenantId()
-							+ " and V.ld_folderid in (SELECT ld_id FROM ld_folder WHERE ld_deleted=0 and ld_tenantid="
-							+ root.getTenantId() + " and (ld_path LIKE'" + SqlUtil.doubleQuotes(rootPath)
-							+ "/%' or ld_id=" + rootId + ")) and not exists (select D.ld_id from ld_document D"
+							+ " and ld_folderid in (SELECT ld_id FROM ld_folder WHERE ld_deleted=0 and "
+							+ treeCondition + ")");
+
+			long sizeVersions = treeTraversal.sum(root.getId(),
+					treeCondition -> "select sum(V.ld_filesize) as total from ld_version V"
+							+ " where V.ld_version = V.ld_fileversion and V.ld_tenantid = " + root.getTenantId()
+							+ " and V.ld_folderid in (SELECT ld_id FROM ld_folder WHERE ld_deleted=0 and "
+							+ treeCondition + ") and not exists (select D.ld_id from ld_document D"
 							+ " where D.ld_id=V.ld_documentid and D.ld_fileversion=V.ld_fileversion)");
 
 			return sizeDocs + sizeVersions;
@@ -2362,6 +2497,8 @@ public class HibernateFolderDAO extends HibernatePersistentObjectDAO<Folder> imp
 		}
 
 		deleteEmptySourceFolders(source, transaction);
+
+		getPathCache().invalidate(source.getId());
 	}
 
 	private void deleteEmptySourceFolders(Folder source, FolderHistory transaction) throws PersistenceException {
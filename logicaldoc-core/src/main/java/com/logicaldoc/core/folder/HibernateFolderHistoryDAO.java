@@ -10,6 +10,7 @@ import org.apache.commons.lang.StringUtils;
 import org.slf4j.LoggerFactory;
 
 import com.logicaldoc.core.PersistenceException;
+import com.logicaldoc.core.history.Change;
 import com.logicaldoc.core.history.HibernateHistoryDAO;
 import com.logicaldoc.util.sql.SqlUtil;
 
@@ -32,6 +33,30 @@ public class HibernateFolderHistoryDAO extends HibernateHistoryDAO<FolderHistory
 		super.log = LoggerFactory.getLogger(HibernateFolderHistoryDAO.class);
 	}
 
+	@Override
+	protected Change toChange(FolderHistory history) {
+		FolderEvent event = FolderEvent.fromString(history.getEvent());
+		if (event == null || history.getFolderId() == null)
+			return null;
+
+		int changeType;
+		switch (event) {
+		case CREATED:
+			changeType = Change.CHANGE_CREATED;
+			break;
+		case RENAMED, MOVED:
+			changeType = Change.CHANGE_UPDATED;
+			break;
+		case DELETED:
+			changeType = Change.CHANGE_DELETED;
+			break;
+		default:
+			return null;
+		}
+		return new Change(history.getTenantId(), history.getFolderId(), Change.TYPE_FOLDER, changeType,
+				history.getEvent());
+	}
+
 	@Override
 	public List<FolderHistory> findByUserId(long userId) throws PersistenceException {
 		return findByUserIdAndEvent(userId, null);
@@ -0,0 +1,121 @@
+package com.logicaldoc.core.history;
+
+import java.util.Date;
+
+import com.logicaldoc.core.PersistentObject;
+
+/**
+ * An entry of the change journal, the append-only log of the creations,
+ * updates and deletions of documents and folders. After the transaction that
+ * recorded the change commits, the change receives a commit sequence that
+ * grows in the same order the changes become visible, so it can be used by the
+ * clients as a token to read the journal incrementally.
+ *
+ * @author Marco Meschieri - LogicalDOC
+ * @since 9.1.1
+ */
+public class Change extends PersistentObject {
+
+	private static final long serialVersionUID = 1L;
+
+	public static final int TYPE_DOCUMENT = 0;
+
+	public static final int TYPE_FOLDER = 1;
+
+	public static final int CHANGE_CREATED = 0;
+
+	public static final int CHANGE_UPDATED = 1;
+
+	public static final int CHANGE_DELETED = 2;
+
+	private long objectId;
+
+	private int objectType = TYPE_DOCUMENT;
+
+	private int changeType = CHANGE_UPDATED;
+
+	private String event;
+
+	private Date date = new Date();
+
+	private Long commitSeq;
+
+	public Change() {
+	}
+
+	public Change(long tenantId, long objectId, int objectType, int changeType, String event) {
+		setTenantId(tenantId);
+		this.objectId = objectId;
+		this.objectType = objectType;
+		this.changeType = changeType;
+		this.event = event;
+	}
+
+	public long getObjectId() {
+		return objectId;
+	}
+
+	public void setObjectId(long objectId) {
+		this.objectId = objectId;
+	}
+
+	public int getObjectType() {
+		return objectType;
+	}
+
+	public void setObjectType(int objectType) {
+		this.objectType = objectType;
+	}
+
+	public int getChangeType() {
+		return changeType;
+	}
+
+	public void setChangeType(int changeType) {
+		this.changeType = changeType;
+	}
+
+	/**
+	 * The event of the history that originated this change
+	 *
+	 * @return the event's code
+	 */
+	public String getEvent() {
+		return event;
+	}
+
+	public void setEvent(String event) {
+		this.event = event;
+	}
+
+	/**
+	 * When the change was recorded in the journal
+	 *
+	 * @return the date of the change
+	 */
+	public Date getDate() {
+		return date;
+	}
+
+	public void setDate(Date date) {
+		this.date = date;
+	}
+
+	/**
+	 * The position of the change in the journal, assigned after the commit
+	 *
+	 * @return the commit sequence, null if not yet assigned
+	 */
+	public Long getCommitSeq() {
+		return commitSeq;
+	}
+
+	public void setCommitSeq(Long commitSeq) {
+		this.commitSeq = commitSeq;
+	}
+
+	@Override
+	public String toString() {
+		return getId() + " " + event + " " + (objectType == TYPE_FOLDER ? "folder " : "document ") + objectId;
+	}
+}
@@ -0,0 +1,59 @@
+package com.logicaldoc.core.history;
+
+import java.util.Date;
+import java.util.List;
+
+import com.logicaldoc.core.PersistenceException;
+import com.logicaldoc.core.PersistentObjectDAO;
+
+/**
+ * DAO for the change journal. The changes are read in order of commit
+ * sequence, that is assigned after the commit of the transaction that
+ * recorded them and under a database lock held until the assignment commits,
+ * so a reader never skips an entry whatever the duration of the writing
+ * transactions.
+ *
+ * @author Marco Meschieri - LogicalDOC
+ * @since 9.1.1
+ */
+public interface ChangeDAO extends PersistentObjectDAO<Change> {
+
+	/**
+	 * Reads the journal of a tenant starting after a given change
+	 *
+	 * @param tenantId identifier of the tenant
+	 * @param afterSeq the commit sequence of the last change already read, use
+	 *        0 to read from the beginning
+	 * @param max maximum number of changes to return
+	 *
+	 * @return the changes ordered by commit sequence
+	 *
+	 * @throws PersistenceException Error in the database
+	 */
+	public List<Change> findChanges(long tenantId, long afterSeq, int max) throws PersistenceException;
+
+	/**
+	 * Gets the commit sequence of the most recent change that can be read
+	 *
+	 * @param tenantId identifier of the tenant
+	 * @param maxDate optional date, if specified only the changes recorded
+	 *        before or at this date are considered. The dates are taken from
+	 *        the clock of the node that recorded the change, so in a cluster
+	 *        the nodes are expected to have synchronized clocks
+	 *
+	 * @return the commit sequence of the most recent change, 0 if the journal
+	 *         is empty
+	 *
+	 * @throws PersistenceException Error in the database
+	 */
+	public long getLatestId(long tenantId, Date maxDate) throws PersistenceException;
+
+	/**
+	 * This method deletes the changes older than the given number of days
+	 *
+	 * @param ttl Maximum number of days
+	 *
+	 * @throws PersistenceException Error in the database
+	 */
+	public void cleanOldChanges(int ttl) throws PersistenceException;
+}
@@ -0,0 +1,205 @@
+package com.logicaldoc.core.history;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.annotation.Resource;
+
+import org.slf4j.LoggerFactory;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import com.logicaldoc.core.HibernatePersistentObjectDAO;
+import com.logicaldoc.core.PersistenceException;
+import com.logicaldoc.core.security.Tenant;
+import com.logicaldoc.core.sequence.SequenceDAO;
+import com.logicaldoc.util.Context;
+import com.logicaldoc.util.config.ContextProperties;
+
+/**
+ * Hibernate implementation of <code>ChangeDAO</code>.<br>
+ * <br>
+ * The changes are inserted without commit sequence, when the transaction
+ * commits they get stamped in a new transaction that first increments the
+ * <code>changelog</code> sequence. The row of the sequence stays locked until
+ * the stamps are committed, so the stamps become visible in the same order
+ * they are assigned and a reader that has seen a commit sequence will never
+ * find a lower one later. The changes whose stamping did not happen, for
+ * instance because the node stopped right after the commit, are stamped by a
+ * periodic maintenance that also deletes the changes older than
+ * <code>changelog.ttl</code> days.
+ *
+ * @author Marco Meschieri - LogicalDOC
+ * @since 9.1.1
+ */
+public class HibernateChangeDAO extends HibernatePersistentObjectDAO<Change> implements ChangeDAO {
+
+	private static final String TENANT_ID = "tenantId";
+
+	private static final String COMMIT_SEQUENCE = "changelog";
+
+	private static final long MAINTENANCE_INTERVAL = 60000L;
+
+	private static final long CLEAN_INTERVAL = 24 * 3600000L;
+
+	private final AtomicLong lastMaintenance = new AtomicLong();
+
+	private final AtomicLong lastClean = new AtomicLong();
+
+	@Resource(name = "ContextProperties")
+	protected ContextProperties config;
+
+	private HibernateChangeDAO() {
+		super(Change.class);
+		super.log = LoggerFactory.getLogger(HibernateChangeDAO.class);
+	}
+
+	@Override
+	public void store(Change change) throws PersistenceException {
+		change.setDate(new Date());
+		change.setCommitSeq(null);
+		super.store(change);
+		stampAfterCommit(change.getId());
+	}
+
+	@Override
+	public List<Change> findChanges(long tenantId, long afterSeq, int max) throws PersistenceException {
+		maintain();
+
+		Map<String, Object> params = new HashMap<>();
+		params.put(TENANT_ID, tenantId);
+		params.put("afterSeq", afterSeq);
+
+		return findByWhere(ENTITY + ".tenantId = :tenantId and " + ENTITY + ".commitSeq > :afterSeq", params,
+				"order by " + ENTITY + ".commitSeq", max);
+	}
+
+	@Override
+	public long getLatestId(long tenantId, Date maxDate) throws PersistenceException {
+		Map<String, Object> params = new HashMap<>();
+		params.put(TENANT_ID, tenantId);
+
+		StringBuilder query = new StringBuilder(
+				"select max(ld_commitseq) from ld_change where ld_deleted = 0 and ld_tenantid = :tenantId");
+		if (maxDate != null) {
+			query.append(" and ld_date <= :maxDate");
+			params.put("maxDate", maxDate);
+		}
+		return queryForLong(query.toString(), params);
+	}
+
+	@Override
+	public void cleanOldChanges(int ttl) throws PersistenceException {
+		log.info("cleanOldChanges rows updated: {}", cleanOldRecords(ttl, "ld_change"));
+	}
+
+	/**
+	 * Collects the changes recorded by the current transaction, they will be
+	 * stamped all together after the commit
+	 */
+	@SuppressWarnings("unchecked")
+	private void stampAfterCommit(long changeId) {
+		if (!TransactionSynchronizationManager.isSynchronizationActive()) {
+			stamp(List.of(changeId));
+			return;
+		}
+
+		List<Long> pending = (List<Long>) TransactionSynchronizationManager.getResource(this);
+		if (pending == null) {
+			List<Long> changeIds = new ArrayList<>();
+			TransactionSynchronizationManager.bindResource(this, changeIds);
+			TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+				@Override
+				public void afterCompletion(int status) {
+					TransactionSynchronizationManager.unbindResourceIfPossible(HibernateChangeDAO.this);
+					if (status == STATUS_COMMITTED) {
+						stamp(changeIds);
+						maintain();
+					}
+				}
+			});
+			pending = changeIds;
+		}
+		pending.add(changeId);
+	}
+
+	/**
+	 * Assigns the commit sequences to the given changes in a new transaction
+	 */
+	private void stamp(Collection<Long> changeIds) {
+		try {
+			executeInNewTransaction(() -> {
+				// Locks the sequence until the end of this transaction
+				long seq = reserveCommitSequences(changeIds.size()) - changeIds.size();
+
+				Map<String, Object> params = new HashMap<>();
+				for (Long changeId : changeIds.stream().sorted().toList()) {
+					params.put("seq", ++seq);
+					params.put("id", changeId);
+					jdbcUpdate("update ld_change set ld_commitseq = :seq where ld_id = :id and ld_commitseq is null",
+							params);
+				}
+			});
+		} catch (PersistenceException e) {
+			// The periodic maintenance will retry
+			log.error("Unable to stamp the changes {}: {}", changeIds, e.getMessage());
+		}
+	}
+
+	/**
+	 * Increments the sequence of the commits, creating it if it does not
+	 * exist
+	 *
+	 * @return the last reserved value
+	 */
+	private long reserveCommitSequences(int count) throws PersistenceException {
+		Map<String, Object> params = new HashMap<>();
+		params.put("name", COMMIT_SEQUENCE);
+		params.put(TENANT_ID, Tenant.SYSTEM_ID);
+		params.put("count", count);
+		params.put("now", new Date());
+
+		String where = " where ld_name = :name and ld_objectid = 0 and ld_tenantid = :tenantId and ld_deleted = 0";
+		String update = "update ld_sequence set ld_value = ld_value + :count, ld_lastmodified = :now,"
+				+ " ld_recordversion = ld_recordversion + 1" + where;
+		if (jdbcUpdate(update, params) == 0) {
+			Context.get(SequenceDAO.class).reset(COMMIT_SEQUENCE, 0L, Tenant.SYSTEM_ID, 0L);
+			if (jdbcUpdate(update, params) == 0)
+				throw new PersistenceException("Unable to update the sequence " + COMMIT_SEQUENCE);
+		}
+		return queryForLong("select ld_value from ld_sequence" + where, params);
+	}
+
+	/**
+	 * Stamps the changes left behind and periodically deletes the old ones.
+	 * Runs at most once a minute.
+	 */
+	private void maintain() {
+		long now = System.currentTimeMillis();
+		long last = lastMaintenance.get();
+		if (now - last < MAINTENANCE_INTERVAL || !lastMaintenance.compareAndSet(last, now))
+			return;
+
+		try {
+			List<Long> orphans = new ArrayList<>();
+			executeInNewTransaction(() -> orphans.addAll(queryForList(
+					"select ld_id from ld_change where ld_deleted = 0 and ld_commitseq is null order by ld_id",
+					null, Long.class, 1000)));
+			if (!orphans.isEmpty()) {
+				log.info("Stamping {} changes left behind", orphans.size());
+				stamp(orphans);
+			}
+
+			long lastCleaned = lastClean.get();
+			if (now - lastCleaned >= CLEAN_INTERVAL && lastClean.compareAndSet(lastCleaned, now))
+				executeInNewTransaction(() -> cleanOldChanges(config.getInt("changelog.ttl", 90)));
+		} catch (PersistenceException e) {
+			log.warn("Unable to maintain the change journal: {}", e.getMessage());
+		}
+	}
+}
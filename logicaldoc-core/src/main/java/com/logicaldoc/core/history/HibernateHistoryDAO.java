@@ -3,6 +3,7 @@ package com.logicaldoc.core.history;
 import java.util.Date;
 import java.util.HashMap;
 import java.util.Map;
+import java.util.regex.Pattern;
 
 import javax.annotation.Resource;
 
@@ -32,6 +33,14 @@ public abstract class HibernateHistoryDAO<T extends History> extends HibernatePe
 	@Resource(name = "ContextProperties")
 	protected ContextProperties config;
 
+	@Resource(name = "historyWriter")
+	protected HistoryWriter historyWriter;
+
+	@Resource(name = "ChangeDAO")
+	protected ChangeDAO changeDao;
+
+	private static final Pattern NON_PRINTABLE = Pattern.compile("[\\p{Cntrl}&&[^\\n]&&[^\\t]&&[^\\r]]");
+
 	// A cache of tenant names to minimize the DB accesses
 	private static final Map<Long, String> tenantNames = new HashMap<>();
 
@@ -48,22 +57,53 @@ public abstract class HibernateHistoryDAO<T extends History> extends HibernatePe
 
 		if (history.getDate() == null)
 			history.setDate(new Date());
+
+		// The change journal is written in the current transaction
+		// regardless of the events to record
+		if (history.getId() == 0L && changeDao != null && config.getBoolean("changelog.enabled", true)) {
+			Change change = toChange(history);
+			if (change != null)
+				changeDao.store(change);
+		}
+
 		if (history.getComment() != null) {
 			// trim to 4000 chars
 			history.setComment(StringUtils.abbreviate(history.getComment(), 4000));
 
 			// remove non printable chars, but maintain the carriage
 			// returns and the tabs
-			history.setComment(history.getComment().trim().replaceAll("[\\p{Cntrl}&&[^\\n]&&[^\\t]&&[^\\r]]", ""));
+			history.setComment(NON_PRINTABLE.matcher(history.getComment().trim()).replaceAll(""));
 		}
 
 		String allowedEvents = config.getString(getTenantName(history) + ".history.events", "all");
-		if ("all".equals(allowedEvents) || allowedEvents.contains(history.getEvent()))
+		boolean persist = "all".equals(allowedEvents) || allowedEvents.contains(history.getEvent());
+
+		// In write-behind mode the writer also takes care of the notification
+		if (historyWriter != null && historyWriter.isEnabled()) {
+			boolean save = persist && checkStoringAspect();
+			if (save)
+				history.setLastModified(new Date());
+			if (historyWriter.write(history, save))
+				return;
+		}
+
+		if (persist)
 			super.store(history);
 
 		EventCollector.get().newEvent(history);
 	}
 
+	/**
+	 * Converts a history into an entry of the change journal
+	 * 
+	 * @param history the history to convert
+	 * 
+	 * @return the change or null if the history must not be journaled
+	 */
+	protected Change toChange(T history) {
+		return null;
+	}
+
 	protected String getTenantName(T history) throws PersistenceException {
 		if (HibernateHistoryDAO.tenantNames.containsKey(history.getTenantId()))
 			return HibernateHistoryDAO.tenantNames.get(history.getTenantId());
@@ -0,0 +1,340 @@
+package com.logicaldoc.core.history;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.annotation.PreDestroy;
+import javax.annotation.Resource;
+
+import org.hibernate.SessionFactory;
+import org.hibernate.StatelessSession;
+import org.hibernate.Transaction;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import com.logicaldoc.core.communication.EventCollector;
+import com.logicaldoc.core.threading.NamedThreadFactory;
+import com.logicaldoc.util.config.ContextProperties;
+
+/**
+ * Writes the histories in background when the setting
+ * <code>history.async</code> is enabled. The histories are put in a bounded
+ * buffer(<code>history.async.buffer</code>) once the current transaction
+ * commits and a single writer thread saves them using JDBC batches of
+ * <code>history.async.batch</code> records, waiting at most
+ * <code>history.async.maxlag</code> milliseconds before writing an incomplete
+ * batch.<br>
+ * <br>
+ * When the buffer is full the caller waits, in rounds of
+ * <code>history.async.timeout</code> milliseconds, for the writer to make room;
+ * the history is written synchronously only if the writer is stopping or not
+ * running anymore. The listeners of the {@link EventCollector} are notified by
+ * the writer, after the save and in the same order the histories were
+ * produced. At shutdown the buffer gets flushed.
+ *
+ * @author Marco Meschieri - LogicalDOC
+ * @since 9.1.1
+ */
+@Component("historyWriter")
+public class HistoryWriter {
+
+	private static final Logger log = LoggerFactory.getLogger(HistoryWriter.class);
+
+	@Resource(name = "SessionFactory")
+	protected SessionFactory sessionFactory;
+
+	@Resource(name = "ContextProperties")
+	protected ContextProperties config;
+
+	private BlockingQueue<Entry> buffer;
+
+	private Thread writer;
+
+	private volatile boolean closing = false;
+
+	private final AtomicLong enqueued = new AtomicLong();
+
+	private final AtomicLong written = new AtomicLong();
+
+	private final AtomicLong batches = new AtomicLong();
+
+	private final AtomicLong failures = new AtomicLong();
+
+	private final AtomicLong overflows = new AtomicLong();
+
+	private final AtomicLong maxLag = new AtomicLong();
+
+	/**
+	 * Checks if the histories must be written in background
+	 *
+	 * @return true if the write-behind is enabled and running
+	 */
+	public boolean isEnabled() {
+		return !closing && config.getBoolean("history.async", false);
+	}
+
+	/**
+	 * Puts a history in the buffer. If a transaction is active, the history is
+	 * added just after the commit and discarded in case of rollback.
+	 *
+	 * @param history the history to write
+	 * @param persist true if the history must be saved, false if it must only
+	 *        be notified
+	 *
+	 * @return false if the history could not be accepted and must be written
+	 *         by the caller
+	 */
+	public boolean write(History history, boolean persist) {
+		if (!isEnabled())
+			return false;
+
+		if (history.isNotifyEvent() && EventCollector.isEnabled())
+			EventCollector.get().detachDocument(history);
+
+		Entry entry = new Entry(history, persist);
+		if (TransactionSynchronizationManager.isSynchronizationActive()) {
+			TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+				@Override
+				public void afterCommit() {
+					if (!offer(entry))
+						writeBatch(List.of(entry));
+				}
+			});
+			return true;
+		}
+
+		return offer(entry);
+	}
+
+	/**
+	 * Puts an entry in the buffer, waiting for the writer to make room when
+	 * the buffer is full
+	 *
+	 * @return false if the entry was not buffered because the writer is
+	 *         stopping or not running, so it must be written synchronously
+	 */
+	private boolean offer(Entry entry) {
+		if (closing)
+			return false;
+
+		start();
+		try {
+			boolean accepted = buffer.offer(entry);
+			if (!accepted) {
+				overflows.incrementAndGet();
+				log.debug("History buffer full");
+				long timeout = Math.max(1, config.getInt("history.async.timeout", 5000));
+				while (!accepted && !closing && isWriterAlive())
+					accepted = buffer.offer(entry, timeout, TimeUnit.MILLISECONDS);
+			}
+
+			// If the writer stopped in the meanwhile, take back the entry
+			// unless somebody else already got it
+			if (accepted && closing && buffer.remove(entry))
+				return false;
+
+			if (accepted)
+				enqueued.incrementAndGet();
+			return accepted;
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			return false;
+		}
+	}
+
+	private synchronized boolean isWriterAlive() {
+		return writer != null && writer.isAlive();
+	}
+
+	private synchronized void start() {
+		if (writer != null)
+			return;
+
+		buffer = new ArrayBlockingQueue<>(config.getInt("history.async.buffer", 10000));
+		writer = new NamedThreadFactory("HistoryWriter").newThread(this::run);
+		writer.setDaemon(true);
+		writer.start();
+	}
+
+	private void run() {
+		int batchSize = Math.max(1, config.getInt("history.async.batch", 500));
+		long lag = config.getInt("history.async.maxlag", 1000);
+		List<Entry> batch = new ArrayList<>(batchSize);
+
+		while (!closing || !buffer.isEmpty()) {
+			try {
+				Entry first = buffer.poll(1, TimeUnit.SECONDS);
+				if (first == null)
+					continue;
+				batch.add(first);
+
+				// Collect more records until the batch is full or the oldest
+				// record has waited enough
+				long deadline = first.time + lag;
+				while (batch.size() < batchSize && !closing) {
+					long wait = deadline - System.currentTimeMillis();
+					Entry next = wait > 0 ? buffer.poll(wait, TimeUnit.MILLISECONDS) : buffer.poll();
+					if (next == null)
+						break;
+					batch.add(next);
+				}
+				buffer.drainTo(batch, batchSize - batch.size());
+
+				writeBatch(batch);
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				break;
+			} catch (Exception e) {
+				log.error(e.getMessage(), e);
+			} finally {
+				batch.clear();
+			}
+		}
+	}
+
+	private void writeBatch(List<Entry> batch) {
+		List<History> histories = batch.stream().filter(e -> e.persist).map(e -> e.history).toList();
+		if (!histories.isEmpty() && !insert(histories)) {
+			// Retry one by one to isolate the bad records
+			for (History history : histories)
+				if (!insert(List.of(history))) {
+					failures.incrementAndGet();
+					log.error("Unable to save history {}", history);
+				}
+		}
+
+		batches.incrementAndGet();
+		long now = System.currentTimeMillis();
+		for (Entry entry : batch) {
+			maxLag.accumulateAndGet(now - entry.time, Math::max);
+			EventCollector.get().newEvent(entry.history);
+		}
+	}
+
+	private boolean insert(List<History> histories) {
+		Transaction transaction = null;
+		try (StatelessSession session = sessionFactory.openStatelessSession()) {
+			session.setJdbcBatchSize(histories.size());
+			transaction = session.beginTransaction();
+			for (History history : histories)
+				session.insert(history);
+			transaction.commit();
+			written.addAndGet(histories.size());
+			return true;
+		} catch (Exception e) {
+			log.warn("Error saving {} histories: {}", histories.size(), e.getMessage());
+			if (transaction != null && transaction.isActive())
+				try {
+					transaction.rollback();
+				} catch (Exception re) {
+					log.debug(re.getMessage());
+				}
+			return false;
+		}
+	}
+
+	/**
+	 * Stops accepting new histories and waits for the buffer to be written
+	 */
+	@PreDestroy
+	public void destroy() {
+		closing = true;
+
+		Thread thread;
+		synchronized (this) {
+			thread = writer;
+		}
+		if (thread == null)
+			return;
+
+		try {
+			thread.join(config.getInt("history.async.shutdown", 30) * 1000L);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+
+		if (thread.isAlive()) {
+			log.warn("{} histories have not been saved", buffer.size());
+		} else {
+			// Save what has been put in the buffer after the writer stopped
+			List<Entry> remaining = new ArrayList<>();
+			buffer.drainTo(remaining);
+			if (!remaining.isEmpty())
+				writeBatch(remaining);
+		}
+		log.info("History writer stopped: {}", this);
+	}
+
+	/**
+	 * Number of histories waiting to be written
+	 *
+	 * @return the size of the buffer
+	 */
+	public int getPending() {
+		return buffer != null ? buffer.size() : 0;
+	}
+
+	public long getEnqueued() {
+		return enqueued.get();
+	}
+
+	public long getWritten() {
+		return written.get();
+	}
+
+	public long getBatches() {
+		return batches.get();
+	}
+
+	public long getFailures() {
+		return failures.get();
+	}
+
+	/**
+	 * Number of times the buffer was full and the caller had to wait for the
+	 * writer
+	 *
+	 * @return number of overflows
+	 */
+	public long getOverflows() {
+		return overflows.get();
+	}
+
+	/**
+	 * The maximum time in milliseconds a history has waited before being
+	 * written
+	 *
+	 * @return the maximum lag
+	 */
+	public long getMaxLag() {
+		return maxLag.get();
+	}
+
+	@Override
+	public String toString() {
+		return "pending: " + getPending() + ", enqueued: " + enqueued.get() + ", written: " + written.get()
+				+ ", batches: " + batches.get() + ", failures: " + failures.get() + ", overflows: "
+				+ overflows.get() + ", max lag: " + maxLag.get() + "ms";
+	}
+
+	private static class Entry {
+
+		private final History history;
+
+		private final boolean persist;
+
+		private final long time = System.currentTimeMillis();
+
+		private Entry(History history, boolean persist) {
+			this.history = history;
+			this.persist = persist;
+		}
+	}
+}
@@ -1,11 +1,17 @@
 package com.logicaldoc.core.lock;
 
 import java.util.ArrayList;
-import java.util.Calendar;
 import java.util.Date;
-import java.util.GregorianCalendar;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
 
+import javax.annotation.PreDestroy;
 import javax.annotation.Resource;
 
 import org.slf4j.Logger;
@@ -16,18 +22,37 @@ import com.logicaldoc.core.PersistenceException;
 import com.logicaldoc.core.generic.Generic;
 import com.logicaldoc.core.generic.GenericDAO;
 import com.logicaldoc.core.security.Tenant;
+import com.logicaldoc.core.threading.ThreadPoolNotAvailableException;
+import com.logicaldoc.core.threading.ThreadPools;
 import com.logicaldoc.util.config.ContextProperties;
 
 /**
- * Central class to manage locks
- * 
+ * Central class to manage locks. A lock is a record in the
+ * <code>ld_generic</code> table and it is acquired with a single conditional
+ * update, so only one transaction at a time can own it even if more nodes are
+ * competing for the same lock. Each time the ownership changes, the lock gets
+ * a new fencing token(stored in <code>ld_integer1</code>) that can be used to
+ * verify that an owner is still valid.<br>
+ * <br>
+ * The lock expires if not refreshed within <code>lock.ttl</code> seconds; long
+ * running elaborations can ask to keep it alive so the lease gets renewed in
+ * background. Threads waiting for a lock are woken up as soon as it gets
+ * released in this same JVM, otherwise they retry periodically.
+ *
  * @author Marco Meschieri - LogicalDOC
  * @since 6.5
  */
 @Component("lockManager")
 public class LockManager {
+	private static final String TRANSACTION_ID = "transactionId";
+
+	private static final String SUBTYPE = "subtype";
+
 	private static final String LOCK = "lock";
 
+	private static final String LOCK_WHERE = " where ld_type='lock' and ld_subtype = :subtype and ld_qualifier is null"
+			+ " and ld_tenantid=" + Tenant.DEFAULT_ID + " and ld_deleted=0 ";
+
 	protected Logger log = LoggerFactory.getLogger(LockManager.class);
 
 	@Resource(name = "GenericDAO")
@@ -36,9 +61,24 @@ public class LockManager {
 	@Resource(name = "ContextProperties")
 	protected ContextProperties config;
 
+	/**
+	 * The locks owned in this JVM, key is the lock name
+	 */
+	private final Map<String, HeldLock> held = new ConcurrentHashMap<>();
+
+	/**
+	 * Monitors used to notify the threads waiting for a lock, key is the lock
+	 * name
+	 */
+	private final Map<String, Object> monitors = new ConcurrentHashMap<>();
+
+	private static final String POOL_NAME = "LockRenewer";
+
+	private ScheduledFuture<?> renewer;
+
 	/**
 	 * Gets all the transaction ids associated to the locks
-	 * 
+	 *
 	 * @return the lists of transactions
 	 */
 	public List<String> getAllTransactions() {
@@ -53,25 +93,43 @@ public class LockManager {
 
 	/**
 	 * Acquire a lock of a given name and for a given transaction.
-	 * 
+	 *
 	 * @param lockName Name of the lock
 	 * @param transactionId Id of the transaction
-	 * 
+	 *
 	 * @return true only if the lock was acquired
 	 */
 	public boolean get(String lockName, String transactionId) {
-		GregorianCalendar cal = new GregorianCalendar();
-		cal.add(Calendar.SECOND, config.getInt("lock.wait", 10));
-		Date ldDate = cal.getTime();
-		while (new Date().before(ldDate)) {
+		return get(lockName, transactionId, false);
+	}
+
+	/**
+	 * Acquire a lock of a given name and for a given transaction, waiting at
+	 * most <code>lock.wait</code> seconds.
+	 *
+	 * @param lockName Name of the lock
+	 * @param transactionId Id of the transaction
+	 * @param keepAlive if true the lease of the lock gets renewed in background
+	 *        until it is released
+	 *
+	 * @return true only if the lock was acquired
+	 */
+	public boolean get(String lockName, String transactionId, boolean keepAlive) {
+		long deadline = System.currentTimeMillis() + config.getInt("lock.wait", 10) * 1000L;
+		long retry = config.getInt("lock.retry", 1000);
+		Object monitor = monitors.computeIfAbsent(lockName, k -> new Object());
+
+		while (System.currentTimeMillis() < deadline) {
 			try {
 				if (getInternal(lockName, transactionId)) {
 					log.debug("Acquired lock {}", lockName);
+					if (keepAlive)
+						keepAlive(lockName);
 					return true;
-				} else {
-					synchronized (this) {
-						wait(1000);
-					}
+				}
+
+				synchronized (monitor) {
+					monitor.wait(Math.max(1, Math.min(retry, deadline - System.currentTimeMillis())));
 				}
 			} catch (PersistenceException e) {
 				log.warn(e.getMessage(), e);
@@ -80,6 +138,7 @@ public class LockManager {
 
 				// Restore interrupted state
 				Thread.currentThread().interrupt();
+				break;
 			}
 		}
 
@@ -93,62 +152,233 @@ public class LockManager {
 
 	/**
 	 * Releases a previously acquired lock.
-	 * 
+	 *
 	 * @param lockName The lock name
 	 * @param transactionId The transaction ID
-	 * @throws PersistenceException
+	 * @throws PersistenceException Error in the data layer
 	 */
 	public void release(String lockName, String transactionId) throws PersistenceException {
 		if (lockName == null || transactionId == null)
 			return;
 
-		Generic lock = genericDao.findByAlternateKey(LOCK, getSubType(lockName), null, Tenant.DEFAULT_ID);
-		if (lock != null && transactionId.equals(lock.getString1())) {
-			lock.setDate1(null);
-			lock.setString1(null);
+		held.computeIfPresent(lockName, (k, v) -> transactionId.equals(v.transactionId) ? null : v);
 
-			try {
-				genericDao.store(lock);
-			} catch (PersistenceException e) {
-				log.warn(e.getMessage(), e);
+		Map<String, Object> params = new HashMap<>();
+		params.put(SUBTYPE, getSubType(lockName));
+		params.put(TRANSACTION_ID, transactionId);
+		try {
+			genericDao.jdbcUpdate(
+					"update ld_generic set ld_string1=null, ld_date1=null, ld_recordversion=ld_recordversion+1"
+							+ LOCK_WHERE + " and ld_string1 = :transactionId",
+					params);
+		} catch (PersistenceException e) {
+			log.warn(e.getMessage(), e);
+		}
+
+		// Wake up the local threads waiting for this lock
+		Object monitor = monitors.get(lockName);
+		if (monitor != null)
+			synchronized (monitor) {
+				monitor.notifyAll();
 			}
+	}
+
+	/**
+	 * Renews the lease of a lock
+	 *
+	 * @param lockName The lock name
+	 * @param transactionId The transaction ID
+	 *
+	 * @return true if the lock is still owned by the given transaction
+	 *
+	 * @throws PersistenceException Error in the data layer
+	 */
+	public boolean renew(String lockName, String transactionId) throws PersistenceException {
+		Map<String, Object> params = new HashMap<>();
+		params.put(SUBTYPE, getSubType(lockName));
+		params.put(TRANSACTION_ID, transactionId);
+		params.put("now", new Date());
+		boolean renewed = genericDao.jdbcUpdate(
+				"update ld_generic set ld_date1 = :now, ld_recordversion=ld_recordversion+1" + LOCK_WHERE
+						+ " and ld_string1 = :transactionId",
+				params) > 0;
+
+		HeldLock lock = held.get(lockName);
+		if (lock != null && transactionId.equals(lock.transactionId)) {
+			if (renewed)
+				lock.renewed = System.currentTimeMillis();
+			else
+				held.remove(lockName);
 		}
+		return renewed;
+	}
+
+	/**
+	 * Gets the fencing token of a lock owned in this JVM. The token changes
+	 * each time the lock passes from a transaction to another, so it can be
+	 * compared with {@link #isOwner(String, String, long)} to make sure nobody
+	 * else acquired the lock in the meanwhile.
+	 *
+	 * @param lockName The lock name
+	 * @param transactionId The transaction ID
+	 *
+	 * @return the token or null if the lock is not owned by the transaction
+	 */
+	public Long getToken(String lockName, String transactionId) {
+		HeldLock lock = held.get(lockName);
+		return lock != null && lock.transactionId.equals(transactionId) ? lock.token : null;
+	}
+
+	/**
+	 * Checks in the database if a transaction still owns a lock with the
+	 * given fencing token
+	 *
+	 * @param lockName The lock name
+	 * @param transactionId The transaction ID
+	 * @param token The fencing token obtained when the lock was acquired
+	 *
+	 * @return true if the lock is still owned
+	 *
+	 * @throws PersistenceException Error in the data layer
+	 */
+	public boolean isOwner(String lockName, String transactionId, long token) throws PersistenceException {
+		Map<String, Object> params = new HashMap<>();
+		params.put(SUBTYPE, getSubType(lockName));
+		params.put(TRANSACTION_ID, transactionId);
+		params.put("token", token);
+		params.put("expiry", getExpiry());
+		return genericDao.queryForLong("select count(*) from ld_generic" + LOCK_WHERE
+				+ " and ld_string1 = :transactionId and ld_integer1 = :token and ld_date1 >= :expiry", params) > 0;
 	}
 
 	protected boolean getInternal(String lockName, String transactionId) throws PersistenceException {
-		Date today = new Date();
-		Generic lock = genericDao.findByAlternateKey(LOCK, getSubType(lockName), null, Tenant.DEFAULT_ID);
-		try {
-			if (lock == null) {
-				log.debug("Lock {} not found", lockName);
-				lock = new Generic(LOCK, getSubType(lockName));
-				lock.setString1(transactionId);
-				lock.setDate1(today);
+		long ttl = config.getInt("lock.ttl", 60) * 1000L;
+
+		// If we already own the lock and the lease is still fresh there is no
+		// need to touch the database
+		HeldLock lock = held.get(lockName);
+		if (lock != null && transactionId.equals(lock.transactionId)
+				&& System.currentTimeMillis() - lock.renewed < ttl / 4)
+			return true;
+
+		String subtype = getSubType(lockName);
+		Map<String, Object> params = new HashMap<>();
+		params.put(SUBTYPE, subtype);
+		params.put(TRANSACTION_ID, transactionId);
+		params.put("now", new Date());
+		params.put("expiry", getExpiry());
+
+		/*
+		 * Atomically take the lock if it is free, expired or already ours. The
+		 * fencing token is incremented only when the owner changes.
+		 */
+		String update = "update ld_generic set ld_integer1 = case when ld_string1 = :transactionId then ld_integer1"
+				+ " else coalesce(ld_integer1, 0) + 1 end, ld_string1 = :transactionId, ld_date1 = :now,"
+				+ " ld_recordversion=ld_recordversion+1" + LOCK_WHERE + " and (ld_string1 is null or ld_string1 = :transactionId or ld_date1 is null or ld_date1 < :expiry)";
+
+		int updated = genericDao.jdbcUpdate(update, params);
+		if (updated == 0 && genericDao.findByAlternateKey(LOCK, subtype, null, Tenant.DEFAULT_ID) == null) {
+			log.debug("Lock {} not found", lockName);
+			createLock(subtype);
+			updated = genericDao.jdbcUpdate(update, params);
+		}
+
+		if (updated == 0)
+			return false;
+
+		Long token = genericDao.queryForObject(
+				"select ld_integer1 from ld_generic" + LOCK_WHERE + " and ld_string1 = :transactionId", params,
+				Long.class);
+		long newToken = token != null ? token : 0L;
+
+		// Reacquiring a lock already held keeps its keep-alive
+		held.compute(lockName, (k, v) -> {
+			if (v != null && transactionId.equals(v.transactionId)) {
+				v.token = newToken;
+				v.renewed = System.currentTimeMillis();
+				return v;
 			}
+			return new HeldLock(transactionId, newToken);
+		});
+		return true;
+	}
+
+	private void createLock(String subtype) {
+		try {
+			genericDao.store(new Generic(LOCK, subtype));
+		} catch (PersistenceException e) {
+			// Probably another node created it in the meanwhile
+			log.debug("Unable to create lock {}: {}", subtype, e.getMessage());
+		}
+	}
+
+	private Date getExpiry() {
+		return new Date(System.currentTimeMillis() - config.getInt("lock.ttl", 60) * 1000L);
+	}
 
-			GregorianCalendar cal = new GregorianCalendar();
-			cal.add(Calendar.SECOND, -config.getInt("lock.ttl"));
-			Date ldDate = cal.getTime();
+	/**
+	 * Schedules the renewal of the lease of a lock until it gets released
+	 *
+	 * @param lockName The lock name
+	 */
+	private synchronized void keepAlive(String lockName) {
+		HeldLock lock = held.get(lockName);
+		if (lock == null)
+			return;
+		lock.keepAlive = true;
 
-			if (lock.getDate1() == null || lock.getDate1().before(ldDate)) {
-				log.debug("Lock {} expired", lockName);
-				lock.setDate1(today);
-				lock.setString1(transactionId);
+		if (renewer == null) {
+			long period = Math.max(1000L, config.getInt("lock.ttl", 60) * 1000L / 3);
+			try {
+				ExecutorService pool = ThreadPools.get().getPool(POOL_NAME);
+				if (pool instanceof ScheduledExecutorService scheduler)
+					renewer = scheduler.scheduleWithFixedDelay(this::renewAll, period, period,
+							TimeUnit.MILLISECONDS);
+				else
+					log.warn("Pool {} does not support scheduling, the locks will not be renewed", POOL_NAME);
+			} catch (ThreadPoolNotAvailableException e) {
+				log.warn(e.getMessage());
 			}
+		}
+	}
 
-			if (lock.getString1() == null || transactionId.equals(lock.getString1())) {
-				lock.setDate1(today);
-				lock.setString1(transactionId);
-				return true;
-			} else
-				return false;
-		} finally {
+	private void renewAll() {
+		for (Map.Entry<String, HeldLock> entry : held.entrySet()) {
+			if (!entry.getValue().keepAlive)
+				continue;
 			try {
-				genericDao.store(lock);
-			} catch (PersistenceException e) {
-				log.warn(e.getMessage(), e);
+				if (!renew(entry.getKey(), entry.getValue().transactionId))
+					log.warn("Lost the lock {}", entry.getKey());
+			} catch (Exception e) {
+				log.warn("Unable to renew the lock {}: {}", entry.getKey(), e.getMessage());
 			}
 		}
 	}
 
-}
\ No newline at end of file
+	@PreDestroy
+	public synchronized void destroy() {
+		if (renewer != null) {
+			renewer.cancel(true);
+			renewer = null;
+		}
+	}
+
+	/**
+	 * A lock owned by a transaction in this JVM
+	 */
+	private static class HeldLock {
+
+		private final String transactionId;
+
+		private volatile long token;
+
+		private volatile long renewed = System.currentTimeMillis();
+
+		private volatile boolean keepAlive = false;
+
+		private HeldLock(String transactionId, long token) {
+			this.transactionId = transactionId;
+			this.token = token;
+		}
+	}
+}
@@ -4,13 +4,8 @@ import java.io.File;
 import java.io.FileInputStream;
 import java.io.IOException;
 import java.io.InputStream;
-import java.util.Arrays;
 import java.util.Locale;
 import java.util.concurrent.Callable;
-import java.util.concurrent.CancellationException;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
-import java.util.concurrent.TimeUnit;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -18,6 +13,7 @@ import org.slf4j.LoggerFactory;
 import com.logicaldoc.core.document.Document;
 import com.logicaldoc.core.security.Tenant;
 import com.logicaldoc.util.Context;
+import com.logicaldoc.util.io.FileUtil;
 
 /**
  * Abstract implementation of a Parser
@@ -38,8 +34,10 @@ public abstract class AbstractParser implements Parser {
 	@Override
 	public String parse(File file, String filename, String encoding, Locale locale, String tenant, Document document,
 			String fileVersion) throws ParsingException {
+		ParseParameters parameters = new ParseParameters(document, filename, fileVersion, encoding, locale, tenant);
+		parameters.setFile(file);
 		try (InputStream is = new FileInputStream(file);) {
-			return parse(is, new ParseParameters(document, filename, fileVersion, encoding, locale, tenant));
+			return parse(is, parameters);
 		} catch (IOException e) {
 			log.error(e.getMessage());
 			return "";
@@ -76,6 +74,10 @@ public abstract class AbstractParser implements Parser {
 			}
 		}
 
+		// Make sure the content respects the maximum length and does not
+		// contain invalid characters, then copy it just once
+		ContentWriter.normalize(content, parameters.getMaxLength());
+
 		if (log.isDebugEnabled())
 			log.debug("Parse Finished");
 		return content.toString();
@@ -95,32 +97,12 @@ public abstract class AbstractParser implements Parser {
 
 	private void parseInNewThreadAndWait(final InputStream input, ParseParameters parameters, StringBuilder content,
 			long timeout) throws ParsingException {
-		// Invoke in a separate thread
-		ExecutorService executor = Executors.newSingleThreadExecutor();
-		try {
-			String ret = "";
-			try {
-				ret = executor.invokeAll(Arrays.asList(new InternalParseTask(input, parameters, content)), timeout,
-						TimeUnit.SECONDS).get(0).get();
-			} catch (InterruptedException ie) {
-				log.warn("Interrupted parse");
-				ret = "interrupted";
-				Thread.currentThread().interrupt();
-			} catch (CancellationException e) {
-				log.warn("Parsing timeout");
-				ret = "timeout";
-			} catch (Exception e) {
-				log.warn(e.getMessage(), e);
-				ret = e.getMessage();
-			}
+		String filename = parameters.getFileName();
+		String extension = filename != null && filename.contains(".") ? FileUtil.getExtension(filename) : "";
 
-			if ("interrupted".equals(ret) || "timeout".equals(ret))
-				throw new ParsingTimeoutException(ret);
-			else if (!"completed".equals(ret))
-				throw new ParsingException(ret);
-		} finally {
-			executor.shutdownNow();
-		}
+		// Invoke in the shared pool of parsers
+		ParserPool.get().execute(getClass().getSimpleName(), extension,
+				new InternalParseTask(input, parameters, content), timeout);
 	}
 
 	private void parseInCurrentThread(final InputStream input, ParseParameters parameters, StringBuilder content)
@@ -0,0 +1,132 @@
+package com.logicaldoc.core.parser;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.io.Writer;
+
+/**
+ * A {@link Writer} that collects the text extracted by a parser. The
+ * characters not allowed in the index are replaced while writing and all the
+ * text beyond a maximum length is discarded, so the parsers can stop
+ * extracting as soon as {@link #isFull()} returns true.
+ *
+ * @author Marco Meschieri - LogicalDOC
+ * @since 9.1.1
+ */
+public class ContentWriter extends Writer {
+
+	private final StringBuilder content;
+
+	private final int maxLength;
+
+	/**
+	 * Constructor
+	 *
+	 * @param content where to append the text
+	 * @param maxLength maximum number of characters of the content, zero or
+	 *        negative means no limit
+	 */
+	public ContentWriter(StringBuilder content, int maxLength) {
+		this.content = content;
+		this.maxLength = maxLength;
+	}
+
+	/**
+	 * Checks if the maximum length has been reached
+	 *
+	 * @return true if no more text will be accepted
+	 */
+	public boolean isFull() {
+		return maxLength > 0 && content.length() >= maxLength;
+	}
+
+	public int getMaxLength() {
+		return maxLength;
+	}
+
+	private int room(int len) {
+		return maxLength > 0 ? Math.max(0, Math.min(len, maxLength - content.length())) : len;
+	}
+
+	@Override
+	public void write(char[] cbuf, int off, int len) {
+		int count = room(len);
+		for (int i = off; i < off + count; i++)
+			content.append(sanitize(cbuf[i]));
+	}
+
+	@Override
+	public void write(String str, int off, int len) {
+		int count = room(len);
+		for (int i = off; i < off + count; i++)
+			content.append(sanitize(str.charAt(i)));
+	}
+
+	@Override
+	public void write(int c) {
+		if (!isFull())
+			content.append(sanitize((char) c));
+	}
+
+	@Override
+	public Writer append(CharSequence csq) {
+		String str = String.valueOf(csq);
+		write(str, 0, str.length());
+		return this;
+	}
+
+	/**
+	 * Copies the text from a reader, stopping when the maximum length is
+	 * reached
+	 *
+	 * @param reader the source of the text
+	 *
+	 * @throws IOException error reading the source
+	 */
+	public void transferFrom(Reader reader) throws IOException {
+		char[] buffer = new char[8192];
+		int count;
+		while (!isFull() && (count = reader.read(buffer)) != -1)
+			write(buffer, 0, count);
+	}
+
+	@Override
+	public void flush() {
+		// Nothing to do
+	}
+
+	@Override
+	public void close() {
+		// Nothing to do
+	}
+
+	/**
+	 * Replaces the characters not allowed in the index
+	 *
+	 * @param c the character to check
+	 *
+	 * @return the same character or a blank
+	 */
+	public static char sanitize(char c) {
+		return c == '\uFFFF' || c == '\uD835' ? ' ' : c;
+	}
+
+	/**
+	 * Truncates a content to the maximum length and replaces the characters
+	 * not allowed in the index, without making copies
+	 *
+	 * @param content the content to process
+	 * @param maxLength maximum number of characters of the content, zero or
+	 *        negative means no limit
+	 */
+	public static void normalize(StringBuilder content, int maxLength) {
+		if (maxLength > 0 && content.length() > maxLength)
+			content.setLength(maxLength);
+		for (int i = 0; i < content.length(); i++) {
+			char c = content.charAt(i);
+			char s = sanitize(c);
+			if (s != c)
+				content.setCharAt(i, s);
+		}
+	}
+}
@@ -1,12 +1,16 @@
 package com.logicaldoc.core.parser;
 
-import java.io.CharArrayWriter;
 import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
-import java.io.Writer;
+import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
 
+import org.apache.pdfbox.io.MemoryUsageSetting;
 import org.apache.pdfbox.pdmodel.PDDocument;
 import org.apache.pdfbox.pdmodel.PDDocumentCatalog;
 import org.apache.pdfbox.pdmodel.PDDocumentInformation;
@@ -16,9 +20,23 @@ import org.apache.pdfbox.text.PDFTextStripper;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import com.logicaldoc.core.security.Tenant;
+import com.logicaldoc.core.threading.ThreadPoolNotAvailableException;
+import com.logicaldoc.core.threading.ThreadPools;
+import com.logicaldoc.util.Context;
+import com.logicaldoc.util.io.FileUtil;
+
 /**
  * Text extractor for Portable Document Format (PDF). For parsing uses an
- * external library: PDFBox. Created on 4. November 2003, 18:09
+ * external library: PDFBox. Created on 4. November 2003, 18:09<br>
+ * <br>
+ * The PDF is always read from a file, using at most
+ * <code>parser.pdf.memory</code> MB of main memory and temporary files for
+ * the rest. Big documents are split in chunks of
+ * <code>parser.pdf.chunk</code> pages extracted in parallel by up to
+ * <code>parser.pdf.workers</code> workers, each one with its own instance of
+ * the document, and the extraction stops as soon as the maximum length of the
+ * content has been reached.
  * 
  * @author Michael Scholz
  * @author Alessandro Gasparini - LogicalDOC
@@ -28,42 +46,154 @@ public class PDFParser extends AbstractParser {
 
 	private static final String CAN_NOT_GET_PDF_DOCUMENT_FOR_PARSING = "Can not get pdf document for parsing";
 
+	private static final String POOL = "PdfParser";
+
 	protected static Logger log = LoggerFactory.getLogger(PDFParser.class);
 
 	@Override
 	public void internalParse(InputStream input, ParseParameters parameters, StringBuilder content)
 			throws ParsingException {
-		PDDocument pdfDocument = null;
+		// PDFBox needs random access, so the stream gets copied in a file
+		File file = parameters.getFile();
+		File tmp = null;
 		try {
-			pdfDocument = PDDocument.load(input);
-
-			if (pdfDocument == null) {
-				throw new IOException(CAN_NOT_GET_PDF_DOCUMENT_FOR_PARSING);
-			} else {
-				if (pdfDocument.isEncrypted()) {
-					pdfDocument.close();
-					pdfDocument = PDDocument.load(input, "");
-				}
+			if (file == null || !file.exists()) {
+				tmp = FileUtil.createTempFile("pdfparser", ".pdf");
+				FileUtil.writeFile(input, tmp.getPath());
+				file = tmp;
+			}
 
-				if (pdfDocument == null)
-					throw new IOException(CAN_NOT_GET_PDF_DOCUMENT_FOR_PARSING);
+			String tenant = parameters.getTenant();
+			int workers = Math.max(1, getConfig(tenant, "workers", 4));
+			long memory = Math.max(1, getConfig(tenant, "memory", 128)) * 1024L * 1024L;
+			int chunk = Math.max(1, getConfig(tenant, "chunk", 10));
 
-				// Strip text from the entire document
-				parseDocument(pdfDocument, content);
+			ContentWriter writer = new ContentWriter(content, parameters.getMaxLength());
+			try (PDDocument pdfDocument = load(file, memory / workers)) {
+				int pages = pdfDocument.getNumberOfPages();
+				int chunks = (pages + chunk - 1) / chunk;
+				if (workers < 2 || chunks < 2)
+					parseDocument(pdfDocument, writer);
+				else
+					parseInParallel(file, pdfDocument, writer, chunk, Math.min(workers, chunks), memory / workers);
 
 				// Now parse the forms
-				parseForm(pdfDocument, content);
+				if (!writer.isFull())
+					parseForm(pdfDocument, content);
 			}
 		} catch (IOException ex) {
 			log.error(ex.getMessage(), ex);
 		} finally {
+			FileUtil.delete(tmp);
+		}
+	}
+
+	private static PDDocument load(File file, long maxMainMemory) throws IOException {
+		PDDocument pdfDocument = PDDocument.load(file, "", MemoryUsageSetting.setupMixed(maxMainMemory));
+		if (pdfDocument == null)
+			throw new IOException(CAN_NOT_GET_PDF_DOCUMENT_FOR_PARSING);
+		return pdfDocument;
+	}
+
+	private static int getConfig(String tenant, String name, int defaultValue) {
+		try {
+			return Context.get().getProperties().getInt(tenant + ".parser.pdf." + name, defaultValue);
+		} catch (Exception e) {
+			return defaultValue;
+		}
+	}
+
+	/**
+	 * Extracts the text splitting the document in chunks of pages processed
+	 * in parallel. The current thread works on the already loaded document
+	 * while the other workers load their own instance.
+	 */
+	private void parseInParallel(File file, PDDocument pdfDocument, ContentWriter writer, int chunk, int workers,
+			long maxMainMemory) throws IOException {
+		ExecutorService pool = null;
+		try {
+			pool = ThreadPools.get().getPool(POOL);
+		} catch (ThreadPoolNotAvailableException | RuntimeException e) {
+			log.debug("Pool {} not available, parsing in the current thread", POOL);
+		}
+
+		if (pool == null) {
+			parseDocument(pdfDocument, writer);
+			return;
+		}
+
+		Chunks chunks = new Chunks(pdfDocument.getNumberOfPages(), chunk, writer.getMaxLength());
+
+		List<Future<?>> futures = new ArrayList<>();
+		for (int i = 1; i < workers; i++)
+			futures.add(pool.submit(() -> {
+				if (chunks.enter())
+					try (PDDocument instance = load(file, maxMainMemory)) {
+						extractChunks(instance, chunks);
+					} finally {
+						chunks.exit();
+					}
+				return null;
+			}));
+
+		extractChunks(pdfDocument, chunks);
+
+		for (Future<?> future : futures) {
 			try {
-				if (pdfDocument != null)
-					pdfDocument.close();
-			} catch (Exception e) {
-				log.warn(e.getMessage(), e);
+				future.get();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				chunks.stop();
+				for (Future<?> f : futures)
+					f.cancel(false);
+
+				// The caller deletes the file as soon as we return
+				chunks.awaitWorkers();
+				break;
+			} catch (ExecutionException e) {
+				log.error("Error extracting the pdf text: {}", e.getCause().getMessage());
 			}
 		}
+
+		chunks.writeTo(writer);
+	}
+
+	private void extractChunks(PDDocument pdfDocument, Chunks chunks) {
+		PDFTextStripper stripper;
+		try {
+			stripper = newStripper();
+		} catch (IOException e) {
+			log.error(e.getMessage(), e);
+			return;
+		}
+
+		int index;
+		while ((index = chunks.next()) >= 0) {
+			StringBuilder text = new StringBuilder();
+			ContentWriter writer = new ContentWriter(text, chunks.maxLength);
+			int last = Math.min(chunks.pages, (index + 1) * chunks.size);
+			for (int i = index * chunks.size + 1; i <= last && !writer.isFull() && !chunks.isStopped(); i++)
+				stripPage(pdfDocument, stripper, i, writer);
+			chunks.completed(index, text);
+		}
+	}
+
+	private static PDFTextStripper newStripper() throws IOException {
+		PDFTextStripper stripper = new PDFTextStripper();
+		stripper.setPageEnd("\n");
+		stripper.setParagraphEnd("\n");
+		stripper.setAddMoreFormatting(false);
+		return stripper;
+	}
+
+	private static void stripPage(PDDocument pdfDocument, PDFTextStripper stripper, int page, ContentWriter writer) {
+		try {
+			stripper.setStartPage(page);
+			stripper.setEndPage(page);
+			stripper.writeText(pdfDocument, writer);
+		} catch (Exception tw) {
+			log.error("Exception reading pdf document: {}", tw.getMessage());
+		}
 	}
 
 	/**
@@ -72,6 +202,16 @@ public class PDFParser extends AbstractParser {
 	 * @throws IOException I/O error
 	 */
 	protected void parseDocument(PDDocument pdfDocument, StringBuilder content) throws IOException {
+		parseDocument(pdfDocument, new ContentWriter(content, 0));
+	}
+
+	/**
+	 * Extract text and metadata from the main document writing directly in
+	 * the given writer, the pages are read until the writer gets full
+	 * 
+	 * @throws IOException I/O error
+	 */
+	protected void parseDocument(PDDocument pdfDocument, ContentWriter writer) throws IOException {
 		PDDocumentInformation information = pdfDocument.getDocumentInformation();
 		if (information == null) {
 			throw new IOException("Can not get information from pdf document");
@@ -80,22 +220,10 @@ public class PDFParser extends AbstractParser {
 		/*
 		 * Incrementally read all pages
 		 */
-		PDFTextStripper stripper = new PDFTextStripper();
+		PDFTextStripper stripper = newStripper();
 		int pages = pdfDocument.getNumberOfPages();
-		for (int i = 1; i <= pages; i++) {
-			try (Writer writer = new CharArrayWriter()) {
-				stripper.setStartPage(i);
-				stripper.setEndPage(i);
-				stripper.setPageEnd("\n");
-				stripper.setParagraphEnd("\n");
-				stripper.setAddMoreFormatting(false);
-				stripper.writeText(pdfDocument, writer);
-				writer.flush();
-				content.append(writer.toString());
-			} catch (Exception tw) {
-				log.error("Exception reading pdf document: {}", tw.getMessage());
-			}
-		}
+		for (int i = 1; i <= pages && !writer.isFull(); i++)
+			stripPage(pdfDocument, stripper, i, writer);
 	}
 
 	/**
@@ -129,7 +257,7 @@ public class PDFParser extends AbstractParser {
 	@Override
 	public int countPages(File file, String filename) {
 		try {
-			return internalCountPages(PDDocument.load(file));
+			return internalCountPages(PDDocument.load(file, MemoryUsageSetting.setupMixed(getMaxMainMemory())));
 		} catch (Exception e) {
 			if (log.isDebugEnabled())
 				log.warn(e.getMessage(), e);
@@ -140,7 +268,7 @@ public class PDFParser extends AbstractParser {
 	@Override
 	public int countPages(InputStream input, String filename) {
 		try {
-			return internalCountPages(PDDocument.load(input));
+			return internalCountPages(PDDocument.load(input, MemoryUsageSetting.setupMixed(getMaxMainMemory())));
 		} catch (Exception e) {
 			if (log.isDebugEnabled())
 				log.warn(e.getMessage(), e);
@@ -148,6 +276,10 @@ public class PDFParser extends AbstractParser {
 		}
 	}
 
+	private static long getMaxMainMemory() {
+		return Math.max(1, getConfig(Tenant.DEFAULT_NAME, "memory", 128)) * 1024L * 1024L;
+	}
+
 	private int internalCountPages(PDDocument pdfDocument) {
 		try {
 			if (pdfDocument == null) {
@@ -169,4 +301,109 @@ public class PDFParser extends AbstractParser {
 			}
 		}
 	}
-}
\ No newline at end of file
+
+	/**
+	 * Hands out the chunks of pages to the workers in the order of the pages
+	 * and collects their text, stopping the workers when the text of the
+	 * first chunks already reaches the maximum length.
+	 */
+	private static class Chunks {
+
+		private final int pages;
+
+		private final int size;
+
+		private final int maxLength;
+
+		private final StringBuilder[] texts;
+
+		private final AtomicInteger nextChunk = new AtomicInteger();
+
+		private volatile boolean stopped = false;
+
+		/**
+		 * Number of consecutive chunks completed from the beginning
+		 */
+		private int completedHead = 0;
+
+		/**
+		 * Length of the text of the consecutive chunks completed from the
+		 * beginning
+		 */
+		private long headLength = 0;
+
+		private Chunks(int pages, int size, int maxLength) {
+			this.pages = pages;
+			this.size = size;
+			this.maxLength = maxLength;
+			this.texts = new StringBuilder[(pages + size - 1) / size];
+		}
+
+		private int next() {
+			if (stopped)
+				return -1;
+			int index = nextChunk.getAndIncrement();
+			return index < texts.length ? index : -1;
+		}
+
+		/**
+		 * Number of workers that opened the file
+		 */
+		private int workers = 0;
+
+		/**
+		 * Registers a worker that wants to read the file
+		 * 
+		 * @return false if there is nothing more to extract
+		 */
+		private synchronized boolean enter() {
+			if (stopped || nextChunk.get() >= texts.length)
+				return false;
+			workers++;
+			return true;
+		}
+
+		private synchronized void exit() {
+			workers--;
+			notifyAll();
+		}
+
+		/**
+		 * Waits until all the workers have released the file, even if the
+		 * current thread gets interrupted
+		 */
+		private synchronized void awaitWorkers() {
+			boolean interrupted = false;
+			while (workers > 0) {
+				try {
+					wait();
+				} catch (InterruptedException e) {
+					interrupted = true;
+				}
+			}
+			if (interrupted)
+				Thread.currentThread().interrupt();
+		}
+
+		private boolean isStopped() {
+			return stopped;
+		}
+
+		private synchronized void stop() {
+			stopped = true;
+		}
+
+		private synchronized void completed(int index, StringBuilder text) {
+			texts[index] = text;
+			while (completedHead < texts.length && texts[completedHead] != null)
+				headLength += texts[completedHead++].length();
+			if (maxLength > 0 && headLength >= maxLength)
+				stopped = true;
+		}
+
+		private synchronized void writeTo(ContentWriter writer) {
+			for (int i = 0; i < texts.length && texts[i] != null && !writer.isFull(); i++)
+				writer.append(texts[i]);
+		}
+	}
+}
@@ -1,5 +1,6 @@
 package com.logicaldoc.core.parser;
 
+import java.io.File;
 import java.util.Locale;
 
 import com.logicaldoc.core.document.Document;
@@ -24,6 +25,16 @@ public class ParseParameters {
 
 	private String tenant;
 
+	/**
+	 * Maximum number of characters to extract, zero or negative means no limit
+	 */
+	private int maxLength = 0;
+
+	/**
+	 * The file being parsed, when the content is available in the file system
+	 */
+	private File file;
+
 	public ParseParameters(Document document, String filename, String fileVersion, String encoding, Locale locale,
 			String tenant) {
 		this.document = document;
@@ -81,4 +92,20 @@ public class ParseParameters {
 	public void setTenant(String tenant) {
 		this.tenant = tenant;
 	}
-}
\ No newline at end of file
+
+	public int getMaxLength() {
+		return maxLength;
+	}
+
+	public void setMaxLength(int maxLength) {
+		this.maxLength = maxLength;
+	}
+
+	public File getFile() {
+		return file;
+	}
+
+	public void setFile(File file) {
+		this.file = file;
+	}
+}
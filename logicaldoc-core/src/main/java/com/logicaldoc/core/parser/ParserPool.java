@@ -0,0 +1,347 @@
+package com.logicaldoc.core.parser;
+
+import java.util.Collections;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.logicaldoc.core.threading.NamedThreadFactory;
+import com.logicaldoc.core.threading.ThreadPoolNotAvailableException;
+import com.logicaldoc.core.threading.ThreadPools;
+import com.logicaldoc.util.Context;
+
+/**
+ * Executes the parsings that must complete within a timeout in the shared
+ * thread pool named <b>Parser</b>(see {@link ThreadPools} for the
+ * configuration). The timeout is counted from when the worker actually starts
+ * the parsing, when it expires the worker thread gets interrupted.<br>
+ * <br>
+ * The time a parsing can wait for a free worker is limited by the setting
+ * <code>parser.queue.timeout</code>(seconds, default 600), when it expires the
+ * parsing fails with an error.
+ * <br>
+ * <br>
+ * The number of concurrent parsings of a given parser can be limited with the
+ * setting <code>parser.concurrency.<b>ParserClassName</b></code>(default 0,
+ * meaning no limit other than the size of the pool).<br>
+ * <br>
+ * A parsing requested from inside the pool(for instance an archive parser that
+ * parses its entries) is executed in the current thread, to not saturate the
+ * pool with threads waiting for each other.
+ *
+ * @author Marco Meschieri - LogicalDOC
+ * @since 9.1.1
+ */
+public class ParserPool {
+
+	private static final Logger log = LoggerFactory.getLogger(ParserPool.class);
+
+	public static final String POOL_NAME = "Parser";
+
+	private static final ParserPool instance = new ParserPool();
+
+	private static final ThreadLocal<Boolean> insidePool = ThreadLocal.withInitial(() -> Boolean.FALSE);
+
+	private final Map<String, Semaphore> limits = new ConcurrentHashMap<>();
+
+	private final Map<String, Stats> stats = new ConcurrentHashMap<>();
+
+	private final AtomicInteger running = new AtomicInteger();
+
+	private final AtomicInteger waiting = new AtomicInteger();
+
+	private final AtomicLong timeouts = new AtomicLong();
+
+	private final AtomicLong queueTimeouts = new AtomicLong();
+
+	private ParserPool() {
+	}
+
+	public static ParserPool get() {
+		return instance;
+	}
+
+	/**
+	 * Executes a parsing task waiting for its completion
+	 *
+	 * @param parserName name of the parser, used to apply the concurrency
+	 *        limits
+	 * @param extension extension of the file being parsed, used for the
+	 *        statistics
+	 * @param task the parsing task
+	 * @param timeout maximum number of seconds the parsing can take once
+	 *        started
+	 *
+	 * @throws ParsingException error in the parsing, also raised when the
+	 *         parsing could not start in time or the current thread has been
+	 *         interrupted
+	 * @throws ParsingTimeoutException the timeout expired while parsing
+	 */
+	public void execute(String parserName, String extension, Callable<?> task, long timeout)
+			throws ParsingException {
+		if (Boolean.TRUE.equals(insidePool.get())) {
+			call(task);
+			return;
+		}
+
+		long queueDeadline = System.currentTimeMillis() + TimeUnit.SECONDS.toMillis(getQueueTimeout());
+		Semaphore limit = getLimit(parserName);
+		boolean acquired = false;
+		CountDownLatch started = new CountDownLatch(1);
+		AtomicBoolean dequeued = new AtomicBoolean(false);
+		ExecutorService executor = null;
+		Future<?> future = null;
+		waiting.incrementAndGet();
+		try {
+			if (limit != null) {
+				acquired = limit.tryAcquire(remaining(queueDeadline), TimeUnit.MILLISECONDS);
+				if (!acquired)
+					throw queueTimeout(extension);
+			}
+
+			executor = getExecutor();
+			future = executor.submit(() -> {
+				if (dequeued.compareAndSet(false, true))
+					waiting.decrementAndGet();
+				started.countDown();
+				running.incrementAndGet();
+				insidePool.set(Boolean.TRUE);
+				try {
+					return task.call();
+				} finally {
+					insidePool.remove();
+					running.decrementAndGet();
+				}
+			});
+
+			if (!started.await(remaining(queueDeadline), TimeUnit.MILLISECONDS))
+				throw queueTimeout(extension);
+
+			long start = System.currentTimeMillis();
+			future.get(TimeUnit.SECONDS.toMillis(timeout), TimeUnit.MILLISECONDS);
+			getStats(extension).record(System.currentTimeMillis() - start);
+		} catch (InterruptedException ie) {
+			log.warn("Interrupted parse");
+			Thread.currentThread().interrupt();
+			getStats(extension).errors.incrementAndGet();
+			throw new ParsingException("interrupted");
+		} catch (TimeoutException te) {
+			log.warn("Parsing timeout");
+			throw timeout(extension, "timeout");
+		} catch (ExecutionException ee) {
+			getStats(extension).errors.incrementAndGet();
+			Throwable cause = ee.getCause();
+			if (cause instanceof ParsingException pe)
+				throw pe;
+			throw new ParsingException(cause.getMessage(), cause);
+		} finally {
+			// Interrupt the worker if still running, or remove it from the queue
+			if (future != null && !future.isDone())
+				future.cancel(true);
+			if (dequeued.compareAndSet(false, true))
+				waiting.decrementAndGet();
+			if (acquired)
+				limit.release();
+			if (executor != null && !isShared(executor))
+				executor.shutdownNow();
+		}
+	}
+
+	private static long remaining(long deadline) {
+		return Math.max(1, deadline - System.currentTimeMillis());
+	}
+
+	private ParsingException queueTimeout(String extension) {
+		log.warn("Parsing not started within {} seconds", getQueueTimeout());
+		queueTimeouts.incrementAndGet();
+		getStats(extension).errors.incrementAndGet();
+		return new ParsingException("Parsing not started within " + getQueueTimeout() + " seconds");
+	}
+
+	private int getQueueTimeout() {
+		try {
+			return Context.get().getProperties().getInt("parser.queue.timeout", 600);
+		} catch (Exception e) {
+			return 600;
+		}
+	}
+
+	private ParsingTimeoutException timeout(String extension, String message) {
+		timeouts.incrementAndGet();
+		getStats(extension).timeouts.incrementAndGet();
+		return new ParsingTimeoutException(message);
+	}
+
+	private static void call(Callable<?> task) throws ParsingException {
+		try {
+			task.call();
+		} catch (ParsingException pe) {
+			throw pe;
+		} catch (Exception e) {
+			throw new ParsingException(e.getMessage(), e);
+		}
+	}
+
+	private ExecutorService getExecutor() {
+		ExecutorService pool = getSharedPool();
+		if (pool != null)
+			return pool;
+
+		log.debug("Pool {} not available, using a dedicated thread", POOL_NAME);
+		return Executors.newSingleThreadExecutor(new NamedThreadFactory(POOL_NAME));
+	}
+
+	private boolean isShared(ExecutorService executor) {
+		return executor == getSharedPool();
+	}
+
+	private ExecutorService getSharedPool() {
+		try {
+			return ThreadPools.get().getPool(POOL_NAME);
+		} catch (ThreadPoolNotAvailableException | RuntimeException e) {
+			return null;
+		}
+	}
+
+	private Semaphore getLimit(String parserName) {
+		int max = 0;
+		try {
+			max = Context.get().getProperties().getInt("parser.concurrency." + parserName, 0);
+		} catch (Exception e) {
+			// No configuration available
+		}
+		if (max <= 0)
+			return null;
+
+		final int permits = max;
+		return limits.computeIfAbsent(parserName, k -> new Semaphore(permits, true));
+	}
+
+	private Stats getStats(String extension) {
+		return stats.computeIfAbsent(extension != null ? extension.toLowerCase() : "", k -> new Stats());
+	}
+
+	/**
+	 * Number of parsings submitted and not yet started
+	 *
+	 * @return the number of waiting parsings
+	 */
+	public int getWaiting() {
+		return waiting.get();
+	}
+
+	public int getRunning() {
+		return running.get();
+	}
+
+	public long getTimeouts() {
+		return timeouts.get();
+	}
+
+	/**
+	 * Number of parsings that failed because they could not start in time
+	 *
+	 * @return the number of queue timeouts
+	 */
+	public long getQueueTimeouts() {
+		return queueTimeouts.get();
+	}
+
+	/**
+	 * Gets the number of tasks in the queue of the pool
+	 *
+	 * @return the queue depth, -1 if not available
+	 */
+	public int getQueueDepth() {
+		if (getSharedPool() instanceof ThreadPoolExecutor tpe)
+			return tpe.getQueue().size();
+		return -1;
+	}
+
+	/**
+	 * Gets the statistics of each extension
+	 *
+	 * @return map extension - statistics
+	 */
+	public Map<String, Stats> getStats() {
+		return Collections.unmodifiableMap(new TreeMap<>(stats));
+	}
+
+	@Override
+	public String toString() {
+		return "running: " + running.get() + ", waiting: " + waiting.get() + ", timeouts: " + timeouts.get()
+				+ ", queue timeouts: " + queueTimeouts.get() + ", stats: " + getStats();
+	}
+
+	/**
+	 * Statistics about the parsings of a given extension
+	 *
+	 * @author Marco Meschieri - LogicalDOC
+	 * @since 9.1.1
+	 */
+	public static class Stats {
+
+		private final AtomicLong count = new AtomicLong();
+
+		private final AtomicLong totalTime = new AtomicLong();
+
+		private final AtomicLong maxTime = new AtomicLong();
+
+		private final AtomicLong timeouts = new AtomicLong();
+
+		private final AtomicLong errors = new AtomicLong();
+
+		private void record(long time) {
+			count.incrementAndGet();
+			totalTime.addAndGet(time);
+			maxTime.accumulateAndGet(time, Math::max);
+		}
+
+		public long getCount() {
+			return count.get();
+		}
+
+		public long getTotalTime() {
+			return totalTime.get();
+		}
+
+		public long getAverageTime() {
+			long c = count.get();
+			return c > 0 ? totalTime.get() / c : 0L;
+		}
+
+		public long getMaxTime() {
+			return maxTime.get();
+		}
+
+		public long getTimeouts() {
+			return timeouts.get();
+		}
+
+		public long getErrors() {
+			return errors.get();
+		}
+
+		@Override
+		public String toString() {
+			return "count: " + count.get() + ", avg: " + getAverageTime() + "ms, max: " + maxTime.get()
+					+ "ms, timeouts: " + timeouts.get() + ", errors: " + errors.get();
+		}
+	}
+}
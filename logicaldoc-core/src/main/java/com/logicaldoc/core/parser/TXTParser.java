@@ -5,6 +5,8 @@ import java.io.File;
 import java.io.FileInputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
 import java.io.UnsupportedEncodingException;
 import java.nio.charset.Charset;
 import java.util.Locale;
@@ -17,7 +19,6 @@ import com.ibm.icu.text.CharsetDetector;
 import com.ibm.icu.text.CharsetMatch;
 import com.logicaldoc.core.document.Document;
 import com.logicaldoc.util.Context;
-import com.logicaldoc.util.StringUtil;
 import com.logicaldoc.util.io.IOUtil;
 
 /**
@@ -62,8 +63,12 @@ public class TXTParser extends AbstractParser {
 	@Override
 	public void internalParse(InputStream input, ParseParameters parameters, StringBuilder content) {
 		try {
-			if (input != null)
-				content.append(StringUtil.writeToString(getLimitedStream(input, parameters.getTenant()), parameters.getEncoding()));
+			if (input != null) {
+				String encoding = StringUtils.isNotEmpty(parameters.getEncoding()) ? parameters.getEncoding()
+						: "UTF-8";
+				Reader reader = new InputStreamReader(getLimitedStream(input, parameters.getTenant()), encoding);
+				new ContentWriter(content, parameters.getMaxLength()).transferFrom(reader);
+			}
 		} catch (UnsupportedEncodingException e) {
 			log.warn("Unsupported encoding '{}', using default ({}) instead.", parameters.getEncoding(),
 					System.getProperty("file.encoding"));
@@ -0,0 +1,450 @@
+package com.logicaldoc.core.searchengine;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.solr.client.solrj.SolrClient;
+import org.apache.solr.client.solrj.SolrServerException;
+import org.apache.solr.common.SolrInputDocument;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.logicaldoc.core.searchengine.analyzer.FilteredAnalyzer;
+import com.logicaldoc.core.threading.NamedThreadFactory;
+
+/**
+ * A batching pipeline in front of the Solr server. Additions and deletions are
+ * put in a bounded queue and a single background thread drains them in
+ * batches, that are sent to the server using <i>commitWithin</i> (near
+ * real-time visibility through soft commits) while hard commits are issued
+ * periodically. When the queue is full the callers are blocked until there is
+ * room for new operations.<br>
+ * <br>
+ * The callers adding a hit wait until the server has accepted it, so an
+ * indexing failure is reported to who is indexing the document. The hits
+ * added concurrently by different threads are sent in the same batch.<br>
+ * <br>
+ * The following configuration parameters are used:
+ * <ul>
+ * <li>index.pipeline.queue: maximum number of pending operations (default
+ * 1000)</li>
+ * <li>index.pipeline.batch: maximum number of operations sent in a single
+ * batch (default 100)</li>
+ * <li>index.pipeline.wait: maximum time in milliseconds to wait for filling a
+ * batch (default 500)</li>
+ * <li>index.pipeline.commitwithin: the commitWithin in milliseconds passed to
+ * the server, if 0 a soft commit is explicitly issued after each batch
+ * (default 1000)</li>
+ * <li>index.pipeline.hardcommit: interval in milliseconds between two hard
+ * commits (default 60000)</li>
+ * <li>index.pipeline.timeout: maximum time in milliseconds to wait for an
+ * addition or a flush to be completed (default 600000)</li>
+ * </ul>
+ *
+ * @author Marco Meschieri - LogicalDOC
+ * @since 9.1.1
+ */
+public class IndexPipeline {
+
+	private static final Logger log = LoggerFactory.getLogger(IndexPipeline.class);
+
+	private final SolrClient server;
+
+	private final BlockingQueue<Operation> queue;
+
+	private final int batchSize;
+
+	private final long batchWait;
+
+	private final int commitWithin;
+
+	private final long hardCommitInterval;
+
+	private final long timeout;
+
+	private long lastHardCommit = System.currentTimeMillis();
+
+	private boolean uncommitted = false;
+
+	private volatile boolean running = false;
+
+	private Thread drainer;
+
+	private final AtomicLong added = new AtomicLong();
+
+	private final AtomicLong deleted = new AtomicLong();
+
+	private final AtomicLong batches = new AtomicLong();
+
+	private final AtomicLong failures = new AtomicLong();
+
+	/**
+	 * Number of callers waiting for the outcome of their additions
+	 */
+	private final AtomicInteger waiting = new AtomicInteger();
+
+	public IndexPipeline(SolrClient server, int queueSize, int batchSize, long batchWait, int commitWithin,
+			long hardCommitInterval, long timeout) {
+		this.server = server;
+		this.queue = new ArrayBlockingQueue<>(Math.max(1, queueSize));
+		this.batchSize = Math.max(1, batchSize);
+		this.batchWait = Math.max(1, batchWait);
+		this.commitWithin = commitWithin;
+		this.hardCommitInterval = hardCommitInterval;
+		this.timeout = timeout > 0 ? timeout : 600000L;
+	}
+
+	/**
+	 * Starts the background thread that drains the queue
+	 */
+	public synchronized void start() {
+		if (running)
+			return;
+		running = true;
+		drainer = new NamedThreadFactory("IndexPipeline").newThread(this::drain);
+		drainer.setDaemon(true);
+		drainer.start();
+		log.info("Index pipeline started (batch: {}, wait: {}ms, commitWithin: {}ms)", batchSize, batchWait,
+				commitWithin);
+	}
+
+	/**
+	 * Flushes all the pending operations and stops the background thread
+	 */
+	public synchronized void stop() {
+		if (!running)
+			return;
+		flush();
+		running = false;
+		drainer.interrupt();
+		try {
+			drainer.join(10000);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+		log.info("Index pipeline stopped, added: {}, deleted: {}, batches: {}, failures: {}", added.get(),
+				deleted.get(), batches.get(), failures.get());
+	}
+
+	public boolean isRunning() {
+		return running;
+	}
+
+	/**
+	 * Enqueues a new hit and waits until the server has accepted it
+	 *
+	 * @param hit the hit to add
+	 * @param language the language used to analyze the hit
+	 * 
+	 * @throws IOException the hit was not added to the index
+	 */
+	public void add(SolrInputDocument hit, String language) throws IOException {
+		Operation operation = new Operation(hit, language, null, false);
+		waiting.incrementAndGet();
+		try {
+			enqueue(operation);
+			await(operation);
+		} finally {
+			waiting.decrementAndGet();
+		}
+	}
+
+	/**
+	 * Enqueues the deletion of some hits, waiting if the queue is full
+	 *
+	 * @param ids identifiers of the hits to delete
+	 */
+	public void delete(Collection<String> ids) {
+		if (ids == null || ids.isEmpty())
+			return;
+		enqueue(new Operation(null, null, new ArrayList<>(ids), false));
+	}
+
+	/**
+	 * Waits until all the operations enqueued so far have been sent to the
+	 * server and hard committed
+	 */
+	public void flush() {
+		if (!running || Thread.currentThread() == drainer)
+			return;
+
+		Operation barrier = new Operation(null, null, null, true);
+		enqueue(barrier);
+		try {
+			await(barrier);
+		} catch (IOException e) {
+			log.warn("Unable to flush the index pipeline: {}", e.getMessage());
+		}
+	}
+
+	private void await(Operation operation) throws IOException {
+		try {
+			operation.result.get(timeout, TimeUnit.MILLISECONDS);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IOException("Interrupted while waiting for the index", e);
+		} catch (ExecutionException e) {
+			throw new IOException(e.getCause().getMessage(), e.getCause());
+		} catch (TimeoutException e) {
+			throw new IOException("Timeout waiting for the index", e);
+		}
+	}
+
+	/**
+	 * Number of operations waiting to be sent to the server
+	 *
+	 * @return the current queue depth
+	 */
+	public int getPending() {
+		return queue.size();
+	}
+
+	public long getAdded() {
+		return added.get();
+	}
+
+	public long getDeleted() {
+		return deleted.get();
+	}
+
+	public long getBatches() {
+		return batches.get();
+	}
+
+	public long getFailures() {
+		return failures.get();
+	}
+
+	private void enqueue(Operation operation) {
+		if (!running) {
+			operation.fail(new IOException("Index pipeline not running"));
+			return;
+		}
+
+		try {
+			queue.put(operation);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			operation.fail(new IOException("Interrupted while enqueuing", e));
+		}
+	}
+
+	private void drain() {
+		List<Operation> batch = new ArrayList<>(batchSize);
+		while (running || !queue.isEmpty()) {
+			try {
+				Operation first = queue.poll(batchWait, TimeUnit.MILLISECONDS);
+				if (first == null) {
+					hardCommitIfNeeded(false);
+					continue;
+				}
+
+				batch.add(first);
+				long deadline = System.currentTimeMillis() + batchWait;
+				while (!first.barrier && batch.size() < batchSize && !allWaitingInBatch(batch)) {
+					long remaining = deadline - System.currentTimeMillis();
+					Operation next = remaining > 0 ? queue.poll(remaining, TimeUnit.MILLISECONDS) : queue.poll();
+					if (next == null)
+						break;
+					batch.add(next);
+					if (next.barrier)
+						break;
+				}
+
+				process(batch);
+			} catch (InterruptedException e) {
+				if (!running)
+					break;
+			} catch (Exception t) {
+				log.error(t.getMessage(), t);
+			} finally {
+				// Nobody must remain waiting for an operation of this batch
+				for (Operation operation : batch)
+					operation.fail(new IOException("Operation not processed by the index"));
+				batch.clear();
+			}
+		}
+
+		// Release who is still waiting for the operations left in the queue
+		Operation operation;
+		while ((operation = queue.poll()) != null)
+			operation.fail(new IOException("Index pipeline stopped"));
+	}
+
+	/**
+	 * Checks if all the callers waiting for their additions already have them
+	 * in the batch, in this case waiting for other operations is useless
+	 */
+	private boolean allWaitingInBatch(List<Operation> batch) {
+		return queue.isEmpty() && batch.stream().filter(o -> o.hit != null).count() >= waiting.get();
+	}
+
+	/**
+	 * Sends a batch to the server. Consecutive additions in the same language
+	 * are grouped in a single request, as well as consecutive deletions, so
+	 * the original order of the operations is preserved.
+	 */
+	private void process(List<Operation> batch) {
+		List<Operation> hits = new ArrayList<>();
+		String hitsLanguage = null;
+		List<String> deletions = new ArrayList<>();
+
+		for (Operation operation : batch) {
+			if (operation.hit != null) {
+				sendDeletions(deletions);
+				if (!hits.isEmpty() && !sameLanguage(hitsLanguage, operation.language))
+					sendHits(hits, hitsLanguage);
+				hits.add(operation);
+				hitsLanguage = operation.language;
+			} else if (operation.deletions != null) {
+				sendHits(hits, hitsLanguage);
+				deletions.addAll(operation.deletions);
+				operation.result.complete(null);
+			} else {
+				sendHits(hits, hitsLanguage);
+				sendDeletions(deletions);
+				hardCommitIfNeeded(true);
+				operation.result.complete(null);
+			}
+		}
+		sendHits(hits, hitsLanguage);
+		sendDeletions(deletions);
+
+		batches.incrementAndGet();
+		softCommitIfNeeded();
+		hardCommitIfNeeded(false);
+	}
+
+	private static boolean sameLanguage(String lang1, String lang2) {
+		return lang1 == null ? lang2 == null : lang1.equals(lang2);
+	}
+
+	private void sendHits(List<Operation> hits, String language) {
+		if (hits.isEmpty())
+			return;
+
+		try {
+			FilteredAnalyzer.lang.set(language);
+			try {
+				add(hits.stream().map(o -> o.hit).toList());
+				for (Operation operation : hits)
+					operation.result.complete(null);
+			} catch (SolrServerException | IOException | RuntimeException e) {
+				log.warn("Unable to add a batch of {} hits, retrying one by one", hits.size(), e);
+
+				// Isolate the failing hits
+				for (Operation operation : hits) {
+					try {
+						add(List.of(operation.hit));
+						operation.result.complete(null);
+					} catch (SolrServerException | IOException | RuntimeException e1) {
+						failures.incrementAndGet();
+						log.error("Unable to add hit {} to the index",
+								operation.hit.getFieldValue(HitField.ID.getName()), e1);
+						operation.fail(e1);
+					}
+				}
+			}
+		} finally {
+			FilteredAnalyzer.lang.remove();
+			hits.clear();
+		}
+	}
+
+	private void add(List<SolrInputDocument> hits) throws SolrServerException, IOException {
+		if (commitWithin > 0)
+			server.add(hits, commitWithin);
+		else
+			server.add(hits);
+		added.addAndGet(hits.size());
+		uncommitted = true;
+	}
+
+	private void sendDeletions(List<String> ids) {
+		if (ids.isEmpty())
+			return;
+
+		try {
+			if (commitWithin > 0)
+				server.deleteById(ids, commitWithin);
+			else
+				server.deleteById(ids);
+			deleted.addAndGet(ids.size());
+			uncommitted = true;
+		} catch (SolrServerException | IOException | RuntimeException e) {
+			failures.incrementAndGet();
+			log.error("Unable to delete {} hits", ids.size(), e);
+		} finally {
+			ids.clear();
+		}
+	}
+
+	private void softCommitIfNeeded() {
+		if (commitWithin > 0 || !uncommitted)
+			return;
+		try {
+			server.commit(false, false, true);
+		} catch (SolrServerException | IOException e) {
+			log.warn("Soft commit failed: {}", e.getMessage(), e);
+		}
+	}
+
+	private void hardCommitIfNeeded(boolean force) {
+		long now = System.currentTimeMillis();
+		if (!force && (!uncommitted || hardCommitInterval <= 0 || now - lastHardCommit < hardCommitInterval))
+			return;
+		try {
+			server.commit();
+			uncommitted = false;
+		} catch (SolrServerException | IOException e) {
+			log.warn("Hard commit failed: {}", e.getMessage(), e);
+		} finally {
+			lastHardCommit = now;
+		}
+	}
+
+	/**
+	 * An operation enqueued in the pipeline: either an addition, a deletion or
+	 * a barrier. The result completes when the operation has been processed.
+	 */
+	private static class Operation {
+
+		private final SolrInputDocument hit;
+
+		private final String language;
+
+		private final List<String> deletions;
+
+		private final boolean barrier;
+
+		private final CompletableFuture<Void> result = new CompletableFuture<>();
+
+		private Operation(SolrInputDocument hit, String language, List<String> deletions, boolean barrier) {
+			this.hit = hit;
+			this.language = language;
+			this.deletions = deletions;
+			this.barrier = barrier;
+		}
+
+		/**
+		 * Completes the operation with an error, a barrier is just released
+		 * because the operations before it have been processed anyway
+		 */
+		private void fail(Throwable error) {
+			if (barrier)
+				result.complete(null);
+			else
+				result.completeExceptionally(error);
+		}
+	}
+}
@@ -27,6 +27,7 @@ import com.logicaldoc.core.document.Document;
 import com.logicaldoc.core.document.DocumentDAO;
 import com.logicaldoc.core.document.DocumentHistory;
 import com.logicaldoc.core.document.DocumentManager;
+import com.logicaldoc.core.parser.ParserPool;
 import com.logicaldoc.core.security.Tenant;
 import com.logicaldoc.core.security.TenantDAO;
 import com.logicaldoc.core.task.Task;
@@ -100,7 +101,8 @@ public class IndexerTask extends Task {
 			return;
 		}
 
-		if (!lockManager.get(getName(), transactionId)) {
+		// Marking the documents may take long, so keep the lease alive
+		if (!lockManager.get(getName(), transactionId, true)) {
 			log.warn("Unable to acquire lock {}, skipping indexing", getName());
 			return;
 		}
@@ -167,6 +169,9 @@ public class IndexerTask extends Task {
 				// Wait for the threads to complete
 				waitThreadsCompleteion(threads);
 
+				// Make sure all the hits have been written into the index
+				indexer.flush();
+
 				log.info("All threads have completed");
 
 				// Collect some stats
@@ -188,6 +193,7 @@ public class IndexerTask extends Task {
 				log.info("Parsing time: {}", TimeDiff.printDuration(parsingTime));
 				log.info("Indexed documents: {}", indexed);
 				log.info("Errors: {}", errors);
+				log.info("Parsers: {}", ParserPool.get());
 			}
 
 			indexer.unlock();
@@ -68,6 +68,13 @@ public interface SearchEngine {
 	 */
 	public void deleteHits(Collection<Long> ids);
 
+	/**
+	 * Waits until all the pending additions and deletions have been written
+	 * and committed into the index. Implementations that write synchronously
+	 * simply return.
+	 */
+	public void flush();
+
 	public Hit getHit(long id);
 
 	/**
@@ -80,6 +80,13 @@ public class StandardSearchEngine implements SearchEngine {
 
 	protected EmbeddedSolrServer server;
 
+	/**
+	 * Batches the updates to the index, it is null when the pipeline is
+	 * disabled(<b>index.pipeline.enabled</b>). It is nulled by
+	 * {@link #close()}, so read it once into a local variable.
+	 */
+	protected volatile IndexPipeline pipeline;
+
 	protected StandardSearchEngine() {
 	}
 
@@ -92,7 +99,7 @@ public class StandardSearchEngine implements SearchEngine {
 	}
 
 	@Override
-	public synchronized void addHit(Document document, String content) throws IndexException {
+	public void addHit(Document document, String content) throws IndexException {
 		try {
 			Document doc = getDocument(document);
 
@@ -129,10 +136,19 @@ public class StandardSearchEngine implements SearchEngine {
 			if (sb.length() > 0)
 				hit.addField(HitField.NOTES.getName(), sb.toString());
 
+			IndexPipeline currentPipeline = pipeline;
+			if (currentPipeline != null) {
+				// Waits until the hit has been accepted by the index
+				currentPipeline.add(hit, doc.getLanguage());
+				return;
+			}
+
 			try {
 				FilteredAnalyzer.lang.set(doc.getLanguage());
-				server.add(hit);
-				server.commit();
+				synchronized (this) {
+					server.add(hit);
+					server.commit();
+				}
 			} finally {
 				FilteredAnalyzer.lang.remove();
 			}
@@ -172,11 +188,9 @@ public class StandardSearchEngine implements SearchEngine {
 	private void setContent(String content, SolrInputDocument hit) {
 		int maxText = getMaxText();
 		if (content != null) {
-			String utf8Content = StringUtil.removeNonUtf8Chars(content);
-			if (maxText > 0 && utf8Content.length() > maxText)
-				hit.addField(HitField.CONTENT.getName(), StringUtils.substring(utf8Content, 0, maxText));
-			else
-				hit.addField(HitField.CONTENT.getName(), utf8Content);
+			// Cut before cleaning, so we do not copy text that would be discarded
+			String text = maxText > 0 && content.length() > maxText ? content.substring(0, maxText) : content;
+			hit.addField(HitField.CONTENT.getName(), StringUtil.removeNonUtf8Chars(text));
 		}
 	}
 
@@ -209,7 +223,7 @@ public class StandardSearchEngine implements SearchEngine {
 	}
 
 	@Override
-	public synchronized void addHit(Document document, InputStream content) throws IndexException {
+	public void addHit(Document document, InputStream content) throws IndexException {
 		try {
 			Document doc = document;
 			if (doc.getDocRef() != null) {
@@ -310,12 +324,20 @@ public class StandardSearchEngine implements SearchEngine {
 	 * @see com.logicaldoc.core.searchengine.SearchEngine#deleteHit(long)
 	 */
 	@Override
-	public synchronized void deleteHit(long id) {
+	public void deleteHit(long id) {
+		IndexPipeline currentPipeline = pipeline;
+		if (currentPipeline != null) {
+			currentPipeline.delete(List.of(Long.toString(id)));
+			return;
+		}
+
 		try {
-			server.deleteById(Long.toString(id));
-			server.commit();
+			synchronized (this) {
+				server.deleteById(Long.toString(id));
+				server.commit();
+			}
 		} catch (Exception e) {
-			log.debug("Unable to delete hit {}", id, e);
+			log.warn("Unable to delete hit {}", id, e);
 		}
 	}
 
@@ -326,15 +348,30 @@ public class StandardSearchEngine implements SearchEngine {
 	 * Collection )
 	 */
 	@Override
-	public synchronized void deleteHits(Collection<Long> ids) {
+	public void deleteHits(Collection<Long> ids) {
+		IndexPipeline currentPipeline = pipeline;
+		if (currentPipeline != null) {
+			currentPipeline.delete(ids.stream().map(i -> Long.toString(i)).toList());
+			return;
+		}
+
 		try {
-			server.deleteById(ids.stream().map(i -> Long.toString(i)).toList());
-			server.commit();
+			synchronized (this) {
+				server.deleteById(ids.stream().map(i -> Long.toString(i)).toList());
+				server.commit();
+			}
 		} catch (Exception e) {
-			log.debug("Unable to delete {} hits", ids.size(), e);
+			log.warn("Unable to delete {} hits", ids.size(), e);
 		}
 	}
 
+	@Override
+	public void flush() {
+		IndexPipeline currentPipeline = pipeline;
+		if (currentPipeline != null)
+			currentPipeline.flush();
+	}
+
 	/*
 	 * (non-Javadoc)
 	 * 
@@ -561,6 +598,11 @@ public class StandardSearchEngine implements SearchEngine {
 	public synchronized void close() {
 		log.warn("Closing the indexer");
 		try {
+			IndexPipeline currentPipeline = pipeline;
+			if (currentPipeline != null) {
+				pipeline = null;
+				currentPipeline.stop();
+			}
 			server.commit();
 			unlock();
 			server.getCoreContainer().shutdown();
@@ -636,6 +678,16 @@ public class StandardSearchEngine implements SearchEngine {
 
 			unlock();
 
+			if (config.getBoolean("index.pipeline.enabled", false)) {
+				IndexPipeline newPipeline = new IndexPipeline(server, config.getInt("index.pipeline.queue", 1000),
+						config.getInt("index.pipeline.batch", 100), config.getInt("index.pipeline.wait", 500),
+						config.getInt("index.pipeline.commitwithin", 1000),
+						config.getInt("index.pipeline.hardcommit", 60000),
+						config.getInt("index.pipeline.timeout", 600000));
+				newPipeline.start();
+				pipeline = newPipeline;
+			}
+
 			log.info("The full-text search engine has been initialized");
 		} catch (Exception e) {
 			log.error("Unable to initialize the Full-text search engine", e);
@@ -1,6 +1,10 @@
 package com.logicaldoc.core.security;
 
+import java.sql.PreparedStatement;
+import java.sql.Timestamp;
 import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Date;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
@@ -36,6 +40,39 @@ public class HibernateSessionDAO extends HibernatePersistentObjectDAO<Session> i
 		}
 	}
 
+	@Override
+	public void updateLastRenew(Collection<Session> sessions) throws PersistenceException {
+		if (sessions.isEmpty())
+			return;
+
+		try {
+			getCurrentSession().doWork(connection -> {
+				try (PreparedStatement stmt = connection.prepareStatement(
+						"update ld_session set ld_lastrenew=?, ld_lastmodified=?, ld_recordversion=ld_recordversion+1"
+								+ " where ld_id=? and ld_status=" + Session.STATUS_OPEN)) {
+					Timestamp now = new Timestamp(System.currentTimeMillis());
+					for (Session session : sessions) {
+						stmt.setTimestamp(1, toTimestamp(session.getLastRenew()));
+						stmt.setTimestamp(2, now);
+						stmt.setLong(3, session.getId());
+						stmt.addBatch();
+					}
+					stmt.executeBatch();
+				}
+			});
+
+			// The cached instances are no more valid
+			for (Session session : sessions)
+				getSessionFactory().getCache().evictEntityData(Session.class, session.getId());
+		} catch (Exception e) {
+			throw new PersistenceException(e.getMessage(), e);
+		}
+	}
+
+	private static Timestamp toTimestamp(Date date) {
+		return date != null ? new Timestamp(date.getTime()) : null;
+	}
+
 	@Override
 	public int countSessions(Long tenantId, Integer status) {
 		StringBuilder query = new StringBuilder(" 1=1 ");
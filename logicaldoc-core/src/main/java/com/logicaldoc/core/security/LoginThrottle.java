@@ -1,11 +1,20 @@
 package com.logicaldoc.core.security;
 
+import java.util.ArrayDeque;
 import java.util.ArrayList;
-import java.util.Calendar;
+import java.util.Collections;
 import java.util.Date;
+import java.util.Deque;
 import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
 
 import org.apache.commons.lang.StringUtils;
 import org.slf4j.Logger;
@@ -33,12 +42,23 @@ import com.logicaldoc.core.security.user.UserHistory;
 import com.logicaldoc.core.security.user.UserHistoryDAO;
 import com.logicaldoc.core.sequence.Sequence;
 import com.logicaldoc.core.sequence.SequenceDAO;
+import com.logicaldoc.core.threading.ThreadPoolNotAvailableException;
 import com.logicaldoc.core.threading.ThreadPools;
 import com.logicaldoc.util.Context;
 import com.logicaldoc.util.config.ContextProperties;
 
 /**
- * Utility methods to prevent brute force attacks
+ * Utility methods to prevent brute force attacks. The failed logins are
+ * counted in memory using sliding windows(one per username, IP and API Key)
+ * kept in a LRU map of at most <code>throttle.cache.size</code> entries, so
+ * the blocking decisions usually do not need any access to the database. The
+ * counters are saved in the sequences table every
+ * <code>throttle.persist.interval</code> seconds(in the thread pool named
+ * <b>LoginThrottle</b>) and loaded at the first use.<br>
+ * <br>
+ * A counter evicted from the map is saved as well and read again from the
+ * database when needed, so flooding the map with new entries does not reset
+ * the counters of the entities under attack.
  * 
  * @author Marco Meschieri - LogicalDOC
  * @since 7.6.3
@@ -52,8 +72,51 @@ public class LoginThrottle {
 
 	public static final String LOGINFAIL_USERNAME = "loginfail-username-";
 
+	private static final String LOGINFAIL = "loginfail-";
+
 	protected static Logger log = LoggerFactory.getLogger(LoginThrottle.class);
 
+	/**
+	 * The counters of failures, key is the counter name
+	 */
+	private static final Map<String, Counter> counters = Collections
+			.synchronizedMap(new LinkedHashMap<>(256, 0.75f, true) {
+
+				private static final long serialVersionUID = 1L;
+
+				@Override
+				protected boolean removeEldestEntry(Map.Entry<String, Counter> eldest) {
+					if (size() <= Context.get().getProperties().getInt("throttle.cache.size", 10000))
+						return false;
+					evict(eldest.getKey(), eldest.getValue());
+					return true;
+				}
+			});
+
+	/**
+	 * The counters evicted from the map and not yet saved in the database
+	 */
+	private static final Map<String, Counter> evicted = new ConcurrentHashMap<>();
+
+	/**
+	 * Names of the counters saved in the database
+	 */
+	private static final Set<String> stored = ConcurrentHashMap.newKeySet();
+
+	/**
+	 * Names of the counters changed since the last save
+	 */
+	private static final Set<String> changed = ConcurrentHashMap.newKeySet();
+
+	/**
+	 * Names of the counters to be removed from the database
+	 */
+	private static final Set<String> cleared = ConcurrentHashMap.newKeySet();
+
+	private static final String POOL_NAME = "LoginThrottle";
+
+	private static volatile boolean started = false;
+
 	private LoginThrottle() {
 	}
 
@@ -65,24 +128,89 @@ public class LoginThrottle {
 	 */
 	public static void clearFailures(String username, String ip) {
 		if (Context.get().getProperties().getBoolean(THROTTLE_ENABLED)) {
-			SequenceDAO sDao = Context.get(SequenceDAO.class);
+			start();
 			if (StringUtils.isNotEmpty(username))
-				try {
-					sDao.delete(LOGINFAIL_USERNAME + username, 0L, Tenant.SYSTEM_ID);
-				} catch (PersistenceException e) {
-					log.warn(e.getMessage(), e);
-				}
+				forget(LOGINFAIL_USERNAME + username);
 			if (StringUtils.isNotEmpty(ip))
-				try {
-					sDao.delete(LOGINFAIL_IP + ip, 0L, Tenant.SYSTEM_ID);
-				} catch (PersistenceException e) {
-					log.warn(e.getMessage(), e);
-				}
+				forget(LOGINFAIL_IP + ip);
 		}
 	}
 
 	/**
-	 * Saves the login failure in the database
+	 * Removes a counter of failures
+	 * 
+	 * @param counterName name of the counter, e.g.
+	 *        <code>loginfail-username-admin</code>
+	 */
+	public static void forget(String counterName) {
+		counters.remove(counterName);
+		evicted.remove(counterName);
+		changed.remove(counterName);
+		cleared.add(counterName);
+	}
+
+	/**
+	 * Takes note of a counter removed from the map to make room for new ones.
+	 * If it still has failures it will be saved, otherwise it will be removed
+	 * from the database.
+	 */
+	private static void evict(String counterName, Counter counter) {
+		changed.remove(counterName);
+		if (counter.count(getOldest()) > 0) {
+			evicted.put(counterName, counter);
+		} else {
+			evicted.remove(counterName);
+			cleared.add(counterName);
+		}
+	}
+
+	/**
+	 * Gets a counter, if it is not in memory it is searched in the counters
+	 * not yet saved and then in the database
+	 * 
+	 * @param counterName name of the counter
+	 * @param create true if a new counter must be created when not found
+	 * 
+	 * @return the counter or null if not found
+	 */
+	private static Counter getCounter(String counterName, boolean create) {
+		Counter counter = counters.get(counterName);
+		if (counter != null)
+			return counter;
+
+		counter = evicted.remove(counterName);
+		if (counter == null && stored.contains(counterName) && !cleared.contains(counterName))
+			counter = loadCounter(counterName);
+		if (counter == null && create)
+			counter = new Counter();
+		if (counter != null) {
+			Counter existing = counters.putIfAbsent(counterName, counter);
+			if (existing != null)
+				counter = existing;
+		}
+		return counter;
+	}
+
+	private static Counter loadCounter(String counterName) {
+		try {
+			Sequence seq = Context.get(SequenceDAO.class).findByAlternateKey(counterName, 0L, Tenant.SYSTEM_ID);
+			return seq != null ? toCounter(seq) : null;
+		} catch (Exception e) {
+			log.warn("Unable to load the login failure counter {}: {}", counterName, e.getMessage());
+			return null;
+		}
+	}
+
+	private static Counter toCounter(Sequence seq) {
+		Counter counter = new Counter();
+		long time = seq.getLastModified() != null ? seq.getLastModified().getTime() : System.currentTimeMillis();
+		for (long i = 0; i < Math.min(seq.getValue(), 100L); i++)
+			counter.add(time, 100);
+		return counter;
+	}
+
+	/**
+	 * Saves the login failure
 	 * 
 	 * @param username the username
 	 * @param apiKey the API Key
@@ -94,14 +222,16 @@ public class LoginThrottle {
 			return;
 
 		// Update the failed login counters
-		if (Context.get().getProperties().getBoolean(THROTTLE_ENABLED)) {
-			SequenceDAO sDao = Context.get(SequenceDAO.class);
+		ContextProperties config = Context.get().getProperties();
+		if (config.getBoolean(THROTTLE_ENABLED)) {
+			start();
+			long now = System.currentTimeMillis();
 			if (StringUtils.isNotEmpty(username))
-				sDao.next(LOGINFAIL_USERNAME + username, 0L, Tenant.SYSTEM_ID);
-			if (StringUtils.isNotEmpty(client.getAddress()))
-				sDao.next(LOGINFAIL_IP + client.getAddress(), 0L, Tenant.SYSTEM_ID);
+				count(LOGINFAIL_USERNAME + username, now, config.getInt("throttle.username.max", 0));
+			if (client != null && StringUtils.isNotEmpty(client.getAddress()))
+				count(LOGINFAIL_IP + client.getAddress(), now, config.getInt("throttle.ip.max", 0));
 			if (StringUtils.isNotEmpty(apiKey))
-				sDao.next(LOGINFAIL_APIKEY + apiKey, 0L, Tenant.SYSTEM_ID);
+				count(LOGINFAIL_APIKEY + apiKey, now, config.getInt("throttle.apikey.max", 0));
 		}
 
 		// Record the failed login attempt
@@ -120,6 +250,16 @@ public class LoginThrottle {
 		}
 	}
 
+	private static void count(String counterName, long time, int maxTrials) {
+		getCounter(counterName, true).add(time, maxTrials);
+		cleared.remove(counterName);
+		changed.add(counterName);
+
+		// Do not let the evicted counters pile up in memory
+		if (evicted.size() > Context.get().getProperties().getInt("throttle.cache.size", 10000))
+			persist();
+	}
+
 	/**
 	 * Performs anti brute force attack checks
 	 * 
@@ -137,6 +277,7 @@ public class LoginThrottle {
 			return;
 
 		log.debug("Take anti brute force attack countermeasures");
+		start();
 
 		// Check if the username is temporarily blocked
 		checkUsername(username);
@@ -148,64 +289,44 @@ public class LoginThrottle {
 		checkApikey(apikey);
 	}
 
-	private static void checkIp(String ip) throws IPBlockedException {
-		SequenceDAO sDao = Context.get(SequenceDAO.class);
-		Calendar cal = Calendar.getInstance();
-
+	/**
+	 * Checks if a counter reached the maximum number of failures inside the
+	 * time window
+	 * 
+	 * @param counterName name of the counter
+	 * @param type type of counter: <code>username</code>, <code>ip</code> or
+	 *        <code>apikey</code>
+	 * 
+	 * @return true if the entity must be blocked
+	 */
+	private static boolean isBlocked(String counterName, String type) {
 		ContextProperties config = Context.get().getProperties();
-		int wait = config.getInt("throttle.ip.wait", 0);
-		int maxTrials = config.getInt("throttle.ip.max", 0);
-
-		if (maxTrials > 0 && wait > 0) {
-			String counterName = LOGINFAIL_IP + ip;
-			Sequence seq = sDao.findByAlternateKey(counterName, 0L, Tenant.SYSTEM_ID);
-			if (seq != null) {
-				long count = seq.getValue();
-				if (count >= maxTrials) {
-					cal.add(Calendar.MINUTE, -wait);
-					Date oldestDate = cal.getTime();
-					if (oldestDate.before(seq.getLastModified())) {
-						log.warn("Possible brute force attack detected for IP {}", ip);
-						notifyBruteForceAttack(null, ip);
-						throw new IPBlockedException();
-					} else {
-						log.info("Login block for IP {} expired", ip);
-						deleteSequence(seq);
-					}
-				}
-			}
+		int wait = config.getInt("throttle." + type + ".wait", 0);
+		int maxTrials = config.getInt("throttle." + type + ".max", 0);
+		if (maxTrials <= 0 || wait <= 0)
+			return false;
+
+		Counter counter = getCounter(counterName, false);
+		return counter != null
+				&& counter.count(System.currentTimeMillis() - TimeUnit.MINUTES.toMillis(wait)) >= maxTrials;
+	}
+
+	private static void checkIp(String ip) throws IPBlockedException {
+		if (isBlocked(LOGINFAIL_IP + ip, "ip")) {
+			log.warn("Possible brute force attack detected for IP {}", ip);
+			notifyBruteForceAttack(null, ip);
+			throw new IPBlockedException();
 		}
 	}
 
 	private static void checkUsername(String username) throws UsernameBlockedException {
-		SequenceDAO sDao = Context.get(SequenceDAO.class);
-		Calendar cal = Calendar.getInstance();
+		if (isBlocked(LOGINFAIL_USERNAME + username, "username")) {
+			log.warn("Possible brute force attack detected for username {}", username);
+			notifyBruteForceAttack(username, null);
 
-		ContextProperties config = Context.get().getProperties();
-		int wait = config.getInt("throttle.username.wait", 0);
-		int maxTrials = config.getInt("throttle.username.max", 0);
-
-		if (maxTrials > 0 && wait > 0) {
-			String counterName = LOGINFAIL_USERNAME + username;
-			Sequence seq = sDao.findByAlternateKey(counterName, 0L, Tenant.SYSTEM_ID);
-			if (seq != null) {
-				long count = seq.getValue();
-				if (count >= maxTrials) {
-					cal.add(Calendar.MINUTE, -wait);
-					Date oldestDate = cal.getTime();
-					if (oldestDate.before(seq.getLastModified())) {
-						log.warn("Possible brute force attack detected for username {}", username);
-						notifyBruteForceAttack(username, null);
-
-						disableUser(username);
-
-						throw new UsernameBlockedException();
-					} else {
-						log.info("Login block for username {} expired", username);
-						deleteSequence(seq);
-					}
-				}
-			}
+			disableUser(username);
+
+			throw new UsernameBlockedException();
 		}
 	}
 
@@ -213,31 +334,153 @@ public class LoginThrottle {
 		if (StringUtils.isEmpty(apikey))
 			return;
 
+		if (isBlocked(LOGINFAIL_APIKEY + apikey, "apikey")) {
+			log.warn("Possible brute force attack detected for ApiKey {}", apikey);
+			notifyBruteForceAttack(null, apikey);
+			throw new ApiKeyBlockedException();
+		}
+	}
+
+	/**
+	 * Loads the counters from the database and starts saving them
+	 * periodically
+	 */
+	private static void start() {
+		if (started)
+			return;
+
+		synchronized (LoginThrottle.class) {
+			if (started)
+				return;
+
+			load();
+
+			long interval = Math.max(1, Context.get().getProperties().getInt("throttle.persist.interval", 30));
+			try {
+				ExecutorService pool = ThreadPools.get().getPool(POOL_NAME);
+				if (pool instanceof ScheduledExecutorService scheduler)
+					scheduler.scheduleWithFixedDelay(LoginThrottle::persist, interval, interval, TimeUnit.SECONDS);
+				else
+					log.warn("Pool {} does not support scheduling, the login failures will not be saved", POOL_NAME);
+			} catch (ThreadPoolNotAvailableException e) {
+				log.warn(e.getMessage());
+			}
+			started = true;
+		}
+	}
+
+	private static void load() {
+		try {
+			SequenceDAO sDao = Context.get(SequenceDAO.class);
+			for (Sequence seq : sDao.findByName(LOGINFAIL, Tenant.SYSTEM_ID)) {
+				counters.put(seq.getName(), toCounter(seq));
+				stored.add(seq.getName());
+			}
+			log.debug("Loaded {} login failure counters", counters.size());
+		} catch (Exception e) {
+			log.warn("Unable to load the login failure counters: {}", e.getMessage());
+		}
+	}
+
+	/**
+	 * Saves the counters changed since the last save and removes the expired
+	 * ones
+	 */
+	public static synchronized void persist() {
+		long oldest = getOldest();
+
+		// Forget the counters without failures inside the time window
+		List<String> names;
+		synchronized (counters) {
+			names = new ArrayList<>(counters.keySet());
+		}
+		for (String name : names) {
+			Counter counter = counters.get(name);
+			if (counter != null && counter.count(oldest) == 0)
+				forget(name);
+		}
+
 		SequenceDAO sDao = Context.get(SequenceDAO.class);
-		Calendar cal = Calendar.getInstance();
+		for (Iterator<Map.Entry<String, Counter>> iterator = evicted.entrySet().iterator(); iterator.hasNext();) {
+			Map.Entry<String, Counter> entry = iterator.next();
+			iterator.remove();
+			try {
+				sDao.reset(entry.getKey(), 0L, Tenant.SYSTEM_ID, entry.getValue().count(0L));
+				stored.add(entry.getKey());
+			} catch (Exception e) {
+				log.warn(e.getMessage(), e);
+			}
+		}
 
-		ContextProperties config = Context.get().getProperties();
-		int wait = config.getInt("throttle.apikey.wait", 0);
-		int maxTrials = config.getInt("throttle.apikey.max", 0);
-
-		if (maxTrials > 0 && wait > 0) {
-			String counterName = LOGINFAIL_APIKEY + apikey;
-			Sequence seq = sDao.findByAlternateKey(counterName, 0L, Tenant.SYSTEM_ID);
-			if (seq != null) {
-				long count = seq.getValue();
-				if (count >= maxTrials) {
-					cal.add(Calendar.MINUTE, -wait);
-					Date oldestDate = cal.getTime();
-					if (oldestDate.before(seq.getLastModified())) {
-						log.warn("Possible brute force attack detected for ApiKey {}", apikey);
-						notifyBruteForceAttack(null, apikey);
-						throw new ApiKeyBlockedException();
-					} else {
-						log.info("Login block for ApiKey {} expired", apikey);
-						deleteSequence(seq);
-					}
-				}
+		for (String name : new ArrayList<>(cleared)) {
+			try {
+				if (stored.contains(name))
+					sDao.delete(name, 0L, Tenant.SYSTEM_ID);
+				stored.remove(name);
+			} catch (Exception e) {
+				log.warn(e.getMessage(), e);
 			}
+			cleared.remove(name);
+		}
+
+		for (String name : new ArrayList<>(changed)) {
+			changed.remove(name);
+			Counter counter = counters.get(name);
+			if (counter != null)
+				try {
+					sDao.reset(name, 0L, Tenant.SYSTEM_ID, counter.count(0L));
+					stored.add(name);
+				} catch (Exception e) {
+					log.warn(e.getMessage(), e);
+				}
+		}
+	}
+
+	/**
+	 * Gets the start of the widest time window
+	 */
+	private static long getOldest() {
+		ContextProperties config = Context.get().getProperties();
+		long maxWait = Math.max(config.getInt("throttle.username.wait", 0),
+				Math.max(config.getInt("throttle.ip.wait", 0), config.getInt("throttle.apikey.wait", 0)));
+		return System.currentTimeMillis() - TimeUnit.MINUTES.toMillis(maxWait);
+	}
+
+	/**
+	 * The times of the most recent failures of a given entity
+	 * 
+	 * @author Marco Meschieri - LogicalDOC
+	 * @since 9.1.1
+	 */
+	private static class Counter {
+
+		private final Deque<Long> failures = new ArrayDeque<>();
+
+		/**
+		 * Adds a failure
+		 * 
+		 * @param time when the failure happened
+		 * @param capacity the maximum number of failures to remember
+		 */
+		private synchronized void add(long time, int capacity) {
+			failures.addLast(time);
+			while (failures.size() > Math.max(1, capacity))
+				failures.removeFirst();
+		}
+
+		/**
+		 * Counts the failures happened since the given time
+		 * 
+		 * @param since the start of the window
+		 * 
+		 * @return number of failures
+		 */
+		private synchronized int count(long since) {
+			int count = 0;
+			for (Long time : failures)
+				if (time >= since)
+					count++;
+			return count;
 		}
 	}
 
@@ -347,13 +590,4 @@ public class LoginThrottle {
 
 		return recipients;
 	}
-
-	private static void deleteSequence(Sequence seq) {
-		try {
-			SequenceDAO sDao = Context.get(SequenceDAO.class);
-			sDao.delete(seq.getId());
-		} catch (PersistenceException e) {
-			log.warn(e.getMessage(), e);
-		}
-	}
-}
\ No newline at end of file
+}
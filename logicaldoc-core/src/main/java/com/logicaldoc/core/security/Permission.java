@@ -1,6 +1,7 @@
 package com.logicaldoc.core.security;
 
 import java.util.Arrays;
+import java.util.Collection;
 import java.util.HashSet;
 import java.util.Set;
 
@@ -55,6 +56,56 @@ public enum Permission {
 		return name;
 	}
 
+	/**
+	 * The bit that represents this permission inside a bitmask, it is based on
+	 * the ordinal
+	 * 
+	 * @return the bit of this permission
+	 */
+	public int mask() {
+		return 1 << ordinal();
+	}
+
+	/**
+	 * Checks if this permission is granted by a bitmask
+	 * 
+	 * @param mask the bitmask to inspect
+	 * 
+	 * @return true if the permission's bit is set
+	 */
+	public boolean isIn(int mask) {
+		return (mask & mask()) != 0;
+	}
+
+	/**
+	 * Converts a collection of permissions into a bitmask
+	 * 
+	 * @param permissions the permissions to convert
+	 * 
+	 * @return the bitmask
+	 */
+	public static int toMask(Collection<Permission> permissions) {
+		int mask = 0;
+		for (Permission permission : permissions)
+			mask |= permission.mask();
+		return mask;
+	}
+
+	/**
+	 * Converts a bitmask into a set of permissions
+	 * 
+	 * @param mask the bitmask to convert
+	 * 
+	 * @return the set of permissions whose bits are set
+	 */
+	public static Set<Permission> fromMask(int mask) {
+		Set<Permission> set = new HashSet<>();
+		for (Permission permission : Permission.values())
+			if (permission.isIn(mask))
+				set.add(permission);
+		return set;
+	}
+
 	public static Set<Permission> all() {
 		return new HashSet<>(Arrays.asList(Permission.values()));
 	}
@@ -1,7 +1,9 @@
 package com.logicaldoc.core.security;
 
+import java.util.Collection;
 import java.util.List;
 
+import com.logicaldoc.core.PersistenceException;
 import com.logicaldoc.core.PersistentObjectDAO;
 
 /**
@@ -54,4 +56,15 @@ public interface SessionDAO extends PersistentObjectDAO<Session> {
 	 *        considered old
 	 */
 	public void cleanOldSessions(int ttl);
-}
\ No newline at end of file
+
+	/**
+	 * Saves the last renewal of the given sessions using a single batch of
+	 * updates. Only the sessions still open in the database are touched, so a
+	 * closing or expiration already saved is never overwritten.
+	 * 
+	 * @param sessions the sessions to update
+	 * 
+	 * @throws PersistenceException Error in the data layer
+	 */
+	public void updateLastRenew(Collection<Session> sessions) throws PersistenceException;
+}
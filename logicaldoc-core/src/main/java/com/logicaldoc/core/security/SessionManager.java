@@ -9,7 +9,19 @@ import java.util.Base64;
 import java.util.Collections;
 import java.util.Date;
 import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Queue;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.DelayQueue;
+import java.util.concurrent.Delayed;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import javax.annotation.PreDestroy;
 import javax.annotation.Resource;
@@ -33,6 +45,8 @@ import com.logicaldoc.core.security.spring.LDAuthenticationToken;
 import com.logicaldoc.core.security.spring.LDSecurityContextRepository;
 import com.logicaldoc.core.security.user.User;
 import com.logicaldoc.core.security.user.UserDAO;
+import com.logicaldoc.core.threading.ThreadPoolNotAvailableException;
+import com.logicaldoc.core.threading.ThreadPools;
 import com.logicaldoc.util.Context;
 import com.logicaldoc.util.crypt.CryptUtil;
 import com.logicaldoc.util.sql.SqlUtil;
@@ -73,7 +87,28 @@ public class SessionManager extends ConcurrentHashMap<String, Session> {
 
 	private transient SessionTimeoutWatchDog timeoutWatchDog = new SessionTimeoutWatchDog();
 
-	private transient List<SessionListener> listeners = new ArrayList<>();
+	private transient CopyOnWriteArrayList<SessionListener> listeners = new CopyOnWriteArrayList<>();
+
+	/**
+	 * Identifiers of the sessions not open anymore, in order of closing
+	 */
+	private final transient Queue<String> closedSessions = new ConcurrentLinkedQueue<>();
+
+	private final transient AtomicInteger closedCount = new AtomicInteger();
+
+	/**
+	 * The open sessions ordered by the time they may expire
+	 */
+	private final transient DelayQueue<Expiry> expiries = new DelayQueue<>();
+
+	/**
+	 * The sessions whose state must be saved, key is the sid
+	 */
+	private final transient Map<String, Session> dirty = new ConcurrentHashMap<>();
+
+	private static final String FLUSHER_POOL = "SessionFlusher";
+
+	private transient volatile ScheduledFuture<?> flusher;
 
 	public SessionManager() {
 		timeoutWatchDog.start();
@@ -97,7 +132,7 @@ public class SessionManager extends ConcurrentHashMap<String, Session> {
 	 *
 	 * @throws AuthenticationException raised in case of failed login
 	 */
-	public synchronized Session newSession(String username, String password, String key, HttpServletRequest request)
+	public Session newSession(String username, String password, String key, HttpServletRequest request)
 			throws AuthenticationException {
 		return newSession(username, password, key, buildClient(request));
 	}
@@ -114,7 +149,7 @@ public class SessionManager extends ConcurrentHashMap<String, Session> {
 	 *
 	 * @throws AuthenticationException raised in case of failed login
 	 */
-	public synchronized Session newSession(String username, String password, HttpServletRequest request)
+	public Session newSession(String username, String password, HttpServletRequest request)
 			throws AuthenticationException {
 		return newSession(username, password, buildClient(request));
 	}
@@ -131,7 +166,7 @@ public class SessionManager extends ConcurrentHashMap<String, Session> {
 	 *
 	 * @throws AuthenticationException raised in case of failed login
 	 */
-	public synchronized Session newSession(String username, String password, Client client)
+	public Session newSession(String username, String password, Client client)
 			throws AuthenticationException {
 		return newSession(username, password, null, client);
 	}
@@ -149,7 +184,7 @@ public class SessionManager extends ConcurrentHashMap<String, Session> {
 	 *
 	 * @throws AuthenticationException raised in case of failed login
 	 */
-	public synchronized Session newSession(String username, String password, String key, Client client)
+	public Session newSession(String username, String password, String key, Client client)
 			throws AuthenticationException {
 		try {
 			User user = authenticationChain.authenticate(username, password, key, client);
@@ -175,7 +210,7 @@ public class SessionManager extends ConcurrentHashMap<String, Session> {
 	 *
 	 * @throws AuthenticationException raised in case of failed login
 	 */
-	public synchronized Session newSession(String apikey, Client client) throws AuthenticationException {
+	public Session newSession(String apikey, Client client) throws AuthenticationException {
 		try {
 			User user = authenticationChain.authenticate("", "", apikey, client);
 			if (user == null)
@@ -199,7 +234,7 @@ public class SessionManager extends ConcurrentHashMap<String, Session> {
 	 *
 	 * @throws AuthenticationException raised in case of failed login
 	 */
-	public synchronized Session newSession(String apikey, HttpServletRequest request) throws AuthenticationException {
+	public Session newSession(String apikey, HttpServletRequest request) throws AuthenticationException {
 		return newSession(apikey, buildClient(request));
 	}
 
@@ -213,12 +248,13 @@ public class SessionManager extends ConcurrentHashMap<String, Session> {
 	 * 
 	 * @return the session created after the successful login
 	 */
-	private synchronized Session createSession(User user, String key, Client client) {
+	private Session createSession(User user, String key, Client client) {
 		Session session = new Session(user, key, client);
 		put(session.getSid(), session);
 		log.warn("Created new session {} for user {}", session.getSid(), user.getUsername());
-		cleanClosedSessions();
+		trimClosedSessions();
 		storeSession(session);
+		scheduleExpiry(session);
 		for (SessionListener listener : listeners)
 			try {
 				listener.onSessionCreated(session);
@@ -229,7 +265,22 @@ public class SessionManager extends ConcurrentHashMap<String, Session> {
 		return session;
 	}
 
+	/**
+	 * Saves the session. A new session is inserted immediately, and so are the
+	 * sessions not open anymore so the counts of open sessions in the database
+	 * are always exact. The renewals of the open sessions are collected and
+	 * saved in background every <code>session.persist.interval</code>
+	 * milliseconds.
+	 * 
+	 * @param session the session to save
+	 */
 	private void storeSession(Session session) {
+		if (session.getId() != 0L && session.isOpen() && startFlusher()) {
+			dirty.put(session.getSid(), session);
+			return;
+		}
+		dirty.remove(session.getSid());
+
 		try {
 			if (session.getId() == 0L) {
 				Session dbSession = new Session(session);
@@ -252,6 +303,98 @@ public class SessionManager extends ConcurrentHashMap<String, Session> {
 		}
 	}
 
+	private boolean startFlusher() {
+		if (flusher != null)
+			return true;
+
+		synchronized (dirty) {
+			if (flusher == null) {
+				long interval = Context.get().getProperties().getInt("session.persist.interval", 2000);
+				if (interval <= 0)
+					return false;
+				try {
+					ExecutorService pool = ThreadPools.get().getPool(FLUSHER_POOL);
+					if (pool instanceof ScheduledExecutorService scheduler) {
+						flusher = scheduler.scheduleWithFixedDelay(this::flush, interval, interval,
+								TimeUnit.MILLISECONDS);
+					} else {
+						log.warn("Pool {} does not support scheduling, the sessions will be saved immediately",
+								FLUSHER_POOL);
+						return false;
+					}
+				} catch (ThreadPoolNotAvailableException e) {
+					log.warn(e.getMessage());
+					return false;
+				}
+			}
+			return true;
+		}
+	}
+
+	/**
+	 * Saves the last renewal of all the sessions renewed since the last flush
+	 */
+	private void flush() {
+		List<Session> batch = new ArrayList<>();
+		for (String sid : dirty.keySet()) {
+			Session session = dirty.remove(sid);
+			if (session != null)
+				batch.add(session);
+		}
+
+		try {
+			sessionDao.updateLastRenew(batch);
+		} catch (Exception t) {
+			log.warn(t.getMessage(), t);
+		}
+	}
+
+	private void stopFlusher() {
+		synchronized (dirty) {
+			if (flusher != null) {
+				flusher.cancel(false);
+				flusher = null;
+			}
+		}
+		flush();
+	}
+
+	/**
+	 * Puts the session in the expiry queue so it will be checked when its
+	 * timeout may be reached
+	 * 
+	 * @param session the session to check
+	 */
+	private void scheduleExpiry(Session session) {
+		int timeout = session.getTimeout();
+		Date lastRenew = session.getLastRenew() != null ? session.getLastRenew() : session.getCreation();
+
+		// Without timeout we check again later in case the setting changes
+		long expiry = timeout > 0 ? lastRenew.getTime() + TimeUnit.MINUTES.toMillis(timeout) + 1000L
+				: System.currentTimeMillis() + TimeUnit.MINUTES.toMillis(1);
+		expiries.add(new Expiry(session.getSid(), expiry));
+	}
+
+	/**
+	 * Marks the session as expired if it is still open
+	 * 
+	 * @param session the session to expire
+	 */
+	private void expire(Session session) {
+		synchronized (session) {
+			if (!session.isOpen())
+				return;
+			session.setExpired();
+		}
+		onClosed(session);
+	}
+
+	private void onClosed(Session session) {
+		closedSessions.add(session.getSid());
+		closedCount.incrementAndGet();
+		storeSession(session);
+	}
+
 	/**
 	 * Kills an existing session
 	 * 
@@ -260,7 +403,15 @@ public class SessionManager extends ConcurrentHashMap<String, Session> {
 	public void kill(String sid) {
 		Session session = get(sid);
 		if (session != null) {
-			session.setClosed();
+			boolean wasOpen;
+			synchronized (session) {
+				wasOpen = session.isOpen();
+				session.setClosed();
+			}
+			if (wasOpen) {
+				closedSessions.add(sid);
+				closedCount.incrementAndGet();
+			}
 			DateFormat df = new SimpleDateFormat("yyyy-MM-dd HH:mm:ss");
 			if (log.isWarnEnabled())
 				log.warn("Killed session {} of user {} started at {}", sid, session.getUsername(),
@@ -285,12 +436,12 @@ public class SessionManager extends ConcurrentHashMap<String, Session> {
 
 	@Override
 	public Session remove(Object sid) {
+		Session session = get(sid);
 		kill((String) sid);
 
-		try {
-			sessionDao.delete(get(sid).getId());
-		} catch (PersistenceException e) {
-			log.warn(e.getMessage(), e);
+		if (session != null && session.getId() != 0L) {
+			session.setDeleted(1);
+			storeSession(session);
 		}
 
 		return super.remove(sid);
@@ -305,9 +456,10 @@ public class SessionManager extends ConcurrentHashMap<String, Session> {
 		if (isOpen(sid)) {
 			Session session = get(sid);
 			if (session.isTimedOut()) {
-				session.setExpired();
+				expire(session);
 			} else {
 				session.setLastRenew(new Date());
+				storeSession(session);
 			}
 		}
 	}
@@ -316,10 +468,8 @@ public class SessionManager extends ConcurrentHashMap<String, Session> {
 		Session session = get(sid);
 		if (session == null)
 			return -1;
-		if (session.getStatus() == Session.STATUS_OPEN && session.isTimedOut()) {
-			session.setExpired();
-			storeSession(session);
-		}
+		if (session.getStatus() == Session.STATUS_OPEN && session.isTimedOut())
+			expire(session);
 		return session.getStatus();
 	}
 
@@ -408,20 +558,23 @@ public class SessionManager extends ConcurrentHashMap<String, Session> {
 	}
 
 	/**
-	 * Clean method that removes all closed sessions that exceed the number of
+	 * Removes the oldest closed sessions that exceed the number of
 	 * {@value #MAX_CLOSED_SESSIONS}
 	 */
-	private void cleanClosedSessions() {
-		List<String> garbage = new ArrayList<>();
-		int counter = 0;
-		for (Session session : getSessions()) {
-			if (getStatus(session.getSid()) != Session.STATUS_OPEN)
-				counter++;
-			if (counter > MAX_CLOSED_SESSIONS)
-				garbage.add(session.getSid());
-		}
-		for (String sid : garbage) {
-			remove(sid);
+	private void trimClosedSessions() {
+		while (closedCount.get() > MAX_CLOSED_SESSIONS) {
+			String sid = closedSessions.poll();
+			if (sid == null) {
+				closedCount.set(0);
+				break;
+			}
+			closedCount.decrementAndGet();
+
+			Session session = super.remove(sid);
+			if (session != null && session.getId() != 0L) {
+				session.setDeleted(1);
+				storeSession(session);
+			}
 		}
 	}
 
@@ -645,7 +798,14 @@ public class SessionManager extends ConcurrentHashMap<String, Session> {
 				// Nothing to do
 			}
 		}
+
+		// Save the pending changes
+		stopFlusher();
+
 		clear();
+		closedSessions.clear();
+		closedCount.set(0);
+		expiries.clear();
 
 		if (timeoutWatchDog.isAlive()) {
 			try {
@@ -658,7 +818,9 @@ public class SessionManager extends ConcurrentHashMap<String, Session> {
 	}
 
 	/**
-	 * Each minute iterates over the sessions killing the expired ones
+	 * Takes the sessions from the expiry queue when their timeout may be
+	 * reached, expiring them or putting them back in the queue if they were
+	 * renewed in the meanwhile
 	 * 
 	 * @author Marco Meschieri - LogicalDOC
 	 * @since 7.5.3
@@ -674,23 +836,29 @@ public class SessionManager extends ConcurrentHashMap<String, Session> {
 		@Override
 		public void run() {
 			while (active) {
-				synchronized (this) {
-					try {
-						wait(1000 * 60L);
-					} catch (InterruptedException e) {
-						Thread.currentThread().interrupt();
-					}
-				}
-
-				for (Session session : SessionManager.this.getSessions()) {
-					if (session.isOpen() && session.isTimedOut()) {
-						session.setExpired();
-						storeSession(session);
-					}
+				try {
+					Expiry expiry = expiries.poll(1, TimeUnit.MINUTES);
+					if (expiry != null)
+						check(expiry.sid);
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+					break;
+				} catch (Exception e) {
+					log.warn(e.getMessage(), e);
 				}
 			}
 		}
 
+		private void check(String sid) {
+			Session session = get(sid);
+			if (session == null || !session.isOpen())
+				return;
+			if (session.isTimedOut())
+				expire(session);
+			else
+				scheduleExpiry(session);
+		}
+
 		public void finish() {
 			this.active = false;
 		}
@@ -700,15 +868,52 @@ public class SessionManager extends ConcurrentHashMap<String, Session> {
 		}
 	}
 
-	public synchronized void addListener(SessionListener listener) {
-		if (!listeners.contains(listener))
-			listeners.add(listener);
+	public void addListener(SessionListener listener) {
+		listeners.addIfAbsent(listener);
 	}
 
-	public synchronized void removeListener(SessionListener listener) {
+	public void removeListener(SessionListener listener) {
 		listeners.remove(listener);
 	}
 
+	/**
+	 * An entry of the expiry queue
+	 * 
+	 * @author Marco Meschieri - LogicalDOC
+	 * @since 9.1.1
+	 */
+	private static class Expiry implements Delayed {
+
+		private final String sid;
+
+		private final long time;
+
+		private Expiry(String sid, long time) {
+			this.sid = sid;
+			this.time = time;
+		}
+
+		@Override
+		public long getDelay(TimeUnit unit) {
+			return unit.convert(time - System.currentTimeMillis(), TimeUnit.MILLISECONDS);
+		}
+
+		@Override
+		public int compareTo(Delayed other) {
+			return Long.compare(time, ((Expiry) other).time);
+		}
+
+		@Override
+		public boolean equals(Object obj) {
+			return obj instanceof Expiry other && sid.equals(other.sid) && time == other.time;
+		}
+
+		@Override
+		public int hashCode() {
+			return Objects.hash(sid, time);
+		}
+	}
+
 	@Override
 	public int hashCode() {
 		final int prime = 31;
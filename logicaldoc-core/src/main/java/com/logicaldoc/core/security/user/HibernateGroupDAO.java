@@ -12,6 +12,7 @@ import org.slf4j.LoggerFactory;
 
 import com.logicaldoc.core.HibernatePersistentObjectDAO;
 import com.logicaldoc.core.PersistenceException;
+import com.logicaldoc.core.folder.FolderPermissionCache;
 import com.logicaldoc.core.security.menu.MenuDAO;
 import com.logicaldoc.util.Context;
 import com.logicaldoc.util.sql.SqlUtil;
@@ -53,6 +54,8 @@ public class HibernateGroupDAO extends HibernatePersistentObjectDAO<Group> imple
 		group.setName(group.getName() + "." + group.getId());
 		group.setDeleted(code);
 		saveOrUpdate(group);
+
+		FolderPermissionCache.get().clear();
 	}
 
 	public boolean exists(String groupname, long tenantId) throws PersistenceException {
@@ -113,6 +116,7 @@ public class HibernateGroupDAO extends HibernatePersistentObjectDAO<Group> imple
 		sql = "delete from ld_folder_acl where ld_groupid=" + groupId;
 		log.debug("Delete all foldergroup for group {}", groupId);
 		jdbcUpdate(sql);
+		FolderPermissionCache.get().clear();
 
 		sql = "delete from ld_document_acl where ld_groupid=" + groupId;
 		log.debug("Delete all document ACL for group {}", groupId);
@@ -175,6 +179,7 @@ public class HibernateGroupDAO extends HibernatePersistentObjectDAO<Group> imple
 	public void store(Group group) throws PersistenceException {
 		super.store(group);
 		fixGuestPermissions(group);
+		FolderPermissionCache.get().clear();
 	}
 
 	/**
@@ -201,6 +206,7 @@ public class HibernateGroupDAO extends HibernatePersistentObjectDAO<Group> imple
 					+ " ld_sign=0, ld_archive=0, ld_workflow=0, ld_calendar=0, ld_password=0, ld_move=0, ld_automation=0 , ld_store=0 "
 					+ " where ld_groupid=" + group.getId();
 			jdbcUpdate(sql);
+			FolderPermissionCache.get().clear();
 			
 			// Remove not admitted permissions in documents
 			sql = "update ld_document_acl set ld_write=0, ld_security=0, ld_immutable=0, ld_delete=0, ld_rename=0,"
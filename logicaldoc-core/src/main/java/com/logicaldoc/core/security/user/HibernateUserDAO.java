@@ -22,6 +22,7 @@ import org.slf4j.LoggerFactory;
 import com.logicaldoc.core.HibernatePersistentObjectDAO;
 import com.logicaldoc.core.PersistenceException;
 import com.logicaldoc.core.PersistentObject;
+import com.logicaldoc.core.folder.FolderPermissionCache;
 import com.logicaldoc.core.generic.Generic;
 import com.logicaldoc.core.generic.GenericDAO;
 import com.logicaldoc.core.security.Tenant;
@@ -435,6 +436,7 @@ public class HibernateUserDAO extends HibernatePersistentObjectDAO<User> impleme
 			} else
 				log.warn("It seems that the usergroup {} does not exist anymore", ug.getGroupId());
 		}
+		FolderPermissionCache.get().invalidateUser(user.getId());
 	}
 
 	/**
@@ -706,6 +708,7 @@ public class HibernateUserDAO extends HibernatePersistentObjectDAO<User> impleme
 		}
 
 		jdbcUpdate("delete from ld_usergroup where ld_userid=" + userId);
+		FolderPermissionCache.get().invalidateUser(userId);
 
 		jdbcUpdate("delete from ld_apikey where ld_userid=" + userId);
 
@@ -2,18 +2,30 @@ package com.logicaldoc.core.sequence;
 
 import java.util.ArrayList;
 import java.util.Date;
+import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 
 import org.slf4j.LoggerFactory;
 
 import com.logicaldoc.core.HibernatePersistentObjectDAO;
 import com.logicaldoc.core.PersistenceException;
+import com.logicaldoc.util.Context;
 
 /**
  * Hibernate implementation of <code>SequenceDAO</code>. <br>
  * Sequences are implemented ad Generics whose type is 'sequence' and subtype is
- * the sequence name.
+ * the sequence name.<br>
+ * <br>
+ * When <code>sequence.block</code> is greater than one, each node reserves in
+ * the database a block of values with a single atomic update and then hands
+ * them out from memory when incrementing by one, synchronizing only on the
+ * single sequence. The reservations are committed in their own transaction,
+ * so a rollback of the caller never makes the same values available twice.
+ * The values are unique across the cluster but, since the values taken by
+ * rolled back transactions and the blocks not completely used when the node
+ * stops are lost, the sequence may have gaps.
  * 
  * @author Marco Meschieri - LogicalDOC
  * @since 4.0
@@ -23,25 +35,38 @@ public class HibernateSequenceDAO extends HibernatePersistentObjectDAO<Sequence>
 	private static final String TENANTID = "tenantId";
 	private static final String AND = " and ";
 
+	private static final String WHERE_KEY = " where ld_name = :name and ld_objectid = :objectId"
+			+ " and ld_tenantid = :tenantId and ld_deleted = 0";
+
+	/**
+	 * The blocks of values reserved by this node, one for each sequence
+	 */
+	private final Map<String, Block> blocks = new ConcurrentHashMap<>();
+
 	private HibernateSequenceDAO() {
 		super(Sequence.class);
 		super.log = LoggerFactory.getLogger(HibernateSequenceDAO.class);
 	}
 
 	@Override
-	public synchronized void reset(String sequence, long objectId, long tenantId, long value) {
-		synchronized (SequenceDAO.class) {
-			Sequence seq = findByAlternateKey(sequence, objectId, tenantId);
-			if (seq == null)
-				seq = new Sequence();
-			seq.setName(sequence);
-			seq.setObjectId(objectId);
-			seq.setTenantId(tenantId);
-			seq.setLastReset(new Date());
-			seq.setValue(value);
+	public void reset(String sequence, long objectId, long tenantId, long value) {
+		Block block = getBlock(sequence, objectId, tenantId);
+		synchronized (block) {
+			block.discard();
 
 			try {
-				store(seq);
+				execute(() -> {
+					Sequence seq = findByAlternateKey(sequence, objectId, tenantId);
+					if (seq == null)
+						seq = new Sequence();
+					seq.setName(sequence);
+					seq.setObjectId(objectId);
+					seq.setTenantId(tenantId);
+					seq.setLastReset(new Date());
+					seq.setValue(value);
+					store(seq);
+					return value;
+				});
 			} catch (PersistenceException e) {
 				log.error(e.getMessage(), e);
 			}
@@ -49,34 +74,124 @@ public class HibernateSequenceDAO extends HibernatePersistentObjectDAO<Sequence>
 	}
 
 	@Override
-	public synchronized long next(String sequence, long objectId, long tenantId, long increment) {
-		synchronized (SequenceDAO.class) {
-			Sequence seq = findByAlternateKey(sequence, objectId, tenantId);
-			if (seq == null) {
-				seq = new Sequence();
+	public long next(String sequence, long objectId, long tenantId, long increment) {
+		Block block = getBlock(sequence, objectId, tenantId);
+		synchronized (block) {
+			try {
+				int blockSize = getBlockSize();
+				if (increment != 1L || blockSize <= 1)
+					return execute(() -> {
+						giveBack(block, sequence, objectId, tenantId);
+						return addAndGet(sequence, objectId, tenantId, increment);
+					});
+
+				if (block.isEmpty()) {
+					long hi = execute(() -> addAndGet(sequence, objectId, tenantId, blockSize));
+					block.reserve(hi - blockSize + 1, hi);
+				}
+				return block.take();
+			} catch (PersistenceException e) {
+				block.discard();
+				throw new IllegalStateException("Unable to get the next value of sequence " + sequence, e);
 			}
+		}
+	}
 
+	@Override
+	public long next(String sequence, long objectId, long tenantId) {
+		return this.next(sequence, objectId, tenantId, 1L);
+	}
+
+	/**
+	 * Atomically increments the value of a sequence in the database, creating
+	 * it if it does not exist
+	 */
+	private long addAndGet(String sequence, long objectId, long tenantId, long increment)
+			throws PersistenceException {
+		Map<String, Object> params = new HashMap<>();
+		params.put("name", sequence);
+		params.put("objectId", objectId);
+		params.put(TENANTID, tenantId);
+		params.put("increment", increment);
+		params.put("now", new Date());
+
+		String update = "update ld_sequence set ld_value = ld_value + :increment, ld_lastmodified = :now,"
+				+ " ld_recordversion = ld_recordversion + 1" + WHERE_KEY;
+		if (jdbcUpdate(update, params) == 0) {
+			Sequence seq = new Sequence();
 			seq.setName(sequence);
 			seq.setObjectId(objectId);
 			seq.setTenantId(tenantId);
-			seq.setValue(seq.getValue() + increment);
+			seq.setValue(increment);
 			try {
 				store(seq);
 				flush();
+				return increment;
 			} catch (PersistenceException e) {
-				log.error(e.getMessage(), e);
+				// Probably created concurrently by another node
+				log.debug("Unable to create sequence {}: {}", sequence, e.getMessage());
+				if (jdbcUpdate(update, params) == 0)
+					throw e;
 			}
-			return seq.getValue();
 		}
+
+		return queryForLong("select ld_value from ld_sequence" + WHERE_KEY, params);
 	}
 
-	@Override
-	public synchronized long next(String sequence, long objectId, long tenantId) {
-		return this.next(sequence, objectId, tenantId, 1L);
+	/**
+	 * Returns to the database the values reserved but not used, this is
+	 * possible only if nobody else reserved values in the meanwhile
+	 */
+	private void giveBack(Block block, String sequence, long objectId, long tenantId) throws PersistenceException {
+		if (block.isEmpty()) {
+			block.discard();
+			return;
+		}
+
+		Map<String, Object> params = new HashMap<>();
+		params.put("name", sequence);
+		params.put("objectId", objectId);
+		params.put(TENANTID, tenantId);
+		params.put("used", block.next - 1);
+		params.put("hi", block.hi);
+		jdbcUpdate("update ld_sequence set ld_value = :used, ld_recordversion = ld_recordversion + 1" + WHERE_KEY
+				+ " and ld_value = :hi", params);
+		block.discard();
+	}
+
+	/**
+	 * Executes an update of a sequence. When the values are reserved in blocks
+	 * the update is done and committed in a new transaction, so that the row
+	 * of the sequence is never locked by the transaction of the caller and a
+	 * rollback of the caller cannot take back a block already handed out.
+	 * Otherwise the update joins the transaction of the caller.
+	 */
+	private long execute(SequenceUpdate update) throws PersistenceException {
+		if (getBlockSize() <= 1)
+			return update.execute();
+
+		long[] value = new long[1];
+		executeInNewTransaction(() -> value[0] = update.execute());
+		return value[0];
+	}
+
+	private Block getBlock(String sequence, long objectId, long tenantId) {
+		return blocks.computeIfAbsent(sequence + "|" + objectId + "|" + tenantId, k -> new Block());
+	}
+
+	private int getBlockSize() {
+		return Context.get().getProperties().getInt("sequence.block", 1);
 	}
 
 	@Override
 	public long getCurrentValue(String sequence, long objectId, long tenantId) {
+		Block block = blocks.get(sequence + "|" + objectId + "|" + tenantId);
+		if (block != null)
+			synchronized (block) {
+				if (!block.isEmpty())
+					return block.next - 1;
+			}
+
 		Sequence seq = findByAlternateKey(sequence, objectId, tenantId);
 		if (seq == null)
 			return 0L;
@@ -153,6 +268,7 @@ public class HibernateSequenceDAO extends HibernatePersistentObjectDAO<Sequence>
 
 	@Override
 	public void delete(String name, long objectId, long tenantId) throws PersistenceException {
+		blocks.remove(name + "|" + objectId + "|" + tenantId);
 		Sequence seq = findByAlternateKey(name, objectId, tenantId);
 		if (seq != null)
 			delete(seq.getId());
@@ -167,4 +283,37 @@ public class HibernateSequenceDAO extends HibernatePersistentObjectDAO<Sequence>
 			store(seq);
 		}
 	}
-}
\ No newline at end of file
+
+	@FunctionalInterface
+	private interface SequenceUpdate {
+		long execute() throws PersistenceException;
+	}
+
+	/**
+	 * A range of values reserved in the database and handed out from memory
+	 */
+	private static class Block {
+
+		private long next = 1L;
+
+		private long hi = 0L;
+
+		private boolean isEmpty() {
+			return next > hi;
+		}
+
+		private void reserve(long lo, long hi) {
+			this.next = lo;
+			this.hi = hi;
+		}
+
+		private long take() {
+			return next++;
+		}
+
+		private void discard() {
+			next = 1L;
+			hi = 0L;
+		}
+	}
+}
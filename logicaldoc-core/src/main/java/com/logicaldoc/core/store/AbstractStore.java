@@ -52,6 +52,8 @@ public abstract class AbstractStore implements Store {
 
 	protected static final int DEFAULT_BUFFER_SIZE = 1024;
 
+	protected static final int DIGEST_BUFFER_SIZE = 65536;
+
 	protected static Logger log = LoggerFactory.getLogger(AbstractStore.class);
 
 	protected static Logger deletionsLog = LoggerFactory.getLogger("STORE_DELETIONS");
@@ -119,6 +121,21 @@ public abstract class AbstractStore implements Store {
 		checkWriteAfterStore(docId, resource, file.length());
 	}
 
+	@Override
+	public String storeAndDigest(File file, long docId, String resource) throws IOException {
+		checkEnabled();
+
+		checkNotEmpty(file);
+
+		String digest;
+		try (InputStream is = new BufferedInputStream(new FileInputStream(file), DIGEST_BUFFER_SIZE)) {
+			digest = storeAndDigest(is, docId, resource);
+		}
+
+		checkWriteAfterStore(docId, resource, file.length());
+		return digest;
+	}
+
 	/**
 	 * Checks if the given file is empty
 	 * 
@@ -176,6 +176,13 @@ public class FSStore extends AbstractStore {
 		return file.length();
 	}
 
+	@Override
+	public long getLastModified(long docId, String resource) {
+		File file = getContainer(docId);
+		file = new File(file, sanitizeResourceName(resource));
+		return file.lastModified();
+	}
+
 	@Override
 	public boolean exists(long docId, String resource) {
 		File file = getContainer(docId);
@@ -1,9 +1,14 @@
 package com.logicaldoc.core.store;
 
+import java.io.BufferedInputStream;
 import java.io.File;
+import java.io.FileInputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.security.DigestInputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
 import java.util.List;
 import java.util.Map;
 
@@ -11,6 +16,7 @@ import javax.annotation.PostConstruct;
 import javax.annotation.PreDestroy;
 
 import com.logicaldoc.core.document.Document;
+import com.logicaldoc.util.io.FileUtil;
 
 /**
  * The Store manages the repository where document files are maintained and all
@@ -61,6 +67,51 @@ public interface Store extends Comparable<Store> {
 	 */
 	public void store(File file, long docId, String resource) throws IOException;
 
+	/**
+	 * Stores a resource computing its digest(SHA-1) while the content is
+	 * written, so there is no need to read it again
+	 * 
+	 * @see store(InputStream stream, long docId, String resource)
+	 * 
+	 * @param stream the content to store
+	 * @param docId identifier of the document
+	 * @param resource name of the resource
+	 * 
+	 * @return the digest of the stored content
+	 * 
+	 * @throws IOException the content cannot be stored
+	 */
+	public default String storeAndDigest(InputStream stream, long docId, String resource) throws IOException {
+		MessageDigest sha;
+		try {
+			sha = MessageDigest.getInstance("SHA-1");
+		} catch (NoSuchAlgorithmException e) {
+			throw new IOException(e.getMessage(), e);
+		}
+
+		store(new DigestInputStream(stream, sha), docId, resource);
+		return FileUtil.toHex(sha.digest());
+	}
+
+	/**
+	 * Stores a file computing its digest(SHA-1) while the content is written
+	 * 
+	 * @see storeAndDigest(InputStream stream, long docId, String resource)
+	 * 
+	 * @param file the file to store
+	 * @param docId identifier of the document
+	 * @param resource name of the resource
+	 * 
+	 * @return the digest of the stored content
+	 * 
+	 * @throws IOException the content cannot be stored
+	 */
+	public default String storeAndDigest(File file, long docId, String resource) throws IOException {
+		try (InputStream is = new BufferedInputStream(new FileInputStream(file), AbstractStore.DIGEST_BUFFER_SIZE)) {
+			return storeAndDigest(is, docId, resource);
+		}
+	}
+
 	/**
 	 * Deletes all resources of a document from the store.
 	 * 
@@ -119,6 +170,19 @@ public interface Store extends Comparable<Store> {
 	 */
 	public long size(long docId, String resource);
 
+	/**
+	 * Gets the date of the last modification of a specific resource.
+	 * 
+	 * @param docId The document's identifier
+	 * @param resource The resource
+	 * 
+	 * @return the last modification in milliseconds since the epoch, 0 if not
+	 *         available
+	 */
+	public default long getLastModified(long docId, String resource) {
+		return 0L;
+	}
+
 	/**
 	 * Checks if the passed resource exists in the document's container
 	 * 
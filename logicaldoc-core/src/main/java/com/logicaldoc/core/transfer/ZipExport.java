@@ -3,12 +3,19 @@ package com.logicaldoc.core.transfer;
 import java.io.BufferedInputStream;
 import java.io.ByteArrayOutputStream;
 import java.io.IOException;
+import java.io.InputStream;
 import java.io.OutputStream;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
 import java.util.Collections;
+import java.util.HashSet;
 import java.util.Iterator;
 import java.util.List;
+import java.util.Set;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.stream.Collectors;
+import java.util.zip.Deflater;
 import java.util.zip.ZipEntry;
 
 import org.apache.commons.compress.archivers.zip.ZipArchiveEntry;
@@ -28,8 +35,12 @@ import com.logicaldoc.core.folder.FolderDAO;
 import com.logicaldoc.core.folder.FolderEvent;
 import com.logicaldoc.core.folder.FolderHistory;
 import com.logicaldoc.core.store.Store;
+import com.logicaldoc.core.threading.ThreadPoolNotAvailableException;
+import com.logicaldoc.core.threading.ThreadPools;
 import com.logicaldoc.util.Context;
 import com.logicaldoc.util.io.FileUtil;
+import com.logicaldoc.util.io.IOUtil;
+import com.logicaldoc.util.io.ReadAheadInputStream;
 
 /**
  * Exports a folder hierarchy and all documents in it as a zip file. Can also be
@@ -42,8 +53,26 @@ public class ZipExport {
 
 	protected static Logger log = LoggerFactory.getLogger(ZipExport.class);
 
+	/**
+	 * Extensions of those formats that are already compressed, by default
+	 * they are archived without compression
+	 */
+	private static final String DEFAULT_NOCOMPRESSION_EXTENSIONS = "zip,7z,rar,gz,tgz,bz2,xz,jar,jpg,jpeg,png,gif,webp,mp3,mp4,m4a,avi,mkv,mov,docx,xlsx,pptx,odt,ods,odp,epub,p7m";
+
+	/**
+	 * Size of the chunks read in advance from the store
+	 */
+	private static final int READ_AHEAD_CHUNK = 64 * 1024;
+
+	/**
+	 * Maximum number of chunks read in advance from the store
+	 */
+	private static final int READ_AHEAD_CHUNKS = 16;
+
 	private ZipArchiveOutputStream zos;
 
+	private Set<String> noCompressionExtensions = new HashSet<>();
+
 	private long userId;
 
 	private boolean allLevel;
@@ -66,18 +95,37 @@ public class ZipExport {
 	 * 
 	 * @return The Stream of the zip archive
 	 * @throws PersistenceException error at database level
+	 * 
+	 * @deprecated the whole archive is kept in memory, use
+	 *             {@link #process(FolderHistory, OutputStream, boolean)}
+	 *             instead
 	 */
+	@Deprecated(since = "9.1.1")
 	public ByteArrayOutputStream process(FolderHistory transaction, boolean pdfConversion) throws PersistenceException {
+		ByteArrayOutputStream bos = new ByteArrayOutputStream();
+		process(transaction, bos, pdfConversion);
+		return bos;
+	}
+
+	/**
+	 * Exports the specified folder content writing the archive directly in the
+	 * given stream, so the memory usage does not depend on the size of the
+	 * export
+	 * 
+	 * @param transaction Transaction with all informations about the export
+	 * @param out The stream that will receive the zip
+	 * @param pdfConversion True if the pdf conversion has to be used instead of
+	 *        the original files
+	 * 
+	 * @throws PersistenceException error at database level
+	 */
+	public void process(FolderHistory transaction, OutputStream out, boolean pdfConversion)
+			throws PersistenceException {
 		FolderDAO folderDao = Context.get(FolderDAO.class);
 		Folder folder = folderDao.findFolder(transaction.getFolderId());
 		this.userId = transaction.getUserId();
 		this.startFolderId = folder.getId();
-		ByteArrayOutputStream bos = new ByteArrayOutputStream();
-		zos = new ZipArchiveOutputStream(bos);
-		zos.setMethod(ZipEntry.DEFLATED);
-		zos.setEncoding("UTF-8");
-		zos.setCreateUnicodeExtraFields(UnicodeExtraFieldPolicy.ALWAYS);
-		zos.setUseLanguageEncodingFlag(true);
+		openArchive(out);
 
 		try {
 			appendChildren(folder, 0, pdfConversion, transaction.getSessionId());
@@ -95,8 +143,6 @@ public class ZipExport {
 		 */
 		transaction.setEvent(FolderEvent.EXPORTED.toString());
 		folderDao.saveFolderHistory(folder, transaction);
-
-		return bos;
 	}
 
 	/**
@@ -110,7 +156,12 @@ public class ZipExport {
 	 * @return The Stream of the zip archive
 	 * 
 	 * @throws PersistenceException error at data layer
+	 * 
+	 * @deprecated the whole archive is kept in memory, use
+	 *             {@link #process(Long[], OutputStream, boolean, DocumentHistory)}
+	 *             instead
 	 */
+	@Deprecated(since = "9.1.1")
 	public ByteArrayOutputStream process(Long[] docIds, boolean pdfConversion, DocumentHistory transaction)
 			throws PersistenceException {
 		ByteArrayOutputStream bos = new ByteArrayOutputStream();
@@ -118,6 +169,19 @@ public class ZipExport {
 		return bos;
 	}
 
+	private void openArchive(OutputStream out) {
+		zos = new ZipArchiveOutputStream(out);
+		zos.setEncoding("UTF-8");
+		zos.setMethod(ZipEntry.DEFLATED);
+		zos.setCreateUnicodeExtraFields(UnicodeExtraFieldPolicy.ALWAYS);
+		zos.setUseLanguageEncodingFlag(true);
+
+		String extensions = Context.get().getProperties().getProperty("zip.nocompression",
+				DEFAULT_NOCOMPRESSION_EXTENSIONS);
+		noCompressionExtensions = Arrays.stream(extensions.split(",")).map(e -> e.trim().toLowerCase())
+				.filter(e -> !e.isEmpty()).collect(Collectors.toSet());
+	}
+
 	/**
 	 * Exports a selection of documents
 	 * 
@@ -133,11 +197,7 @@ public class ZipExport {
 		DocumentDAO ddao = Context.get(DocumentDAO.class);
 		FolderDAO fdao = Context.get(FolderDAO.class);
 
-		zos = new ZipArchiveOutputStream(out);
-		zos.setEncoding("UTF-8");
-		zos.setMethod(ZipEntry.DEFLATED);
-		zos.setCreateUnicodeExtraFields(UnicodeExtraFieldPolicy.ALWAYS);
-		zos.setUseLanguageEncodingFlag(true);
+		openArchive(out);
 
 		try {
 			for (long id : docIds) {
@@ -288,20 +348,23 @@ public class ZipExport {
 			resource = store.getResourceName(document, null, FormatConverterManager.PDF_CONVERSION_SUFFIX);
 		}
 
-		try (BufferedInputStream bis = new BufferedInputStream(store.getStream(document.getId(), resource))) {
+		try (InputStream is = openStream(store, document.getId(), resource)) {
 			String fileName = document.getFileName();
 			if (pdfConversion)
 				fileName = FileUtil.getBaseName(fileName) + ".pdf";
 
+			// Do not waste CPU deflating formats that are already compressed
+			if (noCompressionExtensions.contains(FileUtil.getExtension(fileName).toLowerCase()))
+				zos.setLevel(Deflater.NO_COMPRESSION);
+			else
+				zos.setLevel(Deflater.DEFAULT_COMPRESSION);
+
 			ZipEntry entry = new ZipEntry(path + adjustFileNameForWindows(fileName));
 			entry.setMethod(ZipEntry.DEFLATED);
 			zos.putArchiveEntry(new ZipArchiveEntry(entry));
 
 			// Transfer bytes from the file to the ZIP file
-			int len;
-			while ((len = bis.read()) != -1) {
-				zos.write(len);
-			}
+			is.transferTo(zos);
 		} catch (IOException e) {
 			log.error(e.getMessage());
 		} finally {
@@ -313,6 +376,25 @@ public class ZipExport {
 		}
 	}
 
+	/**
+	 * Opens the stream of a resource, the content is read in advance from the
+	 * store in a bounded buffer so the fetching of the file overlaps with the
+	 * compression
+	 */
+	private InputStream openStream(Store store, long docId, String resource) throws IOException {
+		InputStream is = store.getStream(docId, resource);
+		try {
+			return new ReadAheadInputStream(is, READ_AHEAD_CHUNK, READ_AHEAD_CHUNKS,
+					ThreadPools.get().getPool("ZipExport"));
+		} catch (ThreadPoolNotAvailableException | RejectedExecutionException e) {
+			log.debug("Cannot read ahead the resource {}: {}", resource, e.getMessage());
+			return new BufferedInputStream(is, READ_AHEAD_CHUNK);
+		} catch (RuntimeException e) {
+			IOUtil.close(is);
+			throw e;
+		}
+	}
+
 	/**
 	 * Computes the correct entry path inside the zip archive
 	 * 
@@ -1,21 +1,19 @@
 package com.logicaldoc.core.util;
 
-import java.io.BufferedReader;
 import java.io.File;
 import java.io.IOException;
-import java.io.InputStream;
-import java.io.InputStreamReader;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
-import java.util.concurrent.TimeoutException;
+import java.util.concurrent.Future;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import com.logicaldoc.util.Context;
 import com.logicaldoc.util.config.ContextProperties;
-import com.logicaldoc.util.exec.Worker;
+import com.logicaldoc.util.exec.ProcessSupervisor;
+import com.logicaldoc.util.exec.StreamEater;
 import com.logicaldoc.util.io.FileUtil;
 
 /**
@@ -77,35 +75,25 @@ public class GhostUtil {
 
 		log.debug("Executing: {}", Arrays.asList(cmd));
 
+		/*
+		 * Ghostscript is configured by the administrator, so it is launched
+		 * directly without the allowed-commands.txt check, but still under
+		 * the limits of the process supervisor
+		 */
 		ProcessBuilder pb = new ProcessBuilder();
 		pb.redirectErrorStream(true);
 		pb.command(cmd);
-		Worker worker = null;
-		Process process = null;
-		try {
-			process = pb.start();
 
-			StreamGobbler outputGobbler = new StreamGobbler(process.getInputStream());
-			outputGobbler.start();
-
-			worker = new Worker(process);
-			worker.start();
-
-			worker.join(config.getInt("converter.GhostscriptConverter.timeout", 30) * 1000L);
-			if (worker.getExit() == null)
-				throw new TimeoutException();
-
-			process.waitFor();
+		ProcessSupervisor supervisor = ProcessSupervisor.get();
+		String commandName = FileUtil.getBaseName(new File(ghostCommand).getName()).toLowerCase();
+		try (ProcessSupervisor.Permit permit = supervisor.acquire(commandName, null)) {
+			Process process = pb.start();
+			Future<?> drain = supervisor.drain(new StreamEater(null, process.getInputStream()));
+			if (!supervisor.waitFor(process, config.getInt("converter.GhostscriptConverter.timeout", 30), permit))
+				log.error("Rendering timed out");
+			supervisor.awaitDrained(List.of(drain));
 		} catch (IOException e) {
 			log.error(e.getMessage());
-		} catch (TimeoutException e) {
-			log.error("Rendering timed out");
-		} catch (InterruptedException ex) {
-			worker.interrupt();
-			Thread.currentThread().interrupt();
-		} finally {
-			if (process != null)
-				process.destroy();
 		}
 
 		if (page == null) {
@@ -130,30 +118,4 @@ public class GhostUtil {
 	public static List<File> print(File srcPdf, File dst, Integer page) {
 		return print(srcPdf, dst, page, 150);
 	}
-
-	/**
-	 * When Runtime.exec() won't.
-	 * http://www.javaworld.com/javaworld/jw-12-2000/jw-1229-traps.html
-	 */
-	protected static class StreamGobbler extends Thread {
-		InputStream is;
-
-		StreamGobbler(InputStream is) {
-			this.is = is;
-		}
-
-		@Override
-		public void run() {
-			try {
-				InputStreamReader isr = new InputStreamReader(is);
-				BufferedReader br = new BufferedReader(isr);
-				String line = null;
-				while ((line = br.readLine()) != null) {
-					LoggerFactory.getLogger("console").info(line);
-				}
-			} catch (IOException ioe) {
-				log.error(ioe.getMessage());
-			}
-		}
-	}
 }
\ No newline at end of file
@@ -216,6 +216,10 @@ create table ld_sequence (ld_id bigint not null, ld_lastmodified timestamp not n
                           ld_deleted int not null, ld_tenantid bigint not null, ld_name varchar(255) not null,
                           ld_objectid bigint not null, ld_lastreset timestamp null, ld_value bigint not null,
                           primary key (ld_id));
+create table ld_change (ld_id bigint not null, ld_lastmodified timestamp not null, ld_creation timestamp not null, ld_recordversion bigint not null,
+                        ld_deleted int not null, ld_tenantid bigint not null, ld_objectid bigint not null,
+                        ld_objecttype int not null, ld_changetype int not null, ld_event varchar(255),
+                        ld_date timestamp not null, ld_commitseq bigint, primary key (ld_id));
 create table ld_extoption (ld_id bigint not null, ld_lastmodified timestamp not null, ld_creation timestamp not null, ld_recordversion bigint not null,
                           ld_deleted int not null, ld_tenantid bigint not null, ld_setid bigint not null,
                           ld_attribute varchar(255) not null, ld_value varchar(255) not null, ld_category varchar(255), 
@@ -319,13 +323,17 @@ create index LD_HIST_NOT on ld_history (ld_notified);
 create index LD_HIST_EVENT on ld_history (ld_event);
 create index LD_FHIST_FID on ld_folder_history (ld_folderid);
 create index LD_FHIST_NOT on ld_folder_history (ld_notified);
+create index LD_CHANGE_TID on ld_change (ld_tenantid, ld_commitseq);
 create index LD_UHIST_UID on ld_user_history (ld_userid);
 create index LD_TAG_TAG on ld_tag (ld_tag);
 create index LD_FTAG_TAG on ld_foldertag (ld_tag);
+create index LD_TAG_DOCID on ld_tag (ld_docid);
+create index LD_FTAG_FOLDERID on ld_foldertag (ld_folderid);
 create index LD_EXT_NAME on ld_document_ext (ld_name);
 create index LD_FLD_NAME on ld_folder (ld_name);
 create index LD_FLD_PATH on ld_folder (ld_path);
 create index LD_FLD_FOLDREF on ld_folder (ld_foldref);
+create index LD_FLD_PARENTID on ld_folder (ld_parentid, ld_position);
 create index LD_RCP_MID_NAME on ld_recipient (ld_messageid, ld_name);
 create index LD_DEV_USERID on ld_device (ld_userid);
 create index LD_PHIST_USERID on ld_password_history (ld_userid);
@@ -831,4 +839,5 @@ insert into hibernate_sequences(sequence_name, next_val) values ('ld_dashlet', 1
 insert into hibernate_sequences(sequence_name, next_val) values ('ld_device', 100);
 insert into hibernate_sequences(sequence_name, next_val) values ('ld_password_history', 100);
 insert into hibernate_sequences(sequence_name, next_val) values ('ld_search', 100);
-insert into hibernate_sequences(sequence_name, next_val) values ('ld_apikey', 100);
\ No newline at end of file
+insert into hibernate_sequences(sequence_name, next_val) values ('ld_apikey', 100);
+insert into hibernate_sequences(sequence_name, next_val) values ('ld_change', 100);
\ No newline at end of file
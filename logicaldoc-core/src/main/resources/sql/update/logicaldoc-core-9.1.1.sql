@@ -0,0 +1,10 @@
+-- Upgrades an existing database of version 9.1 to 9.1.1
+create table ld_change (ld_id bigint not null, ld_lastmodified timestamp not null, ld_creation timestamp not null, ld_recordversion bigint not null,
+                        ld_deleted int not null, ld_tenantid bigint not null, ld_objectid bigint not null,
+                        ld_objecttype int not null, ld_changetype int not null, ld_event varchar(255),
+                        ld_date timestamp not null, ld_commitseq bigint, primary key (ld_id));
+create index LD_CHANGE_TID on ld_change (ld_tenantid, ld_commitseq);
+insert into hibernate_sequences(sequence_name, next_val) values ('ld_change', 100);
+create index LD_TAG_DOCID on ld_tag (ld_docid);
+create index LD_FTAG_FOLDERID on ld_foldertag (ld_folderid);
+create index LD_FLD_PARENTID on ld_folder (ld_parentid, ld_position);
\ No newline at end of file
@@ -1,6 +1,7 @@
 package com.logicaldoc.core.automation;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
 
 import java.util.HashMap;
 import java.util.Map;
@@ -26,5 +27,22 @@ public class AutomationTest extends AbstractCoreTestCase {
 		String output = automation.evaluate("pippo $testval", dict);
 
 		assertEquals("pippo abc", output);
+
+		// The same script is taken from the cache
+		dict.put("testval", "def");
+		assertEquals("pippo def", automation.evaluate("pippo $testval", dict));
+		assertEquals("pippo def", new Automation("test").evaluate("pippo $testval", dict));
+	}
+
+	@Test
+	public void testForbiddenCode() throws AutomationException {
+		Automation automation = new Automation();
+		for (int i = 0; i < 2; i++)
+			try {
+				automation.evaluate("$ClassTool.forName('java.lang.System').getRuntime()", new HashMap<>());
+				fail("The script should have been rejected");
+			} catch (ForbiddenCodeException e) {
+				// All ok
+			}
 	}
 }
\ No newline at end of file
@@ -0,0 +1,123 @@
+package com.logicaldoc.core.communication;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.Properties;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.mail.Address;
+import javax.mail.Message;
+import javax.mail.MessagingException;
+import javax.mail.SendFailedException;
+import javax.mail.Session;
+import javax.mail.Transport;
+import javax.mail.internet.AddressException;
+import javax.mail.internet.InternetAddress;
+import javax.mail.internet.MimeMessage;
+
+import org.junit.After;
+import org.junit.Test;
+
+import com.sun.mail.smtp.SMTPAddressFailedException;
+
+/**
+ * Test case for <code>TransportPool</code>
+ *
+ * @author Marco Meschieri - LogicalDOC
+ * @since 9.1.1
+ */
+public class TransportPoolTest {
+
+	private final Session session = Session.getInstance(new Properties());
+
+	private final AtomicInteger connections = new AtomicInteger();
+
+	private final AtomicInteger sent = new AtomicInteger();
+
+	@After
+	public void tearDown() {
+		TransportPool.get().close();
+	}
+
+	@Test
+	public void testSend() throws MessagingException {
+		MimeMessage message = new MimeMessage(session);
+		message.setRecipient(Message.RecipientType.TO, new InternetAddress("test@acme.com"));
+
+		for (int i = 0; i < 5; i++)
+			TransportPool.get().send("test", this::connect, message);
+		assertEquals(5, sent.get());
+		assertEquals(1, connections.get());
+
+		// Another configuration uses its own connection
+		TransportPool.get().send("other", this::connect, message);
+		assertEquals(2, connections.get());
+	}
+
+	@Test
+	public void testUncertainDelivery() throws MessagingException {
+		MimeMessage message = new MimeMessage(session);
+		message.setRecipient(Message.RecipientType.TO, new InternetAddress("test@acme.com"));
+
+		TransportPool.get().send("test", this::connectFailing, message);
+		assertEquals(1, sent.get());
+
+		// The pooled connection fails while transmitting, the message must not
+		// be sent again with a new connection
+		try {
+			TransportPool.get().send("test", this::connectFailing, message);
+			fail("Expected an uncertain delivery");
+		} catch (TransportPool.DeliveryUncertainException e) {
+			// All as expected
+		}
+		assertEquals(1, connections.get());
+	}
+
+	@Test
+	public void testIsTransient() throws AddressException {
+		InternetAddress address = new InternetAddress("test@acme.com");
+		SendFailedException greylisted = new SendFailedException("Invalid Addresses");
+		greylisted.setNextException(new SMTPAddressFailedException(address, "RCPT TO", 451, "Greylisted"));
+		assertTrue(TransportPool.isTransient(greylisted));
+
+		SendFailedException unknown = new SendFailedException("Invalid Addresses");
+		unknown.setNextException(new SMTPAddressFailedException(address, "RCPT TO", 550, "Unknown user"));
+		assertFalse(TransportPool.isTransient(unknown));
+
+		assertFalse(TransportPool.isTransient(new SendFailedException("Invalid Addresses")));
+	}
+
+	private Transport connectFailing() {
+		connections.incrementAndGet();
+		return new Transport(session, null) {
+
+			{
+				setConnected(true);
+			}
+
+			@Override
+			public void sendMessage(Message msg, Address[] addresses) throws MessagingException {
+				if (sent.incrementAndGet() > 1)
+					throw new MessagingException("Connection reset");
+			}
+		};
+	}
+
+	private Transport connect() {
+		connections.incrementAndGet();
+		return new Transport(session, null) {
+
+			{
+				setConnected(true);
+			}
+
+			@Override
+			public void sendMessage(Message msg, Address[] addresses) {
+				sent.incrementAndGet();
+			}
+		};
+	}
+}
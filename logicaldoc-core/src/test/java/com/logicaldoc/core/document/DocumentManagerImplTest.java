@@ -15,8 +15,10 @@ import java.io.IOException;
 import java.io.InputStream;
 import java.io.RandomAccessFile;
 import java.sql.SQLException;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Calendar;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Set;
 
@@ -611,6 +613,41 @@ public class DocumentManagerImplTest extends AbstractCoreTestCase {
 		assertEquals(newDoc.getFileName(), doc.getFileName());
 	}
 
+	@Test
+	public void testCreateBulk() throws PersistenceException {
+		User user = userDao.findByUsername("admin");
+		Folder folder = folderDao.findById(103L);
+
+		List<Document> docVOs = new ArrayList<>();
+		for (int i = 0; i < 3; i++) {
+			Document doc = new Document();
+			doc.setFileName("bulk.xml");
+			doc.setFolder(folder);
+			docVOs.add(doc);
+		}
+
+		DocumentHistory transaction = new DocumentHistory();
+		transaction.setUser(user);
+		transaction.setComment("bulk");
+
+		File file = new File("pom.xml");
+		List<Document> created = testSubject.createBulk(Arrays.asList(file, file, file), docVOs, transaction);
+		assertEquals(3, created.size());
+
+		// The names are unique also inside the same batch
+		Set<String> names = new HashSet<>();
+		for (Document doc : created)
+			names.add(docDao.findById(doc.getId()).getFileName());
+		assertEquals(3, names.size());
+		assertTrue(names.contains("bulk.xml"));
+		assertTrue(names.contains("bulk(1).xml"));
+
+		for (Document doc : created) {
+			assertEquals("1.0", doc.getVersion());
+			assertNotNull(verDao.findByVersion(doc.getId(), "1.0"));
+		}
+	}
+
 	@Test
 	public void testCreateAlias() throws PersistenceException {
 		User user = userDao.findByUsername("admin");
@@ -17,6 +17,7 @@ import java.util.Date;
 import java.util.GregorianCalendar;
 import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
 import java.util.stream.Collectors;
 
@@ -124,6 +125,25 @@ public class HibernateDocumentDAOTest extends AbstractCoreTestCase {
 		assertEquals(doc.getVersion(), updatedDoc.getVersion());
 	}
 
+	@Test
+	public void testUpdateDigests() throws PersistenceException {
+		Document doc = new Document();
+		doc.setId(3);
+		doc.setFileVersion("1.0");
+		doc.setDigest("abc");
+		dao.updateDigests(List.of(doc));
+
+		Document updatedDoc = dao.findById(3);
+		dao.initialize(updatedDoc);
+		assertEquals("abc", updatedDoc.getDigest());
+
+		// All the versions of the same file got the digest
+		List<String> digests = dao.queryForList(
+				"select ld_digest from ld_version where ld_documentid=3 and ld_fileversion='1.0'", String.class);
+		assertEquals(2, digests.size());
+		assertTrue(digests.stream().allMatch("abc"::equals));
+	}
+
 	@Test
 	public void testDelete() throws PersistenceException {
 		// Create the document history event
@@ -459,6 +479,46 @@ public class HibernateDocumentDAOTest extends AbstractCoreTestCase {
 		assertTrue(tags.isEmpty());
 	}
 
+	@Test
+	public void testUpdateUniqueTags() throws PersistenceException {
+		dao.updateUniqueTags(1L, Map.of("approved", 1L, "newtag", 2L));
+		assertEquals(3L, dao.queryForLong("select ld_count from ld_uniquetag where ld_tag='approved'"));
+		assertEquals(2L, dao.queryForLong("select ld_count from ld_uniquetag where ld_tag='newtag'"));
+
+		dao.updateUniqueTags(1L, Map.of("newtag", -2L));
+		assertEquals(0L, dao.queryForLong("select count(*) from ld_uniquetag where ld_tag='newtag'"));
+
+		// Tags of folders are kept even if not used by documents
+		dao.updateUniqueTags(1L, Map.of("ftag1", 0L));
+		assertEquals(1L, dao.queryForLong("select count(*) from ld_uniquetag where ld_tag='ftag1'"));
+
+		// Storing a document updates the counters
+		Document doc = dao.findById(1);
+		dao.initialize(doc);
+		doc.addTag("incremental");
+		dao.store(doc);
+		assertEquals(1L, dao.queryForLong("select ld_count from ld_uniquetag where ld_tag='incremental'"));
+
+		DocumentHistory transaction = new DocumentHistory();
+		transaction.setSessionId("123");
+		transaction.setUser(new User());
+		dao.delete(doc.getId(), transaction);
+		assertEquals(0L, dao.queryForLong("select count(*) from ld_uniquetag where ld_tag='incremental'"));
+
+		dao.restore(doc.getId(), doc.getFolder().getId(), transaction);
+		assertEquals(1L, dao.queryForLong("select ld_count from ld_uniquetag where ld_tag='incremental'"));
+	}
+
+	@Test
+	public void testCountTagsOfDocuments() throws PersistenceException {
+		Map<String, Long> counts = dao.countTagsOfDocuments(List.of(1L, 99L));
+		assertEquals(3, counts.size());
+		assertEquals(Long.valueOf(1L), counts.get("abc"));
+		assertEquals(Long.valueOf(1L), counts.get("ghi"));
+
+		assertTrue(dao.countTagsOfDocuments(List.of()).isEmpty());
+	}
+
 	@Test
 	public void testFindAllTags() throws PersistenceException {
 		TagsProcessor processor = (TagsProcessor) context.getBean("tagsProcessor");
@@ -12,7 +12,9 @@ import org.junit.Test;
 
 import com.logicaldoc.core.AbstractCoreTestCase;
 import com.logicaldoc.core.PersistenceException;
+import com.logicaldoc.core.history.HistoryWriter;
 import com.logicaldoc.core.i18n.DateBean;
+import com.logicaldoc.util.config.ContextProperties;
 import com.logicaldoc.util.plugin.PluginException;
 
 import junit.framework.Assert;
@@ -119,6 +121,36 @@ public class HibernateDocumentHistoryDAOTest extends AbstractCoreTestCase {
 		Assert.assertEquals(4, histories.size());
 	}
 
+	@Test
+	public void testStoreAsync() throws PersistenceException, InterruptedException {
+		ContextProperties config = (ContextProperties) context.getBean("ContextProperties");
+		HistoryWriter writer = (HistoryWriter) context.getBean("historyWriter");
+		config.setProperty("history.async", "true");
+		try {
+			for (int i = 0; i < 3; i++) {
+				DocumentHistory history = new DocumentHistory();
+				history.setDocId(1L);
+				history.setFolderId(5L);
+				history.setUsername("sebastian");
+				history.setUserId(3L);
+				history.setEvent("test.async");
+				dao.store(history);
+			}
+
+			// The histories are written in background
+			List<DocumentHistory> histories = dao.findByUserIdAndEvent(3L, "test.async", null);
+			for (int i = 0; i < 50 && histories.size() < 3; i++) {
+				Thread.sleep(100);
+				histories = dao.findByUserIdAndEvent(3L, "test.async", null);
+			}
+			Assert.assertEquals(3, histories.size());
+			Assert.assertTrue(writer.getWritten() >= 3);
+			Assert.assertEquals(0, writer.getFailures());
+		} finally {
+			config.setProperty("history.async", "false");
+		}
+	}
+
 	@Test
 	public void testStore() throws PersistenceException {
 		DocumentHistory history = new DocumentHistory();
@@ -979,6 +979,17 @@ public class HibernateFolderDAOTest extends AbstractCoreTestCase {
 		assertNull(runOk);
 
 		assertTrue(testSubject.isPermissionAllowed(Permission.WRITE, 6, 4));
+
+		// The permissions must reflect the changes in the ACL
+		assertFalse(testSubject.isPermissionAllowed(Permission.SECURITY, 6, 4));
+		Folder folder = testSubject.findById(6);
+		testSubject.initialize(folder);
+		AccessControlEntry ace = new AccessControlEntry();
+		ace.setGroupId(-4L);
+		ace.grantPermissions(Set.of(Permission.READ, Permission.SECURITY));
+		folder.addAccessControlEntry(ace);
+		testSubject.store(folder);
+		assertTrue(testSubject.isPermissionAllowed(Permission.SECURITY, 6, 4));
 	}
 
 	@Test
@@ -1151,6 +1162,11 @@ public class HibernateFolderDAOTest extends AbstractCoreTestCase {
 		testSubject.restore(1204, 5L, null);
 		folder = testSubject.findById(1204);
 		assertNotNull(folder);
+
+		// The restored folder has been moved under the root
+		assertEquals("/1204", testSubject.queryForString("select ld_path from ld_folder where ld_id=1204"));
+		assertTrue(testSubject.findFolderIdInTree(5L, false).contains(1204L));
+		assertFalse(testSubject.findFolderIdInTree(1201L, true).contains(1204L));
 	}
 
 	@Test
@@ -1219,6 +1235,35 @@ public class HibernateFolderDAOTest extends AbstractCoreTestCase {
 		assertEquals("/1200/1201", testSubject.computePath(1201));
 	}
 
+	@Test
+	public void testComputePathAfterChanges() throws PersistenceException {
+		assertEquals("/1200/1201/1202", testSubject.computePath(1202));
+		assertEquals("/test/ABC/xyz", testSubject.computePathExtended(1202));
+
+		// Served by the cache
+		assertEquals("/test/ABC/xyz", testSubject.computePathExtended(1202));
+		assertEquals("/test/ABC", testSubject.computePathExtended(1201));
+
+		// Rename a parent
+		Folder folder = testSubject.findById(1200L);
+		testSubject.initialize(folder);
+		folder.setName("renamed");
+		testSubject.store(folder);
+		assertEquals("/renamed/ABC/xyz", testSubject.computePathExtended(1202));
+		assertEquals("/1200/1201/1202", testSubject.computePath(1202));
+
+		// Move a parent
+		User user = new User();
+		user.setUsername("admin");
+		user.setId(1);
+		FolderHistory transaction = new FolderHistory();
+		transaction.setUser(user);
+		testSubject.move(testSubject.findById(1201L), testSubject.findById(3000L), transaction);
+		assertEquals("/3000/1201/1202", testSubject.computePath(1202));
+		assertEquals("/Workspace X/ABC/xyz", testSubject.computePathExtended(1202));
+		assertEquals("/renamed", testSubject.computePathExtended(1200));
+	}
+
 	@Test
 	public void testFindChildren() throws PersistenceException {
 		List<Folder> dirs = testSubject.findChildren(1200L, 1L);
@@ -1237,6 +1282,18 @@ public class HibernateFolderDAOTest extends AbstractCoreTestCase {
 		assertEquals(1, dirs.size());
 	}
 
+	@Test
+	public void testFindChildrenPage() throws PersistenceException {
+		List<Folder> dirs = testSubject.findChildren(5L, 1L).stream().filter(f -> f.getHidden() == 0).toList();
+		assertEquals(dirs.size(), testSubject.countChildren(5L, 1L));
+
+		List<Folder> page = testSubject.findChildren(5L, 1L, 0, 1);
+		assertEquals(Math.min(1, dirs.size()), page.size());
+
+		page = testSubject.findChildren(5L, 1L, 1, null);
+		assertEquals(Math.max(0, dirs.size() - 1), page.size());
+	}
+
 	@Test
 	public void testApplySecurityToTree() throws PersistenceException {
 		FolderHistory transaction = new FolderHistory();
@@ -1412,6 +1469,32 @@ public class HibernateFolderDAOTest extends AbstractCoreTestCase {
 		ids = testSubject.findFolderIdInTree(1200L, false);
 		assertEquals(3, ids.size());
 		assertTrue(ids.contains(1201L));
+
+		ids = testSubject.findFolderIdInTree(1200L, true);
+		assertEquals(4, ids.size());
+		assertTrue(ids.contains(1204L));
+
+		// The path of this folder is not made of identifiers
+		ids = testSubject.findFolderIdInTree(3000L, false);
+		assertEquals(3, ids.size());
+		assertTrue(ids.contains(7L));
+		assertFalse(ids.contains(8L));
+
+		ids = testSubject.findFolderIdInTree(3000L, true);
+		assertEquals(4, ids.size());
+		assertTrue(ids.contains(8L));
+	}
+
+	@Test
+	public void testFindFolderIdInPath() throws PersistenceException {
+		Collection<Long> ids = testSubject.findFolderIdInPath(1200L, false);
+		assertEquals(3, ids.size());
+		assertTrue(ids.contains(1202L));
+
+		ids = testSubject.findFolderIdInPath(1200L, true);
+		assertEquals(4, ids.size());
+
+		assertTrue(testSubject.findFolderIdInPath(99999L, false).isEmpty());
 	}
 
 	@Test
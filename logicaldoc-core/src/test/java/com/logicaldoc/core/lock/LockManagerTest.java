@@ -61,4 +61,43 @@ public class LockManagerTest extends AbstractCoreTestCase {
 		Assert.assertNull(lock.getString1());
 		Assert.assertNull(lock.getDate1());
 	}
+
+	@Test
+	public void testFencing() throws PersistenceException {
+		Assert.assertTrue(manager.get("fencing", "t1"));
+		Long token1 = manager.getToken("fencing", "t1");
+		Assert.assertNotNull(token1);
+		Assert.assertTrue(manager.isOwner("fencing", "t1", token1));
+		Assert.assertTrue(manager.renew("fencing", "t1"));
+		manager.release("fencing", "t1");
+		Assert.assertNull(manager.getToken("fencing", "t1"));
+		Assert.assertFalse(manager.isOwner("fencing", "t1", token1));
+		Assert.assertFalse(manager.renew("fencing", "t1"));
+
+		Assert.assertTrue(manager.get("fencing", "t2"));
+		Long token2 = manager.getToken("fencing", "t2");
+		Assert.assertTrue(token2 > token1);
+		manager.release("fencing", "t2");
+	}
+
+	@Test
+	public void testWakeUpOnRelease() throws Exception {
+		Assert.assertTrue(manager.get("wakeup", "t1"));
+
+		Thread releaser = new Thread(() -> {
+			try {
+				Thread.sleep(200);
+				manager.release("wakeup", "t1");
+			} catch (Exception e) {
+				Thread.currentThread().interrupt();
+			}
+		});
+		releaser.start();
+
+		long start = System.currentTimeMillis();
+		Assert.assertTrue(manager.get("wakeup", "t2"));
+		Assert.assertTrue(System.currentTimeMillis() - start < 2000);
+		releaser.join();
+		manager.release("wakeup", "t2");
+	}
 }
@@ -6,8 +6,10 @@ import static org.junit.Assert.assertTrue;
 
 import java.io.BufferedWriter;
 import java.io.File;
+import java.io.FileInputStream;
 import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.InputStream;
 import java.io.OutputStreamWriter;
 import java.sql.SQLException;
 import java.util.Locale;
@@ -21,6 +23,8 @@ import org.slf4j.LoggerFactory;
 
 import com.logicaldoc.core.AbstractCoreTestCase;
 import com.logicaldoc.core.security.Tenant;
+import com.logicaldoc.util.Context;
+import com.logicaldoc.util.config.ContextProperties;
 import com.logicaldoc.util.plugin.PluginException;
 
 public class PDFParserTest extends AbstractCoreTestCase {
@@ -163,4 +167,44 @@ public class PDFParserTest extends AbstractCoreTestCase {
 		log.debug("Extracted text size: {}", x.length());
 		assertTrue(x.length() > 2500);
 	}
+
+	@Test
+	public void testParallel() throws ParsingException, IOException {
+		File file = new File("src/test/resources/logicaldoc-user_manual_it.pdf");
+		String filename = file.getPath();
+		PDFParser pdfp = (PDFParser) ParserFactory.getParser(filename);
+
+		ContextProperties config = Context.get().getProperties();
+		String workers = config.getProperty("default.parser.pdf.workers");
+		String chunk = config.getProperty("default.parser.pdf.chunk");
+		try {
+			config.setProperty("default.parser.pdf.workers", "1");
+			String sequential = pdfp.parse(file, filename, null, Locale.ITALIAN, Tenant.DEFAULT_NAME);
+
+			config.setProperty("default.parser.pdf.workers", "4");
+			config.setProperty("default.parser.pdf.chunk", "2");
+			String parallel = pdfp.parse(file, filename, null, Locale.ITALIAN, Tenant.DEFAULT_NAME);
+			assertEquals(sequential, parallel);
+
+			// The extraction stops at the maximum length
+			ParseParameters parameters = new ParseParameters(null, filename, null, null, Locale.ITALIAN,
+					Tenant.DEFAULT_NAME);
+			parameters.setMaxLength(1000);
+			try (InputStream is = new FileInputStream(file)) {
+				String limited = pdfp.parse(is, parameters);
+				assertEquals(1000, limited.length());
+				assertTrue(sequential.startsWith(limited));
+			}
+		} finally {
+			restore(config, "default.parser.pdf.workers", workers);
+			restore(config, "default.parser.pdf.chunk", chunk);
+		}
+	}
+
+	private static void restore(ContextProperties config, String name, String value) {
+		if (value != null)
+			config.setProperty(name, value);
+		else
+			config.remove(name);
+	}
 }
@@ -0,0 +1,114 @@
+package com.logicaldoc.core.parser;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.junit.Test;
+
+import com.logicaldoc.core.AbstractCoreTestCase;
+import com.logicaldoc.util.Context;
+
+public class ParserPoolTest extends AbstractCoreTestCase {
+
+	@Test
+	public void testExecute() throws ParsingException {
+		ParserPool pool = ParserPool.get();
+		long count = pool.getStats().containsKey("pooltest") ? pool.getStats().get("pooltest").getCount() : 0L;
+
+		AtomicBoolean nested = new AtomicBoolean(false);
+		pool.execute("TestParser", "pooltest", () -> {
+			// A nested parsing must run in the same thread
+			Thread current = Thread.currentThread();
+			pool.execute("TestParser", "pooltest", () -> {
+				nested.set(Thread.currentThread() == current);
+				return null;
+			}, 10);
+			return null;
+		}, 10);
+
+		assertTrue(nested.get());
+		assertEquals(count + 1, pool.getStats().get("pooltest").getCount());
+	}
+
+	@Test
+	public void testTimeout() throws InterruptedException {
+		ParserPool pool = ParserPool.get();
+		long timeouts = pool.getTimeouts();
+		CountDownLatch interrupted = new CountDownLatch(1);
+
+		try {
+			pool.execute("TestParser", "pooltest", () -> {
+				try {
+					Thread.sleep(10000);
+				} catch (InterruptedException e) {
+					interrupted.countDown();
+					Thread.currentThread().interrupt();
+				}
+				return null;
+			}, 1);
+			fail("Expected a timeout");
+		} catch (ParsingTimeoutException e) {
+			assertEquals("timeout", e.getMessage());
+		} catch (ParsingException e) {
+			fail("Unexpected exception " + e.getMessage());
+		}
+
+		// The worker must have been interrupted
+		assertTrue(interrupted.await(5, TimeUnit.SECONDS));
+		assertEquals(timeouts + 1, pool.getTimeouts());
+	}
+
+	@Test
+	public void testQueueTimeout() throws InterruptedException {
+		ParserPool pool = ParserPool.get();
+		long queueTimeouts = pool.getQueueTimeouts();
+		Context.get().getProperties().setProperty("parser.concurrency.QueueParser", "1");
+		Context.get().getProperties().setProperty("parser.queue.timeout", "1");
+
+		CountDownLatch running = new CountDownLatch(1);
+		CountDownLatch release = new CountDownLatch(1);
+		Thread busy = new Thread(() -> {
+			try {
+				pool.execute("QueueParser", "pooltest", () -> {
+					running.countDown();
+					release.await();
+					return null;
+				}, 30);
+			} catch (ParsingException e) {
+				// Nothing to do
+			}
+		});
+		busy.start();
+		try {
+			assertTrue(running.await(5, TimeUnit.SECONDS));
+
+			// The second parsing cannot start, this is an error and not a
+			// parsing timeout
+			try {
+				pool.execute("QueueParser", "pooltest", () -> null, 30);
+				fail("Expected an error");
+			} catch (ParsingTimeoutException e) {
+				fail("Unexpected timeout");
+			} catch (ParsingException e) {
+				assertTrue(e.getMessage().startsWith("Parsing not started"));
+			}
+			assertEquals(queueTimeouts + 1, pool.getQueueTimeouts());
+		} finally {
+			release.countDown();
+			busy.join();
+			Context.get().getProperties().setProperty("parser.queue.timeout", "600");
+		}
+	}
+
+	@Test(expected = ParsingException.class)
+	public void testError() throws ParsingException {
+		ParserPool.get().execute("TestParser", "pooltest", () -> {
+			throw new ParsingException("broken");
+		}, 10);
+	}
+}
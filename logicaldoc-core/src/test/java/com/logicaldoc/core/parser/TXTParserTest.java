@@ -3,6 +3,7 @@ package com.logicaldoc.core.parser;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileNotFoundException;
+import java.io.IOException;
 import java.util.Locale;
 
 import org.junit.Assert;
@@ -25,4 +26,21 @@ public class TXTParserTest extends AbstractCoreTestCase {
 		content = p.parse(new FileInputStream(inputFile), filename, null, Locale.ENGLISH, Tenant.DEFAULT_NAME);
 		Assert.assertTrue(content.contains("scalpo"));
 	}
-}
\ No newline at end of file
+
+	@Test
+	public void testParseMaxLength() throws IOException, ParsingException {
+		String inputFile = "src/test/resources/AnalyzeFileTest_enc.txt";
+		Parser parser = ParserFactory.getParser(inputFile);
+		ParseParameters parameters = new ParseParameters(null, inputFile, null, null, Locale.ENGLISH,
+				Tenant.DEFAULT_NAME);
+		parameters.setMaxLength(10);
+		String content = parser.parse(new FileInputStream(inputFile), parameters);
+		Assert.assertEquals(10, content.length());
+
+		StringBuilder sb = new StringBuilder();
+		ContentWriter writer = new ContentWriter(sb, 5);
+		writer.write("ab\uFFFFcdef");
+		Assert.assertTrue(writer.isFull());
+		Assert.assertEquals("ab cd", sb.toString());
+	}
+}
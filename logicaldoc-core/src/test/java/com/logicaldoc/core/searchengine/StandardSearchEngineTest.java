@@ -6,6 +6,8 @@ import java.util.Arrays;
 import java.util.Date;
 import java.util.Set;
 
+import org.apache.solr.client.solrj.SolrClient;
+import org.apache.solr.common.SolrInputDocument;
 import org.junit.After;
 import org.junit.Before;
 import org.junit.Test;
@@ -204,6 +206,57 @@ public class StandardSearchEngineTest extends AbstractCoreTestCase {
 		Assert.assertNull(hit);
 	}
 
+	@Test
+	public void testPipeline() throws Exception {
+		IndexPipeline pipeline = new IndexPipeline((SolrClient) testSubject.getServer(), 10, 5, 100, 0, 0, 30000);
+		pipeline.start();
+		try {
+			for (long id = 1; id <= 12; id++) {
+				SolrInputDocument hit = new SolrInputDocument();
+				hit.addField(HitField.ID.getName(), Long.toString(id));
+				hit.addField(HitField.TENANT_ID.getName(), "1");
+				hit.addField(HitField.LANGUAGE.getName(), id % 2 == 0 ? "en" : "it");
+				hit.addField(HitField.CONTENT.getName(), "pipeline content " + id);
+				pipeline.add(hit, id % 2 == 0 ? "en" : "it");
+			}
+			pipeline.delete(Arrays.asList("3", "4"));
+			pipeline.flush();
+
+			Assert.assertEquals(0, pipeline.getPending());
+			Assert.assertEquals(12, pipeline.getAdded());
+			Assert.assertEquals(10, testSubject.getCount());
+			Assert.assertNull(testSubject.getHit(3L));
+			Assert.assertEquals("en", testSubject.getHit(2L).getLanguage());
+		} finally {
+			pipeline.stop();
+		}
+		Assert.assertFalse(pipeline.isRunning());
+	}
+
+	@Test
+	public void testPipelineFailure() throws Exception {
+		IndexPipeline pipeline = new IndexPipeline((SolrClient) testSubject.getServer(), 10, 5, 100, 0, 0, 30000);
+		pipeline.start();
+		try {
+			// A hit without the unique key is refused by the index
+			SolrInputDocument hit = new SolrInputDocument();
+			hit.addField(HitField.CONTENT.getName(), "pipeline content");
+			try {
+				pipeline.add(hit, "en");
+				Assert.fail("the failure was not reported");
+			} catch (IOException e) {
+				// All as expected
+			}
+			Assert.assertEquals(1, pipeline.getFailures());
+
+			// The flush does not remain blocked
+			pipeline.flush();
+			Assert.assertEquals(0, pipeline.getPending());
+		} finally {
+			pipeline.stop();
+		}
+	}
+
 	@Test
 	public void testPurge() throws Exception {
 		testAddHit();
@@ -0,0 +1,100 @@
+package com.logicaldoc.core.security;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+import org.junit.Test;
+
+import com.logicaldoc.core.AbstractCoreTestCase;
+import com.logicaldoc.core.security.authentication.AuthenticationException;
+import com.logicaldoc.core.security.authentication.IPBlockedException;
+import com.logicaldoc.core.security.authentication.UsernameBlockedException;
+import com.logicaldoc.core.security.authentication.WrongPasswordException;
+import com.logicaldoc.core.sequence.SequenceDAO;
+import com.logicaldoc.util.config.ContextProperties;
+
+/**
+ * Test case for <code>LoginThrottle</code>
+ *
+ * @author Marco Meschieri - LogicalDOC
+ * @since 9.1.1
+ */
+public class LoginThrottleTest extends AbstractCoreTestCase {
+
+	@Test
+	public void testCheckLoginThrottle() throws AuthenticationException {
+		ContextProperties config = (ContextProperties) context.getBean("ContextProperties");
+		config.setProperty("throttle.enabled", "true");
+		config.setProperty("throttle.username.max", "3");
+		config.setProperty("throttle.username.wait", "30");
+		config.setProperty("throttle.ip.max", "5");
+		config.setProperty("throttle.ip.wait", "30");
+
+		try {
+			Client client = new Client("test", "10.0.0.1", "test");
+			for (int i = 0; i < 3; i++) {
+				LoginThrottle.checkLoginThrottle("boss", null, "10.0.0.1");
+				LoginThrottle.recordFailure("boss", null, client, new WrongPasswordException());
+			}
+
+			try {
+				LoginThrottle.checkLoginThrottle("boss", null, "10.0.0.1");
+				fail("The username should be blocked");
+			} catch (UsernameBlockedException e) {
+				// All ok
+			}
+
+			// The IP is not yet blocked
+			LoginThrottle.checkLoginThrottle("author", null, "10.0.0.1");
+			LoginThrottle.recordFailure("author", null, client, new WrongPasswordException());
+			LoginThrottle.recordFailure("author", null, client, new WrongPasswordException());
+			try {
+				LoginThrottle.checkLoginThrottle("author", null, "10.0.0.1");
+				fail("The IP should be blocked");
+			} catch (IPBlockedException e) {
+				// All ok
+			}
+
+			// The counters get saved in the database
+			LoginThrottle.persist();
+			SequenceDAO dao = (SequenceDAO) context.getBean("SequenceDAO");
+			assertEquals(3L, dao.findByAlternateKey(LoginThrottle.LOGINFAIL_USERNAME + "boss", 0L, Tenant.SYSTEM_ID)
+					.getValue());
+
+			LoginThrottle.clearFailures("boss", "10.0.0.1");
+			LoginThrottle.checkLoginThrottle("boss", null, "10.0.0.1");
+			LoginThrottle.persist();
+			assertEquals(null, dao.findByAlternateKey(LoginThrottle.LOGINFAIL_IP + "10.0.0.1", 0L, Tenant.SYSTEM_ID));
+		} finally {
+			config.setProperty("throttle.enabled", "false");
+		}
+	}
+
+	@Test
+	public void testEviction() throws AuthenticationException {
+		ContextProperties config = (ContextProperties) context.getBean("ContextProperties");
+		config.setProperty("throttle.enabled", "true");
+		config.setProperty("throttle.username.max", "3");
+		config.setProperty("throttle.username.wait", "30");
+		config.setProperty("throttle.cache.size", "5");
+
+		try {
+			for (int i = 0; i < 3; i++)
+				LoginThrottle.recordFailure("victim", null, null, new WrongPasswordException());
+
+			// Flood the cache with other usernames
+			for (int i = 0; i < 30; i++)
+				LoginThrottle.recordFailure("flood" + i, null, null, new WrongPasswordException());
+
+			try {
+				LoginThrottle.checkLoginThrottle("victim", null, "10.0.0.9");
+				fail("The username should still be blocked");
+			} catch (UsernameBlockedException e) {
+				// All ok
+			}
+		} finally {
+			config.setProperty("throttle.enabled", "false");
+			config.setProperty("throttle.cache.size", "10000");
+		}
+	}
+}
@@ -175,6 +175,55 @@ public class SessionManagerTest extends AbstractCoreTestCase implements SessionL
 		assertEquals(2, testSubject.countOpened());
 	}
 
+	@Test
+	public void testPersistState() {
+		SessionDAO dao = (SessionDAO) context.getBean("SessionDAO");
+		testSubject.clear();
+		Session session = testSubject.newSession("admin", "admin", (Client) null);
+		assertEquals(Session.STATUS_OPEN, dao.findBySid(session.getSid()).getStatus());
+		int opened = testSubject.countOpened();
+
+		// The closing is saved immediately
+		testSubject.kill(session.getSid());
+		assertEquals(Session.STATUS_CLOSED, dao.findBySid(session.getSid()).getStatus());
+		assertEquals(opened - 1, testSubject.countOpened());
+	}
+
+	@Test
+	public void testPersistRenewal() throws InterruptedException {
+		SessionDAO dao = (SessionDAO) context.getBean("SessionDAO");
+		ContextProperties conf = Context.get().getProperties();
+		String interval = conf.getProperty("session.persist.interval");
+		conf.setProperty("session.persist.interval", "100");
+		try {
+			testSubject.clear();
+			Session session = testSubject.newSession("admin", "admin", (Client) null);
+			long created = dao.findBySid(session.getSid()).getLastRenew().getTime();
+
+			Thread.sleep(200);
+			testSubject.renew(session.getSid());
+
+			// The renewal reaches the database through the flusher
+			long renewed = created;
+			for (int i = 0; i < 50 && renewed == created; i++) {
+				Thread.sleep(100);
+				renewed = dao.findBySid(session.getSid()).getLastRenew().getTime();
+			}
+			assertTrue(renewed > created);
+
+			// A pending renewal does not reopen a closed session
+			testSubject.renew(session.getSid());
+			testSubject.kill(session.getSid());
+			Thread.sleep(300);
+			assertEquals(Session.STATUS_CLOSED, dao.findBySid(session.getSid()).getStatus());
+		} finally {
+			if (interval != null)
+				conf.setProperty("session.persist.interval", interval);
+			else
+				conf.remove("session.persist.interval");
+		}
+	}
+
 	@Test
 	public void testGetByClientId() {
 		testSubject.clear();
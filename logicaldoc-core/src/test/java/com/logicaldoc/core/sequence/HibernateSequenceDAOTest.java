@@ -2,7 +2,11 @@ package com.logicaldoc.core.sequence;
 
 import java.io.IOException;
 import java.sql.SQLException;
+import java.util.ArrayList;
 import java.util.Collection;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 
 import org.junit.Assert;
 import org.junit.Before;
@@ -10,6 +14,7 @@ import org.junit.Test;
 
 import com.logicaldoc.core.AbstractCoreTestCase;
 import com.logicaldoc.core.security.Tenant;
+import com.logicaldoc.util.Context;
 import com.logicaldoc.util.plugin.PluginException;
 
 public class HibernateSequenceDAOTest extends AbstractCoreTestCase {
@@ -53,6 +58,48 @@ public class HibernateSequenceDAOTest extends AbstractCoreTestCase {
 		Assert.assertEquals(23L, testSubject.next("test2", 0L, Tenant.DEFAULT_ID, -2L));
 	}
 
+	@Test
+	public void testNextConcurrent() throws InterruptedException {
+		Set<Long> values = ConcurrentHashMap.newKeySet();
+		List<Thread> threads = new ArrayList<>();
+		for (int t = 0; t < 4; t++) {
+			Thread thread = new Thread(() -> {
+				for (int i = 0; i < 25; i++)
+					values.add(testSubject.next("concurrent", 0L, Tenant.DEFAULT_ID));
+			});
+			threads.add(thread);
+			thread.start();
+		}
+		for (Thread thread : threads)
+			thread.join();
+
+		Assert.assertEquals(100, values.size());
+		Assert.assertEquals(100L, testSubject.getCurrentValue("concurrent", 0L, Tenant.DEFAULT_ID));
+
+		// A different increment returns the unused values first
+		testSubject.next("concurrent2", 0L, Tenant.DEFAULT_ID);
+		Assert.assertEquals(3L, testSubject.next("concurrent2", 0L, Tenant.DEFAULT_ID, 2L));
+	}
+
+	@Test
+	public void testNextInBlocks() {
+		Context.get().getProperties().setProperty("sequence.block", "10");
+		try {
+			testSubject.reset("blocks", 0L, Tenant.DEFAULT_ID, 0);
+			for (int i = 1; i <= 15; i++)
+				Assert.assertEquals(i, testSubject.next("blocks", 0L, Tenant.DEFAULT_ID));
+			Assert.assertEquals(15L, testSubject.getCurrentValue("blocks", 0L, Tenant.DEFAULT_ID));
+
+			// The second block has been reserved and committed
+			Assert.assertEquals(20L, testSubject.findByAlternateKey("blocks", 0L, Tenant.DEFAULT_ID).getValue());
+
+			// A different increment returns the unused values first
+			Assert.assertEquals(17L, testSubject.next("blocks", 0L, Tenant.DEFAULT_ID, 2L));
+		} finally {
+			Context.get().getProperties().setProperty("sequence.block", "1");
+		}
+	}
+
 	@Test
 	public void testFindByName() {
 		Collection<Sequence> sequences = testSubject.findByName("customid-", Tenant.DEFAULT_ID);
@@ -14,12 +14,8 @@ import java.util.List;
 import java.util.Map;
 import java.util.Scanner;
 import java.util.Set;
-import java.util.concurrent.Callable;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
 import java.util.concurrent.Future;
-import java.util.concurrent.TimeUnit;
-import java.util.concurrent.TimeoutException;
+import java.util.function.Function;
 import java.util.stream.Collectors;
 
 import org.apache.commons.lang.StringUtils;
@@ -37,8 +33,6 @@ public class Exec {
 
 	private static final String EXECUTING_COMMAND = "Executing command {}";
 
-	private static final String COMMAND_FAILED_TO_EXECUTE = "Command failed to execute - {}";
-
 	private static final String TIMEOUT_COMMAND = "Timeout command {}";
 
 	private static final String ALLOWED_COMMANDS = "/allowed-commands.txt";
@@ -57,6 +51,12 @@ public class Exec {
 	 */
 	private String errPrefix = "err";
 
+	/**
+	 * Priority of the processes launched by this instance, null to use the
+	 * configured one
+	 */
+	private Integer priority;
+
 	public void setErrPrefix(String errPrefix) {
 		this.errPrefix = errPrefix;
 	}
@@ -65,6 +65,17 @@ public class Exec {
 		this.outPrefix = outPrefix;
 	}
 
+	/**
+	 * Sets the priority of the processes launched by this instance when they
+	 * have to wait for a free slot, see {@link ProcessSupervisor}
+	 * 
+	 * @param priority the priority, if null the setting
+	 *        <code>exec.priority.<b>command</b></code> is used
+	 */
+	public void setPriority(Integer priority) {
+		this.priority = priority;
+	}
+
 	/**
 	 * Checks if you are running on Windows
 	 * 
@@ -101,37 +112,11 @@ public class Exec {
 		if (!CollectionUtils.isEmpty(environment))
 			pb.environment().putAll(environment);
 
-		Worker worker = null;
-		Process process = null;
-		try {
-			process = pb.start();
-
-			StreamGobbler outputGobbler = new StreamGobbler(process.getInputStream());
-			outputGobbler.start();
-
-			worker = new Worker(process);
-			worker.start();
-
-			if (timeout > 0)
-				worker.join(timeout * 1000L);
-			else
-				worker.join();
-
-			if (worker.getExit() == null)
-				throw new TimeoutException();
-			else
-				return worker.getExit();
-		} catch (TimeoutException e) {
-			log.error("Command timed out {}", commandLine);
-		} catch (InterruptedException ex) {
-			worker.interrupt();
-			Thread.currentThread().interrupt();
-		} finally {
-			if (process != null)
-				process.destroy();
-		}
-
-		return 1;
+		String cmd = commandLine.stream().collect(Collectors.joining(" "));
+		String commandForLog = " (" + commandForLog(cmd) + ")";
+		Integer exit = execute(cmd, pb::start, timeout,
+				process -> List.of(new StreamEater(outPrefix + commandForLog, process.getInputStream())));
+		return exit != null ? exit : 1;
 	}
 
 	/**
@@ -183,56 +168,12 @@ public class Exec {
 		if (log.isDebugEnabled())
 			log.debug(EXECUTING_COMMAND, commandLine);
 
-		int exit = 0;
-
-		final Process process = Runtime.getRuntime().exec(commandLine.toArray(new String[0]),
-				env != null ? env.toArray(new String[0]) : null, dir);
-
-		if (timeout > 0) {
-			ExecutorService service = Executors.newSingleThreadExecutor();
-			try {
-				Callable<Integer> call = new CallableProcess(process);
-				Future<Integer> future = service.submit(call);
-				exit = future.get(timeout, TimeUnit.SECONDS);
-				if (log.isDebugEnabled())
-					log.debug("{} returned {}", commandLine.get(0), exit);
-			} catch (InterruptedException e) {
-				process.destroy();
-				Thread.currentThread().interrupt();
-			} catch (TimeoutException e) {
-				process.destroy();
-				log.warn(TIMEOUT_COMMAND, commandLine);
-			} catch (Exception e) {
-				log.warn(COMMAND_FAILED_TO_EXECUTE, commandLine);
-				exit = 1;
-			} finally {
-				service.shutdown();
-			}
-		}
-
-		String commandForLog = " (" + commandForLog(commandLine.stream().collect(Collectors.joining(" "))) + ")";
-
-		StreamEater errEater = new StreamEater(errPrefix + commandForLog, process.getErrorStream());
-
-		StreamEater outEater = new StreamEater(outPrefix + commandForLog, process.getInputStream());
-
-		new Thread(errEater).start();
-
-		new Thread(outEater).start();
-
-		try {
-			exit = process.waitFor();
-		} catch (InterruptedException e) {
-			Thread.currentThread().interrupt();
-		}
-
-		try {
-			process.destroy();
-		} catch (Exception t) {
-			// Nothing to do
-		}
-
-		return exit;
+		String cmd = commandLine.stream().collect(Collectors.joining(" "));
+		Integer exit = execute(cmd, () -> Runtime.getRuntime().exec(commandLine.toArray(new String[0]),
+				env != null ? env.toArray(new String[0]) : null, dir), timeout, process -> eaters(cmd, process, null));
+		if (exit != null && log.isDebugEnabled())
+			log.debug("{} returned {}", commandLine.get(0), exit);
+		return exit != null ? exit : 1;
 	}
 
 	/**
@@ -254,36 +195,11 @@ public class Exec {
 		if (log.isDebugEnabled())
 			log.debug(EXECUTING_COMMAND, commandLine);
 
-		final Process process = Runtime.getRuntime().exec(commandLine.toArray(new String[0]),
-				env != null ? env.toArray(new String[0]) : null, dir);
-		if (timeout > 0) {
-			ExecutorService service = Executors.newSingleThreadExecutor();
-			try {
-				Callable<Integer> call = new CallableProcess(process);
-				Future<Integer> future = service.submit(call);
-				future.get(timeout, TimeUnit.SECONDS);
-			} catch (InterruptedException e) {
-				process.destroy();
-				Thread.currentThread().interrupt();
-			} catch (TimeoutException e) {
-				process.destroy();
-				log.warn(TIMEOUT_COMMAND, commandLine);
-			} catch (Exception e) {
-				log.warn(COMMAND_FAILED_TO_EXECUTE, commandLine);
-			} finally {
-				service.shutdown();
-			}
-		}
-
-		return getProcessOutput(process);
-	}
-
-	private String getProcessOutput(final Process process) throws IOException {
-		BufferedReader reader = new BufferedReader(new InputStreamReader(process.getInputStream()));
 		StringBuilder out = new StringBuilder();
-		String s;
-		while ((s = reader.readLine()) != null)
-			out.append(s);
+		execute(commandLine.stream().collect(Collectors.joining(" ")),
+				() -> Runtime.getRuntime().exec(commandLine.toArray(new String[0]),
+						env != null ? env.toArray(new String[0]) : null, dir),
+				timeout, process -> outputReaders(process, out));
 		return out.toString();
 	}
 
@@ -316,9 +232,11 @@ public class Exec {
 	 */
 	public String execGetOutput(String commandLine, List<String> env, File dir) throws IOException {
 		checkAllowed(commandLine);
-		Process process = Runtime.getRuntime().exec(commandLine.split(" "),
-				env != null ? env.toArray(new String[0]) : null, dir != null ? dir : null);
-		return getProcessOutput(process);
+
+		StringBuilder out = new StringBuilder();
+		execute(commandLine, () -> Runtime.getRuntime().exec(commandLine.split(" "),
+				env != null ? env.toArray(new String[0]) : null, dir), -1, process -> outputReaders(process, out));
+		return out.toString();
 	}
 
 	public int exec(String commandLine, List<String> env, File dir, StringBuilder buffer, int timeout)
@@ -328,55 +246,12 @@ public class Exec {
 		if (log.isDebugEnabled())
 			log.debug(EXECUTING_COMMAND, commandLine);
 
-		int exit = 0;
-
-		final Process process = Runtime.getRuntime().exec(commandLine.split(" "),
-				env != null ? env.toArray(new String[0]) : null, dir);
-
 		String commandForLog = " (" + commandForLog(commandLine) + ")";
-		StreamEater errEater = new StreamEater(errPrefix + commandForLog, process.getErrorStream());
-
-		StreamEater outEater = new StreamEater(outPrefix + commandForLog, process.getInputStream(), buffer);
-
-		Thread a = new Thread(errEater);
-		a.start();
-
-		Thread b = new Thread(outEater);
-		b.start();
-
-		if (timeout > 0) {
-			ExecutorService service = Executors.newSingleThreadExecutor();
-			try {
-				Callable<Integer> call = new CallableProcess(process);
-				Future<Integer> future = service.submit(call);
-				exit = future.get(timeout, TimeUnit.SECONDS);
-			} catch (InterruptedException e) {
-				process.destroy();
-				Thread.currentThread().interrupt();
-			} catch (TimeoutException e) {
-				process.destroy();
-				log.warn(TIMEOUT_COMMAND, commandLine);
-			} catch (Exception e) {
-				log.warn(COMMAND_FAILED_TO_EXECUTE, commandLine);
-				exit = 1;
-			} finally {
-				service.shutdown();
-			}
-		}
-
-		try {
-			exit = process.waitFor();
-		} catch (InterruptedException e) {
-			Thread.currentThread().interrupt();
-		}
-
-		try {
-			process.destroy();
-		} catch (Exception t) {
-			// Nothing to do
-		}
-
-		return exit;
+		Integer exit = execute(commandLine, () -> Runtime.getRuntime().exec(commandLine.split(" "),
+				env != null ? env.toArray(new String[0]) : null, dir), timeout,
+				process -> List.of(new StreamEater(errPrefix + commandForLog, process.getErrorStream()),
+						new StreamEater(outPrefix + commandForLog, process.getInputStream(), buffer)));
+		return exit != null ? exit : 1;
 	}
 
 	public int exec(String commandLine, List<String> env, File dir, Writer outputWriter, int timeout)
@@ -386,60 +261,15 @@ public class Exec {
 		if (log.isDebugEnabled())
 			log.debug(EXECUTING_COMMAND, commandLine);
 
-		int exit = 0;
-
-		final Process process = Runtime.getRuntime().exec(commandLine.split(" "),
-				env != null ? env.toArray(new String[0]) : null, dir);
-
-		if (timeout > 0) {
-			ExecutorService service = Executors.newSingleThreadExecutor();
-			try {
-				Callable<Integer> call = new CallableProcess(process);
-				Future<Integer> future = service.submit(call);
-				exit = future.get(timeout, TimeUnit.SECONDS);
-			} catch (InterruptedException e) {
-				process.destroy();
-				Thread.currentThread().interrupt();
-			} catch (TimeoutException e) {
-				process.destroy();
-				log.warn(TIMEOUT_COMMAND, commandLine);
-			} catch (Exception e) {
-				log.warn(COMMAND_FAILED_TO_EXECUTE, commandLine);
-				exit = 1;
-			} finally {
-				service.shutdown();
-			}
-		}
-
-		String commandForLog = " (" + commandForLog(commandLine) + ")";
-
-		StreamEater errEater = new StreamEater(errPrefix + commandForLog, process.getErrorStream());
-
-		StreamEater outEater = new StreamEater(outPrefix + commandForLog, process.getInputStream(), outputWriter);
-
-		Thread a = new Thread(errEater);
-		a.start();
-
-		Thread b = new Thread(outEater);
-		b.start();
-
-		try {
-			exit = process.waitFor();
-		} catch (InterruptedException e) {
-			Thread.currentThread().interrupt();
-		}
-
-		try {
-			process.destroy();
-		} catch (Exception t) {
-			// Nothing to do
-		}
+		Integer exit = execute(commandLine, () -> Runtime.getRuntime().exec(commandLine.split(" "),
+				env != null ? env.toArray(new String[0]) : null, dir), timeout,
+				process -> eaters(commandLine, process, outputWriter));
 
 		if (outputWriter != null) {
 			outputWriter.flush();
 		}
 
-		return exit;
+		return exit != null ? exit : 1;
 	}
 
 	/**
@@ -459,16 +289,70 @@ public class Exec {
 		return exec(commandLine, env, dir, (Writer) null, timeout);
 	}
 
-	static class CallableProcess implements Callable<Integer> {
-		private Process p;
+	/**
+	 * Launches a process under the control of the {@link ProcessSupervisor}:
+	 * waits for a free slot, drains the outputs in the shared pool and kills
+	 * the whole process tree if the timeout expires.
+	 * 
+	 * @param commandLine the command line, used for the limits and the logs
+	 * @param launcher creates the process
+	 * @param timeout maximum execution time expressed in seconds, 0 or less
+	 *        means no limit
+	 * @param readers creates the tasks that consume the outputs of the
+	 *        process
+	 * 
+	 * @return the exit value of the process, null if it was killed before
+	 *         completion
+	 * 
+	 * @throws IOException the process cannot be launched
+	 */
+	private Integer execute(String commandLine, Launcher launcher, int timeout,
+			Function<Process, List<Runnable>> readers) throws IOException {
+		ProcessSupervisor supervisor = ProcessSupervisor.get();
+		try (ProcessSupervisor.Permit permit = supervisor.acquire(ProcessSupervisor.getCommandName(commandLine),
+				priority)) {
+			Process process = launcher.launch();
+			List<Future<?>> drains = readers.apply(process).stream().<Future<?>>map(supervisor::drain).toList();
+
+			boolean completed = supervisor.waitFor(process, timeout, permit);
+			if (!completed)
+				log.warn(TIMEOUT_COMMAND, commandLine);
+			supervisor.awaitDrained(drains);
 
-		public CallableProcess(Process process) {
-			p = process;
+			if (!completed)
+				return process.isAlive() ? null : process.exitValue();
+			return process.exitValue();
 		}
+	}
 
-		public Integer call() throws Exception {
-			return p.waitFor();
-		}
+	private List<Runnable> eaters(String commandLine, Process process, Writer outputWriter) {
+		String commandForLog = " (" + commandForLog(commandLine) + ")";
+		return List.of(new StreamEater(errPrefix + commandForLog, process.getErrorStream()),
+				new StreamEater(outPrefix + commandForLog, process.getInputStream(), outputWriter));
+	}
+
+	private List<Runnable> outputReaders(Process process, StringBuilder out) {
+		return List.of(new StreamEater(null, process.getErrorStream()), () -> {
+			try {
+				out.append(getProcessOutput(process));
+			} catch (IOException e) {
+				log.debug(e.getMessage());
+			}
+		});
+	}
+
+	private String getProcessOutput(final Process process) throws IOException {
+		BufferedReader reader = new BufferedReader(new InputStreamReader(process.getInputStream()));
+		StringBuilder out = new StringBuilder();
+		String s;
+		while ((s = reader.readLine()) != null)
+			out.append(s);
+		return out.toString();
+	}
+
+	@FunctionalInterface
+	private interface Launcher {
+		Process launch() throws IOException;
 	}
 
 	private static void checkAllowed(List<String> commandLine) throws IOException {
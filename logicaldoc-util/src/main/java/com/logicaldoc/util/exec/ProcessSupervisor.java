@@ -0,0 +1,499 @@
+package com.logicaldoc.util.exec;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+import org.apache.commons.io.FilenameUtils;
+import org.apache.commons.lang.StringUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.logicaldoc.util.Context;
+import com.logicaldoc.util.config.ContextProperties;
+
+/**
+ * Supervises the external processes launched by {@link Exec}.<br>
+ * <br>
+ * At most <code>exec.maxprocesses</code> processes(default twice the number of
+ * processors) can run at the same time, and at most
+ * <code>exec.maxprocesses.<b>command</b></code> processes of the same command,
+ * where the command is the name of the executable without path and extension
+ * (e.g. <code>exec.maxprocesses.gs</code>). The requests exceeding the limits
+ * wait in a queue ordered by priority, up to <code>exec.queue.timeout</code>
+ * seconds(default 600, also used when the setting is 0 or less). Changes of
+ * the limits are applied to the new requests.<br>
+ * <br>
+ * The outputs of the processes are drained by a shared pool of threads. When
+ * a process times out, it gets terminated together with all its descendants,
+ * forcibly if still alive after <code>exec.kill.grace</code> milliseconds.
+ *
+ * @author Marco Meschieri - LogicalDOC
+ * @since 9.1.1
+ */
+public class ProcessSupervisor {
+
+	private static final Logger log = LoggerFactory.getLogger(ProcessSupervisor.class);
+
+	public static final int PRIORITY_LOW = 1;
+
+	public static final int PRIORITY_NORMAL = 5;
+
+	public static final int PRIORITY_HIGH = 10;
+
+	private static final ProcessSupervisor instance = new ProcessSupervisor();
+
+	private final ExecutorService drainers;
+
+	private final PriorityGate gate = new PriorityGate();
+
+	private static final int DEFAULT_QUEUE_TIMEOUT = 600;
+
+	private final Map<String, CommandLimit> limits = new ConcurrentHashMap<>();
+
+	private final Map<String, Stats> stats = new ConcurrentHashMap<>();
+
+	private final AtomicInteger running = new AtomicInteger();
+
+	private final AtomicInteger waiting = new AtomicInteger();
+
+	private ProcessSupervisor() {
+		AtomicInteger counter = new AtomicInteger();
+		drainers = Executors.newCachedThreadPool(r -> {
+			Thread thread = new Thread(r, "ExecStream-" + counter.incrementAndGet());
+			thread.setDaemon(true);
+			return thread;
+		});
+	}
+
+	public static ProcessSupervisor get() {
+		return instance;
+	}
+
+	/**
+	 * Gets the name of the command used for the limits and the statistics
+	 *
+	 * @param commandLine the command line
+	 *
+	 * @return the name of the executable, lowercase and without extension
+	 */
+	public static String getCommandName(String commandLine) {
+		String executable = StringUtils.defaultString(commandLine).trim();
+		if (executable.startsWith("\""))
+			executable = StringUtils.substringBetween(executable, "\"", "\"");
+		else
+			executable = executable.split(" ")[0];
+		return FilenameUtils.getBaseName(StringUtils.defaultString(executable)).toLowerCase();
+	}
+
+	/**
+	 * Waits for the permission to launch a process
+	 *
+	 * @param command name of the command
+	 * @param priority priority of the request, if null the setting
+	 *        <code>exec.priority.<b>command</b></code> is used
+	 *
+	 * @return the permit to be closed when the process ends
+	 *
+	 * @throws IOException if the permission has not been granted in time
+	 * @throws InterruptedIOException if the current thread was interrupted
+	 *         while waiting
+	 */
+	public Permit acquire(String command, Integer priority) throws IOException {
+		Stats commandStats = getStats(command);
+		int prio = priority != null ? priority : getInt("exec.priority." + command, PRIORITY_NORMAL);
+		int seconds = getInt("exec.queue.timeout", DEFAULT_QUEUE_TIMEOUT);
+		long timeout = TimeUnit.SECONDS.toMillis(seconds > 0 ? seconds : DEFAULT_QUEUE_TIMEOUT);
+		long start = System.currentTimeMillis();
+
+		CommandLimit limit = getLimit(command);
+		boolean limitAcquired = false;
+		boolean gateAcquired = false;
+		waiting.incrementAndGet();
+		try {
+			if (limit != null)
+				limitAcquired = limit.tryAcquire(timeout, TimeUnit.MILLISECONDS);
+
+			if (limit == null || limitAcquired)
+				gateAcquired = gate.acquire(prio, Math.max(1, timeout - elapsed(start)));
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException("Interrupted while waiting to start command " + command);
+		} finally {
+			waiting.decrementAndGet();
+			if (!gateAcquired && limitAcquired)
+				limit.release();
+		}
+
+		if (!gateAcquired) {
+			commandStats.rejected.incrementAndGet();
+			throw new IOException("Too many processes running, command " + command + " not started");
+		}
+
+		commandStats.recordWait(elapsed(start));
+		running.incrementAndGet();
+		return new Permit(command, limitAcquired ? limit : null);
+	}
+
+	/**
+	 * Reads an output of a process in the shared pool
+	 *
+	 * @param eater the task that consumes the stream
+	 *
+	 * @return the future of the task
+	 */
+	public Future<?> drain(Runnable eater) {
+		return drainers.submit(eater);
+	}
+
+	/**
+	 * Waits for the completion of the tasks that are reading the outputs of an
+	 * ended process
+	 *
+	 * @param drains the draining tasks
+	 */
+	public void awaitDrained(List<Future<?>> drains) {
+		long deadline = System.currentTimeMillis() + getInt("exec.drain.timeout", 10) * 1000L;
+		for (Future<?> drain : drains) {
+			try {
+				drain.get(Math.max(1, deadline - System.currentTimeMillis()), TimeUnit.MILLISECONDS);
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				return;
+			} catch (TimeoutException e) {
+				log.debug("Output of the process not completely read");
+				return;
+			} catch (ExecutionException e) {
+				log.debug(e.getMessage());
+			}
+		}
+	}
+
+	/**
+	 * Waits for the end of a process, killing it with all its descendants if
+	 * the timeout expires or the current thread is interrupted
+	 *
+	 * @param process the process to wait for
+	 * @param timeout maximum number of seconds to wait, 0 or less means no
+	 *        limit
+	 * @param permit the permit obtained to launch the process
+	 *
+	 * @return true if the process ended by itself
+	 */
+	public boolean waitFor(Process process, int timeout, Permit permit) {
+		try {
+			if (timeout > 0) {
+				if (process.waitFor(timeout, TimeUnit.SECONDS))
+					return true;
+			} else {
+				process.waitFor();
+				return true;
+			}
+
+			getStats(permit.command).timeouts.incrementAndGet();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+
+		kill(process);
+		return false;
+	}
+
+	/**
+	 * Terminates a process and all its descendants
+	 *
+	 * @param process the process to kill
+	 */
+	public void kill(Process process) {
+		List<ProcessHandle> descendants = process.descendants().toList();
+		process.destroy();
+		descendants.forEach(ProcessHandle::destroy);
+
+		try {
+			if (!process.waitFor(getInt("exec.kill.grace", 2000), TimeUnit.MILLISECONDS))
+				process.destroyForcibly();
+		} catch (InterruptedException e) {
+			process.destroyForcibly();
+			Thread.currentThread().interrupt();
+		}
+
+		descendants.stream().filter(ProcessHandle::isAlive).forEach(ProcessHandle::destroyForcibly);
+	}
+
+	private CommandLimit getLimit(String command) {
+		int max = getInt("exec.maxprocesses." + command, 0);
+		if (max <= 0)
+			return null;
+		CommandLimit limit = limits.computeIfAbsent(command, k -> new CommandLimit(max));
+		limit.resize(max);
+		return limit;
+	}
+
+	private Stats getStats(String command) {
+		return stats.computeIfAbsent(command, k -> new Stats());
+	}
+
+	private static long elapsed(long start) {
+		return System.currentTimeMillis() - start;
+	}
+
+	private static int getInt(String key, int defaultValue) {
+		try {
+			ContextProperties config = Context.get().getProperties();
+			return config != null ? config.getInt(key, defaultValue) : defaultValue;
+		} catch (Exception e) {
+			// No configuration available
+			return defaultValue;
+		}
+	}
+
+	/**
+	 * Number of processes waiting to be launched
+	 *
+	 * @return the number of waiting processes
+	 */
+	public int getWaiting() {
+		return waiting.get();
+	}
+
+	public int getRunning() {
+		return running.get();
+	}
+
+	/**
+	 * Gets the statistics of each command
+	 *
+	 * @return map command - statistics
+	 */
+	public Map<String, Stats> getStats() {
+		return Collections.unmodifiableMap(new TreeMap<>(stats));
+	}
+
+	@Override
+	public String toString() {
+		return "running: " + running.get() + ", waiting: " + waiting.get() + ", stats: " + getStats();
+	}
+
+	/**
+	 * Permission to run a process, must be closed when the process ends
+	 *
+	 * @author Marco Meschieri - LogicalDOC
+	 * @since 9.1.1
+	 */
+	public class Permit implements AutoCloseable {
+
+		private final String command;
+
+		private final CommandLimit limit;
+
+		private final long start = System.currentTimeMillis();
+
+		private boolean closed = false;
+
+		private Permit(String command, CommandLimit limit) {
+			this.command = command;
+			this.limit = limit;
+		}
+
+		@Override
+		public void close() {
+			if (closed)
+				return;
+			closed = true;
+
+			getStats(command).recordRun(elapsed(start));
+			running.decrementAndGet();
+			gate.release();
+			if (limit != null)
+				limit.release();
+		}
+	}
+
+	/**
+	 * Limits the number of running processes, the waiting requests are served
+	 * by priority and then in arrival order
+	 */
+	private static class PriorityGate {
+
+		private final ReentrantLock lock = new ReentrantLock();
+
+		private final PriorityQueue<Waiter> waiters = new PriorityQueue<>(
+				Comparator.comparingInt((Waiter w) -> -w.priority).thenComparingLong(w -> w.sequence));
+
+		private long sequence = 0;
+
+		private int used = 0;
+
+		private boolean acquire(int priority, long timeout) throws InterruptedException {
+			lock.lock();
+			try {
+				Waiter waiter = new Waiter(priority, sequence++, lock.newCondition());
+				waiters.add(waiter);
+				long nanos = TimeUnit.MILLISECONDS.toNanos(timeout);
+				try {
+					while (waiters.peek() != waiter || used >= getMax()) {
+						if (nanos <= 0)
+							return false;
+						else
+							nanos = waiter.condition.awaitNanos(nanos);
+					}
+					used++;
+					return true;
+				} finally {
+					waiters.remove(waiter);
+					signalNext();
+				}
+			} finally {
+				lock.unlock();
+			}
+		}
+
+		private void release() {
+			lock.lock();
+			try {
+				used--;
+				signalNext();
+			} finally {
+				lock.unlock();
+			}
+		}
+
+		private void signalNext() {
+			Waiter next = waiters.peek();
+			if (next != null)
+				next.condition.signal();
+		}
+
+		private static int getMax() {
+			int max = getInt("exec.maxprocesses", 2 * Runtime.getRuntime().availableProcessors());
+			return max > 0 ? max : Integer.MAX_VALUE;
+		}
+	}
+
+	/**
+	 * Maximum number of processes of the same command, the permits of the
+	 * running processes are preserved when the maximum changes
+	 */
+	private static class CommandLimit extends Semaphore {
+
+		private static final long serialVersionUID = 1L;
+
+		private int max;
+
+		private CommandLimit(int max) {
+			super(max, true);
+			this.max = max;
+		}
+
+		private synchronized void resize(int newMax) {
+			if (newMax > max)
+				release(newMax - max);
+			else if (newMax < max)
+				reducePermits(max - newMax);
+			max = newMax;
+		}
+	}
+
+	private static class Waiter {
+
+		private final int priority;
+
+		private final long sequence;
+
+		private final Condition condition;
+
+		private Waiter(int priority, long sequence, Condition condition) {
+			this.priority = priority;
+			this.sequence = sequence;
+			this.condition = condition;
+		}
+	}
+
+	/**
+	 * Statistics about the executions of a given command
+	 *
+	 * @author Marco Meschieri - LogicalDOC
+	 * @since 9.1.1
+	 */
+	public static class Stats {
+
+		private final AtomicLong count = new AtomicLong();
+
+		private final AtomicLong totalWait = new AtomicLong();
+
+		private final AtomicLong maxWait = new AtomicLong();
+
+		private final AtomicLong totalRun = new AtomicLong();
+
+		private final AtomicLong maxRun = new AtomicLong();
+
+		private final AtomicLong timeouts = new AtomicLong();
+
+		private final AtomicLong rejected = new AtomicLong();
+
+		private void recordWait(long time) {
+			totalWait.addAndGet(time);
+			maxWait.accumulateAndGet(time, Math::max);
+		}
+
+		private void recordRun(long time) {
+			count.incrementAndGet();
+			totalRun.addAndGet(time);
+			maxRun.accumulateAndGet(time, Math::max);
+		}
+
+		public long getCount() {
+			return count.get();
+		}
+
+		public long getAverageWait() {
+			long c = count.get();
+			return c > 0 ? totalWait.get() / c : 0L;
+		}
+
+		public long getMaxWait() {
+			return maxWait.get();
+		}
+
+		public long getAverageRun() {
+			long c = count.get();
+			return c > 0 ? totalRun.get() / c : 0L;
+		}
+
+		public long getMaxRun() {
+			return maxRun.get();
+		}
+
+		public long getTimeouts() {
+			return timeouts.get();
+		}
+
+		public long getRejected() {
+			return rejected.get();
+		}
+
+		@Override
+		public String toString() {
+			return "count: " + count.get() + ", avg wait: " + getAverageWait() + "ms, max wait: " + maxWait.get()
+					+ "ms, avg run: " + getAverageRun() + "ms, max run: " + maxRun.get() + "ms, timeouts: "
+					+ timeouts.get() + ", rejected: " + rejected.get();
+		}
+	}
+}
@@ -60,8 +60,6 @@ public class FileUtil {
 
 	static final int BUFF_SIZE = 8192;
 
-	static final byte[] buffer = new byte[BUFF_SIZE];
-
 	protected static Logger log = LoggerFactory.getLogger(FileUtil.class);
 
 	private FileUtil() {
@@ -78,14 +76,10 @@ public class FileUtil {
 	 */
 	public static void writeFile(InputStream in, String filepath) throws IOException {
 		try (OutputStream os = new FileOutputStream(filepath);) {
-			while (true) {
-				synchronized (buffer) {
-					int amountRead = in.read(buffer);
-					if (amountRead == -1)
-						break;
-					os.write(buffer, 0, amountRead);
-				}
-			}
+			byte[] buffer = new byte[BUFF_SIZE];
+			int amountRead;
+			while ((amountRead = in.read(buffer)) != -1)
+				os.write(buffer, 0, amountRead);
 			os.flush();
 		} finally {
 			try {
@@ -137,6 +131,26 @@ public class FileUtil {
 		logger.error(message);
 	}
 
+	/**
+	 * Converts a digest in the hexadecimal notation used to store the
+	 * documents digests
+	 * 
+	 * @param messageDigest the bytes produced by the message digest
+	 * 
+	 * @return the lowercase hexadecimal string
+	 */
+	public static String toHex(byte[] messageDigest) {
+		StringBuilder buf = new StringBuilder(messageDigest.length * 2);
+		for (byte b : messageDigest) {
+			// convert each messageDigest byte to unsigned, at least two letters
+			String strUnsignedValue = Integer.toHexString(b & 0xff);
+			if (strUnsignedValue.length() == 1)
+				buf.append("0");
+			buf.append(strUnsignedValue);
+		}
+		return buf.toString();
+	}
+
 	public static String computeDigest(InputStream is) {
 		if (is == null)
 			return null;
@@ -151,22 +165,7 @@ public class FileUtil {
 			while ((len = is.read(message)) != -1) {
 				sha.update(message, 0, len);
 			}
-			byte[] messageDigest = sha.digest();
-			// convert the array to String
-			int size = messageDigest.length;
-			StringBuilder buf = new StringBuilder();
-			int unsignedValue = 0;
-			String strUnsignedValue = null;
-			for (int i = 0; i < size; i++) {
-				// convert each messageDigest byte to unsigned
-				unsignedValue = messageDigest[i] & 0xff;
-				strUnsignedValue = Integer.toHexString(unsignedValue);
-				// at least two letters
-				if (strUnsignedValue.length() == 1)
-					buf.append("0");
-				buf.append(strUnsignedValue);
-			}
-			digest = buf.toString();
+			digest = toHex(sha.digest());
 			log.debug("Computed Digest: {}", digest);
 
 			return digest;
@@ -0,0 +1,167 @@
+package com.logicaldoc.util.io;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.util.Arrays;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A decorator that reads the wrapped stream in a background thread, keeping
+ * at most a given number of chunks in memory. This way the time spent reading
+ * the source overlaps with the time the consumer spends processing the data,
+ * while the memory usage remains bounded to <code>chunkSize*maxChunks</code>
+ * bytes.
+ *
+ * @author Marco Meschieri - LogicalDOC
+ * @since 9.1.1
+ */
+public class ReadAheadInputStream extends InputStream {
+
+	private static final byte[] EOF = new byte[0];
+
+	private final InputStream in;
+
+	private final int chunkSize;
+
+	private final BlockingQueue<byte[]> chunks;
+
+	private final Future<?> producer;
+
+	private volatile boolean closed = false;
+
+	private volatile IOException error;
+
+	private byte[] current;
+
+	private int position = 0;
+
+	/**
+	 * Constructor
+	 *
+	 * @param in the stream to read from
+	 * @param chunkSize size of each chunk read in advance
+	 * @param maxChunks maximum number of chunks kept in memory
+	 * @param executor the executor that will run the reader
+	 */
+	public ReadAheadInputStream(InputStream in, int chunkSize, int maxChunks, ExecutorService executor) {
+		if (in == null)
+			throw new IllegalArgumentException("no input stream");
+		this.in = in;
+		this.chunkSize = Math.max(1, chunkSize);
+		this.chunks = new ArrayBlockingQueue<>(Math.max(1, maxChunks));
+		this.producer = executor.submit(this::fill);
+	}
+
+	private void fill() {
+		try {
+			while (!closed) {
+				byte[] buffer = new byte[chunkSize];
+				int count = in.readNBytes(buffer, 0, chunkSize);
+				if (count <= 0)
+					break;
+				enqueue(count < chunkSize ? Arrays.copyOf(buffer, count) : buffer);
+				if (count < chunkSize)
+					break;
+			}
+		} catch (IOException e) {
+			error = e;
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			error = new InterruptedIOException("Read ahead interrupted");
+		} finally {
+			IOUtil.close(in);
+
+			/*
+			 * The end must be signalled even if this thread got interrupted,
+			 * otherwise the consumer would wait forever
+			 */
+			boolean interrupted = Thread.interrupted();
+			while (true) {
+				try {
+					enqueue(EOF);
+					break;
+				} catch (InterruptedException e) {
+					interrupted = true;
+				}
+			}
+			if (interrupted)
+				Thread.currentThread().interrupt();
+		}
+	}
+
+	private void enqueue(byte[] chunk) throws InterruptedException {
+		while (!closed && !chunks.offer(chunk, 100, TimeUnit.MILLISECONDS)) {
+			// wait for the consumer
+		}
+	}
+
+	private boolean nextChunk() throws IOException {
+		if (current == EOF)
+			return false;
+
+		if (current == null || position >= current.length) {
+			try {
+				current = chunks.take();
+				position = 0;
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				throw new InterruptedIOException(e.getMessage());
+			}
+		}
+
+		if (current == EOF) {
+			if (error != null)
+				throw error;
+			return false;
+		}
+		return true;
+	}
+
+	@Override
+	public int read() throws IOException {
+		if (closed)
+			throw new IOException("Stream closed");
+		if (!nextChunk())
+			return -1;
+		return current[position++] & 0xff;
+	}
+
+	@Override
+	public int read(byte[] b, int off, int len) throws IOException {
+		if (closed)
+			throw new IOException("Stream closed");
+		if (len == 0)
+			return 0;
+		if (!nextChunk())
+			return -1;
+
+		int count = Math.min(len, current.length - position);
+		System.arraycopy(current, position, b, off, count);
+		position += count;
+		return count;
+	}
+
+	@Override
+	public int available() throws IOException {
+		if (current == null || current == EOF)
+			return 0;
+		return current.length - position;
+	}
+
+	@Override
+	public void close() throws IOException {
+		if (closed)
+			return;
+		closed = true;
+		chunks.clear();
+
+		// If the reader never started we have to close the source by ourselves
+		if (producer.cancel(false))
+			in.close();
+	}
+}
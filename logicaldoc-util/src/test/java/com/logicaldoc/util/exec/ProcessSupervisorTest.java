@@ -0,0 +1,101 @@
+package com.logicaldoc.util.exec;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+public class ProcessSupervisorTest {
+
+	@Test
+	public void testGetCommandName() {
+		assertEquals("gs", ProcessSupervisor.getCommandName("/usr/bin/gs -q -dBATCH"));
+		assertEquals("convert", ProcessSupervisor.getCommandName("\"C:\\Program Files\\ImageMagick\\convert.exe\" a b"));
+		assertEquals("", ProcessSupervisor.getCommandName(null));
+	}
+
+	@Test
+	public void testAcquire() throws IOException, InterruptedException {
+		ProcessSupervisor supervisor = ProcessSupervisor.get();
+		int max = 2 * Runtime.getRuntime().availableProcessors();
+
+		// Saturate all the slots
+		List<ProcessSupervisor.Permit> permits = new ArrayList<>();
+		for (int i = 0; i < max; i++)
+			permits.add(supervisor.acquire("supervisortest", null));
+		assertEquals(max, supervisor.getRunning());
+
+		// The requests with higher priority must be served first
+		List<Integer> order = Collections.synchronizedList(new ArrayList<>());
+		CountDownLatch done = new CountDownLatch(2);
+		Thread low = waiter(supervisor, ProcessSupervisor.PRIORITY_LOW, order, done);
+		low.start();
+		while (supervisor.getWaiting() < 1)
+			Thread.sleep(10);
+		Thread high = waiter(supervisor, ProcessSupervisor.PRIORITY_HIGH, order, done);
+		high.start();
+		while (supervisor.getWaiting() < 2)
+			Thread.sleep(10);
+
+		// A single slot gets freed, the second waiter runs when the first ends
+		permits.remove(0).close();
+		assertTrue(done.await(5, TimeUnit.SECONDS));
+		assertEquals(List.of(ProcessSupervisor.PRIORITY_HIGH, ProcessSupervisor.PRIORITY_LOW), order);
+
+		for (ProcessSupervisor.Permit permit : permits)
+			permit.close();
+		assertEquals(0, supervisor.getRunning());
+		assertEquals(max + 2L, supervisor.getStats().get("supervisortest").getCount());
+	}
+
+	@Test
+	public void testAcquireInterrupted() throws IOException, InterruptedException {
+		ProcessSupervisor supervisor = ProcessSupervisor.get();
+		int max = 2 * Runtime.getRuntime().availableProcessors();
+
+		List<ProcessSupervisor.Permit> permits = new ArrayList<>();
+		for (int i = 0; i < max; i++)
+			permits.add(supervisor.acquire("interruptedtest", null));
+
+		// An interrupted waiter is not counted as rejected
+		List<IOException> errors = Collections.synchronizedList(new ArrayList<>());
+		Thread waiter = new Thread(() -> {
+			try (ProcessSupervisor.Permit permit = supervisor.acquire("interruptedtest", null)) {
+				// Nothing to do
+			} catch (IOException e) {
+				errors.add(e);
+			}
+		});
+		waiter.start();
+		while (supervisor.getWaiting() < 1)
+			Thread.sleep(10);
+		waiter.interrupt();
+		waiter.join(5000);
+
+		for (ProcessSupervisor.Permit permit : permits)
+			permit.close();
+		assertEquals(1, errors.size());
+		assertTrue(errors.get(0) instanceof InterruptedIOException);
+		assertEquals(0L, supervisor.getStats().get("interruptedtest").getRejected());
+	}
+
+	private static Thread waiter(ProcessSupervisor supervisor, int priority, List<Integer> order, CountDownLatch done) {
+		return new Thread(() -> {
+			try (ProcessSupervisor.Permit permit = supervisor.acquire("supervisortest", priority)) {
+				order.add(priority);
+			} catch (IOException e) {
+				// Nothing to do
+			} finally {
+				done.countDown();
+			}
+		});
+	}
+}
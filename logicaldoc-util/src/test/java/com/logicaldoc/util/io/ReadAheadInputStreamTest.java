@@ -0,0 +1,101 @@
+package com.logicaldoc.util.io;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class ReadAheadInputStreamTest {
+
+	private ExecutorService executor;
+
+	@Before
+	public void setUp() {
+		executor = Executors.newFixedThreadPool(2);
+	}
+
+	@After
+	public void tearDown() {
+		executor.shutdownNow();
+	}
+
+	@Test
+	public void testRead() throws IOException {
+		byte[] content = new byte[100000];
+		new Random().nextBytes(content);
+
+		try (InputStream is = new ReadAheadInputStream(new ByteArrayInputStream(content), 1024, 4, executor)) {
+			assertArrayEquals(content, is.readAllBytes());
+			assertEquals(-1, is.read());
+		}
+
+		// Chunk size multiple of the content length
+		content = new byte[4096];
+		new Random().nextBytes(content);
+		try (InputStream is = new ReadAheadInputStream(new ByteArrayInputStream(content), 1024, 2, executor)) {
+			assertEquals(content[0] & 0xff, is.read());
+			byte[] rest = is.readAllBytes();
+			assertEquals(content.length - 1, rest.length);
+			assertEquals(content[content.length - 1], rest[rest.length - 1]);
+		}
+
+		try (InputStream is = new ReadAheadInputStream(new ByteArrayInputStream(new byte[0]), 1024, 2, executor)) {
+			assertEquals(-1, is.read());
+		}
+	}
+
+	@Test(expected = IOException.class)
+	public void testError() throws IOException {
+		InputStream failing = new InputStream() {
+			@Override
+			public int read() throws IOException {
+				throw new IOException("read error");
+			}
+		};
+
+		try (InputStream is = new ReadAheadInputStream(failing, 16, 2, executor)) {
+			is.readAllBytes();
+		}
+	}
+
+	@Test(timeout = 10000)
+	public void testProducerInterrupted() throws IOException, InterruptedException {
+		ExecutorService producerExecutor = Executors.newSingleThreadExecutor();
+		try (InputStream is = new ReadAheadInputStream(new ByteArrayInputStream(new byte[1024 * 1024]), 16, 1,
+				producerExecutor)) {
+			// Let the producer fill the queue and block
+			Thread.sleep(300);
+			producerExecutor.shutdownNow();
+
+			// The consumer gets the queued chunk and then the error
+			assertEquals(16, is.readNBytes(16).length);
+			try {
+				is.readAllBytes();
+				fail("The interruption was not reported");
+			} catch (InterruptedIOException e) {
+				// All as expected
+			}
+		} finally {
+			producerExecutor.shutdownNow();
+		}
+	}
+
+	@Test
+	public void testCloseBeforeEnd() throws IOException {
+		byte[] content = new byte[1024 * 1024];
+		InputStream is = new ReadAheadInputStream(new ByteArrayInputStream(content), 1024, 2, executor);
+		assertEquals(1024, is.readNBytes(1024).length);
+		is.close();
+	}
+}
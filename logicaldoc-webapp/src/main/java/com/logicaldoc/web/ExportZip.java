@@ -1,6 +1,5 @@
 package com.logicaldoc.web;
 
-import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.OutputStream;
 import java.io.PrintWriter;
@@ -71,33 +70,27 @@ public class ExportZip extends HttpServlet {
 				exporter.setAllLevel(true);
 			}
 
-			try (ByteArrayOutputStream bos = getZipFileOutputStream(session, folderId, docIds, exporter)) {
-				String exportName = getExportName(folderId);
+			String exportName = getExportName(folderId);
 
-				response.setContentType("application/zip");
-				response.setContentLength(bos.size());
-				response.setHeader("Content-Disposition", "attachment; filename=\"" + exportName + ".zip\"");
+			response.setContentType("application/zip");
+			response.setHeader("Content-Disposition", "attachment; filename=\"" + exportName + ".zip\"");
 
-				// Headers required by MS Internet Explorer
-				response.setHeader("Pragma", "public");
-				response.setHeader("Cache-Control", "must-revalidate, post-check=0,pre-check=0");
-				response.setHeader("Expires", "0");
+			// Headers required by MS Internet Explorer
+			response.setHeader("Pragma", "public");
+			response.setHeader("Cache-Control", "must-revalidate, post-check=0,pre-check=0");
+			response.setHeader("Expires", "0");
 
-				try (OutputStream os = response.getOutputStream()) {
-					bos.flush();
-					os.write(bos.toByteArray());
-					os.flush();
-				}
+			// The archive is streamed directly to the client
+			try (OutputStream os = response.getOutputStream()) {
+				writeZip(session, folderId, docIds, exporter, os);
 			}
 		} catch (Exception e) {
 			log.error(e.getMessage(), e);
 		}
 	}
 
-	private ByteArrayOutputStream getZipFileOutputStream(Session session, String folderId, ArrayList<Long> docIds,
-			ZipExport exporter) throws PersistenceException {
-		ByteArrayOutputStream bos = null;
-
+	private void writeZip(Session session, String folderId, ArrayList<Long> docIds, ZipExport exporter,
+			OutputStream out) throws PersistenceException {
 		if (CollectionUtils.isNotEmpty(docIds)) {
 			// Create the document history event
 			DocumentHistory transaction = new DocumentHistory();
@@ -105,15 +98,14 @@ public class ExportZip extends HttpServlet {
 			transaction.setEvent(DocumentEvent.DOWNLOADED.toString());
 			transaction.setSession(session);
 
-			bos = exporter.process(docIds.toArray(new Long[0]), false, transaction);
+			exporter.process(docIds.toArray(new Long[0]), out, false, transaction);
 		} else {
 			FolderHistory transaction = new FolderHistory();
 			transaction.setFolderId(Long.parseLong(folderId));
 			transaction.setSession(session);
 
-			bos = exporter.process(transaction, false);
+			exporter.process(transaction, out, false);
 		}
-		return bos;
 	}
 
 	private String getExportName(String folderId) throws PersistenceException {
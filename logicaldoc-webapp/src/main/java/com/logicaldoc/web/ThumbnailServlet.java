@@ -99,10 +99,8 @@ public class ThumbnailServlet extends HttpServlet {
 			if(!allowedPermissions.contains(Permission.READ) || !allowedPermissions.contains(Permission.PREVIEW))
 				throw new PermissionException(user.getUsername(), doc.toString(), Permission.PREVIEW);
 					
-			String resource = store.getResourceName(docId, fileVersion, suffix);
-
 			// 2) prepare the thumbnail
-			createImageResource(session.getSid(), doc, fileVersion, resource);
+			createImageResource(session.getSid(), doc, fileVersion, suffix);
 
 			// 3) return the the thumbnail resource
 			ServletUtil.downloadDocument(request, response, session.getSid(), docId, fileVersion,
@@ -136,66 +134,27 @@ public class ThumbnailServlet extends HttpServlet {
 
 	/**
 	 * Creates the image resource according to the specified format storing it
-	 * in the repository for future access.
+	 * in the repository for future access. The rendering is done by the
+	 * {@link ThumbnailManager} that also produces the other missing standard
+	 * images in the same pass.
 	 */
-	protected void createImageResource(String sid, Document doc, String fileVersion, String resource) {
-
-		// In any case try to produce the thumbnail
-		buildThumbnail(sid, doc, fileVersion, resource);
-
-		if (resource.endsWith(ThumbnailManager.SUFFIX_THUMB))
-			return;
-		if (resource.endsWith(ThumbnailManager.SUFFIX_TILE)) {
-			createTileImage(sid, doc, fileVersion, resource);
-		} else if (resource.contains(ThumbnailManager.THUMB)) {
-			createThumbnailImage(sid, doc, fileVersion, resource);
-		} else
-			log.error("Unknow resource {}", resource);
-	}
-
-	private void createThumbnailImage(String sid, Document doc, String fileVersion, String resource) {
+	protected void createImageResource(String sid, Document doc, String fileVersion, String suffix) {
 		Store store = Context.get(Store.class);
-		if (store.size(doc.getId(), resource) <= 0L) {
-			try {
-				/*
-				 * In this case the resource is like thumn450.png so we extract
-				 * the size from the name
-				 */
-				String sizeStr = resource.substring(resource.indexOf('-') + 6, resource.lastIndexOf('.'));
-				ThumbnailManager thumbManager = Context.get(ThumbnailManager.class);
-				thumbManager.createTumbnail(doc, fileVersion, Integer.parseInt(sizeStr), null, sid);
-				log.debug("Created custom thumbnail {}", resource);
-			} catch (Exception t) {
-				log.error(t.getMessage(), t);
-			}
-		}
-	}
+		String resource = store.getResourceName(doc, fileVersion, suffix);
+		if (store.size(doc.getId(), resource) > 0L)
+			return;
 
-	private void createTileImage(String sid, Document doc, String fileVersion, String resource) {
-		Store store = Context.get(Store.class);
-		String tileResource = store.getResourceName(doc, fileVersion, ThumbnailManager.SUFFIX_TILE);
-		if (store.size(doc.getId(), tileResource) <= 0L) {
-			try {
-				ThumbnailManager thumbManager = Context.get(ThumbnailManager.class);
-				thumbManager.createTile(doc, fileVersion, sid);
-				log.debug("Created tile {}", resource);
-			} catch (Exception t) {
-				log.error(t.getMessage(), t);
-			}
+		if (!ThumbnailManager.isSupported(suffix)) {
+			log.error("Unknow resource {}", resource);
+			return;
 		}
-	}
 
-	private void buildThumbnail(String sid, Document doc, String fileVersion, String resource) {
-		Store store = Context.get(Store.class);
-		ThumbnailManager thumbManager = Context.get(ThumbnailManager.class);
-		String thumbResource = store.getResourceName(doc, fileVersion, ThumbnailManager.SUFFIX_THUMB);
-		if (store.size(doc.getId(), thumbResource) <= 0) {
-			try {
-				thumbManager.createTumbnail(doc, fileVersion, sid);
-				log.debug("Created thumbnail {}", resource);
-			} catch (Exception t) {
-				log.error(t.getMessage(), t);
-			}
+		try {
+			ThumbnailManager thumbManager = Context.get(ThumbnailManager.class);
+			thumbManager.createImage(doc, fileVersion, suffix, sid);
+			log.debug("Created image {}", resource);
+		} catch (Exception t) {
+			log.error(t.getMessage(), t);
 		}
 	}
 }
\ No newline at end of file
@@ -91,6 +91,23 @@ public class DocumentsDataServlet extends AbstractDataServlet {
 
 	private static final long serialVersionUID = 1L;
 
+	/**
+	 * Key of the dictionary entry that remembers where the last page of
+	 * documents ended
+	 */
+	public static final String DOCUMENTS_CURSOR = "ld-documents-cursor";
+
+	/**
+	 * The fields the database can sort by, the value is the expression to use
+	 * in the query. The expressions never evaluate to null so they can also be
+	 * used as cursors: a null would not satisfy the comparison with the cursor
+	 * and the record would be skipped. The file name falls back to a blank
+	 * because Oracle treats the empty string as null.
+	 */
+	private static final Map<String, String> DATABASE_SORTING = Map.of("id", "A.id", "fileName",
+			"lower(coalesce(A.fileName, ' '))", "fileSize", "coalesce(A.fileSize, 0)", "size",
+			"coalesce(A.fileSize, 0)", "lastModified", "A.lastModified", "creation", "A.creation");
+
 	@Override
 	protected void service(HttpServletRequest request, HttpServletResponse response, Session session, Integer max,
 			Locale locale) throws PersistenceException, IOException {
@@ -349,34 +366,141 @@ public class DocumentsDataServlet extends AbstractDataServlet {
 
 		String filename = getFilename(request);
 
-		retrieveExtendedAttributesValues(locale, extendedAttributes, extendedAttributesSpec, extendedAttributesValues,
-				folderId, formId);
+		List<String[]> order = getDatabaseOrder(sort);
 
 		/*
-		 * Execute the Query
+		 * Prepare the Query
 		 */
-		List<Document> documents = exeucuteQuey(request, extendedAttributes, extendedAttributesValues, sessionUser,
-				folderId, formId, filename);
+		Map<String, Object> params = new HashMap<>();
+		String query = prepareQuery(request, sessionUser, folderId, formId, filename,
+				order != null && !order.isEmpty() ? order.get(0)[0] : "A.id", params);
+
+		if (order != null) {
+			/*
+			 * The database can sort the documents, so we just retrieve the
+			 * current page
+			 */
+			List<Object[]> records = query != null ? findPage(session, query, params, order, maxRecords, page)
+					: new ArrayList<>();
+			retrieveExtendedAttributesValues(locale, extendedAttributes, extendedAttributesSpec,
+					extendedAttributesValues, folderId, formId,
+					records.stream().map(cols -> (Long) cols[0]).toList());
+			documentsInCurrentPage
+					.addAll(enrichRecords(records, extendedAttributes, extendedAttributesValues, sessionUser));
+		} else {
+			retrieveExtendedAttributesValues(locale, extendedAttributes, extendedAttributesSpec,
+					extendedAttributesValues, folderId, formId, null);
 
-		// If a sorting is specified sort the collection of documents
-		sortDocuments(documents, sort);
+			List<Object[]> records = query != null ? Context.get(DocumentDAO.class).findByQuery(query, params, null)
+					: new ArrayList<>();
+			List<Document> documents = enrichRecords(records, extendedAttributes, extendedAttributesValues,
+					sessionUser);
 
-		takeDocumentsInCurrentPage(documents, documentsInCurrentPage, maxRecords, page);
+			// If a sorting is specified sort the collection of documents
+			sortDocuments(documents, sort);
+
+			takeDocumentsInCurrentPage(documents, documentsInCurrentPage, maxRecords, page);
+		}
 
 		Long hiliteDocId = getHiliteDocId(request);
 
 		return retrieveHiliteDoc(documentsInCurrentPage, folderId, hiliteDocId);
 	}
 
-	private List<Document> exeucuteQuey(HttpServletRequest request, List<String> extendedAttributes,
-			final Map<String, Object> extendedAttributesValues, User user, Long folderId, Long formId, String filename)
-			throws PersistenceException {
+	/**
+	 * Translates the sort specification into the database ordering
+	 * 
+	 * @param sort the sort specification, like <code>fileName asc</code>
+	 * 
+	 * @return the list of expression and direction pairs, null if the sort
+	 *         cannot be done by the database
+	 */
+	private static List<String[]> getDatabaseOrder(String sort) {
+		List<String[]> order = new ArrayList<>();
+		if (StringUtils.isEmpty(sort))
+			return order;
+
+		StringTokenizer st = new StringTokenizer(sort, ",", false);
+		while (st.hasMoreTokens()) {
+			String[] tokens = st.nextToken().trim().split(" ");
+			String expression = DATABASE_SORTING.get(tokens[0].trim());
+			if (expression == null)
+				return null;
+			order.add(new String[] { expression,
+					tokens.length > 1 && "desc".equalsIgnoreCase(tokens[tokens.length - 1].trim()) ? "desc"
+							: "asc" });
+		}
+		return order;
+	}
+
+	/**
+	 * Retrieves just the records of the given page. If the page follows the
+	 * last one retrieved by the same query and the sorting is on a single
+	 * field, the query restarts right after the last record of the previous
+	 * page instead of skipping all the previous records.
+	 */
+	private List<Object[]> findPage(Session session, String query, Map<String, Object> params,
+			List<String[]> order, int maxRecords, int page) throws PersistenceException {
+		String key = order.isEmpty() ? "A.id" : order.get(0)[0];
+		boolean desc = !order.isEmpty() && "desc".equals(order.get(0)[1]);
+		boolean keyset = order.size() <= 1;
+		String orderBy = order.stream().map(o -> o[0] + " " + o[1]).collect(Collectors.joining(", "));
+		if (order.stream().noneMatch(o -> "A.id".equals(o[0])))
+			orderBy += (orderBy.isEmpty() ? "" : ", ") + "A.id " + (desc ? "desc" : "asc");
+
+		// The cursor can be used only by the same query with the same filters
+		String signature = maxRecords + ":" + query + ":" + params.get("fileName") + ":" + orderBy;
+
+		StringBuilder hql = new StringBuilder(query);
+		int first = (page - 1) * maxRecords;
+		DocumentsCursor cursor = (DocumentsCursor) session.getDictionary().get(DOCUMENTS_CURSOR);
+		if (keyset && cursor != null && cursor.page == page - 1 && cursor.signature.equals(signature)) {
+			String operator = desc ? " < " : " > ";
+			if ("A.id".equals(key)) {
+				hql.append(" and A.id" + operator + ":cid ");
+			} else {
+				hql.append(" and (" + key + operator + ":ckey or (" + key + " = :ckey and A.id" + operator
+						+ ":cid)) ");
+				params.put("ckey", cursor.key);
+			}
+			params.put("cid", cursor.id);
+			first = 0;
+		}
+
+		// The ID makes the order deterministic so the pages do not overlap
+		hql.append(" order by " + orderBy);
+
+		List<Object[]> records = Context.get(DocumentDAO.class).findByQuery(hql.toString(), params, first,
+				maxRecords);
+
+		Object[] last = !records.isEmpty() ? records.get(records.size() - 1) : null;
+		if (keyset && last != null && last[last.length - 1] != null)
+			session.getDictionary().put(DOCUMENTS_CURSOR,
+					new DocumentsCursor(signature, page, last[last.length - 1], (Long) last[0]));
+		else
+			session.getDictionary().remove(DOCUMENTS_CURSOR);
+		return records;
+	}
+
+	/**
+	 * Prepares the query of the documents, the last selected column is the
+	 * given sort key
+	 * 
+	 * @return the query or null if there are no filters to apply
+	 */
+	private String prepareQuery(HttpServletRequest request, User user, Long folderId, Long formId, String filename,
+			String sortKey, Map<String, Object> params) throws PersistenceException {
+		if (folderId == null && filename == null && formId == null
+				&& StringUtils.isEmpty(request.getParameter(INDEXED)))
+			return null;
 
-		DocumentDAO dao = Context.get(DocumentDAO.class);
 		StringBuilder query = new StringBuilder("""
 select A.id, A.customId, A.docRef, A.type, A.version, A.lastModified, A.date, A.publisher, A.creation, A.creator, A.fileSize, A.immutable, A.indexed, A.lockUserId, A.fileName, A.status,
        A.signed, A.type, A.rating, A.fileVersion, A.comment, A.workflowStatus, A.startPublishing, A.stopPublishing, A.published, A.extResId, B.name, A.docRefType, A.stamped, A.lockUser,
-       A.password, A.pages, A.workflowStatusDisplay, A.language, A.links+A.docAttrs, A.tgs, A.creatorId, A.publisherId, A.color, A.folder.id, A.tenantId, A.lastNote
+       A.password, A.pages, A.workflowStatusDisplay, A.language, A.links+A.docAttrs, A.tgs, A.creatorId, A.publisherId, A.color, A.folder.id, A.tenantId, A.lastNote,""");
+		query.append(" " + sortKey);
+		query.append("""
+
   from Document as A
   left outer join A.template as B
  where A.deleted = 0
@@ -399,18 +523,39 @@ select A.id, A.customId, A.docRef, A.type, A.version, A.lastModified, A.date, A.
 		if (StringUtils.isNotEmpty(request.getParameter(INDEXED)))
 			query.append(" and A.indexed=" + request.getParameter(INDEXED));
 
-		Map<String, Object> params = new HashMap<>();
 		if (filename != null) {
 			query.append(" and lower(A.fileName) like :fileName ");
 			params.put("fileName", "%" + filename.toLowerCase() + "%");
 		}
 
-		List<?> records = new ArrayList<>();
-		if (folderId != null || filename != null || formId != null
-				|| StringUtils.isNotEmpty(request.getParameter(INDEXED)))
-			records = dao.findByQuery(query.toString(), params, null);
+		/*
+		 * The aliases are checked against the referenced document here, so the
+		 * page retrieved from the database does not lose records later
+		 */
+		String alias = "(A.docRef is not null and A.docRef <> 0)";
+		String target = "exists (select R.id from Document R where R.id = A.docRef and R.deleted = 0";
+		if (user.isMemberOf(Group.GROUP_ADMIN) || user.isMemberOf("publisher")) {
+			query.append(" and (not " + alias + " or " + target + ")) ");
+		} else {
+			query.append(" and ((" + alias + " and " + target + " and " + publishing("R") + "))");
+			query.append(" or (not " + alias + " and " + publishing("A") + ")) ");
+			params.put("now", new Date());
+		}
+
+		return query.toString();
+	}
 
-		return enrichRecords(records, extendedAttributes, extendedAttributesValues, user);
+	/**
+	 * Condition satisfied by the documents being published now
+	 * 
+	 * @param entity the alias of the document in the query
+	 * 
+	 * @return the condition, it uses the parameter <code>now</code>
+	 */
+	private static String publishing(String entity) {
+		return "(" + entity + ".published = 1 and (" + entity + ".startPublishing is null or " + entity
+				+ ".startPublishing <= :now) and (" + entity + ".stopPublishing is null or " + entity
+				+ ".stopPublishing > :now))";
 	}
 
 	/**
@@ -628,23 +773,37 @@ select ld_docid
 	}
 
 	private void retrieveExtendedAttributesValues(Locale locale, List<String> extendedAttributes,
-			String extendedAttributesSpec, final Map<String, Object> extAttributesValues, Long folderId, Long formId)
-			throws PersistenceException {
+			String extendedAttributesSpec, final Map<String, Object> extAttributesValues, Long folderId, Long formId,
+			List<Long> docIds) throws PersistenceException {
 		DocumentDAO dao = Context.get(DocumentDAO.class);
-		if (extendedAttributes.isEmpty())
+		if (extendedAttributes.isEmpty() || (docIds != null && docIds.isEmpty()))
 			return;
 
 		log.debug("Search for extended attributes {}", extendedAttributesSpec);
 
 		StringBuilder query = new StringBuilder(
 				"select ld_docid, ld_name, ld_type, ld_stringvalue, ld_intvalue, ld_doublevalue, ld_datevalue, ld_stringvalues ");
-		query.append(" from ld_document_ext where ld_docid in (");
-		query.append("select D.ld_id from ld_document D where D.ld_deleted=0 ");
-		if (folderId != null)
-			query.append(" and D.ld_folderid=" + Long.toString(folderId));
-		if (formId != null)
-			query.append(" and D.ld_formid=" + Long.toString(formId));
-		query.append(") and ld_name in ");
+		query.append(" from ld_document_ext where ");
+		if (docIds != null) {
+			// Just the documents of the current page
+			query.append("(");
+			for (int i = 0; i < docIds.size(); i += 1000) {
+				if (i > 0)
+					query.append(" or ");
+				query.append("ld_docid in ");
+				query.append(docIds.subList(i, Math.min(i + 1000, docIds.size())).toString().replace('[', '(')
+						.replace(']', ')'));
+			}
+			query.append(")");
+		} else {
+			query.append("ld_docid in (select D.ld_id from ld_document D where D.ld_deleted=0 ");
+			if (folderId != null)
+				query.append(" and D.ld_folderid=" + Long.toString(folderId));
+			if (formId != null)
+				query.append(" and D.ld_formid=" + Long.toString(formId));
+			query.append(")");
+		}
+		query.append(" and ld_name in ");
 		query.append(extendedAttributes.toString().replace("[", "('").replace("]", "')").replace(",", "','")
 				.replace(" ", ""));
 
@@ -719,4 +878,25 @@ select ld_docid
 			page = Integer.parseInt(request.getParameter("page"));
 		return page;
 	}
+
+	/**
+	 * The sort key of the last document retrieved in a page
+	 */
+	private static class DocumentsCursor {
+
+		private final String signature;
+
+		private final int page;
+
+		private final Object key;
+
+		private final long id;
+
+		private DocumentsCursor(String signature, int page, Object key, long id) {
+			this.signature = signature;
+			this.page = page;
+			this.key = key;
+			this.id = id;
+		}
+	}
 }
\ No newline at end of file
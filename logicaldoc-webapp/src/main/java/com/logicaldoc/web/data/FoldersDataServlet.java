@@ -42,6 +42,18 @@ public class FoldersDataServlet extends AbstractDataServlet {
 
 	public static final String FOLDER_START_RECORD = "ld-folder-start-gridRecord";
 
+	/**
+	 * Key of the dictionary entry that remembers where the last page of
+	 * subfolders ended
+	 */
+	public static final String FOLDER_CURSOR = "ld-folder-cursor";
+
+	/**
+	 * The name is nullable, so it is sorted with a blank in place of null
+	 * otherwise the unnamed folders would not satisfy the keyset condition
+	 */
+	private static final String NAME_KEY = "coalesce(ld_name, ' ')";
+
 	private static final long serialVersionUID = 1L;
 
 	@Override
@@ -94,35 +106,68 @@ public class FoldersDataServlet extends AbstractDataServlet {
 
 	private void printFolders(PrintWriter writer, Session session, long tenantId, String tenantName, String parent,
 			Folder parentFolder, User user, Long startRecord, Long endRecord) throws PersistenceException {
-		StringBuilder query = prepareQuery(session, tenantName, parentFolder, user);
+		boolean sortByName = "name"
+				.equals(Context.get().getProperties().getProperty(tenantName + ".gui.folder.sorting"));
+		String cursorKey = FOLDER_CURSOR + ":" + parentFolder.getId();
+
+		/*
+		 * If the requested page is the one that follows the last page we
+		 * printed, the query restarts right after the last printed folder
+		 * instead of skipping all the folders of the previous pages
+		 */
+		FolderCursor cursor = (FolderCursor) session.getDictionary().get(cursorKey);
+		if (cursor != null && (startRecord == null || cursor.next != startRecord || cursor.sortByName != sortByName))
+			cursor = null;
+
+		Map<String, Object> params = new HashMap<>();
+		params.put("parentId", parentFolder.getId());
+		params.put("tenantId", tenantId);
+		StringBuilder query = prepareQuery(session, parentFolder, user, sortByName, cursor, params);
+
+		long first = cursor != null ? cursor.next : 0L;
+		long start = startRecord != null ? startRecord : 0L;
+		Integer maxRows = endRecord != null && endRecord - first < Integer.MAX_VALUE
+				? (int) (endRecord - first + 1)
+				: null;
+
+		FolderCursor last = new FolderCursor(sortByName);
 		FolderDAO folderDao = Context.get(FolderDAO.class);
-		folderDao.queryForResultSet(query.toString(), Map.of("parentId", parentFolder.getId(), "tenantId", tenantId),
-				null, rows -> {
-					long i = 0;
-					while (rows.next()) {
-						if ((startRecord != null && i < startRecord) || (endRecord != null && i > endRecord)) {
-							i++;
-							continue;
-						}
-
-						writer.print("<folder>");
-						writer.print("<id>" + parent + "-" + rows.getLong(1) + "</id>");
-						writer.print("<folderId>" + rows.getLong(1) + "</folderId>");
-						writer.print("<parentId>" + rows.getLong(2) + "</parentId>");
-						writer.print("<parent>" + parent + "</parent>");
-						writer.print("<name><![CDATA[" + rows.getString(3) + "]]></name>");
-						writer.print("<type>" + rows.getInt(4) + "</type>");
-						printFoldRef(writer, rows);
-						printCustomIcon(writer, rows);
-						writer.print("<status>0</status>");
-						writer.print("<publishedStatus>yes</publishedStatus>");
-						printColor(writer, rows);
-						writer.print("<position>" + rows.getInt(7) + "</position>");
-						writer.print("</folder>");
-
-						i++;
-					}
-				});
+		folderDao.queryForResultSet(query.toString(), params, maxRows, rows -> {
+			long i = first;
+			while (rows.next()) {
+				if (i < start) {
+					i++;
+					continue;
+				}
+
+				writer.print("<folder>");
+				writer.print("<id>" + parent + "-" + rows.getLong(1) + "</id>");
+				writer.print("<folderId>" + rows.getLong(1) + "</folderId>");
+				writer.print("<parentId>" + rows.getLong(2) + "</parentId>");
+				writer.print("<parent>" + parent + "</parent>");
+				writer.print("<name><![CDATA[" + rows.getString(3) + "]]></name>");
+				writer.print("<type>" + rows.getInt(4) + "</type>");
+				printFoldRef(writer, rows);
+				printCustomIcon(writer, rows);
+				writer.print("<status>0</status>");
+				writer.print("<publishedStatus>yes</publishedStatus>");
+				printColor(writer, rows);
+				writer.print("<position>" + rows.getInt(7) + "</position>");
+				writer.print("</folder>");
+
+				i++;
+				last.next = i;
+				last.id = rows.getLong(1);
+				last.position = rows.getInt(7);
+				last.name = rows.getString(3) != null ? rows.getString(3) : " ";
+				last.creation = rows.getTimestamp(8);
+			}
+		});
+
+		if (last.next > 0 && (sortByName || last.creation != null))
+			session.getDictionary().put(cursorKey, last);
+		else
+			session.getDictionary().remove(cursorKey);
 	}
 
 	private void printColor(PrintWriter writer, ResultSet rs) throws SQLException {
@@ -187,18 +232,33 @@ public class FoldersDataServlet extends AbstractDataServlet {
 		}
 	}
 
-	private StringBuilder prepareQuery(Session session, String tenantName, Folder parentFolder, User user)
-			throws PersistenceException {
+	private StringBuilder prepareQuery(Session session, Folder parentFolder, User user, boolean sortByName,
+			FolderCursor cursor, Map<String, Object> params) throws PersistenceException {
 		StringBuilder query = new StringBuilder(
-				"select ld_id, ld_parentid, ld_name, ld_type, ld_foldref, ld_color, ld_position from ld_folder where ld_deleted=0 and ld_hidden=0 and not ld_id=ld_parentid and ld_parentid = :parentId and ld_tenantid = :tenantId ");
+				"select ld_id, ld_parentid, ld_name, ld_type, ld_foldref, ld_color, ld_position, ld_creation from ld_folder where ld_deleted=0 and ld_hidden=0 and not ld_id=ld_parentid and ld_parentid = :parentId and ld_tenantid = :tenantId ");
 		if (!user.isMemberOf(Group.GROUP_ADMIN) && parentFolder != null) {
 			addReadConditions(query, session, parentFolder);
 		}
+
+		if (cursor != null) {
+			// Keyset condition: only the folders that come after the cursor
+			query.append(" and (ld_position > :cpos or (ld_position = :cpos and ");
+			if (sortByName)
+				query.append("(" + NAME_KEY + " > :ckey or (" + NAME_KEY + " = :ckey and ld_id > :cid))");
+			else
+				query.append("(ld_creation < :ckey or (ld_creation = :ckey and ld_id < :cid))");
+			query.append(")) ");
+			params.put("cpos", cursor.position);
+			params.put("ckey", sortByName ? cursor.name : cursor.creation);
+			params.put("cid", cursor.id);
+		}
+
+		// The ID makes the order deterministic so the cursor can rely on it
 		query.append(" order by ld_position asc, ");
-		if ("name".equals(Context.get().getProperties().getProperty(tenantName + ".gui.folder.sorting")))
-			query.append(" ld_name asc ");
+		if (sortByName)
+			query.append(" " + NAME_KEY + " asc, ld_id asc ");
 		else
-			query.append(" ld_creation desc ");
+			query.append(" ld_creation desc, ld_id desc ");
 		return query;
 	}
 
@@ -328,4 +388,27 @@ public class FoldersDataServlet extends AbstractDataServlet {
 		}
 		return null;
 	}
+
+	/**
+	 * The position of the last folder printed in a page, used to start the
+	 * next page without counting all the previous folders
+	 */
+	private static class FolderCursor {
+
+		private final boolean sortByName;
+
+		private long next = 0;
+
+		private long id;
+
+		private int position;
+
+		private String name;
+
+		private Date creation;
+
+		private FolderCursor(boolean sortByName) {
+			this.sortByName = sortByName;
+		}
+	}
 }
\ No newline at end of file
@@ -2895,6 +2895,9 @@ public class DocumentServiceImpl extends AbstractRemoteService implements Docume
 		List<Long> duplicatedIds = duplications.stream().map(d -> d.getId()).toList();
 
 		log.warn("Deleting the duplicated documents {}", duplicatedIds);
+		Map<String, Long> tagDeltas = new HashMap<>();
+		docDao.countTagsOfDocuments(duplicatedIds).forEach((tag, count) -> tagDeltas.put(tag, -count));
+
 		StringBuilder updateStatement = new StringBuilder("update ld_document set ld_deleted=1 where ");
 		if (docDao.isOracle()) {
 			/*
@@ -2918,6 +2921,7 @@ public class DocumentServiceImpl extends AbstractRemoteService implements Docume
 			updateStatement.append(duplicatedIds.toString().replace('[', '(').replace(']', ')'));
 		}
 		docDao.jdbcUpdate(updateStatement.toString());
+		docDao.updateUniqueTags(maintainedDoc.getTenantId(), tagDeltas);
 
 		log.debug("Prepare the histories");
 		for (Document doc : duplications) {
@@ -1383,6 +1383,9 @@ public class SecurityServiceImpl extends AbstractRemoteService implements Securi
 		if (session.getTenantId() != Tenant.DEFAULT_ID)
 			return new ArrayList<>();
 
+		// Make sure the database reflects the current counters
+		LoginThrottle.persist();
+
 		ContextProperties config = Context.get().getProperties();
 		SequenceDAO dao = Context.get(SequenceDAO.class);
 		List<Sequence> seqs = new ArrayList<>();
@@ -1442,6 +1445,9 @@ public class SecurityServiceImpl extends AbstractRemoteService implements Securi
 		SequenceDAO dao = Context.get(SequenceDAO.class);
 		try {
 			for (long id : ids) {
+				Sequence seq = dao.findById(id);
+				if (seq != null)
+					LoginThrottle.forget(seq.getName());
 				dao.delete(id);
 			}
 		} catch (PersistenceException e) {
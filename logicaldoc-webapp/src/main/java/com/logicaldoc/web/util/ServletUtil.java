@@ -5,6 +5,7 @@ import java.io.BufferedInputStream;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
@@ -16,6 +17,8 @@ import java.util.Arrays;
 import java.util.Calendar;
 import java.util.Date;
 import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.zip.GZIPOutputStream;
 
 import javax.servlet.ServletException;
@@ -32,7 +35,8 @@ import org.apache.commons.io.FileUtils;
 import org.apache.commons.io.IOUtils;
 import org.apache.commons.lang.StringUtils;
 import org.hsqldb.lib.StringUtil;
-import org.jfree.util.Log;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
 import com.logicaldoc.core.PersistenceException;
 import com.logicaldoc.core.document.Document;
@@ -63,6 +67,8 @@ import com.logicaldoc.util.plugin.PluginRegistry;
  */
 public class ServletUtil {
 
+	private static final Logger log = LoggerFactory.getLogger(ServletUtil.class);
+
 	private static final String CONTENT_RANGE = "Content-Range";
 
 	private static final int DEFAULT_BUFFER_SIZE = 10240; // ..bytes = 10KB.
@@ -71,6 +77,11 @@ public class ServletUtil {
 
 	private static final String USER = "user";
 
+	/**
+	 * The gzip copies currently being created, in the form docId/resource
+	 */
+	private static final Set<String> gzipInProgress = ConcurrentHashMap.newKeySet();
+
 	private ServletUtil() {
 	}
 
@@ -117,7 +128,7 @@ public class ServletUtil {
 		try {
 			userDao.initialize(user);
 		} catch (PersistenceException e) {
-			Log.warn(e.getMessage(), e);
+			log.warn(e.getMessage(), e);
 		}
 	}
 
@@ -248,11 +259,20 @@ public class ServletUtil {
 
 		long length = store.size(document.getId(), resource);
 		String contentType = MimeType.getByFilename(filename);
-		long lastModified = document.getDate().getTime();
-		String eTag = document.getId() + "_" + document.getVersion() + "_" + lastModified;
-		boolean acceptsGzip = false;
+		// Ancillary resources like thumbnails and conversions can be generated
+		// again after the document's last change
+		long lastModified = Math.max(document.getDate().getTime(),
+				store.getLastModified(document.getId(), resource));
+		String eTag = document.getId() + "_" + resource + "_" + lastModified + "_" + length;
+
+		// Let the client reuse its copy if it is still valid
+		if (isNotModified(request, eTag, lastModified)) {
+			setCacheHeaders(response, eTag, lastModified);
+			response.setStatus(HttpServletResponse.SC_NOT_MODIFIED);
+			return;
+		}
 
-		acceptsGzip = getAcceptEncoding(request, suffix);
+		boolean acceptsGzip = getAcceptEncoding(request, suffix) && isCompressible(contentType);
 
 		response.setContentType(contentType);
 		setContentDisposition(request, response, filename);
@@ -267,13 +287,9 @@ public class ServletUtil {
 
 		response.setBufferSize(DEFAULT_BUFFER_SIZE);
 		response.setHeader("Accept-Ranges", "bytes");
-		response.setHeader("ETag", eTag);
-		response.setDateHeader("Last-Modified", lastModified);
-
-		// Avoid resource caching
-		response.setHeader("Cache-Control", "no-cache,no-store,must-revalidate");
-		response.setHeader("Expires", "0");
-		response.setHeader("Pragma", "no-cache");
+		setCacheHeaders(response, eTag, lastModified);
+		if (isCompressible(contentType))
+			response.setHeader("Vary", "Accept-Encoding");
 
 		// Send requested file (part(s)) to client
 		// ------------------------------------------------
@@ -281,6 +297,8 @@ public class ServletUtil {
 		// Prepare streams.
 		boolean gstreamRequired = (ranges.isEmpty() || ranges.get(0) == rangeFull || ranges.get(0).length == length)
 				&& acceptsGzip;
+		String gzipVariant = gstreamRequired ? getGzipVariant(store, docId, resource) : null;
+		gstreamRequired = gstreamRequired && gzipVariant == null;
 
 		try (OutputStream output = gstreamRequired
 				? new GZIPOutputStream(response.getOutputStream(), DEFAULT_BUFFER_SIZE)
@@ -290,6 +308,11 @@ public class ServletUtil {
 				// The browser accepts GZIP, so GZIP the content.
 				response.setHeader("Content-Encoding", "gzip");
 				store.writeToStream(docId, resource, output);
+			} else if (gzipVariant != null) {
+				// Serve the already compressed copy as is
+				response.setHeader("Content-Encoding", "gzip");
+				response.setHeader("Content-Length", Long.toString(store.size(docId, gzipVariant)));
+				store.writeToStream(docId, gzipVariant, output);
 			} else if (ranges.size() == 1) {
 				// Return single part of file.
 				Range r = ranges.get(0);
@@ -336,6 +359,112 @@ public class ServletUtil {
 		saveHistory(request, sid, suffix, user, session, document, ranges);
 	}
 
+	/**
+	 * Checks the conditional headers <code>If-None-Match</code> and
+	 * <code>If-Modified-Since</code> of the request
+	 * 
+	 * @param request the current request
+	 * @param eTag the current entity tag of the resource
+	 * @param lastModified the last modification of the resource
+	 * 
+	 * @return true if the copy owned by the client is still valid
+	 */
+	static boolean isNotModified(HttpServletRequest request, String eTag, long lastModified) {
+		String ifNoneMatch = request.getHeader("If-None-Match");
+		if (ifNoneMatch != null) {
+			for (String tag : ifNoneMatch.split(",")) {
+				tag = StringUtils.removeStart(tag.trim(), "W/");
+				if ("*".equals(tag) || eTag.equals(StringUtils.strip(tag, "\"")))
+					return true;
+			}
+			// If-Modified-Since must be ignored when If-None-Match is present
+			return false;
+		}
+
+		if (request.getHeader("If-Modified-Since") != null) {
+			try {
+				long ifModifiedSince = request.getDateHeader("If-Modified-Since");
+				// HTTP dates have a precision of one second
+				return ifModifiedSince != -1 && lastModified / 1000 <= ifModifiedSince / 1000;
+			} catch (IllegalArgumentException e) {
+				// Invalid date, just ignore it
+			}
+		}
+		return false;
+	}
+
+	private static void setCacheHeaders(HttpServletResponse response, String eTag, long lastModified) {
+		response.setHeader("ETag", eTag);
+		response.setDateHeader("Last-Modified", lastModified);
+
+		// The client may keep a private copy but must always revalidate it
+		response.setHeader("Cache-Control", "private,no-cache,must-revalidate");
+	}
+
+	/**
+	 * Checks if it makes sense to compress a content of the given type, the
+	 * formats already compressed(images, archives, media, office documents
+	 * ...) do not gain anything
+	 * 
+	 * @param contentType the mime type
+	 * 
+	 * @return true if the content is text-like
+	 */
+	static boolean isCompressible(String contentType) {
+		if (contentType == null)
+			return false;
+		String type = contentType.toLowerCase();
+		if (type.startsWith("text/") || type.startsWith("image/svg"))
+			return true;
+		return type.startsWith("application/") && (type.contains("json") || type.endsWith("xml")
+				|| type.contains("javascript") || type.contains("rtf") || type.contains("postscript")
+				|| type.contains("x-sh") || type.contains("csv"));
+	}
+
+	/**
+	 * Gets the name of the gzip copy of a resource stored next to the original
+	 * one, creating it if the setting <code>download.gzip.cache</code> is
+	 * enabled. The copy's name starts with the file version so it gets removed
+	 * together with the other ancillary resources of the version.
+	 * 
+	 * @param store the store
+	 * @param docId identifier of the document
+	 * @param resource name of the original resource
+	 * 
+	 * @return the name of the compressed resource or null if not available
+	 */
+	private static String getGzipVariant(Store store, long docId, String resource) {
+		if (!Context.get().getProperties().getBoolean("download.gzip.cache", false))
+			return null;
+
+		String variant = resource + ".gz";
+		String key = docId + "/" + variant;
+		if (gzipInProgress.contains(key))
+			return null;
+		if (store.exists(docId, variant))
+			return variant;
+
+		if (!gzipInProgress.add(key))
+			return null;
+
+		File tmp = null;
+		try {
+			tmp = FileUtil.createTempFile("gzip", ".gz");
+			try (OutputStream out = new GZIPOutputStream(new FileOutputStream(tmp), DEFAULT_BUFFER_SIZE)) {
+				store.writeToStream(docId, resource, out);
+			}
+			store.store(tmp, docId, variant);
+			return variant;
+		} catch (IOException e) {
+			log.warn("Unable to create the compressed copy of " + resource, e);
+			store.delete(docId, variant);
+			return null;
+		} finally {
+			FileUtil.delete(tmp);
+			gzipInProgress.remove(key);
+		}
+	}
+
 	private static void initUser(User user) {
 		if (user != null)
 			try {
@@ -474,7 +603,7 @@ public class ServletUtil {
 			try {
 				hdao.store(history);
 			} catch (PersistenceException e) {
-				Log.warn(e.getMessage(), e);
+				log.warn(e.getMessage(), e);
 			}
 		}
 
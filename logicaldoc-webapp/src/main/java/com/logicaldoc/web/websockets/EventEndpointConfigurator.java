@@ -0,0 +1,77 @@
+package com.logicaldoc.web.websockets;
+
+import java.util.List;
+
+import javax.servlet.http.HttpSession;
+import javax.websocket.HandshakeResponse;
+import javax.websocket.server.HandshakeRequest;
+import javax.websocket.server.ServerEndpointConfig;
+
+import org.apache.commons.lang3.StringUtils;
+
+import com.logicaldoc.core.security.SessionManager;
+
+/**
+ * Detects the LogicalDOC session that is opening the websocket, so the
+ * {@link EventHub} can subscribe the peer to the events of its tenant only.
+ * The session ID is taken from the HTTP session or from the session cookie and
+ * handed to the endpoint instance created for the same connection, it is never
+ * put in the configuration because that may be shared by all the connections.
+ * A websocket without a session ID gets rejected by the {@link EventHub}.
+ *
+ * @author Marco Meschieri - LogicalDOC
+ * @since 9.1.1
+ */
+public class EventEndpointConfigurator extends ServerEndpointConfig.Configurator {
+
+	/**
+	 * The session ID detected by the handshake, the container creates the
+	 * endpoint instance right after the handshake in the same thread
+	 */
+	private static final ThreadLocal<String> handshakeSid = new ThreadLocal<>();
+
+	@Override
+	public void modifyHandshake(ServerEndpointConfig config, HandshakeRequest request, HandshakeResponse response) {
+		String sid = null;
+		if (request.getHttpSession() instanceof HttpSession httpSession)
+			sid = (String) httpSession.getAttribute(SessionManager.PARAM_SID);
+
+		if (StringUtils.isEmpty(sid))
+			sid = getSidFromCookies(request.getHeaders().get("Cookie"));
+
+		if (StringUtils.isNotEmpty(sid))
+			handshakeSid.set(sid);
+		else
+			handshakeSid.remove();
+	}
+
+	@Override
+	public <T> T getEndpointInstance(Class<T> endpointClass) throws InstantiationException {
+		String sid = handshakeSid.get();
+		handshakeSid.remove();
+
+		try {
+			T endpoint = endpointClass.getConstructor().newInstance();
+			if (endpoint instanceof EventEndpoint eventEndpoint)
+				eventEndpoint.setSid(sid);
+			return endpoint;
+		} catch (ReflectiveOperationException e) {
+			InstantiationException ie = new InstantiationException(e.getMessage());
+			ie.initCause(e);
+			throw ie;
+		}
+	}
+
+	private static String getSidFromCookies(List<String> headers) {
+		if (headers == null)
+			return null;
+
+		for (String header : headers)
+			for (String cookie : header.split(";")) {
+				String[] pair = cookie.trim().split("=", 2);
+				if (pair.length == 2 && SessionManager.COOKIE_SID.equals(pair[0]))
+					return pair[1];
+			}
+		return null;
+	}
+}
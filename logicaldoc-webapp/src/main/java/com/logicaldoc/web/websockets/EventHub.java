@@ -0,0 +1,414 @@
+package com.logicaldoc.web.websockets;
+
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+import javax.websocket.CloseReason;
+import javax.websocket.CloseReason.CloseCodes;
+import javax.websocket.SendHandler;
+import javax.websocket.SendResult;
+import javax.websocket.Session;
+
+import org.apache.commons.collections4.queue.CircularFifoQueue;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.gwt.user.client.rpc.SerializationException;
+import com.google.gwt.user.server.rpc.impl.ServerSerializationStreamWriter;
+import com.logicaldoc.core.PersistenceException;
+import com.logicaldoc.core.communication.EventCollector;
+import com.logicaldoc.core.communication.EventListener;
+import com.logicaldoc.core.document.Document;
+import com.logicaldoc.core.document.DocumentDAO;
+import com.logicaldoc.core.document.DocumentEvent;
+import com.logicaldoc.core.folder.FolderDAO;
+import com.logicaldoc.core.folder.FolderEvent;
+import com.logicaldoc.core.history.History;
+import com.logicaldoc.core.security.SessionManager;
+import com.logicaldoc.core.security.TenantDAO;
+import com.logicaldoc.core.security.user.UserEvent;
+import com.logicaldoc.core.security.user.UserHistory;
+import com.logicaldoc.gui.common.client.ServerException;
+import com.logicaldoc.gui.common.client.beans.GUIDocument;
+import com.logicaldoc.gui.common.client.beans.GUIFolder;
+import com.logicaldoc.gui.common.client.websockets.WebsocketMessage;
+import com.logicaldoc.util.Context;
+import com.logicaldoc.util.config.ContextProperties;
+import com.logicaldoc.web.service.DocumentServiceImpl;
+import com.logicaldoc.web.service.FolderServiceImpl;
+
+/**
+ * Distributes the events to the connected websockets. Only the websockets
+ * opened by a valid LogicalDOC session are accepted, they are subscribed to
+ * the events of their tenant and receive only the events of the folders they
+ * can read. When the session gets closed the websocket is closed too.<br>
+ * Each message is serialized once and queued to every recipient, the sending
+ * is asynchronous so a slow browser does not delay the others: when the queue
+ * of a peer exceeds <code>serverpush.queue</code> messages, the oldest ones
+ * get discarded.
+ *
+ * @author Marco Meschieri - LogicalDOC
+ * @since 9.1.1
+ */
+public class EventHub implements EventListener {
+
+	private static final Logger log = LoggerFactory.getLogger(EventHub.class);
+
+	private static final int FIFO_SIZE = 1000;
+
+	private static final String COMMAND = "command";
+
+	private static final Set<String> MONITORED_EVENTS = new HashSet<>(Arrays.asList(DocumentEvent.STORED.toString(),
+			DocumentEvent.CHANGED.toString(), DocumentEvent.CHECKEDIN.toString(), DocumentEvent.CHECKEDOUT.toString(),
+			DocumentEvent.IMMUTABLE.toString(), DocumentEvent.LOCKED.toString(), DocumentEvent.UNLOCKED.toString(),
+			DocumentEvent.SIGNED.toString(), DocumentEvent.STAMPED.toString(), DocumentEvent.MOVED.toString(),
+			DocumentEvent.DELETED.toString(), DocumentEvent.RENAMED.toString(), DocumentEvent.INDEXED.toString(),
+			DocumentEvent.RESTORED.toString(), DocumentEvent.PASSWORD_PROTECTED.toString(),
+			DocumentEvent.MOVED.toString(), DocumentEvent.PASSWORD_UNPROTECTED.toString(),
+			DocumentEvent.READING_CONFIRMED.toString(), DocumentEvent.READING_REQUESTRED.toString(),
+			FolderEvent.RENAMED.toString(), FolderEvent.CREATED.toString(), FolderEvent.CHANGED.toString(),
+			FolderEvent.MOVED.toString(), FolderEvent.DELETED.toString(), UserEvent.MESSAGE_RECEIVED.toString(),
+			UserEvent.LOGIN.toString(), UserEvent.LOGOUT.toString(), UserEvent.TIMEOUT.toString(),
+			"event.chat.newmessage"));
+
+	private static final EventHub instance = new EventHub();
+
+	// Maintain a fifos for the history IDs. Key is the class name, value is a
+	// FIFO queue
+	private final Map<String, Queue<Long>> fifos = new HashMap<>();
+
+	// The subscribed peers, key is the tenant ID
+	private final Map<Long, Set<Peer>> tenants = new ConcurrentHashMap<>();
+
+	// The subscribed peers, key is the websocket session ID
+	private final Map<String, Peer> peers = new ConcurrentHashMap<>();
+
+	private EventHub() {
+	}
+
+	public static EventHub get() {
+		return instance;
+	}
+
+	/**
+	 * Subscribes a websocket to the events of the tenant of its LogicalDOC
+	 * session. A websocket without a valid session is closed.
+	 *
+	 * @param session the websocket session
+	 */
+	public void subscribe(Session session) {
+		register();
+
+		String sid = session.getUserProperties() != null
+				? (String) session.getUserProperties().get(SessionManager.PARAM_SID)
+				: null;
+		com.logicaldoc.core.security.Session ldSession = sid != null ? SessionManager.get().get(sid) : null;
+		if (ldSession == null || !ldSession.isOpen()) {
+			log.debug("Rejected websocket {} without a valid session", session.getId());
+			close(session);
+			return;
+		}
+
+		Peer peer = new Peer(session, sid, ldSession.getTenantId(), ldSession.getUserId());
+		Peer old = peers.put(session.getId(), peer);
+		if (old != null)
+			tenantPeers(old.tenantId).remove(old);
+		tenantPeers(peer.tenantId).add(peer);
+	}
+
+	/**
+	 * Removes a websocket from the recipients of the events
+	 *
+	 * @param session the websocket session
+	 */
+	public void unsubscribe(Session session) {
+		Peer peer = peers.remove(session.getId());
+		if (peer != null)
+			tenantPeers(peer.tenantId).remove(peer);
+	}
+
+	private static void close(Session session) {
+		try {
+			session.close(new CloseReason(CloseCodes.VIOLATED_POLICY, "No valid session"));
+		} catch (IOException e) {
+			log.debug("Cannot close the websocket {}: {}", session.getId(), e.getMessage());
+		}
+	}
+
+	private Set<Peer> tenantPeers(long tenantId) {
+		return tenants.computeIfAbsent(tenantId, id -> ConcurrentHashMap.newKeySet());
+	}
+
+	private synchronized void register() {
+		EventCollector.get().addListener(this);
+	}
+
+	/**
+	 * Puts the history in the relative FIFO
+	 *
+	 * @param history
+	 * @return true if it was not remembered already, false otherwise
+	 */
+	private synchronized boolean rememberHistory(History history) {
+		Queue<Long> fifo = fifos.computeIfAbsent(history.getClass().getName(),
+				name -> new CircularFifoQueue<>(FIFO_SIZE));
+
+		if (fifo.contains(history.getId()))
+			return false;
+		else {
+			fifo.add(history.getId());
+			return true;
+		}
+	}
+
+	/**
+	 * Returns the number of canched events of the given type
+	 *
+	 * @param historyClass a class of History
+	 *
+	 * @return number of cached events
+	 */
+	public synchronized <T extends History> int countQueueSize(Class<T> historyClass) {
+		Queue<Long> fifo = fifos.get(historyClass.getName());
+		return fifo != null ? fifo.size() : 0;
+	}
+
+	@Override
+	public void newEvent(History event) {
+		ContextProperties config = Context.get().getProperties();
+
+		try {
+			if (event.getTenant() == null) {
+				TenantDAO tenantDAO = Context.get(TenantDAO.class);
+				event.setTenant(tenantDAO.getTenantName(event.getTenantId()));
+			}
+		} catch (PersistenceException e) {
+			log.warn("Cannot retrieve the name of tenant {}", event.getTenantId());
+		}
+
+		if (EventCollector.isEnabled() && config.getBoolean(event.getTenant() + ".gui.serverpush", false)
+				&& MONITORED_EVENTS.contains(event.getEvent()) && event.isNotifyEvent()) {
+
+			if (!rememberHistory(event))
+				return;
+
+			// Nobody would receive the message, so do not even prepare it
+			if (tenantPeers(event.getTenantId()).isEmpty())
+				return;
+
+			try {
+				WebsocketMessage message = prepareMessage(event);
+				distribute(message);
+			} catch (Exception e) {
+				if (log.isDebugEnabled())
+					log.debug("Skip sending the websocket message related to the event {}", event, e);
+			}
+		}
+	}
+
+	private WebsocketMessage prepareMessage(History event) throws PersistenceException, ServerException {
+		WebsocketMessage message = new WebsocketMessage(event.getSessionId(), event.getEvent());
+		message.setFolderId(event.getFolderId());
+		message.setDocId(event.getDocId());
+		message.setUserId(event.getUserId());
+		message.setUsername(event.getUserLogin());
+		message.setComment(event.getComment());
+		message.setDate(event.getDate());
+		message.setId(event.getId());
+		message.setTenantId(event.getTenantId());
+
+		if (event instanceof UserHistory userHistory)
+			message.setAuthor(userHistory.getAuthor());
+
+		GUIFolder folder = null;
+		if (event.getFolder() != null) {
+			String color = event.getFolder().getColor();
+			folder = new FolderServiceImpl().fromFolder(event.getFolder(), true);
+			folder.setColor(color);
+		} else if (event.getFolderId() != null)
+			folder = new FolderServiceImpl().getFolder(null, event.getFolderId(), true);
+		if (folder != null)
+			message.setFolder(folder);
+
+		GUIDocument document = null;
+		if (event.getDocument() != null && event.getDocument() instanceof Document doc) {
+			Document clone = new Document(doc);
+			// Report some attributes skipped by the clone method
+			clone.setCustomId(event.getDocument().getCustomId());
+			clone.setStatus(event.getDocument().getStatus());
+
+			// Put ID 0 in order to convert to GUIDocument without
+			// picking up ifos from DB
+			clone.setId(0L);
+			document = new DocumentServiceImpl().fromDocument(clone, null, null);
+			document.setId(event.getDocId());
+		} else if (event.getDocId() != null) {
+			DocumentDAO docDao = Context.get(DocumentDAO.class);
+			Document d = docDao.findById(event.getDocId());
+			if (d != null) {
+				document = new DocumentServiceImpl().fromDocument(d, null, null);
+			} else {
+				document = new GUIDocument();
+				document.setId(event.getDocId());
+				document.setFileName(event.getFilename());
+				document.setFolder(folder);
+			}
+		}
+
+		if (document != null && (event.getEvent().equals(DocumentEvent.CHECKEDOUT.toString())
+				|| event.getEvent().equals(DocumentEvent.LOCKED.toString()))) {
+			document.setLockUser(event.getUsername());
+			document.setLockUserId(event.getUserId());
+		}
+
+		message.setDocument(document);
+		return message;
+	}
+
+	/**
+	 * Distributes a message to the peers of its tenant that can see it
+	 *
+	 * @param message The message to be sent
+	 */
+	public void distribute(WebsocketMessage message) {
+		String serializedMessage;
+		try {
+			serializedMessage = serializeMessage(message);
+		} catch (SerializationException e) {
+			log.error("Error preparing websocket message {}", message.getEvent());
+			log.error(e.getMessage(), e);
+			return;
+		}
+
+		int capacity = Context.get().getProperties().getInt("serverpush.queue", 100);
+		for (Peer peer : tenantPeers(message.getTenantId()))
+			if (canSee(peer, message))
+				peer.send(message.getEvent(), serializedMessage, capacity);
+	}
+
+	private boolean canSee(Peer peer, WebsocketMessage message) {
+		// The session may have been closed after the subscription
+		com.logicaldoc.core.security.Session ldSession = SessionManager.get().get(peer.sid);
+		if (ldSession == null || !ldSession.isOpen()) {
+			log.debug("Closing the websocket {} whose session is not valid anymore", peer);
+			unsubscribe(peer.session);
+			close(peer.session);
+			return false;
+		}
+
+		// The commands are addressed to a specific session
+		if (COMMAND.equals(message.getEvent()))
+			return peer.sid.equals(message.getSid());
+
+		if (message.getFolderId() == null)
+			return true;
+
+		try {
+			return Context.get(FolderDAO.class).isReadAllowed(message.getFolderId(), peer.userId);
+		} catch (PersistenceException e) {
+			log.debug("Cannot check the permissions of user {} on folder {}", peer.userId, message.getFolderId());
+			return false;
+		}
+	}
+
+	private static String serializeMessage(final WebsocketMessage messageDto) throws SerializationException {
+		ServerSerializationStreamWriter serverSerializationStreamWriter = new ServerSerializationStreamWriter(
+				new SimpleSerializationPolicy());
+		serverSerializationStreamWriter.writeObject(messageDto);
+		return serverSerializationStreamWriter.toString();
+	}
+
+	/**
+	 * Counts the subscribed peers
+	 *
+	 * @return number of peers
+	 */
+	public int countPeers() {
+		return peers.size();
+	}
+
+	/**
+	 * A connected websocket with its queue of messages to send. Only one
+	 * message at a time is given to the container, the next one is sent when
+	 * the previous is completed.
+	 */
+	private static class Peer implements SendHandler {
+
+		private final Session session;
+
+		private final String sid;
+
+		private final long tenantId;
+
+		private final long userId;
+
+		private final Deque<String> outbox = new ArrayDeque<>();
+
+		private boolean sending = false;
+
+		private Peer(Session session, String sid, long tenantId, long userId) {
+			this.session = session;
+			this.sid = sid;
+			this.tenantId = tenantId;
+			this.userId = userId;
+		}
+
+		private void send(String event, String message, int capacity) {
+			synchronized (this) {
+				if (outbox.size() >= capacity) {
+					outbox.pollFirst();
+					log.debug("Peer {} is too slow, discarded an old message", session.getId());
+				}
+				outbox.addLast(message);
+				if (sending)
+					return;
+				sending = true;
+			}
+
+			log.debug("Sending websocket message {} to peer {}", event, session.getId());
+			sendNext();
+		}
+
+		private void sendNext() {
+			String message;
+			synchronized (this) {
+				message = outbox.pollFirst();
+				if (message == null) {
+					sending = false;
+					return;
+				}
+			}
+
+			try {
+				session.getAsyncRemote().sendText(message, this);
+			} catch (Exception e) {
+				log.debug("Cannot send websocket message to peer {}: {}", session.getId(), e.getMessage());
+				synchronized (this) {
+					outbox.clear();
+					sending = false;
+				}
+			}
+		}
+
+		@Override
+		public void onResult(SendResult result) {
+			if (!result.isOK())
+				log.debug("Error sending websocket message to peer {}: {}", session.getId(),
+						result.getException() != null ? result.getException().getMessage() : "");
+			sendNext();
+		}
+
+		@Override
+		public String toString() {
+			return session.getId() + " (tenant " + tenantId + ")";
+		}
+	}
+}
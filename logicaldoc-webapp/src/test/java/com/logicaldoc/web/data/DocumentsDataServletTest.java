@@ -1,6 +1,7 @@
 package com.logicaldoc.web.data;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertTrue;
 
 import java.io.IOException;
@@ -70,4 +71,40 @@ public class DocumentsDataServletTest extends AbstractDataServletTestCase {
 		output = response.getOutputString();
 		assertEquals("<list></list>", output);
 	}
+
+	@Test
+	public void testServicePaged() throws IOException {
+		MockServletRequest mockRequest = new MockServletRequest(servletSession);
+		mockRequest.setParameter("page", "1");
+		mockRequest.setParameter("max", "2");
+		mockRequest.setParameter("folderId", "5");
+		mockRequest.setParameter("sort", "id asc");
+
+		MockServletResponse response = new MockServletResponse(responseFile);
+		testSubject.service(mockRequest, response);
+		response.flushBuffer();
+
+		String output = response.getOutputString();
+		assertTrue(output.contains("<id>1</id>"));
+		assertTrue(output.contains("<id>2</id>"));
+		assertFalse(output.contains("<id>3</id>"));
+
+		// The second page starts after the last document of the first one
+		mockRequest = new MockServletRequest(servletSession);
+		mockRequest.setParameter("page", "2");
+		mockRequest.setParameter("max", "2");
+		mockRequest.setParameter("folderId", "5");
+		mockRequest.setParameter("sort", "id asc");
+
+		response.clear();
+		response = new MockServletResponse(responseFile);
+		testSubject.service(mockRequest, response);
+		response.flushBuffer();
+
+		output = response.getOutputString();
+		assertFalse(output.contains("<id>2</id>"));
+		assertTrue(output.contains("<id>3</id>"));
+		assertTrue(output.contains("<id>4</id>"));
+		assertFalse(output.contains("<id>5</id>"));
+	}
 }
\ No newline at end of file
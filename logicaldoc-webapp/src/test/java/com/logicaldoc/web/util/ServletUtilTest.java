@@ -1,6 +1,7 @@
 package com.logicaldoc.web.util;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertNotNull;
 import static org.junit.Assert.assertTrue;
 import static org.junit.Assert.fail;
@@ -152,6 +153,37 @@ public class ServletUtilTest extends AbstractFulltextTestCase {
 		assertEquals(127810L, RESPONSE_OUTPUT.length());
 	}
 
+	@Test
+	public void testDownloadDocumentNotModified()
+			throws InvalidSessionException, IOException, PersistenceException, ServletException {
+		Session session = ServletUtil.validateSession(mockRequest);
+		MockServletResponse mockResponse = new MockServletResponse(RESPONSE_OUTPUT);
+		ServletUtil.downloadDocument(mockRequest, mockResponse, session.getSid(), 1L, "1.0", "test.txt", null,
+				ServletUtil.getSessionUser(mockRequest));
+		String eTag = mockResponse.getHeaders().get("ETag");
+		assertNotNull(eTag);
+		assertEquals(127810L, RESPONSE_OUTPUT.length());
+
+		// The client already has the same version
+		FileUtil.delete(RESPONSE_OUTPUT);
+		mockRequest.setHeader("If-None-Match", "\"" + eTag + "\"");
+		ServletUtil.downloadDocument(mockRequest, mockResponse, session.getSid(), 1L, "1.0", "test.txt", null,
+				ServletUtil.getSessionUser(mockRequest));
+		assertEquals(0L, RESPONSE_OUTPUT.length());
+
+		// The client has an old version
+		mockRequest.setHeader("If-None-Match", "\"1_1.0_0\"");
+		ServletUtil.downloadDocument(mockRequest, mockResponse, session.getSid(), 1L, "1.0", "test.txt", null,
+				ServletUtil.getSessionUser(mockRequest));
+		assertEquals(127810L, RESPONSE_OUTPUT.length());
+		mockRequest.removeHeader("If-None-Match");
+
+		assertTrue(ServletUtil.isCompressible("text/plain"));
+		assertTrue(ServletUtil.isCompressible("application/json"));
+		assertFalse(ServletUtil.isCompressible("application/zip"));
+		assertFalse(ServletUtil.isCompressible("image/jpeg"));
+	}
+
 	@Test
 	public void testGetSelfURL() {
 		String selfUrl = ServletUtil.getSelfURL(mockRequest);
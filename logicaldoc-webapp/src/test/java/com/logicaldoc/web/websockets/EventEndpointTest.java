@@ -1,11 +1,19 @@
 package com.logicaldoc.web.websockets;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
 
 import java.io.IOException;
 import java.sql.SQLException;
+import java.util.List;
+import java.util.Map;
 
-import javax.websocket.Session;
+import javax.websocket.HandshakeResponse;
+import javax.websocket.server.HandshakeRequest;
+import javax.websocket.server.ServerEndpointConfig;
 
 import org.junit.After;
 import org.junit.Before;
@@ -16,8 +24,14 @@ import com.logicaldoc.core.document.DocumentEvent;
 import com.logicaldoc.core.document.DocumentHistory;
 import com.logicaldoc.core.folder.Folder;
 import com.logicaldoc.core.history.History;
+import com.logicaldoc.core.security.Client;
+import com.logicaldoc.core.security.Session;
+import com.logicaldoc.core.security.SessionManager;
 import com.logicaldoc.core.security.user.UserEvent;
 import com.logicaldoc.core.security.user.UserHistory;
+import com.logicaldoc.gui.common.client.websockets.WebsocketMessage;
+import com.logicaldoc.util.Context;
+import com.logicaldoc.util.config.ContextProperties;
 import com.logicaldoc.util.plugin.PluginException;
 import com.logicaldoc.web.AbstractWebappTestCase;
 
@@ -26,11 +40,12 @@ public class EventEndpointTest extends AbstractWebappTestCase {
 	// Instance under test
 	private EventEndpoint endpoint = new EventEndpoint();
 
-	private Session websocketSession = new MockWebsocketSession();
+	private MockWebsocketSession websocketSession;
 
 	@Before
 	public void setUp() throws IOException, SQLException, PluginException {
 		super.setUp();
+		websocketSession = new MockWebsocketSession("xxx", guiSession.getSid());
 		endpoint.error(websocketSession, new Exception("test exception"));
 		endpoint.onOpen(websocketSession);
 		endpoint.onMessage("message", websocketSession);
@@ -46,6 +61,7 @@ public class EventEndpointTest extends AbstractWebappTestCase {
 	@Test
 	public void testNewEvent() {
 		endpoint.error(null, new Exception("test exception"));
+		assertEquals(1, EventHub.get().countPeers());
 
 		Folder folder = new Folder("test");
 		folder.setId(4L);
@@ -109,4 +125,151 @@ public class EventEndpointTest extends AbstractWebappTestCase {
 		endpoint.newEvent(history);
 		assertEquals(1, endpoint.countQueueSize(UserHistory.class));
 	}
+
+	@Test
+	public void testRejectWithoutSession() {
+		MockWebsocketSession anonymous = new MockWebsocketSession("anonymous", null);
+		endpoint.onOpen(anonymous);
+		assertFalse(anonymous.isOpen());
+
+		MockWebsocketSession unknown = new MockWebsocketSession("unknown", "unknown-sid");
+		endpoint.onOpen(unknown);
+		assertFalse(unknown.isOpen());
+
+		assertEquals(1, EventHub.get().countPeers());
+	}
+
+	@Test
+	public void testHandshakes() throws InstantiationException {
+		EventEndpointConfigurator configurator = new EventEndpointConfigurator();
+		ServerEndpointConfig config = ServerEndpointConfig.Builder.create(EventEndpoint.class, "/wk-event")
+				.configurator(configurator).build();
+
+		// A handshake with the session cookie and another one without session
+		configurator.modifyHandshake(config, newHandshake(SessionManager.COOKIE_SID + "=" + guiSession.getSid()),
+				mock(HandshakeResponse.class));
+		EventEndpoint withSid = configurator.getEndpointInstance(EventEndpoint.class);
+		configurator.modifyHandshake(config, newHandshake(null), mock(HandshakeResponse.class));
+		EventEndpoint withoutSid = configurator.getEndpointInstance(EventEndpoint.class);
+
+		// Nothing is shared through the configuration
+		assertTrue(config.getUserProperties().isEmpty());
+
+		MockWebsocketSession socket1 = new MockWebsocketSession("socket1", null);
+		MockWebsocketSession socket2 = new MockWebsocketSession("socket2", null);
+		withSid.onOpen(socket1);
+		withoutSid.onOpen(socket2);
+		try {
+			assertTrue(socket1.isOpen());
+			assertFalse(socket2.isOpen());
+			assertEquals(2, EventHub.get().countPeers());
+		} finally {
+			withSid.onClose(socket1);
+			withoutSid.onClose(socket2);
+		}
+	}
+
+	@Test
+	public void testTenantFiltering() {
+		EventHub.get().distribute(newMessage(1L, null, "tenant1"));
+		assertEquals(1, websocketSession.getSentTexts().size());
+		websocketSession.completeSend();
+
+		EventHub.get().distribute(newMessage(2L, null, "tenant2"));
+		assertEquals(1, websocketSession.getSentTexts().size());
+	}
+
+	@Test
+	public void testPermissionFiltering() {
+		Session authorSession = SessionManager.get().newSession("author", "admin", null,
+				new Client("abc", "192.168.2.232", "ghost"));
+		MockWebsocketSession authorSocket = new MockWebsocketSession("author", authorSession.getSid());
+		endpoint.onOpen(authorSocket);
+		try {
+			// The author can read the folder 6
+			EventHub.get().distribute(newMessage(1L, 6L, "folder6"));
+			assertEquals(1, authorSocket.getSentTexts().size());
+			authorSocket.completeSend();
+
+			// But not the folder 1200
+			EventHub.get().distribute(newMessage(1L, 1200L, "folder1200"));
+			assertEquals(1, authorSocket.getSentTexts().size());
+
+			// The admin can read both
+			websocketSession.completeSend();
+			assertEquals(2, websocketSession.getSentTexts().size());
+		} finally {
+			endpoint.onClose(authorSocket);
+		}
+	}
+
+	@Test
+	public void testCommands() {
+		EventHub.get().distribute(newCommand("other-sid"));
+		assertTrue(websocketSession.getSentTexts().isEmpty());
+
+		EventHub.get().distribute(newCommand(guiSession.getSid()));
+		assertEquals(1, websocketSession.getSentTexts().size());
+	}
+
+	@Test
+	public void testClosedSession() {
+		SessionManager.get().kill(guiSession.getSid());
+
+		EventHub.get().distribute(newMessage(1L, null, "closed"));
+		assertTrue(websocketSession.getSentTexts().isEmpty());
+		assertFalse(websocketSession.isOpen());
+		assertEquals(0, EventHub.get().countPeers());
+	}
+
+	@Test
+	public void testDropOldest() {
+		ContextProperties config = Context.get().getProperties();
+		String capacity = config.getProperty("serverpush.queue");
+		config.setProperty("serverpush.queue", "2");
+		try {
+			// The first message is given to the container, the others wait
+			for (int i = 1; i <= 4; i++)
+				EventHub.get().distribute(newMessage(1L, null, "msg" + i));
+			assertEquals(1, websocketSession.getSentTexts().size());
+
+			// The message 2 was discarded to make room for the message 4
+			websocketSession.completeSend();
+			websocketSession.completeSend();
+			websocketSession.completeSend();
+
+			List<String> sent = websocketSession.getSentTexts();
+			assertEquals(3, sent.size());
+			assertTrue(sent.get(0).contains("msg1"));
+			assertTrue(sent.get(1).contains("msg3"));
+			assertTrue(sent.get(2).contains("msg4"));
+		} finally {
+			if (capacity != null)
+				config.setProperty("serverpush.queue", capacity);
+			else
+				config.remove("serverpush.queue");
+		}
+	}
+
+	private static HandshakeRequest newHandshake(String cookie) {
+		HandshakeRequest request = mock(HandshakeRequest.class);
+		when(request.getHeaders()).thenReturn(cookie != null ? Map.of("Cookie", List.of(cookie)) : Map.of());
+		return request;
+	}
+
+	private static WebsocketMessage newMessage(long tenantId, Long folderId, String comment) {
+		WebsocketMessage message = new WebsocketMessage(null, DocumentEvent.CHANGED.toString());
+		message.setTenantId(tenantId);
+		message.setFolderId(folderId);
+		message.setComment(comment);
+		return message;
+	}
+
+	private static WebsocketMessage newCommand(String sid) {
+		WebsocketMessage command = new WebsocketMessage(sid, "command");
+		command.setCommand("message");
+		command.setTenantId(1L);
+		command.setPayload("hello");
+		return command;
+	}
 }
\ No newline at end of file
@@ -4,6 +4,8 @@ import java.io.IOException;
 import java.net.URI;
 import java.nio.ByteBuffer;
 import java.security.Principal;
+import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
@@ -17,12 +19,50 @@ import javax.websocket.MessageHandler.Whole;
 import javax.websocket.RemoteEndpoint.Async;
 import javax.websocket.RemoteEndpoint.Basic;
 import javax.websocket.SendHandler;
+import javax.websocket.SendResult;
 import javax.websocket.Session;
 import javax.websocket.WebSocketContainer;
 
+import com.logicaldoc.core.security.SessionManager;
+
 public class MockWebsocketSession implements Session {
 
+	private final String id;
+
+	private final Map<String, Object> userProperties;
+
+	private boolean open = true;
+
+	// The texts given to the container
+	private final List<String> sentTexts = new ArrayList<>();
+
+	// The handler of the sending in progress
+	private SendHandler pendingHandler;
+
 	public MockWebsocketSession() {
+		this("xxx", null);
+	}
+
+	public MockWebsocketSession(String id, String sid) {
+		this.id = id;
+		this.userProperties = new HashMap<>();
+		if (sid != null)
+			userProperties.put(SessionManager.PARAM_SID, sid);
+	}
+
+	public List<String> getSentTexts() {
+		return sentTexts;
+	}
+
+	/**
+	 * Completes the sending in progress, like the container does when the
+	 * text has been transmitted
+	 */
+	public void completeSend() {
+		SendHandler handler = pendingHandler;
+		pendingHandler = null;
+		if (handler != null)
+			handler.onResult(new SendResult());
 	}
 
 	@Override
@@ -52,12 +92,12 @@ public class MockWebsocketSession implements Session {
 
 	@Override
 	public boolean isOpen() {
-		return false;
+		return open;
 	}
 
 	@Override
 	public Map<String, Object> getUserProperties() {
-		return null;
+		return userProperties;
 	}
 
 	@Override
@@ -127,7 +167,7 @@ public class MockWebsocketSession implements Session {
 
 	@Override
 	public String getId() {
-		return "xxx";
+		return id;
 	}
 
 	@Override
@@ -201,7 +241,8 @@ public class MockWebsocketSession implements Session {
 
 			@Override
 			public void sendText(String arg0, SendHandler arg1) {
-				// Nothing to do
+				sentTexts.add(arg0);
+				pendingHandler = arg1;
 			}
 
 			@Override
@@ -213,12 +254,12 @@ public class MockWebsocketSession implements Session {
 
 	@Override
 	public void close(CloseReason arg0) throws IOException {
-		// Do nothing
+		open = false;
 	}
 
 	@Override
 	public void close() throws IOException {
-		// Do nothing
+		open = false;
 	}
 
 	@Override
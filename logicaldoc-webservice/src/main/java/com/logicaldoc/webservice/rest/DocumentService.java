@@ -64,6 +64,29 @@ public interface DocumentService {
 	WSDocument document, @Multipart(value = "content", required = true, type = "application/octet-stream")
 	Attachment contentDetail);
 
+	/**
+	 * Creates a batch of new documents in the same folder. The request
+	 * contains the part <b>documents</b> with the JSON array of the documents'
+	 * metadata followed by one part <b>content</b> for each document, in the
+	 * same order.
+	 * 
+	 * @param documents JSON array of the documents' metadata
+	 * @param attachments all the parts of the request
+	 * 
+	 * @return the created documents
+	 */
+	@POST
+	@Path("/createBulk")
+	@Consumes(MediaType.MULTIPART_FORM_DATA)
+	@Produces(MediaType.APPLICATION_JSON)
+	@Operation(summary = "Creates a batch of new documents in the same folder")
+	@ApiResponses(value = {
+			@ApiResponse(responseCode = "200", description = "successful operation", content = @Content(schema = @Schema(implementation = WSDocument.class))),
+			@ApiResponse(responseCode = "401", description = "Authentication failed"),
+			@ApiResponse(responseCode = "500", description = "Generic error, see the response message") })
+	public List<WSDocument> createBulk(@Multipart(value = "documents", required = true, type = "application/json")
+	String documents, List<Attachment> attachments);
+
 	/**
 	 * Retrieves a document from the database
 	 * 
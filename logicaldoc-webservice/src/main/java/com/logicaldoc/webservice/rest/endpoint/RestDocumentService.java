@@ -2,6 +2,7 @@ package com.logicaldoc.webservice.rest.endpoint;
 
 import java.io.IOException;
 import java.util.List;
+import java.util.stream.Collectors;
 
 import javax.activation.DataHandler;
 import javax.mail.MessagingException;
@@ -24,6 +25,8 @@ import org.apache.cxf.jaxrs.ext.multipart.Multipart;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
 import com.google.common.base.Strings;
 import com.logicaldoc.core.PersistenceException;
 import com.logicaldoc.core.document.Document;
@@ -104,6 +107,36 @@ public class RestDocumentService extends SoapDocumentService implements Document
 		}
 	}
 
+	@Override
+	@POST
+	@Path("/createBulk")
+	@Consumes(MediaType.MULTIPART_FORM_DATA)
+	@Produces(MediaType.APPLICATION_JSON)
+	@Operation(summary = "Creates a batch of new documents in the same folder", description = "Creates a batch of new documents in the same folder. The part 'documents' contains the JSON array of the documents' metadata, then there is one part 'content' for each document in the same order. Returns the created documents")
+	public List<WSDocument> createBulk(@Multipart(value = "documents", required = true, type = "application/json")
+	String documents, List<Attachment> attachments) {
+		log.debug("createBulk()");
+
+		String sid = validateSessionREST();
+
+		try {
+			List<WSDocument> docs = new ObjectMapper().readValue(documents, new TypeReference<List<WSDocument>>() {
+				// Nothing to do
+			});
+
+			List<DataHandler> contents = attachments.stream()
+					.filter(a -> a.getContentDisposition() != null
+							&& "content".equals(a.getContentDisposition().getParameter("name")))
+					.map(Attachment::getDataHandler).collect(Collectors.toList());
+
+			return super.createBulk(sid, docs, contents);
+		} catch (AuthenticationException | PermissionException e) {
+			throw new WebApplicationException(e.getMessage(), 401);
+		} catch (Exception e) {
+			throw new WebApplicationException(e.getMessage(), 500);
+		}
+	}
+
 	public class CreateDocumentMultipartRequest {
 		@Schema(implementation = WSDocument.class, required = true, description = "The document metadata provided as WSDocument object encoded in JSON/XML format")
 		public WSDocument document;
@@ -62,6 +62,38 @@ public interface DocumentService {
 	DataHandler content)
 			throws IOException, AuthenticationException, PermissionException, WebserviceException, PersistenceException;
 
+	/**
+	 * Creates a batch of new documents in the same folder. This is much faster
+	 * than creating the documents one by one and it is intended for the mass
+	 * import of documents. A batch can contain at most
+	 * <code>webservice.bulk.max</code> documents.
+	 * 
+	 * @param sid identifier of the session
+	 * @param documents Web service value objects containing the documents'
+	 *        metadata, all of them must reference the same folder
+	 * @param contents The documents' binary contents, in the same order of the
+	 *        documents
+	 * 
+	 * @return The value objects of the created documents
+	 * 
+	 * @throws IOException I/O error
+	 * @throws PersistenceException Error in the database
+	 * @throws WebserviceException Error in the webservice
+	 * @throws AuthenticationException Invalid session
+	 * @throws PermissionException The user does not have the required
+	 *         permission
+	 */
+	@WebMethod(action = "createBulk")
+	@WebResult(name = "documents")
+	@WSDoc(description = "creates a batch of new documents in the same folder, each document is paired with the content in the same position; returns the created documents")
+	public List<WSDocument> createBulk(@WSDoc(description = "identifier of the session", required = true)
+	@WebParam(name = "sid")
+	String sid, @WebParam(name = "documents")
+	List<WSDocument> documents, @WSDoc(description = "the raw contents of the files")
+	@WebParam(name = "contents")
+	List<DataHandler> contents)
+			throws IOException, AuthenticationException, PermissionException, WebserviceException, PersistenceException;
+
 	/**
 	 * Deletes an existing document with the given identifier.
 	 * 
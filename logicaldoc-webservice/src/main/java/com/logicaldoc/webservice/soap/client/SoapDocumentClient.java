@@ -56,6 +56,13 @@ public class SoapDocumentClient extends SoapClient<DocumentService> implements D
 		return create(sid, document, new DataHandler(new FileDataSource(content)));
 	}
 
+	@Override
+	public List<WSDocument> createBulk(String sid, List<WSDocument> documents, List<DataHandler> contents)
+			throws AuthenticationException, PermissionException, IOException, WebserviceException,
+			PersistenceException {
+		return client.createBulk(sid, documents, contents);
+	}
+
 	@Override
 	public void checkout(String sid, long docId)
 			throws AuthenticationException, PermissionException, WebserviceException, PersistenceException {
@@ -1,5 +1,6 @@
 package com.logicaldoc.webservice.soap.endpoint;
 
+import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
 import java.util.ArrayList;
@@ -8,6 +9,7 @@ import java.util.Collections;
 import java.util.Date;
 import java.util.List;
 import java.util.Map;
+import java.util.Objects;
 import java.util.Set;
 import java.util.stream.Collectors;
 
@@ -101,18 +103,7 @@ public class SoapDocumentService extends AbstractService implements DocumentServ
 			throws AuthenticationException, WebserviceException, PersistenceException, PermissionException {
 		User user = validateSession(sid);
 
-		checkFolderPermission(Permission.WRITE, user, document.getFolderId());
-
-		FolderDAO fdao = Context.get(FolderDAO.class);
-		Folder folder = fdao.findById(document.getFolderId());
-
-		long rootId = fdao.findRoot(user.getTenantId()).getId();
-
-		if (folder == null) {
-			throw new WebserviceException(String.format("Folder %d not found", document.getFolderId()));
-		} else if (folder.getId() == rootId) {
-			throw new WebserviceException("Cannot add documents in the root");
-		}
+		checkTargetFolder(user, document.getFolderId());
 
 		Document doc = WSUtil.toDocument(document);
 		doc.setTenantId(user.getTenantId());
@@ -129,6 +120,78 @@ public class SoapDocumentService extends AbstractService implements DocumentServ
 		return WSUtil.toWSDocument(doc);
 	}
 
+	@Override
+	public List<WSDocument> createBulk(String sid, List<WSDocument> documents, List<DataHandler> contents)
+			throws IOException, AuthenticationException, PermissionException, WebserviceException,
+			PersistenceException {
+		User user = validateSession(sid);
+
+		if (documents == null || contents == null || documents.size() != contents.size())
+			throw new WebserviceException("Each document must be provided with its content");
+		if (documents.isEmpty())
+			return new ArrayList<>();
+
+		// Each content is spooled to a temporary file and all the records
+		// are written together, so the size of the batch must be limited
+		int maxBatch = Context.get().getProperties().getInt("webservice.bulk.max", 1000);
+		if (documents.size() > maxBatch)
+			throw new WebserviceException(String.format("A batch cannot contain more than %d documents", maxBatch));
+
+		Long folderId = documents.get(0).getFolderId();
+		if (documents.stream().anyMatch(d -> !Objects.equals(folderId, d.getFolderId())))
+			throw new WebserviceException("All the documents must be in the same folder");
+
+		checkTargetFolder(user, folderId);
+
+		// Create the document history event
+		DocumentHistory transaction = new DocumentHistory();
+		transaction.setSessionId(sid);
+		transaction.setEvent(DocumentEvent.STORED.toString());
+		transaction.setUser(user);
+
+		List<File> files = new ArrayList<>();
+		try {
+			List<Document> docs = new ArrayList<>();
+			for (int i = 0; i < documents.size(); i++) {
+				Document doc = WSUtil.toDocument(documents.get(i));
+				doc.setTenantId(user.getTenantId());
+				docs.add(doc);
+
+				File file = FileUtil.createTempFile("bulk", "");
+				files.add(file);
+				try (InputStream is = contents.get(i).getInputStream()) {
+					FileUtil.writeFile(is, file.getPath());
+				}
+			}
+
+			DocumentManager documentManager = Context.get(DocumentManager.class);
+			return documentManager.createBulk(files, docs, transaction).stream().map(WSUtil::toWSDocument)
+					.collect(Collectors.toList());
+		} finally {
+			for (File file : files)
+				FileUtil.delete(file);
+		}
+	}
+
+	/**
+	 * Checks that new documents can be added by the user in the given folder
+	 */
+	private void checkTargetFolder(User user, long folderId)
+			throws PersistenceException, PermissionException, WebserviceException {
+		checkFolderPermission(Permission.WRITE, user, folderId);
+
+		FolderDAO fdao = Context.get(FolderDAO.class);
+		Folder folder = fdao.findById(folderId);
+
+		long rootId = fdao.findRoot(user.getTenantId()).getId();
+
+		if (folder == null) {
+			throw new WebserviceException(String.format("Folder %d not found", folderId));
+		} else if (folder.getId() == rootId) {
+			throw new WebserviceException("Cannot add documents in the root");
+		}
+	}
+
 	public void checkinDocument(String sid, long docId, String comment, String filename, boolean release,
 			WSDocument docVO, InputStream content) throws AuthenticationException, PermissionException,
 			WebserviceException, PersistenceException, IOException {